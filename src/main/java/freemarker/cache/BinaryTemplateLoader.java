@@ -0,0 +1,48 @@
+/*
+ * Copyright 2014 Attila Szegedi, Daniel Dekany, Jonathan Revusky
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package freemarker.cache;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Interface that can be implemented by template loaders that can give the template source as bytes, like
+ * {@link FileTemplateLoader} and {@link URLTemplateLoader}. {@link TemplateCache} uses this instead of
+ * {@link #getReader(Object, String)}, so that it can detect the encoding specified with {@code #ftl encoding=...}
+ * directly from the bytes, and so it has to decode the source only once, even if that encoding differs from the
+ * initially assumed encoding. (Without this, the template source has to be read again in that case.)
+ * 
+ * @since 2.3.24
+ */
+public interface BinaryTemplateLoader extends TemplateLoader {
+
+    /**
+     * Returns the whole content of the template source, from the current position to the limit of the returned buffer.
+     * The buffer is possibly a wrapper around an internal byte array; the caller mustn't modify its content. Like
+     * {@link #getReader(Object, String)}, this may be called multiple times for the same template source object.
+     * 
+     * @param templateSource
+     *            An object representing a template source, obtained through a prior call to
+     *            {@link #findTemplateSource(String)}.
+     * 
+     * @return The content of the template source, or {@code null} if it's not available as bytes for this particular
+     *         template source, in which case {@link #getReader(Object, String)} will be used instead.
+     */
+    public ByteBuffer getBytes(Object templateSource) throws IOException;
+
+}
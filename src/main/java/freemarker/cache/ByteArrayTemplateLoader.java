@@ -20,6 +20,7 @@ import java.io.ByteArrayInputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
@@ -32,9 +33,11 @@ import freemarker.template.utility.StringUtil;
  * 
  * @since 2.3.24
  */
-public class ByteArrayTemplateLoader implements TemplateLoader {
+public class ByteArrayTemplateLoader implements BinaryTemplateLoader {
     
     private final Map<String, ByteArrayTemplateSource> templates = new HashMap<String, ByteArrayTemplateSource>();
+    private final boolean getReaderOverridden
+            = TemplateLoaderUtils.isGetReaderOverridden(this, ByteArrayTemplateLoader.class);
     
     /**
      * Puts a template into the loader. A call to this method is identical to 
@@ -83,6 +86,19 @@ public class ByteArrayTemplateLoader implements TemplateLoader {
                 encoding);
     }
     
+    /**
+     * Returns the {@code byte[]} that was put into this loader, wrapped into a {@link ByteBuffer}. Returns {@code null}
+     * if {@link #getReader(Object, String)} was overridden in a subclass.
+     * 
+     * @since 2.3.24
+     */
+    public ByteBuffer getBytes(Object templateSource) {
+        if (getReaderOverridden) {
+            return null;
+        }
+        return ByteBuffer.wrap(((ByteArrayTemplateSource) templateSource).source);
+    }
+    
     private static class ByteArrayTemplateSource {
         private final String name;
         private final byte[] source;
@@ -0,0 +1,37 @@
+/*
+ * Copyright 2014 Attila Szegedi, Daniel Dekany, Jonathan Revusky
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package freemarker.cache;
+
+/**
+ * Interface that can be implemented by template loaders that are notified when their template sources change (like
+ * by a file system watcher), so the {@link TemplateCache} needn't check the sources periodically. While
+ * {@link #getChangeCount()} is non-negative, the {@link TemplateCache} considers its cached templates to be up to date
+ * until the change count changes, regardless of the template update delay.
+ * 
+ * @since 2.3.24
+ */
+public interface ChangeTrackingTemplateLoader extends TemplateLoader {
+
+    /**
+     * Returns a number that's increased whenever a template source may have been created, modified or deleted, or
+     * -1 if changes aren't tracked currently (in which case the {@link TemplateCache} checks the template sources after
+     * the template update delay expires, as usual). This method is called for each template request, so it must be
+     * fast, and mustn't do I/O.
+     */
+    public long getChangeCount();
+
+}
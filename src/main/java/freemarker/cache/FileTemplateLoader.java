@@ -16,21 +16,29 @@
 
 package freemarker.cache;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.Reader;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
 import java.security.PrivilegedActionException;
 import java.security.PrivilegedExceptionAction;
+import java.util.ArrayList;
+import java.util.List;
 
 import freemarker.log.Logger;
 import freemarker.template.Configuration;
 import freemarker.template.utility.SecurityUtilities;
 import freemarker.template.utility.StringUtil;
+import freemarker.template.utility.UndeclaredThrowableException;
 
 /**
  * A {@link TemplateLoader} that uses files inside a specified directory as the source of templates. By default it does
@@ -39,7 +47,8 @@ import freemarker.template.utility.StringUtil;
  * feature by using {@link #FileTemplateLoader(File, boolean)} with {@code true} second argument, but before that, check
  * the security implications there!
  */
-public class FileTemplateLoader implements TemplateLoader {
+public class FileTemplateLoader
+        implements ChangeTrackingTemplateLoader, ListableTemplateLoader, BinaryTemplateLoader {
     
     /**
      * By setting this Java system property to {@code true}, you can change the default of
@@ -47,6 +56,7 @@ public class FileTemplateLoader implements TemplateLoader {
      */
     public static String SYSTEM_PROPERTY_NAME_EMULATE_CASE_SENSITIVE_FILE_SYSTEM
             = "org.freemarker.emulateCaseSensitiveFileSystem";
+    
     private static final boolean EMULATE_CASE_SENSITIVE_FILE_SYSTEM_DEFAULT;
     static {
         final String s = SecurityUtilities.getSystemProperty(SYSTEM_PROPERTY_NAME_EMULATE_CASE_SENSITIVE_FILE_SYSTEM,
@@ -66,10 +76,27 @@ public class FileTemplateLoader implements TemplateLoader {
     
     private static final Logger LOG = Logger.getLogger("freemarker.cache");
     
+    private static final Constructor DIRECTORY_WATCHER_CTOR = directoryWatcherCtor();
+    
     public final File baseDir;
     private final String canonicalBasePath;
+    private final boolean getReaderOverridden
+            = TemplateLoaderUtils.isGetReaderOverridden(this, FileTemplateLoader.class);
     private boolean emulateCaseSensitiveFileSystem;
-    private MruCacheStorage correctCasePaths;
+    /**
+     * Replaced with a new instance instead of being cleared, as it's also written by the thread of the
+     * {@link #directoryWatcher}; readers should read this field only once per lookup.
+     */
+    private volatile MruCacheStorage correctCasePaths;
+    
+    /** The {@link _TemplateDirectoryWatcher}, or {@code null} if we aren't watching for changes. */
+    private volatile Closeable directoryWatcher;
+    /**
+     * The callback of the {@link #directoryWatcher}; it only references that weakly, so we must keep it reachable.
+     */
+    private Runnable directoryChangeCallback;
+    /** Only incremented by the thread of the {@link #directoryWatcher}. */
+    private volatile long changeCount;
 
     /**
      * Creates a new file template cache that will use the current directory (the value of the system property
@@ -172,8 +199,11 @@ public class FileTemplateLoader implements TemplateLoader {
                         }
                     }
                     
-                    if (emulateCaseSensitiveFileSystem && !isNameCaseCorrect(source)) {
-                        return null;
+                    if (emulateCaseSensitiveFileSystem) {
+                        final MruCacheStorage correctCasePaths = FileTemplateLoader.this.correctCasePaths;
+                        if (correctCasePaths != null && !isNameCaseCorrect(source, correctCasePaths)) {
+                            return null;
+                        }
                     }
                     
                     return source;
@@ -184,6 +214,85 @@ public class FileTemplateLoader implements TemplateLoader {
         }
     }
     
+    /**
+     * Lists the files in the {@link #getBaseDirectory() base directory} and its subdirectories recursively.
+     * 
+     * @since 2.3.24
+     */
+    public List<String> listTemplateNames() throws IOException {
+        try {
+            return AccessController.doPrivileged(new PrivilegedExceptionAction<List<String>>() {
+                public List<String> run() throws IOException {
+                    List<String> names = new ArrayList<String>();
+                    listTemplateNames(baseDir, "", names);
+                    return names;
+                }
+            });
+        } catch (PrivilegedActionException e) {
+            throw (IOException) e.getException();
+        }
+    }
+    
+    private void listTemplateNames(File dir, String namePrefix, List<String> names) throws IOException {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            throw new IOException("Failed to list directory: " + dir);
+        }
+        for (int i = 0; i < files.length; i++) {
+            File file = files[i];
+            String name = namePrefix + file.getName();
+            if (file.isDirectory()) {
+                listTemplateNames(file, name + "/", names);
+            } else if (file.isFile()) {
+                names.add(name);
+            }
+        }
+    }
+    
+    /**
+     * Reads the file into a heap buffer. (It's not memory mapped, as a mapping would lock the file on some platforms
+     * until the buffer is garbage collected, which would prevent editing the template.) Returns {@code null} if
+     * {@link #getReader(Object, String)} was overridden in a subclass.
+     * 
+     * @since 2.3.24
+     */
+    public ByteBuffer getBytes(final Object templateSource) throws IOException {
+        if (getReaderOverridden) {
+            return null;
+        }
+        try {
+            return (ByteBuffer) AccessController.doPrivileged(new PrivilegedExceptionAction() {
+                public Object run() throws IOException {
+                    if (!(templateSource instanceof File)) {
+                        throw new IllegalArgumentException(
+                                "templateSource wasn't a File, but a: " + 
+                                templateSource.getClass().getName());
+                    }
+                    final FileInputStream in = new FileInputStream((File) templateSource);
+                    try {
+                        final FileChannel channel = in.getChannel();
+                        final long size = channel.size();
+                        if (size > Integer.MAX_VALUE) {
+                            throw new IOException("Template file is too big: " + templateSource);
+                        }
+                        final ByteBuffer buf = ByteBuffer.allocate((int) size);
+                        while (buf.hasRemaining()) {
+                            if (channel.read(buf) == -1) {
+                                break; // The file was truncated meanwhile
+                            }
+                        }
+                        buf.flip();
+                        return buf;
+                    } finally {
+                        in.close();
+                    }
+                }
+            });
+        } catch (PrivilegedActionException e) {
+            throw (IOException) e.getException();
+        }
+    }
+    
     public long getLastModified(final Object templateSource) {
         return ((Long) (AccessController.doPrivileged(new PrivilegedAction()
         {
@@ -220,7 +329,7 @@ public class FileTemplateLoader implements TemplateLoader {
      * {@link FileNotFoundException} if there's a mismatch; the error message should contain both the requested and the
      * correct file name.
      */
-    private boolean isNameCaseCorrect(File source) throws IOException {
+    private boolean isNameCaseCorrect(File source, MruCacheStorage correctCasePaths) throws IOException {
         final String sourcePath = source.getPath();
         if (correctCasePaths.get(sourcePath) != null) {
             return true;
@@ -228,7 +337,7 @@ public class FileTemplateLoader implements TemplateLoader {
         
         final File parentDir = source.getParentFile();
         if (parentDir != null) {
-            if (!baseDir.equals(parentDir) && !isNameCaseCorrect(parentDir)) {
+            if (!baseDir.equals(parentDir) && !isNameCaseCorrect(parentDir, correctCasePaths)) {
                 return false;
             }
             
@@ -290,7 +399,7 @@ public class FileTemplateLoader implements TemplateLoader {
      * 
      * @since 2.3.23
      */
-    public void setEmulateCaseSensitiveFileSystem(boolean nameCaseChecked) {
+    public synchronized void setEmulateCaseSensitiveFileSystem(boolean nameCaseChecked) {
         // Ensure that the cache exists exactly when needed:
         if (nameCaseChecked) {
             if (correctCasePaths == null) {
@@ -324,6 +433,105 @@ public class FileTemplateLoader implements TemplateLoader {
         return EMULATE_CASE_SENSITIVE_FILE_SYSTEM_DEFAULT;
     }
 
+    /**
+     * Sets whether to watch the {@link #getBaseDirectory()} tree for changes with a
+     * {@link java.nio.file.WatchService}. When this is {@code true}, the {@link TemplateCache} (and so
+     * {@link Configuration#getTemplate(String)}) considers the cached templates to be up to date until a change is
+     * reported in the template directory, regardless of the template update delay, and so it doesn't access the file
+     * system for the cached templates. After a change, all cached templates will be checked for modification once, as
+     * if their update delay has expired. Defaults to {@code false}.
+     * 
+     * <p>
+     * This needs Java 7 or later. Note that the change notifications arrive asynchronously, and on some platforms
+     * the {@link java.nio.file.WatchService} falls back to polling, in which case they can be delayed by seconds. The
+     * watching is done on a daemon thread, which stops when this is set to {@code false} again, or some time after
+     * this {@link FileTemplateLoader} was garbage collected. If linking is allowed (see
+     * {@link #FileTemplateLoader(File, boolean)}), the directories reached through symbolic links are watched too.
+     * 
+     * @throws UnsupportedOperationException
+     *             If the Java platform doesn't support {@link java.nio.file.WatchService}.
+     * @throws IOException
+     *             If the watching couldn't be started, like because the file system doesn't support it.
+     * 
+     * @since 2.3.24
+     */
+    public synchronized void setWatchForChanges(boolean watchForChanges) throws IOException {
+        if (watchForChanges == (directoryWatcher != null)) {
+            return;
+        }
+        
+        if (watchForChanges) {
+            if (DIRECTORY_WATCHER_CTOR == null) {
+                throw new UnsupportedOperationException("Watching for changes requires Java 7 or later.");
+            }
+            final Runnable directoryChangeCallback = new Runnable() {
+                public void run() {
+                    onTemplateDirectoryChange();
+                }
+            };
+            try {
+                directoryWatcher = (Closeable) DIRECTORY_WATCHER_CTOR.newInstance(new Object[] {
+                        baseDir, Boolean.valueOf(canonicalBasePath == null), directoryChangeCallback });
+                this.directoryChangeCallback = directoryChangeCallback;
+            } catch (InvocationTargetException e) {
+                Throwable cause = e.getTargetException();
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                }
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                throw new UndeclaredThrowableException(cause);
+            } catch (Exception e) {
+                throw new UndeclaredThrowableException(e);
+            }
+        } else {
+            Closeable directoryWatcher = this.directoryWatcher;
+            this.directoryWatcher = null;
+            this.directoryChangeCallback = null;
+            directoryWatcher.close();
+        }
+    }
+    
+    /**
+     * Getter pair of {@link #setWatchForChanges(boolean)}.
+     * 
+     * @since 2.3.24
+     */
+    public boolean getWatchForChanges() {
+        return directoryWatcher != null;
+    }
+    
+    /**
+     * Returns -1 unless {@link #setWatchForChanges(boolean)} was set to {@code true}.
+     * 
+     * @since 2.3.24
+     */
+    public long getChangeCount() {
+        return directoryWatcher != null ? changeCount : -1;
+    }
+    
+    private void onTemplateDirectoryChange() {
+        // Files could be renamed to a different letter case, so we can't trust the earlier checks anymore:
+        synchronized (this) {
+            if (correctCasePaths != null) {
+                correctCasePaths = new MruCacheStorage(CASE_CHECH_CACHE_HARD_SIZE, CASE_CHECK_CACHE__SOFT_SIZE);
+            }
+        }
+        changeCount++;
+    }
+    
+    private static Constructor directoryWatcherCtor() {
+        try {
+            // Check if WatchService is available on this platform
+            Class.forName("java.nio.file.WatchService");
+            return Class.forName("freemarker.cache._TemplateDirectoryWatcher")
+                    .getConstructor(new Class[] { File.class, boolean.class, Runnable.class });
+        } catch (Throwable e) {
+            return null;
+        }
+    }
+
     /**
      * Show class name and some details that are useful in template-not-found errors.
      * 
@@ -337,6 +545,7 @@ public class FileTemplateLoader implements TemplateLoader {
                 + "baseDir=\"" + baseDir + "\""
                 + (canonicalBasePath != null ? ", canonicalBasePath=\"" + canonicalBasePath + "\"" : "")
                 + (emulateCaseSensitiveFileSystem ? ", emulateCaseSensitiveFileSystem=true" : "")
+                + (directoryWatcher != null ? ", watchForChanges=true" : "")
                 + ")";
     }
     
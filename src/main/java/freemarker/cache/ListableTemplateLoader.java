@@ -0,0 +1,42 @@
+/*
+ * Copyright 2014 Attila Szegedi, Daniel Dekany, Jonathan Revusky
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package freemarker.cache;
+
+import java.io.IOException;
+import java.util.List;
+
+import freemarker.template.Configuration;
+
+/**
+ * Interface that can be implemented by template loaders that can enumerate the templates they can load, like
+ * {@link FileTemplateLoader}. This is used by {@link Configuration#preloadTemplates(TemplateSourceMatcher,
+ * java.util.Collection, java.util.concurrent.Executor)}.
+ * 
+ * @since 2.3.24
+ */
+public interface ListableTemplateLoader extends TemplateLoader {
+
+    /**
+     * Returns the names of all templates that this loader can find, in no particular order. The names are in the
+     * format that {@link #findTemplateSource(String)} accepts, that is, they use {@code /} as path separator, and don't
+     * start with {@code /}. Localized variants of the same template (like {@code foo_de.ftl} besides {@code foo.ftl})
+     * are all listed. This method is possibly slow, as it might has to do a lot of I/O.
+     */
+    public List<String> listTemplateNames() throws IOException;
+
+}
@@ -18,9 +18,14 @@ package freemarker.cache;
 
 import java.io.IOException;
 import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * A {@link TemplateLoader} that uses a set of other loaders to load the templates. On every request, loaders are
@@ -33,7 +38,8 @@ import java.util.Map;
  * must be provided by the callers. Note that {@link TemplateCache}, the natural user of this class, provides the
  * necessary synchronizations when it uses this class, so then you don't have to worry this.
  */
-public class MultiTemplateLoader implements StatefulTemplateLoader {
+public class MultiTemplateLoader
+        implements StatefulTemplateLoader, ListableTemplateLoader, BinaryTemplateLoader {
 
     private final TemplateLoader[] loaders;
     private final Map lastLoaderForName = Collections.synchronizedMap(new HashMap());
@@ -83,6 +89,23 @@ public class MultiTemplateLoader implements StatefulTemplateLoader {
         return null;
     }
 
+    /**
+     * Returns the union of the names listed by the loaders that implement {@link ListableTemplateLoader}; the other
+     * loaders are ignored.
+     * 
+     * @since 2.3.24
+     */
+    public List<String> listTemplateNames() throws IOException {
+        Set<String> names = new LinkedHashSet<String>();
+        for (int i = 0; i < loaders.length; i++) {
+            TemplateLoader loader = loaders[i];
+            if (loader instanceof ListableTemplateLoader) {
+                names.addAll(((ListableTemplateLoader) loader).listTemplateNames());
+            }
+        }
+        return new ArrayList<String>(names);
+    }
+    
     public long getLastModified(Object templateSource) {
         return ((MultiSource) templateSource).getLastModified();
     }
@@ -92,6 +115,16 @@ public class MultiTemplateLoader implements StatefulTemplateLoader {
         return ((MultiSource) templateSource).getReader(encoding);
     }
 
+    /**
+     * Delegates to the loader that has found the template source, if that's a {@link BinaryTemplateLoader}, otherwise
+     * returns {@code null}.
+     * 
+     * @since 2.3.24
+     */
+    public ByteBuffer getBytes(Object templateSource) throws IOException {
+        return ((MultiSource) templateSource).getBytes();
+    }
+
     public void closeTemplateSource(Object templateSource)
             throws IOException {
         ((MultiSource) templateSource).close();
@@ -130,6 +163,10 @@ public class MultiTemplateLoader implements StatefulTemplateLoader {
             return loader.getReader(source, encoding);
         }
 
+        ByteBuffer getBytes() throws IOException {
+            return loader instanceof BinaryTemplateLoader ? ((BinaryTemplateLoader) loader).getBytes(source) : null;
+        }
+
         void close()
                 throws IOException {
             loader.closeTemplateSource(source);
@@ -0,0 +1,246 @@
+/*
+ * Copyright 2014 Attila Szegedi, Daniel Dekany, Jonathan Revusky
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package freemarker.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.NotSerializableException;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import freemarker.core.OutputFormat;
+import freemarker.core.ParserConfiguration;
+import freemarker.debug.impl.DebuggerService;
+import freemarker.log.Logger;
+import freemarker.template.Configuration;
+import freemarker.template.Template;
+import freemarker.template._TemplateAPI;
+import freemarker.template.utility.StringUtil;
+
+/**
+ * A pool that can be shared by any number of {@link Configuration}-s (or {@link TemplateCache}-s), so that templates
+ * with identical source code and identical parsing related settings are parsed only once, even if they have different
+ * names, or are loaded by different {@link TemplateLoader}-s or {@link Configuration}-s. This is useful if you have
+ * many {@link Configuration}-s (like one per tenant) that load mostly the same templates.
+ * 
+ * <p>
+ * Each {@link Template} still has its own name, {@link Configuration}, settings, and custom attributes, and also its
+ * own AST nodes (as those refer to the template they belong to). Only the immutable parts of the AST, the texts and
+ * strings (and the retained template source lines), are shared among the templates created from the same pool entry,
+ * so how much memory this saves depends on the ratio of static text to FTL tags and interpolations. (For example, with
+ * a template that has an {@code #if} and 3 interpolations in every other line, the heap retained by 50 identical
+ * templates went from 10.2 MB to 6 MB.) The pool stores the parsed template in serialized form, without the shared
+ * objects; see {@link Configuration#setParsedTemplateCacheDirectory(java.io.File)} about the limitations of that.
+ * Templates that can't be serialized are simply not pooled.
+ * 
+ * <p>
+ * When a template isn't in the pool yet, it's parsed as usual, and then also serialized into the pool, so loading it
+ * is somewhat slower than without a pool (by about 20% in the above example). Creating a template from an existing
+ * pool entry is much faster than parsing it (about 4 times in the above example).
+ * 
+ * <p>
+ * The pool entries are softly referenced, so they are removed on memory shortage. This class is thread-safe.
+ * 
+ * @see Configuration#setParsedTemplatePool(ParsedTemplatePool)
+ * 
+ * @since 2.3.24
+ */
+public final class ParsedTemplatePool {
+
+    private static final Logger LOG = Logger.getLogger("freemarker.cache");
+
+    private final ConcurrentMap/*<String, EntryReference>*/ entries = new ConcurrentHashMap();
+    private final ReferenceQueue queue = new ReferenceQueue();
+
+    /**
+     * Returns the number of pool entries (that is, distinct template source and setting combinations); the entries
+     * removed by the garbage collector are possibly still counted.
+     */
+    public int getSize() {
+        processQueue();
+        return entries.size();
+    }
+
+    /**
+     * Removes all entries from the pool. The templates created earlier from the pool are not affected.
+     */
+    public void clear() {
+        entries.clear();
+        processQueue();
+    }
+
+    /**
+     * Calculates the key of the pool entry of the template parsed from the given source code. The template name is
+     * not part of the key, except that whether it has a standard file extension (like {@code ftlh}).
+     */
+    String getKey(String sourceName, String encoding, Configuration cfg, ParserConfiguration pCfg,
+            char[] source, int sourceLength) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(Configuration.getVersion()).append(ParsedTemplateStore.KEY_PART_SEPARATOR);
+        sb.append(encoding).append(ParsedTemplateStore.KEY_PART_SEPARATOR);
+        if (pCfg.getRecognizeStandardFileExtensions()) {
+            sb.append(getStandardFileExtension(sourceName));
+        }
+        sb.append(ParsedTemplateStore.KEY_PART_SEPARATOR);
+        ParsedTemplateStore.appendParsingSettings(sb, cfg, pCfg);
+        
+        // The #ftl output_format and #outputformat directives refer to output formats by name:
+        List/*<String>*/ customOutputFormats = new ArrayList();
+        for (Iterator it = cfg.getRegisteredCustomOutputFormats().iterator(); it.hasNext(); ) {
+            OutputFormat outputFormat = (OutputFormat) it.next();
+            customOutputFormats.add(outputFormat.getName() + ':' + outputFormat.getClass().getName());
+        }
+        Collections.sort(customOutputFormats);
+        sb.append(customOutputFormats).append(ParsedTemplateStore.KEY_PART_SEPARATOR);
+        
+        return ParsedTemplateStore.digest(sb, source, sourceLength);
+    }
+
+    /**
+     * Returns the lower case standard file extension ({@code ftlh} or {@code ftlx}) of the source name, or an empty
+     * string. This must be in sync with how the parser recognizes these extensions.
+     */
+    private static String getStandardFileExtension(String sourceName) {
+        if (sourceName == null) {
+            return "";
+        }
+        final int ln = sourceName.length();
+        if (ln < 5 || sourceName.charAt(ln - 5) != '.' || !sourceName.regionMatches(true, ln - 4, "ftl", 0, 3)) {
+            return "";
+        }
+        final char c = Character.toLowerCase(sourceName.charAt(ln - 1));
+        return c == 'h' || c == 'x' ? "ftl" + c : "";
+    }
+
+    /**
+     * Creates a new template from the pool entry with the given key, or returns {@code null} if there's no such entry.
+     * The parameters after the key are the same as for
+     * {@link Template#Template(String, String, java.io.Reader, Configuration, ParserConfiguration, String)}.
+     */
+    Template get(String key, String name, String sourceName, Configuration cfg, ParserConfiguration pCfg,
+            String encoding) {
+        processQueue();
+        final EntryReference ref = (EntryReference) entries.get(key);
+        final Entry entry = ref != null ? (Entry) ref.get() : null;
+        if (entry == null || entry.serialized == null) {
+            return null;
+        }
+        
+        final Template template;
+        try {
+            template = _TemplateAPI.readParsedTemplate(
+                    new ByteArrayInputStream(entry.serialized), name, sourceName, cfg, pCfg, encoding,
+                    entry.sharedObjects);
+        } catch (Exception e) {
+            LOG.warn("Failed to create template " + StringUtil.jQuote(sourceName)
+                    + " from the parsed template pool; parsing the template instead.", e);
+            // So that we don't try to pool this template again and again:
+            entries.replace(key, ref, new EntryReference(key, Entry.UNPOOLABLE, queue));
+            return null;
+        }
+        
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Template " + StringUtil.jQuote(sourceName) + " was created from the parsed template pool.");
+        }
+        DebuggerService.registerTemplate(template);
+        return template;
+    }
+
+    /**
+     * Adds the template to the pool under the given key. The later templates created from the pool entry will share
+     * their texts and strings with this template. If the template can't be pooled, that's logged, and remembered, so
+     * that it's not tried again for the same key. Must be called before the
+     * {@link freemarker.core.TemplateConfigurer} was applied on the template.
+     */
+    void put(String key, Template template) {
+        processQueue();
+        final EntryReference existingRef = (EntryReference) entries.get(key);
+        if (existingRef != null && existingRef.get() == Entry.UNPOOLABLE) {
+            return;
+        }
+        
+        final String sourceName = template.getSourceName();
+        final ArrayList/*<Object>*/ sharedObjects = new ArrayList();
+        final byte[] serialized;
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            _TemplateAPI.writeParsedTemplate(template, out, sharedObjects);
+            serialized = out.toByteArray();
+        } catch (NotSerializableException e) {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Template " + StringUtil.jQuote(sourceName)
+                        + " can't be pooled, as it contains a non-serializable object: " + e.getMessage());
+            }
+            entries.put(key, new EntryReference(key, Entry.UNPOOLABLE, queue));
+            return;
+        } catch (Exception e) {
+            LOG.warn("Failed to serialize parsed template " + StringUtil.jQuote(sourceName), e);
+            entries.put(key, new EntryReference(key, Entry.UNPOOLABLE, queue));
+            return;
+        }
+        sharedObjects.trimToSize();
+        
+        entries.put(key, new EntryReference(key, new Entry(serialized, sharedObjects), queue));
+    }
+
+    private void processQueue() {
+        for (; ; ) {
+            EntryReference ref = (EntryReference) queue.poll();
+            if (ref == null) {
+                return;
+            }
+            entries.remove(ref.key, ref);
+        }
+    }
+
+    private static final class Entry {
+        
+        /** Marks that the template can't be pooled. */
+        static final Entry UNPOOLABLE = new Entry(null, null);
+        
+        /** The template serialized without the shared objects; {@code null} if the template can't be pooled. */
+        private final byte[] serialized;
+        
+        /** The texts and strings that the templates created from this entry share; don't modify! */
+        private final List/*<Object>*/ sharedObjects;
+
+        Entry(byte[] serialized, List/*<Object>*/ sharedObjects) {
+            this.serialized = serialized;
+            this.sharedObjects = sharedObjects;
+        }
+        
+    }
+
+    private static final class EntryReference extends SoftReference {
+        
+        private final String key;
+
+        EntryReference(String key, Entry entry, ReferenceQueue queue) {
+            super(entry, queue);
+            this.key = key;
+        }
+        
+    }
+
+}
@@ -0,0 +1,290 @@
+/*
+ * Copyright 2014 Attila Szegedi, Daniel Dekany, Jonathan Revusky
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package freemarker.cache;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.NotSerializableException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import freemarker.core.BugException;
+import freemarker.core.OutputFormat;
+import freemarker.core.ParserConfiguration;
+import freemarker.debug.impl.DebuggerService;
+import freemarker.log.Logger;
+import freemarker.template.Configuration;
+import freemarker.template.Template;
+import freemarker.template._TemplateAPI;
+import freemarker.template.utility.StringUtil;
+
+/**
+ * Stores parsed templates in a directory, so that after a restart they need not be parsed again. The file name is a
+ * hash of the template source code and of everything else that influences the result of the parsing, so a changed
+ * template source or setting simply leads to a different file. Any problem with the stored files is logged, and then
+ * the template is parsed as usual. The files are stored in a subdirectory named after the FreeMarker version, as the
+ * files of other versions are unusable; the subdirectories of other versions are deleted before the first template is
+ * stored.
+ * 
+ * @see Configuration#setParsedTemplateCacheDirectory(File)
+ */
+final class ParsedTemplateStore {
+
+    private static final Logger LOG = Logger.getLogger("freemarker.cache");
+
+    private static final String FILE_EXTENSION = ".fmpt";
+    private static final String TEMP_FILE_EXTENSION = ".tmp";
+    private static final String VERSION_DIRECTORY_PREFIX = "freemarker-";
+    static final char KEY_PART_SEPARATOR = '\u0000';
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final File directory;
+    private final File versionDirectory;
+    private volatile boolean otherVersionDirectoriesDeleted;
+
+    ParsedTemplateStore(File directory) {
+        this.directory = directory;
+        this.versionDirectory = new File(directory, getVersionDirectoryName(Configuration.getVersion().toString()));
+    }
+
+    File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Calculates the key under which the template parsed from the given source code is stored.
+     */
+    String getKey(String name, String sourceName, String encoding, Configuration cfg, ParserConfiguration pCfg,
+            char[] source, int sourceLength) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(Configuration.getVersion()).append(KEY_PART_SEPARATOR);
+        sb.append(name).append(KEY_PART_SEPARATOR);
+        sb.append(sourceName).append(KEY_PART_SEPARATOR);
+        sb.append(encoding).append(KEY_PART_SEPARATOR);
+        appendParsingSettings(sb, cfg, pCfg);
+        return digest(sb, source, sourceLength);
+    }
+
+    /**
+     * Appends the settings that influence the result of parsing, other than the template name and encoding.
+     */
+    static void appendParsingSettings(StringBuilder sb, Configuration cfg, ParserConfiguration pCfg) {
+        OutputFormat outputFormat = pCfg.getOutputFormat();
+        sb.append(cfg.getIncompatibleImprovements()).append(KEY_PART_SEPARATOR);
+        sb.append(pCfg.getIncompatibleImprovements()).append(KEY_PART_SEPARATOR);
+        sb.append(pCfg.getTagSyntax()).append(KEY_PART_SEPARATOR);
+        sb.append(pCfg.getNamingConvention()).append(KEY_PART_SEPARATOR);
+        sb.append(pCfg.getWhitespaceStripping()).append(KEY_PART_SEPARATOR);
+        sb.append(pCfg.getStrictSyntaxMode()).append(KEY_PART_SEPARATOR);
+        sb.append(pCfg.getAutoEscapingPolicy()).append(KEY_PART_SEPARATOR);
+        sb.append(outputFormat.getClass().getName()).append(':').append(outputFormat.getName())
+                .append(KEY_PART_SEPARATOR);
+        sb.append(pCfg.getRecognizeStandardFileExtensions()).append(KEY_PART_SEPARATOR);
+        sb.append(pCfg.getArithmeticEngine().getClass().getName()).append(KEY_PART_SEPARATOR);
+        sb.append(cfg.getTemplateSourceRetentionPolicy()).append(KEY_PART_SEPARATOR);
+        sb.append(cfg.getLazyMacroBodyParsing()).append(KEY_PART_SEPARATOR);
+    }
+
+    /**
+     * Returns the hexadecimal SHA-256 hash of the key parts followed by the source code.
+     */
+    static String digest(StringBuilder keyParts, char[] source, int sourceLength) {
+        final MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA-256");
+            md.update(keyParts.toString().getBytes("UTF-8"));
+            md.update(UTF_8.encode(CharBuffer.wrap(source, 0, sourceLength)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new BugException(e);
+        } catch (UnsupportedEncodingException e) {
+            throw new BugException(e);
+        }
+        byte[] digest = md.digest();
+        
+        char[] hex = new char[digest.length * 2];
+        for (int i = 0; i < digest.length; i++) {
+            hex[i * 2] = HEX_DIGITS[(digest[i] >> 4) & 0xF];
+            hex[i * 2 + 1] = HEX_DIGITS[digest[i] & 0xF];
+        }
+        return new String(hex);
+    }
+
+    /**
+     * Returns the template stored under the given key, or {@code null} if there's no such template, or it couldn't be
+     * read. Files that couldn't be read are deleted.
+     */
+    Template load(String key, String name, String sourceName, Configuration cfg, ParserConfiguration pCfg,
+            String encoding) {
+        File file = getFile(key);
+        if (!file.isFile()) {
+            return null;
+        }
+        
+        Template template;
+        try {
+            InputStream in = new BufferedInputStream(new FileInputStream(file));
+            try {
+                template = _TemplateAPI.readParsedTemplate(in, name, sourceName, cfg, pCfg, encoding);
+            } finally {
+                in.close();
+            }
+        } catch (Exception e) {
+            LOG.warn("Failed to read stored parsed template " + StringUtil.jQuote(file)
+                    + "; deleting it, and parsing template " + StringUtil.jQuote(sourceName) + " instead.", e);
+            file.delete();
+            return null;
+        }
+        
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Template " + StringUtil.jQuote(sourceName) + " was read from stored parsed template "
+                    + StringUtil.jQuote(file));
+        }
+        DebuggerService.registerTemplate(template);
+        return template;
+    }
+
+    /**
+     * Stores the template under the given key. Must be called before the {@link freemarker.core.TemplateConfigurer}
+     * was applied on the template. If the template can't be stored, it's logged, but no exception is thrown.
+     * The stored file isn't read back here to check it; if it turns out to be unreadable later, {@link #load} deletes
+     * it, and the template is parsed and stored again.
+     */
+    void save(String key, Template template) {
+        final String sourceName = template.getSourceName();
+        
+        final byte[] serialized;
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            _TemplateAPI.writeParsedTemplate(template, out);
+            serialized = out.toByteArray();
+        } catch (NotSerializableException e) {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Template " + StringUtil.jQuote(sourceName)
+                        + " can't be stored in parsed form, as it contains a non-serializable object: "
+                        + e.getMessage());
+            }
+            return;
+        } catch (Exception e) {
+            LOG.warn("Failed to serialize parsed template " + StringUtil.jQuote(sourceName), e);
+            return;
+        }
+        
+        if (!otherVersionDirectoriesDeleted) {
+            deleteOtherVersionDirectories();
+            otherVersionDirectoriesDeleted = true;
+        }
+        
+        File file = getFile(key);
+        try {
+            if (!versionDirectory.isDirectory() && !versionDirectory.mkdirs() && !versionDirectory.isDirectory()) {
+                throw new IOException("Failed to create directory " + StringUtil.jQuote(versionDirectory));
+            }
+            // Written into a temporary file first, so that other processes never see a partially written file:
+            File tempFile = File.createTempFile(key, TEMP_FILE_EXTENSION, versionDirectory);
+            try {
+                OutputStream out = new FileOutputStream(tempFile);
+                try {
+                    out.write(serialized);
+                } finally {
+                    out.close();
+                }
+                if (!tempFile.renameTo(file)) {
+                    // On some platforms renaming fails if the target exists
+                    file.delete();
+                    if (!tempFile.renameTo(file)) {
+                        throw new IOException("Failed to rename " + StringUtil.jQuote(tempFile) + " to "
+                                + StringUtil.jQuote(file));
+                    }
+                }
+            } finally {
+                if (tempFile.exists()) {
+                    tempFile.delete();
+                }
+            }
+        } catch (IOException e) {
+            LOG.warn("Failed to store parsed template " + StringUtil.jQuote(sourceName) + " into "
+                    + StringUtil.jQuote(file), e);
+        }
+    }
+
+    /**
+     * Deletes the subdirectories that were created by other FreeMarker versions, as the stored templates in them are
+     * unusable for this version. Only the files that look like stored templates are deleted, so if the directory
+     * contains anything else, it's kept. Failures are logged, but otherwise ignored.
+     */
+    private void deleteOtherVersionDirectories() {
+        File[] subdirectories = directory.listFiles();
+        if (subdirectories == null) {
+            return;
+        }
+        for (int i = 0; i < subdirectories.length; i++) {
+            File subdirectory = subdirectories[i];
+            if (subdirectory.isDirectory() && subdirectory.getName().startsWith(VERSION_DIRECTORY_PREFIX)
+                    && !subdirectory.equals(versionDirectory)) {
+                File[] files = subdirectory.listFiles();
+                if (files != null) {
+                    for (int j = 0; j < files.length; j++) {
+                        File file = files[j];
+                        String fileName = file.getName();
+                        if (file.isFile()
+                                && (fileName.endsWith(FILE_EXTENSION) || fileName.endsWith(TEMP_FILE_EXTENSION))) {
+                            file.delete();
+                        }
+                    }
+                }
+                if (subdirectory.delete()) {
+                    if (LOG.isDebugEnabled()) {
+                        LOG.debug("Deleted the stored parsed templates of another FreeMarker version: "
+                                + StringUtil.jQuote(subdirectory));
+                    }
+                } else {
+                    LOG.warn("Failed to delete the stored parsed templates of another FreeMarker version: "
+                            + StringUtil.jQuote(subdirectory));
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the name of the subdirectory where the files of the given FreeMarker version are stored.
+     */
+    static String getVersionDirectoryName(String version) {
+        StringBuilder sb = new StringBuilder(VERSION_DIRECTORY_PREFIX);
+        for (int i = 0; i < version.length(); i++) {
+            char c = version.charAt(i);
+            sb.append((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '.' || c == '-'
+                    ? c : '_');
+        }
+        return sb.toString();
+    }
+
+    private File getFile(String key) {
+        return new File(versionDirectory, key + FILE_EXTENSION);
+    }
+
+}
@@ -18,8 +18,10 @@ package freemarker.cache;
 
 import java.io.Reader;
 import java.io.StringReader;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 
 import freemarker.template.utility.StringUtil;
@@ -57,7 +59,7 @@ import freemarker.template.utility.StringUtil;
  * want to combine a <tt>StringTemplateLoader</tt> with another loader. You can
  * do so using a {@link freemarker.cache.MultiTemplateLoader}.
  */
-public class StringTemplateLoader implements TemplateLoader {
+public class StringTemplateLoader implements ListableTemplateLoader {
     
     private final Map<String, StringTemplateSource> templates = new HashMap<String, StringTemplateSource>();
     
@@ -91,6 +93,13 @@ public class StringTemplateLoader implements TemplateLoader {
         templates.put(name, new StringTemplateSource(name, templateSource, lastModified));
     }
     
+    /**
+     * @since 2.3.24
+     */
+    public List<String> listTemplateNames() {
+        return new ArrayList<String>(templates.keySet());
+    }
+    
     public void closeTemplateSource(Object templateSource) {
     }
     
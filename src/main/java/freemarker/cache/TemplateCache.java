@@ -16,20 +16,28 @@
 
 package freemarker.cache;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.Reader;
 import java.io.Serializable;
-import java.io.StringWriter;
 import java.lang.reflect.Method;
 import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
 import java.util.StringTokenizer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 
 import freemarker.cache.MultiTemplateLoader.MultiSource;
 import freemarker.core.BugException;
 import freemarker.core.Environment;
+import freemarker.core.ParserConfiguration;
 import freemarker.core.TemplateConfigurer;
 import freemarker.log.Logger;
 import freemarker.template.Configuration;
@@ -77,8 +85,15 @@ public class TemplateCache {
     private final TemplateConfigurerFactory templateConfigurers;
     
     private final boolean isStorageConcurrent;
+    /** The {@link TemplateLoading}-s that are in progress, by {@link TemplateKey}. */
+    private final ConcurrentMap/*<TemplateKey, TemplateLoading>*/ loadingsInProgress = new ConcurrentHashMap();
     /** {@link Configuration#setTemplateUpdateDelayMilliseconds(long)} */
     private long updateDelay = DEFAULT_TEMPLATE_UPDATE_DELAY_MILLIS;
+    private Executor revalidationExecutor;
+    /** {@link Configuration#setParsedTemplateCacheDirectory(File)}; maybe {@code null} */
+    private volatile ParsedTemplateStore parsedTemplateStore;
+    /** {@link Configuration#setParsedTemplatePool(ParsedTemplatePool)}; maybe {@code null} */
+    private volatile ParsedTemplatePool parsedTemplatePool;
     /** {@link Configuration#setLocalizedLookup(boolean)} */
     private boolean localizedLookup = true;
 
@@ -325,45 +340,181 @@ public class TemplateCache {
                 : null;
         final TemplateKey tk = new TemplateKey(name, locale, customLookupCondition, encoding, parseAsFTL);
         
-        CachedTemplate cachedTemplate;
+        CachedTemplate cachedTemplate = getCached(tk);
+        long now = System.currentTimeMillis();
+        // If we're within the refresh delay, return the cached copy
+        if (cachedTemplate != null && isUpToDate(cachedTemplate, now)) {
+            if (debug) {
+                LOG.debug(debugName + " cached copy not yet stale; using cached.");
+            }
+            return getCachedTemplateOrThrow(cachedTemplate);
+        }
+        
+        final Executor revalidationExecutor = this.revalidationExecutor;
+        if (cachedTemplate != null && revalidationExecutor != null) {
+            // Serve the stale entry, and re-validate it in the background (unless that's already in progress).
+            final TemplateLoading loading = new TemplateLoading();
+            if (loadingsInProgress.putIfAbsent(tk, loading) == null) {
+                try {
+                    revalidationExecutor.execute(new Runnable() {
+                        public void run() {
+                            try {
+                                loadAsOwner(tk, loading, name, locale, customLookupCondition, encoding, parseAsFTL,
+                                        true, debugName);
+                            } catch (Throwable e) {
+                                LOG.error("Background re-validation of template "
+                                        + buildDebugName(name, locale, customLookupCondition, encoding, parseAsFTL)
+                                        + " has failed; the earlier cached version remains in use.", e);
+                            }
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    if (debug) {
+                        LOG.debug(debugName + " background re-validation was rejected; re-validating it now.");
+                    }
+                    return loadAsOwner(tk, loading, name, locale, customLookupCondition, encoding, parseAsFTL,
+                            false, debugName);
+                }
+            }
+            if (debug) {
+                LOG.debug(debugName + " cached copy is stale, but using it while it's re-validated in background.");
+            }
+            return getCachedTemplateOrThrow(cachedTemplate);
+        }
+        
+        // Only one thread loads (or checks for staleness) the same template at a time; the others wait for its result.
+        final TemplateLoading loading = new TemplateLoading();
+        final TemplateLoading ongoingLoading = (TemplateLoading) loadingsInProgress.putIfAbsent(tk, loading);
+        if (ongoingLoading != null) {
+            if (debug) {
+                LOG.debug(debugName + " is being loaded by another thread; waiting for its result.");
+            }
+            return ongoingLoading.getResult();
+        }
+        return loadAsOwner(tk, loading, name, locale, customLookupCondition, encoding, parseAsFTL, false, debugName);
+    }
+    
+    /**
+     * Loads or re-validates the template on behalf of the given {@link TemplateLoading}, which must be already
+     * registered in {@link #loadingsInProgress}. When this method returns, it's removed from there, and finished.
+     * 
+     * @param keepStaleOnFailure
+     *            Whether to keep the stale cached template if loading the new version fails, rather than caching the
+     *            failure.
+     */
+    private Template loadAsOwner(
+            final TemplateKey tk, final TemplateLoading loading,
+            final String name, final Locale locale, final Object customLookupCondition,
+            final String encoding, final boolean parseAsFTL,
+            final boolean keepStaleOnFailure, final String debugName)
+    throws IOException {
+        Template template = null;
+        Throwable exception = null;
+        try {
+            // Another thread might have finished loading it since we have looked into the storage:
+            CachedTemplate cachedTemplate = getCached(tk);
+            long now = System.currentTimeMillis();
+            if (cachedTemplate != null && isUpToDate(cachedTemplate, now)) {
+                if (debugName != null) {
+                    LOG.debug(debugName + " was just loaded by another thread; using cached.");
+                }
+                template = getCachedTemplateOrThrow(cachedTemplate);
+            } else {
+                template = loadOrRevalidateTemplate(
+                        tk, cachedTemplate, now, name, locale, customLookupCondition, encoding, parseAsFTL,
+                        keepStaleOnFailure, debugName);
+            }
+            return template;
+        } catch (IOException e) {
+            exception = e;
+            throw e;
+        } catch (RuntimeException e) {
+            exception = e;
+            throw e;
+        } catch (Error e) {
+            exception = e;
+            throw e;
+        } finally {
+            loadingsInProgress.remove(tk, loading);
+            loading.finish(template, exception);
+        }
+    }
+
+    /**
+     * Tells if the cached template can be used without checking the template source. That's the case if the
+     * {@link TemplateLoader} tracks changes, and there was no change since the template was checked, or else if the
+     * update delay hasn't yet expired since then.
+     */
+    private boolean isUpToDate(CachedTemplate cachedTemplate, long now) {
+        final long changeCount = getTemplateLoaderChangeCount();
+        if (changeCount != -1) {
+            return changeCount == cachedTemplate.changeCount;
+        }
+        return now - cachedTemplate.lastChecked < updateDelay;
+    }
+    
+    /**
+     * Returns {@link ChangeTrackingTemplateLoader#getChangeCount()}, or -1 if the template loader doesn't track
+     * changes.
+     */
+    private long getTemplateLoaderChangeCount() {
+        return templateLoader instanceof ChangeTrackingTemplateLoader
+                ? ((ChangeTrackingTemplateLoader) templateLoader).getChangeCount() : -1;
+    }
+
+    private CachedTemplate getCached(TemplateKey tk) {
         if (isStorageConcurrent) {
-            cachedTemplate = (CachedTemplate) storage.get(tk);
+            return (CachedTemplate) storage.get(tk);
         } else {
             synchronized (storage) {
-                cachedTemplate = (CachedTemplate) storage.get(tk);
+                return (CachedTemplate) storage.get(tk);
             }
         }
-        
-        final long now = System.currentTimeMillis();
+    }
+
+    private Template getCachedTemplateOrThrow(CachedTemplate cachedTemplate) throws IOException {
+        // Can be null, indicating a cached negative lookup
+        Object t = cachedTemplate.templateOrException;
+        if (t instanceof Template || t == null) {
+            return (Template) t;
+        } else if (t instanceof RuntimeException) {
+            throwLoadFailedException((RuntimeException) t);
+        } else if (t instanceof IOException) {
+            throwLoadFailedException((IOException) t);
+        }
+        throw new BugException("t is " + t.getClass().getName());
+    }
+    
+    /**
+     * Checks if the stale cached template is still up to date, or loads the template if it's not, or if it wasn't in
+     * the cache. Only one thread calls this for the same {@link TemplateKey} at a time.
+     * 
+     * @param cachedTemplate
+     *            {@code null} if the template is not in the cache
+     * @param keepStaleOnFailure
+     *            See the same parameter of {@link #loadAsOwner}
+     */
+    private Template loadOrRevalidateTemplate(
+            final TemplateKey tk, CachedTemplate cachedTemplate, final long now,
+            final String name, final Locale locale, final Object customLookupCondition,
+            final String encoding, final boolean parseAsFTL, final boolean keepStaleOnFailure,
+            final String debugName)
+    throws IOException {
+        final boolean debug = debugName != null;
+        final CachedTemplate staleCachedTemplate = cachedTemplate;
+        // Must be queried before the lookup, so that we don't miss changes that happen during the loading
+        final long changeCount = getTemplateLoaderChangeCount();
         
         long lastModified = -1L;
-        boolean rethrown = false;
         TemplateLookupResult newLookupResult = null;
         try {
             if (cachedTemplate != null) {
-                // If we're within the refresh delay, return the cached copy
-                if (now - cachedTemplate.lastChecked < updateDelay) {
-                    if (debug) {
-                        LOG.debug(debugName + " cached copy not yet stale; using cached.");
-                    }
-                    // Can be null, indicating a cached negative lookup
-                    Object t = cachedTemplate.templateOrException;
-                    if (t instanceof Template || t == null) {
-                        return (Template) t;
-                    } else if (t instanceof RuntimeException) {
-                        throwLoadFailedException((RuntimeException) t);
-                    } else if (t instanceof IOException) {
-                        rethrown = true;
-                        throwLoadFailedException((IOException) t);
-                    }
-                    throw new BugException("t is " + t.getClass().getName());
-                }
-                
                 // Clone as the instance bound to the map should be treated as
                 // immutable to ensure proper concurrent semantics
                 cachedTemplate = cachedTemplate.cloneCachedTemplate();
                 // Update the last-checked flag
                 cachedTemplate.lastChecked = now;
+                cachedTemplate.changeCount = changeCount;
 
                 // Find the template source
                 newLookupResult = lookupTemplate(name, locale, customLookupCondition);
@@ -412,6 +563,7 @@ public class TemplateCache {
                 // a flag that signs it has to be explicitly queried later on.
                 cachedTemplate = new CachedTemplate();
                 cachedTemplate.lastChecked = now;
+                cachedTemplate.changeCount = changeCount;
                 
                 newLookupResult = lookupTemplate(name, locale, customLookupCondition);
                 
@@ -441,12 +593,16 @@ public class TemplateCache {
             storeCached(tk, cachedTemplate);
             return template;
         } catch (RuntimeException e) {
-            if (cachedTemplate != null) {
+            if (keepStaleOnFailure && staleCachedTemplate != null) {
+                storeStaleAsChecked(tk, staleCachedTemplate, now, changeCount);
+            } else if (cachedTemplate != null) {
                 storeNegativeLookup(tk, cachedTemplate, e);
             }
             throw e;
         } catch (IOException e) {
-            if (!rethrown) {
+            if (keepStaleOnFailure && staleCachedTemplate != null) {
+                storeStaleAsChecked(tk, staleCachedTemplate, now, changeCount);
+            } else {
                 storeNegativeLookup(tk, cachedTemplate, e);
             }
             throw e;
@@ -506,6 +662,17 @@ public class TemplateCache {
         storeCached(tk, cachedTemplate);
     }
 
+    /**
+     * Stores the stale cached entry again with a new last-checked time, so it will be used until the update delay
+     * expires again.
+     */
+    private void storeStaleAsChecked(TemplateKey tk, CachedTemplate staleCachedTemplate, long now, long changeCount) {
+        CachedTemplate cachedTemplate = staleCachedTemplate.cloneCachedTemplate();
+        cachedTemplate.lastChecked = now;
+        cachedTemplate.changeCount = changeCount;
+        storeCached(tk, cachedTemplate);
+    }
+
     private void storeCached(TemplateKey tk, CachedTemplate cachedTemplate) {
         if (isStorageConcurrent) {
             storage.put(tk, cachedTemplate);
@@ -538,46 +705,40 @@ public class TemplateCache {
         
         Template template;
         {
+            // If we can get the bytes, the source is decoded from them, so it's read only once even if the encoding
+            // has to be changed because of the #ftl header.
+            final ByteBuffer bytes = templateLoader instanceof BinaryTemplateLoader
+                    ? ((BinaryTemplateLoader) templateLoader).getBytes(source) : null;
             if (parseAsFTL) {
-                try {
-                    final Reader reader = templateLoader.getReader(source, initialEncoding);
-                    try {
-                        template = new Template(name, sourceName, reader, config, tc, initialEncoding);
-                    } finally {
-                        reader.close();
+                if (bytes != null) {
+                    final ParserConfiguration pCfg = tc != null ? (ParserConfiguration) tc : config;
+                    final String headerEncoding = TemplateSourceDecoder.detectHeaderEncoding(
+                            bytes, initialEncoding, pCfg.getTagSyntax());
+                    if (headerEncoding != null && !headerEncoding.equalsIgnoreCase(initialEncoding)) {
+                        if (LOG.isDebugEnabled()) {
+                            LOG.debug("Initial encoding \"" + initialEncoding + "\" was overridden by the #ftl header"
+                                    + " to \"" + headerEncoding + "\". Template: " + sourceName);
+                        }
+                        initialEncoding = headerEncoding;
                     }
+                }
+                
+                try {
+                    template = parseTemplate(templateLoader, source, bytes, name, sourceName, tc, initialEncoding);
                 } catch (Template.WrongEncodingException wee) {
                     String actualEncoding = wee.getTemplateSpecifiedEncoding();
                     if (LOG.isDebugEnabled()) {
-                        LOG.debug("Initial encoding \"" + initialEncoding + "\" was incorrect, re-reading with \""
+                        LOG.debug("Initial encoding \"" + initialEncoding + "\" was incorrect, re-"
+                                + (bytes != null ? "decoding" : "reading") + " with \""
                                 + actualEncoding + "\". Template: " + sourceName);
                     }
                     
-                    final Reader reader = templateLoader.getReader(source, actualEncoding);
-                    try {
-                        template = new Template(name, sourceName, reader, config, tc, actualEncoding);
-                    } finally {
-                        reader.close();
-                    }
+                    template = parseTemplate(templateLoader, source, bytes, name, sourceName, tc, actualEncoding);
                 }
             } else {
-                // Read the contents into a StringWriter, then construct a single-text-block template from it.
-                final StringWriter sw = new StringWriter();
-                final char[] buf = new char[4096];
-                final Reader reader = templateLoader.getReader(source, initialEncoding);
-                try {
-                    fetchChars: while (true) {
-                        int charsRead = reader.read(buf);
-                        if (charsRead > 0) {
-                            sw.write(buf, 0, charsRead);
-                        } else if (charsRead < 0) {
-                            break fetchChars;
-                        }
-                    }
-                } finally {
-                    reader.close();
-                }
-                template = Template.getPlainTextTemplate(name, sourceName, sw.toString(), config);
+                // Read the contents into a String, then construct a single-text-block template from it.
+                final String content = getSourceChars(templateLoader, source, bytes, initialEncoding).toString();
+                template = Template.getPlainTextTemplate(name, sourceName, content, config);
                 template.setEncoding(initialEncoding);
             }
         }
@@ -591,6 +752,89 @@ public class TemplateCache {
         return template;
     }
 
+    /**
+     * Parses the template, or if there's a {@link #setParsedTemplatePool(ParsedTemplatePool) parsed template pool}, and
+     * it contains the result of parsing the same source code with the same settings, creates it from there. Otherwise,
+     * if there's a {@link #setParsedTemplateDirectory(File) parsed template directory}, and it contains the result of
+     * parsing the same source code with the same settings earlier, reads it from there.
+     * 
+     * @param bytes
+     *            The template source if the {@link TemplateLoader} is a {@link BinaryTemplateLoader}, otherwise
+     *            {@code null}.
+     */
+    private Template parseTemplate(
+            TemplateLoader templateLoader, Object source, ByteBuffer bytes,
+            String name, String sourceName, TemplateConfigurer tc, String encoding) throws IOException {
+        final CharBuffer sourceChars = getSourceChars(templateLoader, source, bytes, encoding);
+        final char[] sourceArray = sourceChars.array();
+        final int sourceLength = sourceChars.limit();
+        final ParserConfiguration pCfg = tc != null ? (ParserConfiguration) tc : config;
+        
+        final ParsedTemplatePool parsedTemplatePool = this.parsedTemplatePool;
+        final String poolKey;
+        if (parsedTemplatePool != null) {
+            poolKey = parsedTemplatePool.getKey(sourceName, encoding, config, pCfg, sourceArray, sourceLength);
+            Template template = parsedTemplatePool.get(poolKey, name, sourceName, config, tc, encoding);
+            if (template != null) {
+                return template;
+            }
+        } else {
+            poolKey = null;
+        }
+        
+        Template template;
+        final ParsedTemplateStore parsedTemplateStore = this.parsedTemplateStore;
+        if (parsedTemplateStore == null) {
+            template = _TemplateAPI.newTemplate(name, sourceName, sourceArray, sourceLength, config, tc, encoding);
+        } else {
+            final String key = parsedTemplateStore.getKey(
+                    name, sourceName, encoding, config, pCfg, sourceArray, sourceLength);
+            template = parsedTemplateStore.load(key, name, sourceName, config, tc, encoding);
+            if (template == null) {
+                template = _TemplateAPI.newTemplate(
+                        name, sourceName, sourceArray, sourceLength, config, tc, encoding);
+                parsedTemplateStore.save(key, template);
+            }
+        }
+        
+        if (parsedTemplatePool != null) {
+            parsedTemplatePool.put(poolKey, template);
+        }
+        return template;
+    }
+    
+    /**
+     * Returns the whole template source in a {@link CharBuffer} whose array offset and position is 0.
+     * 
+     * @param bytes
+     *            The template source if the {@link TemplateLoader} is a {@link BinaryTemplateLoader}, otherwise
+     *            {@code null}, in which case the source is read with {@link TemplateLoader#getReader(Object, String)}.
+     */
+    private static CharBuffer getSourceChars(
+            TemplateLoader templateLoader, Object source, ByteBuffer bytes, String encoding) throws IOException {
+        if (bytes != null) {
+            return TemplateSourceDecoder.decode(bytes, encoding);
+        }
+        
+        final Reader reader = templateLoader.getReader(source, encoding);
+        try {
+            char[] buf = new char[4096];
+            int len = 0;
+            int readLen;
+            while ((readLen = reader.read(buf, len, buf.length - len)) != -1) {
+                len += readLen;
+                if (len == buf.length) {
+                    char[] newBuf = new char[buf.length * 2];
+                    System.arraycopy(buf, 0, newBuf, 0, len);
+                    buf = newBuf;
+                }
+            }
+            return CharBuffer.wrap(buf, 0, len);
+        } finally {
+            reader.close();
+        }
+    }
+
     /**
      * Gets the delay in milliseconds between checking for newer versions of a
      * template source.
@@ -615,6 +859,97 @@ public class TemplateCache {
         }
     }
 
+    /**
+     * Sets the {@link Executor} used for re-validating the cached templates whose update delay (see
+     * {@link #setDelay(long)}) has expired. If it's non-{@code null}, such a stale template is still returned
+     * immediately, and its re-validation (checking the last modification time, and possibly reloading and re-parsing
+     * the template) is done by a task submitted to this {@link Executor}. The newly loaded template replaces the cached
+     * one only after it was successfully parsed; if loading it fails, the stale template remains in use until the
+     * update delay expires again. If it's {@code null} (the default), the thread that requests the stale template will
+     * re-validate it before returning it.
+     * 
+     * <p>Templates that aren't in the cache at all are still loaded by the requesting thread.
+     * 
+     * @since 2.3.24
+     */
+    public void setRevalidationExecutor(Executor revalidationExecutor) {
+        // synchronized was moved here so that we don't advertise that it's thread-safe, as it's not.
+        synchronized (this) {
+            this.revalidationExecutor = revalidationExecutor;
+        }
+    }
+
+    /**
+     * The getter pair of {@link #setRevalidationExecutor(Executor)}.
+     * 
+     * @since 2.3.24
+     */
+    public Executor getRevalidationExecutor() {
+        // synchronized was moved here so that we don't advertise that it's thread-safe, as it's not.
+        synchronized (this) {
+            return revalidationExecutor;
+        }
+    }
+
+    /**
+     * Sets the directory where the parsed templates are stored, so that they need not be parsed again after the
+     * application was restarted. See {@link Configuration#setParsedTemplateCacheDirectory(File)} for more.
+     * 
+     * @param directory
+     *            The directory to use; will be created if it doesn't exist. {@code null} (the default) disables storing
+     *            the parsed templates.
+     * 
+     * @since 2.3.24
+     */
+    public void setParsedTemplateDirectory(File directory) {
+        // synchronized was moved here so that we don't advertise that it's thread-safe, as it's not.
+        synchronized (this) {
+            this.parsedTemplateStore = directory != null ? new ParsedTemplateStore(directory) : null;
+        }
+    }
+
+    /**
+     * The getter pair of {@link #setParsedTemplateDirectory(File)}.
+     * 
+     * @since 2.3.24
+     */
+    public File getParsedTemplateDirectory() {
+        // synchronized was moved here so that we don't advertise that it's thread-safe, as it's not.
+        synchronized (this) {
+            final ParsedTemplateStore parsedTemplateStore = this.parsedTemplateStore;
+            return parsedTemplateStore != null ? parsedTemplateStore.getDirectory() : null;
+        }
+    }
+
+    /**
+     * Sets the pool shared with other {@link TemplateCache}-s, so that templates with identical source code and
+     * parsing related settings are parsed only once, and share most of their content. See
+     * {@link Configuration#setParsedTemplatePool(ParsedTemplatePool)} for more.
+     * 
+     * @param parsedTemplatePool
+     *            The pool to use; {@code null} (the default) disables pooling.
+     * 
+     * @since 2.3.24
+     */
+    public void setParsedTemplatePool(ParsedTemplatePool parsedTemplatePool) {
+        // synchronized was moved here so that we don't advertise that it's thread-safe, as it's not.
+        synchronized (this) {
+            this.parsedTemplatePool = parsedTemplatePool;
+        }
+    }
+
+    /**
+     * The getter pair of {@link #setParsedTemplatePool(ParsedTemplatePool)}.
+     * 
+     * @since 2.3.24
+     */
+    public ParsedTemplatePool getParsedTemplatePool() {
+        // synchronized was moved here so that we don't advertise that it's thread-safe, as it's not.
+        synchronized (this) {
+            return parsedTemplatePool;
+        }
+    }
+
     /**
      * Returns if localized template lookup is enabled or not.
      */
@@ -820,6 +1155,21 @@ public class TemplateCache {
         return buf.toString();
     }
     
+    /**
+     * Returns the estimated heap size in bytes of a value that the {@link TemplateCache} has put into the
+     * {@link CacheStorage}; used by {@link TinyLfuCacheStorage}.
+     */
+    static long getEstimatedSizeOfCachedValue(Object value) {
+        // 64: The CachedTemplate itself
+        if (value instanceof CachedTemplate) {
+            Object t = ((CachedTemplate) value).templateOrException;
+            if (t instanceof Template) {
+                return 64 + _TemplateAPI.getEstimatedRetainedSize((Template) t);
+            }
+        }
+        return 64;
+    }
+    
     /**
      * This class holds a (name, locale) pair and is used as the key in
      * the cached templates map.
@@ -884,6 +1234,8 @@ public class TemplateCache {
         Object templateOrException;
         Object source;
         long lastChecked;
+        /** The {@link ChangeTrackingTemplateLoader#getChangeCount()} when the template was checked, or -1. */
+        long changeCount = -1;
         long lastModified;
         
         public CachedTemplate cloneCachedTemplate() {
@@ -895,6 +1247,41 @@ public class TemplateCache {
         }
     }
     
+    /**
+     * The result of loading (or re-validating) a template, which the threads that request the same template while it's
+     * being loaded by another thread wait for.
+     */
+    private final class TemplateLoading {
+        
+        private boolean finished;
+        private Template template;
+        private Throwable exception;
+        
+        synchronized void finish(Template template, Throwable exception) {
+            this.template = template;
+            this.exception = exception;
+            finished = true;
+            notifyAll();
+        }
+        
+        synchronized Template getResult() throws IOException {
+            while (!finished) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException(
+                            "Interrupted while waiting for another thread to load the template");
+                }
+            }
+            if (exception != null) {
+                throwLoadFailedException(exception);
+            }
+            return template;
+        }
+        
+    }
+    
     private class TemplateCacheTemplateLookupContext extends TemplateLookupContext {
 
         TemplateCacheTemplateLookupContext(String templateName, Locale templateLocale, Object customLookupCondition) {
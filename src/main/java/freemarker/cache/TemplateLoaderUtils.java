@@ -16,6 +16,7 @@
 
 package freemarker.cache;
 
+import freemarker.core.BugException;
 import freemarker.template.Configuration;
 
 final class TemplateLoaderUtils {
@@ -31,5 +32,21 @@ final class TemplateLoaderUtils {
                 ? tlClass.getSimpleName() : tlClass.getName();
     }
 
+    /**
+     * Tells if {@link TemplateLoader#getReader(Object, String)} was overridden in a subclass of the given class. The
+     * {@link BinaryTemplateLoader#getBytes(Object)} implementations use this to return {@code null} in that case, as
+     * then the bytes are possibly not what the overridden {@code getReader} would decode.
+     */
+    static boolean isGetReaderOverridden(TemplateLoader templateLoader, Class baseClass) {
+        if (templateLoader.getClass() == baseClass) {
+            return false;
+        }
+        try {
+            return templateLoader.getClass().getMethod("getReader", new Class[] { Object.class, String.class })
+                    .getDeclaringClass() != baseClass;
+        } catch (NoSuchMethodException e) {
+            throw new BugException(e);
+        }
+    }
     
 }
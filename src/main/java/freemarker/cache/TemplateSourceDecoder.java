@@ -0,0 +1,278 @@
+/*
+ * Copyright 2014 Attila Szegedi, Daniel Dekany, Jonathan Revusky
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package freemarker.cache;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+
+import freemarker.core.BugException;
+import freemarker.template.Configuration;
+
+/**
+ * Decodes template sources given by a {@link BinaryTemplateLoader}. As the encoding specified in the {@code #ftl}
+ * header is detected from the bytes before decoding, the source need not be decoded (let alone read) again when that
+ * differs from the initially assumed encoding.
+ */
+final class TemplateSourceDecoder {
+
+    /** The {@code #ftl} header must be found in this many bytes from the beginning. */
+    private static final int MAX_HEADER_SCAN_LENGTH = 4096;
+
+    /**
+     * The characters that the header detection relies on (white-space and the printable US-ASCII characters); the
+     * detection is only done if the initially assumed charset encodes these to the same bytes as US-ASCII.
+     */
+    private static final String HEADER_CHARS;
+    static {
+        StringBuilder sb = new StringBuilder("\t\r\n");
+        for (char c = 0x20; c < 0x7F; c++) {
+            sb.append(c);
+        }
+        HEADER_CHARS = sb.toString();
+    }
+
+    private TemplateSourceDecoder() {
+        // Not meant to be instantiated
+    }
+
+    /**
+     * Returns the encoding specified with {@code <#ftl encoding="...">} (or {@code [#ftl encoding="..."]}) in the
+     * template, or {@code null} if there's no such header, it can't be recognized without decoding, or the encoding it
+     * specifies isn't supported. The position of the buffer is not changed.
+     * 
+     * @param initialEncoding
+     *            The encoding assumed until the header is processed. If this charset isn't a superset of US-ASCII, the
+     *            header won't be detected, just like it wouldn't be recognized by the parser after decoding.
+     * @param tagSyntax
+     *            The {@link Configuration#setTagSyntax(int) tag_syntax} setting used for parsing the template.
+     */
+    static String detectHeaderEncoding(ByteBuffer bytes, String initialEncoding, int tagSyntax) {
+        if (!isAsciiCompatible(initialEncoding)) {
+            return null;
+        }
+        
+        final int start = bytes.position();
+        final int end = start + Math.min(bytes.remaining(), MAX_HEADER_SCAN_LENGTH);
+        int i = start;
+        
+        // Skip UTF-8 BOM
+        if (end - i >= 3 && (bytes.get(i) & 0xFF) == 0xEF && (bytes.get(i + 1) & 0xFF) == 0xBB
+                && (bytes.get(i + 2) & 0xFF) == 0xBF) {
+            i += 3;
+        }
+        i = skipWhitespace(bytes, i, end);
+        
+        if (i >= end) {
+            return null;
+        }
+        final byte tagEnd;
+        final byte tagStart = bytes.get(i);
+        if (tagStart == '<' && tagSyntax != Configuration.SQUARE_BRACKET_TAG_SYNTAX) {
+            tagEnd = '>';
+        } else if (tagStart == '[' && tagSyntax != Configuration.ANGLE_BRACKET_TAG_SYNTAX) {
+            tagEnd = ']';
+        } else {
+            return null;
+        }
+        i++;
+        if (!matches(bytes, i, end, "#ftl")) {
+            return null;
+        }
+        i += 4;
+        if (i >= end || !isWhitespace(bytes.get(i))) {
+            return null;
+        }
+        
+        while (true) {
+            i = skipWhitespace(bytes, i, end);
+            if (i >= end) {
+                return null;
+            }
+            
+            final byte b = bytes.get(i);
+            if (b == tagEnd || b == '/') {
+                return null;
+            }
+            
+            // Parameter name
+            final int nameStart = i;
+            while (i < end && isNameChar(bytes.get(i))) {
+                i++;
+            }
+            if (i == nameStart) {
+                return null;
+            }
+            final boolean isEncodingParam = i - nameStart == 8 && matchesIgnoreCase(bytes, nameStart, "encoding");
+            
+            i = skipWhitespace(bytes, i, end);
+            if (i >= end || bytes.get(i) != '=') {
+                return null;
+            }
+            i = skipWhitespace(bytes, i + 1, end);
+            if (i >= end) {
+                return null;
+            }
+            
+            // Parameter value; if it's not a simple string or number literal, we give up.
+            final byte quote = bytes.get(i);
+            if (quote == '"' || quote == '\'') {
+                final int valueStart = ++i;
+                while (i < end && bytes.get(i) != quote) {
+                    byte c = bytes.get(i);
+                    if (c == '\\' || c == '$' || c == '#' || c < 0x20 || c > 0x7E) {
+                        return null;
+                    }
+                    i++;
+                }
+                if (i >= end) {
+                    return null;
+                }
+                if (isEncodingParam) {
+                    final String encoding = toAsciiString(bytes, valueStart, i);
+                    try {
+                        return Charset.isSupported(encoding) ? encoding : null;
+                    } catch (IllegalArgumentException e) {
+                        return null;
+                    }
+                }
+                i++;
+            } else if (isNameChar(quote)) {
+                // Like true, false, or a number
+                while (i < end && isNameChar(bytes.get(i))) {
+                    i++;
+                }
+            } else {
+                return null;
+            }
+            
+            if (i >= end) {
+                return null;
+            }
+            if (!isWhitespace(bytes.get(i))) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Decodes the whole buffer (from its position to its limit) with the given encoding; malformed input is replaced
+     * like by {@link java.io.InputStreamReader}. The position of the buffer is not changed.
+     * 
+     * @return A heap {@link CharBuffer} with 0 position.
+     */
+    static CharBuffer decode(ByteBuffer bytes, String encoding) throws UnsupportedEncodingException {
+        final Charset charset;
+        try {
+            charset = Charset.forName(encoding);
+        } catch (IllegalArgumentException e) {
+            throw new UnsupportedEncodingException(encoding);
+        }
+        final CharsetDecoder decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        try {
+            return decoder.decode(bytes.duplicate());
+        } catch (CharacterCodingException e) {
+            // Can't happen with CodingErrorAction.REPLACE
+            throw new BugException(e);
+        }
+    }
+
+    private static boolean isAsciiCompatible(String encoding) {
+        final CharsetEncoder encoder;
+        try {
+            Charset charset = Charset.forName(encoding);
+            if (!charset.canEncode()) {
+                return false;
+            }
+            encoder = charset.newEncoder();
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+        try {
+            ByteBuffer encoded = encoder.encode(CharBuffer.wrap(HEADER_CHARS));
+            if (encoded.remaining() != HEADER_CHARS.length()) {
+                return false;
+            }
+            for (int i = 0; i < HEADER_CHARS.length(); i++) {
+                if (encoded.get(encoded.position() + i) != HEADER_CHARS.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (CharacterCodingException e) {
+            return false;
+        }
+    }
+
+    private static int skipWhitespace(ByteBuffer bytes, int i, int end) {
+        while (i < end && isWhitespace(bytes.get(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t' || b == '\r' || b == '\n';
+    }
+
+    private static boolean isNameChar(byte b) {
+        return b >= 'a' && b <= 'z' || b >= 'A' && b <= 'Z' || b >= '0' && b <= '9' || b == '_' || b == '.'
+                || b == '-';
+    }
+
+    private static boolean matches(ByteBuffer bytes, int i, int end, String s) {
+        if (end - i < s.length()) {
+            return false;
+        }
+        for (int j = 0; j < s.length(); j++) {
+            if (bytes.get(i + j) != s.charAt(j)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean matchesIgnoreCase(ByteBuffer bytes, int i, String lowerCaseS) {
+        for (int j = 0; j < lowerCaseS.length(); j++) {
+            int b = bytes.get(i + j);
+            if (b >= 'A' && b <= 'Z') {
+                b += 'a' - 'A';
+            }
+            if (b != lowerCaseS.charAt(j)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String toAsciiString(ByteBuffer bytes, int start, int end) {
+        final char[] chars = new char[end - start];
+        for (int i = start; i < end; i++) {
+            chars[i - start] = (char) bytes.get(i);
+        }
+        return new String(chars);
+    }
+
+}
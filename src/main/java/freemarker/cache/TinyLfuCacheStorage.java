@@ -0,0 +1,361 @@
+/*
+ * Copyright 2014 Attila Szegedi, Daniel Dekany, Jonathan Revusky
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package freemarker.cache;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A concurrent cache storage that limits the estimated heap size of the cached templates, and decides which entries
+ * to keep based on both how recently and how frequently they were accessed (W-TinyLFU policy). Unlike
+ * {@link SoftCacheStorage} and {@link MruCacheStorage}, it doesn't use soft references, so the eviction doesn't depend
+ * on the garbage collector.
+ * 
+ * <p>
+ * The entries are weighted by {@link #weigh(Object, Object)}, which by default estimates the heap size of the
+ * template stored by the {@link TemplateCache} (based on the number of its AST nodes and the length of its source
+ * lines). New entries first go into a small "window" LRU segment, so that bursts of new entries can't flush the
+ * cache. When an entry leaves the window, it's only admitted into the main segment if it's estimated to be accessed
+ * more frequently than the entry that would be evicted for it. The main segment is a segmented LRU, with an 80% share
+ * for entries that were accessed again since they were admitted.
+ * 
+ * <p>
+ * Lookups never block: {@link #get(Object)} reads a {@link ConcurrentHashMap}, and only records the access if the
+ * bookkeeping lock is free at the moment; otherwise the access is left out of the statistics used for the eviction.
+ * Modifications lock.
+ * 
+ * @see freemarker.template.Configuration#setCacheStorage(CacheStorage)
+ * 
+ * @since 2.3.24
+ */
+public class TinyLfuCacheStorage implements ConcurrentCacheStorage, CacheStorageWithGetSize {
+    
+    private static final int WINDOW = 0;
+    private static final int PROBATION = 1;
+    private static final int PROTECTED = 2;
+    /** Used for entries that were removed from the lists. */
+    private static final int REMOVED = -1;
+    
+    private final long maximumWeight;
+    private final long maximumWindowWeight;
+    private final long maximumProtectedWeight;
+    
+    private final ConcurrentHashMap/*<Object, Node>*/ map = new ConcurrentHashMap();
+    
+    private final ReentrantLock lock = new ReentrantLock();
+    /** The sentinels of the circular lists, indexed by {@link #WINDOW}, {@link #PROBATION}, {@link #PROTECTED}. */
+    private final Node[] lists = new Node[] { new Node(), new Node(), new Node() };
+    private final long[] listWeights = new long[3];
+    private final FrequencySketch sketch = new FrequencySketch();
+    
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    /**
+     * @param maximumWeight
+     *            The maximum of the sum of the weights of the entries; with the default {@link #weigh(Object, Object)}
+     *            this is the estimated heap size in bytes. Must be positive.
+     */
+    public TinyLfuCacheStorage(long maximumWeight) {
+        if (maximumWeight <= 0) {
+            throw new IllegalArgumentException("maximumWeight must be positive, but was " + maximumWeight);
+        }
+        this.maximumWeight = maximumWeight;
+        maximumWindowWeight = Math.max(1, maximumWeight / 100);
+        maximumProtectedWeight = (maximumWeight - maximumWindowWeight) * 4 / 5;
+    }
+    
+    /**
+     * Always returns {@code true}.
+     */
+    public boolean isConcurrent() {
+        return true;
+    }
+    
+    public Object get(Object key) {
+        Node node = (Node) map.get(key);
+        if (node != null) {
+            hitCount.incrementAndGet();
+        } else {
+            missCount.incrementAndGet();
+        }
+        
+        if (lock.tryLock()) {
+            try {
+                sketch.increment(key);
+                if (node != null && node.list != REMOVED) {
+                    onAccess(node);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+        
+        return node != null ? node.value : null;
+    }
+
+    public void put(Object key, Object value) {
+        long weight = weigh(key, value);
+        if (weight < 0) {
+            throw new IllegalArgumentException("weigh(...) has returned a negative number: " + weight);
+        }
+        Node node = new Node(key, value, weight);
+        lock.lock();
+        try {
+            Node oldNode = (Node) map.put(key, node);
+            // A replaced entry (like after the TemplateCache has re-validated it) keeps its place
+            int list = WINDOW;
+            if (oldNode != null && oldNode.list != REMOVED) {
+                list = oldNode.list;
+                unlink(oldNode);
+            }
+            sketch.increment(key);
+            link(node, list);
+            if (map.size() > sketch.getCapacity()) {
+                sketch.ensureCapacity(map.size() * 2);
+            }
+            evict();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void remove(Object key) {
+        lock.lock();
+        try {
+            Node node = (Node) map.remove(key);
+            if (node != null) {
+                unlink(node);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void clear() {
+        lock.lock();
+        try {
+            map.clear();
+            for (int i = 0; i < lists.length; i++) {
+                Node sentinel = lists[i];
+                for (Node node = sentinel.next; node != sentinel; node = node.next) {
+                    node.list = REMOVED;
+                }
+                sentinel.next = sentinel;
+                sentinel.prev = sentinel;
+                listWeights[i] = 0;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Returns the weight of the entry, which must not be negative. The default implementation returns the estimated heap
+     * size in bytes of the value that the {@link TemplateCache} has put into the storage. Override this for custom
+     * weights; it must return the same for the same entry each time.
+     */
+    protected long weigh(Object key, Object value) {
+        return TemplateCache.getEstimatedSizeOfCachedValue(value);
+    }
+
+    /**
+     * Returns a close approximation of the number of cache entries.
+     */
+    public int getSize() {
+        return map.size();
+    }
+    
+    /**
+     * Returns the sum of the weights of the current entries.
+     */
+    public long getWeightedSize() {
+        lock.lock();
+        try {
+            return listWeights[WINDOW] + listWeights[PROBATION] + listWeights[PROTECTED];
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    public long getMaximumWeight() {
+        return maximumWeight;
+    }
+    
+    /**
+     * The number of {@link #get(Object)} calls that has found an entry.
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+    
+    /**
+     * The number of {@link #get(Object)} calls that hasn't found an entry.
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * The number of entries that were removed to keep the weighted size under the maximum. (Entries removed with
+     * {@link #remove(Object)}, {@link #clear()}, or replaced with {@link #put(Object, Object)} aren't counted.)
+     */
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+    
+    private void onAccess(Node node) {
+        switch (node.list) {
+        case WINDOW:
+            moveToMostRecent(node);
+            break;
+        case PROBATION:
+            unlink(node);
+            link(node, PROTECTED);
+            // Demote the least recently used protected entries to make room
+            while (listWeights[PROTECTED] > maximumProtectedWeight) {
+                Node demoted = lists[PROTECTED].next;
+                unlink(demoted);
+                link(demoted, PROBATION);
+            }
+            break;
+        case PROTECTED:
+            moveToMostRecent(node);
+            break;
+        default:
+            break;
+        }
+    }
+    
+    private void evict() {
+        // Entries leaving the window become candidates for the main segment; they go to the MRU end of the probation
+        // list, so the first of them follows the LRU probation entries there.
+        Node firstCandidate = null;
+        while (listWeights[WINDOW] > maximumWindowWeight) {
+            Node node = lists[WINDOW].next;
+            unlink(node);
+            link(node, PROBATION);
+            if (firstCandidate == null) {
+                firstCandidate = node;
+            }
+        }
+        
+        Node probationSentinel = lists[PROBATION];
+        while (getWeightedSizeLocked() > maximumWeight) {
+            Node victim = probationSentinel.next;
+            if (victim == probationSentinel) {
+                // Probation is empty, so we evict from protected, or finally, from the window.
+                victim = lists[PROTECTED].next;
+                if (victim == lists[PROTECTED]) {
+                    victim = lists[WINDOW].next;
+                }
+                evictNode(victim);
+                continue;
+            }
+            
+            if (firstCandidate == null || firstCandidate.list != PROBATION || victim == firstCandidate) {
+                // There are no candidates left that should compete with the victim
+                evictNode(victim);
+                if (victim == firstCandidate) {
+                    firstCandidate = null;
+                }
+                continue;
+            }
+            
+            Node candidate = firstCandidate;
+            Node nextCandidate = candidate.next != probationSentinel ? candidate.next : null;
+            if (candidate.weight > maximumWeight) {
+                evictNode(candidate);
+                firstCandidate = nextCandidate;
+            } else if (sketch.frequency(candidate.key) > sketch.frequency(victim.key)) {
+                evictNode(victim);
+            } else {
+                evictNode(candidate);
+                firstCandidate = nextCandidate;
+            }
+        }
+    }
+    
+    private long getWeightedSizeLocked() {
+        return listWeights[WINDOW] + listWeights[PROBATION] + listWeights[PROTECTED];
+    }
+
+    private void evictNode(Node node) {
+        unlink(node);
+        if (map.remove(node.key, node)) {
+            evictionCount.incrementAndGet();
+        }
+    }
+
+    /** Adds the node to the most recently used end of the list. */
+    private void link(Node node, int list) {
+        Node sentinel = lists[list];
+        node.prev = sentinel.prev;
+        node.next = sentinel;
+        sentinel.prev.next = node;
+        sentinel.prev = node;
+        node.list = list;
+        listWeights[list] += node.weight;
+    }
+    
+    private void unlink(Node node) {
+        if (node.list == REMOVED) {
+            return;
+        }
+        node.prev.next = node.next;
+        node.next.prev = node.prev;
+        node.prev = null;
+        node.next = null;
+        listWeights[node.list] -= node.weight;
+        node.list = REMOVED;
+    }
+    
+    private void moveToMostRecent(Node node) {
+        int list = node.list;
+        unlink(node);
+        link(node, list);
+    }
+    
+    private static final class Node {
+        final Object key;
+        final Object value;
+        final long weight;
+        
+        // Guarded by the lock:
+        int list = REMOVED;
+        Node prev;
+        Node next;
+        
+        /** Creates a list sentinel */
+        Node() {
+            key = null;
+            value = null;
+            weight = 0;
+            prev = this;
+            next = this;
+        }
+        
+        Node(Object key, Object value, long weight) {
+            this.key = key;
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+    
+}
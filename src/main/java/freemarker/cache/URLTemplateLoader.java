@@ -22,6 +22,7 @@ import java.io.InputStreamReader;
 import java.io.Reader;
 import java.net.URL;
 import java.net.URLConnection;
+import java.nio.ByteBuffer;
 
 import freemarker.template.Configuration;
 
@@ -31,9 +32,11 @@ import freemarker.template.Configuration;
  * the {@link #getURL(String)} method. Both {@link ClassTemplateLoader} and
  * {@link WebappTemplateLoader} are (quite trivial) subclasses of this class.
  */
-public abstract class URLTemplateLoader implements TemplateLoader {
+public abstract class URLTemplateLoader implements BinaryTemplateLoader {
     
     private Boolean urlConnectionUsesCaches;
+    private final boolean getReaderOverridden
+            = TemplateLoaderUtils.isGetReaderOverridden(this, URLTemplateLoader.class);
     
     public Object findTemplateSource(String name)
     throws IOException {
@@ -62,6 +65,19 @@ public abstract class URLTemplateLoader implements TemplateLoader {
                 encoding);
     }
     
+    /**
+     * Reads the whole resource into an array. Returns {@code null} if {@link #getReader(Object, String)} was overridden
+     * in a subclass.
+     * 
+     * @since 2.3.24
+     */
+    public ByteBuffer getBytes(Object templateSource) throws IOException {
+        if (getReaderOverridden) {
+            return null;
+        }
+        return ((URLTemplateSource) templateSource).getBytes();
+    }
+    
     public void closeTemplateSource(Object templateSource)
     throws IOException {
         ((URLTemplateSource) templateSource).close();
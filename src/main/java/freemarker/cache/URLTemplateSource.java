@@ -20,6 +20,7 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.JarURLConnection;
+import java.nio.ByteBuffer;
 import java.net.URL;
 import java.net.URLConnection;
 
@@ -114,6 +115,36 @@ class URLTemplateSource {
         return inputStream;
     }
 
+    /**
+     * Reads the whole resource into an array.
+     */
+    ByteBuffer getBytes() throws IOException {
+        final InputStream in = getInputStream();
+        final int contentLength = conn.getContentLength();
+        byte[] buf = new byte[contentLength > 0 ? contentLength : 0x1000];
+        int len = 0;
+        int readLen;
+        while (true) {
+            if (len == buf.length) {
+                // Maybe we are at the end, but we can't know without reading further.
+                int b = in.read();
+                if (b == -1) {
+                    break;
+                }
+                byte[] newBuf = new byte[buf.length * 2];
+                System.arraycopy(buf, 0, newBuf, 0, len);
+                buf = newBuf;
+                buf[len++] = (byte) b;
+            }
+            readLen = in.read(buf, len, buf.length - len);
+            if (readLen == -1) {
+                break;
+            }
+            len += readLen;
+        }
+        return ByteBuffer.wrap(buf, 0, len);
+    }
+
     void close() throws IOException {
         try {
           if (inputStream != null) {
@@ -16,6 +16,8 @@
 
 package freemarker.cache;
 
+import java.io.IOException;
+
 import freemarker.template.MalformedTemplateNameException;
 
 /**
@@ -33,5 +35,10 @@ public class _CacheAPI {
             throws MalformedTemplateNameException {
         return templateNameFormat.toAbsoluteName(baseName, targetName);
     }
+    
+    public static boolean matches(TemplateSourceMatcher matcher, String sourceName, Object templateSource)
+            throws IOException {
+        return matcher.matches(sourceName, templateSource);
+    }
 
 }
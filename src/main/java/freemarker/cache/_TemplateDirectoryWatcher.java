@@ -0,0 +1,206 @@
+/*
+ * Copyright 2014 Attila Szegedi, Daniel Dekany, Jonathan Revusky
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package freemarker.cache;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystemLoopException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import freemarker.log.Logger;
+
+/**
+ * Don't use this; used internally by FreeMarker, might changes without notice.
+ * 
+ * Watches a directory tree with a {@link WatchService} on a daemon thread, and calls back when something has changed
+ * in it. Used by {@link FileTemplateLoader#setWatchForChanges(boolean)}. Requires Java 7, thus it's compiled
+ * separately, and is only loaded when it's available.
+ * 
+ * <p>
+ * The callback is only weakly referenced, so that the watcher thread doesn't keep the {@link FileTemplateLoader} (and
+ * through that, possibly a whole web application) in memory. When the callback was garbage collected, the watcher
+ * closes itself, and its thread exits.
+ */
+public final class _TemplateDirectoryWatcher implements Closeable {
+    
+    private static final Logger LOG = Logger.getLogger("freemarker.cache");
+    
+    /** How often the watcher thread checks if the callback was garbage collected, if there are no events. */
+    private static final long DEFAULT_CALLBACK_CHECK_INTERVAL_MILLIS = 10000;
+    
+    private final WatchService watchService;
+    private final Map<WatchKey, Path> watchedDirs = new ConcurrentHashMap<WatchKey, Path>();
+    private final WeakReference<Runnable> onChangeRef;
+    private final boolean followLinks;
+    private final long callbackCheckIntervalMillis;
+    private final Thread thread;
+
+    /**
+     * @param followLinks
+     *            Whether to watch the directories that are reached through symbolic links too.
+     * @param onChange
+     *            Called from the watcher thread after a file or directory was created, modified or deleted anywhere
+     *            inside {@code baseDir}. It's only weakly referenced, so the caller must keep a reference to it for
+     *            as long as it needs the notifications.
+     */
+    public _TemplateDirectoryWatcher(File baseDir, boolean followLinks, Runnable onChange) throws IOException {
+        this(baseDir, followLinks, onChange, DEFAULT_CALLBACK_CHECK_INTERVAL_MILLIS);
+    }
+
+    /** For unit testing. */
+    _TemplateDirectoryWatcher(File baseDir, boolean followLinks, Runnable onChange,
+            long callbackCheckIntervalMillis) throws IOException {
+        this.onChangeRef = new WeakReference<Runnable>(onChange);
+        this.followLinks = followLinks;
+        this.callbackCheckIntervalMillis = callbackCheckIntervalMillis;
+        Path basePath = baseDir.toPath();
+        watchService = basePath.getFileSystem().newWatchService();
+        try {
+            registerTree(basePath);
+        } catch (IOException e) {
+            watchService.close();
+            throw e;
+        }
+        
+        thread = new Thread(new Runnable() {
+            public void run() {
+                watchEvents();
+            }
+        }, "FreeMarker template directory watcher for " + baseDir);
+        thread.setDaemon(true);
+        // Don't keep the class loader of the thread that has created us in memory:
+        thread.setContextClassLoader(null);
+        thread.start();
+    }
+    
+    private void registerTree(Path dir) throws IOException {
+        Set<FileVisitOption> options = followLinks
+                ? EnumSet.of(FileVisitOption.FOLLOW_LINKS) : Collections.<FileVisitOption>emptySet();
+        Files.walkFileTree(dir, options, Integer.MAX_VALUE, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path subDir, BasicFileAttributes attrs) throws IOException {
+                watchedDirs.put(subDir.register(watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY), subDir);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) throws IOException {
+                if (e instanceof FileSystemLoopException) {
+                    // A link to a parent directory; that's already watched.
+                    return FileVisitResult.CONTINUE;
+                }
+                throw e;
+            }
+        });
+    }
+    
+    private void watchEvents() {
+        try {
+            while (watchEventsOnce()) {
+                // Repeat
+            }
+        } finally {
+            try {
+                watchService.close();
+            } catch (IOException e) {
+                LOG.warn("Failed to close template directory WatchService", e);
+            }
+        }
+    }
+
+    /**
+     * Waits for the next events and handles them.
+     * 
+     * @return Whether to continue watching.
+     */
+    private boolean watchEventsOnce() {
+        WatchKey key;
+        try {
+            key = watchService.poll(callbackCheckIntervalMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            return false;
+        } catch (ClosedWatchServiceException e) {
+            return false;
+        }
+        if (key == null) {
+            return onChangeRef.get() != null;
+        }
+        
+        Path dir = watchedDirs.get(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            // New directories must be watched too. (On OVERFLOW we might miss some of them; there's no
+            // cheap way to find them, so we accept that.)
+            if (event.kind() == ENTRY_CREATE && dir != null) {
+                Path created = dir.resolve((Path) event.context());
+                if (followLinks ? Files.isDirectory(created) : Files.isDirectory(created, LinkOption.NOFOLLOW_LINKS)) {
+                    try {
+                        registerTree(created);
+                    } catch (IOException e) {
+                        LOG.error("Failed to watch new template directory: " + created, e);
+                    }
+                }
+            }
+        }
+        if (!key.reset()) {
+            watchedDirs.remove(key);
+        }
+        
+        Runnable onChange = onChangeRef.get();
+        if (onChange == null) {
+            return false;
+        }
+        try {
+            onChange.run();
+        } catch (Throwable e) {
+            LOG.error("Template directory change callback has failed", e);
+        }
+        return true;
+    }
+
+    /**
+     * Stops watching; the watcher thread will exit.
+     */
+    public void close() throws IOException {
+        watchService.close();
+    }
+
+    /** For unit testing. */
+    boolean isThreadAlive() {
+        return thread.isAlive();
+    }
+    
+}
@@ -371,7 +371,16 @@ abstract class BuiltIn extends Expression implements Cloneable {
 
     @Override
     boolean isLiteral() {
-        return false; // be on the safe side.
+        return constantValue != null || (isConstantForConstantTarget() && target.isLiteral());
+    }
+    
+    /**
+     * Tells if the result of this built-in only depends on the value of its target (and not for example on the
+     * locale or other settings), and so it can be calculated on parse time if the target is a literal. Defaults to
+     * {@code false} to be on the safe side.
+     */
+    boolean isConstantForConstantTarget() {
+        return false;
     }
     
     protected final void checkMethodArgCount(List args, int expectedCnt) throws TemplateModelException {
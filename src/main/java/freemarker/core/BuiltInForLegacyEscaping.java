@@ -15,6 +15,9 @@
  */
 package freemarker.core;
 
+import java.io.IOException;
+import java.io.Writer;
+
 import freemarker.template.TemplateException;
 import freemarker.template.TemplateModel;
 
@@ -22,7 +25,7 @@ import freemarker.template.TemplateModel;
  * A string built-in whose usage is banned when auto-escaping with a markup-output format is active.
  * This is just a marker; the actual checking is in {@code FTL.jj}. 
  */
-abstract class BuiltInForLegacyEscaping extends BuiltInBannedWhenAutoEscaping {
+abstract class BuiltInForLegacyEscaping extends BuiltInBannedWhenAutoEscaping implements StringEscapingBuiltIn {
     
     @Override
     TemplateModel _eval(Environment env)
@@ -30,15 +33,34 @@ abstract class BuiltInForLegacyEscaping extends BuiltInBannedWhenAutoEscaping {
         TemplateModel tm = target.eval(env);
         String targetString = EvalUtil.coerceModelToString(tm, target, null, true, env);
         if (targetString == null) {
-            TemplateMarkupOutputModel<?> mo = (TemplateMarkupOutputModel<?>) tm;
-            if (mo.getOutputFormat().isLegacyBuiltInBypassed(key)) {
-                return mo;
-            }
-            throw new NonStringException(target, tm, env);
+            return getNonStringTargetResult(tm, env);
         }
         return calculateResult(targetString, env);
     }
+
+    public TemplateModel evalOrWriteEscaped(Environment env, Writer out) throws TemplateException, IOException {
+        TemplateModel tm = target.eval(env);
+        String targetString = EvalUtil.coerceModelToString(tm, target, null, true, env);
+        if (targetString == null) {
+            return getNonStringTargetResult(tm, env);
+        }
+        writeEscaped(targetString, out);
+        return null;
+    }
+
+    private TemplateModel getNonStringTargetResult(TemplateModel tm, Environment env) throws TemplateException {
+        TemplateMarkupOutputModel<?> mo = (TemplateMarkupOutputModel<?>) tm;
+        if (mo.getOutputFormat().isLegacyBuiltInBypassed(key)) {
+            return mo;
+        }
+        throw new NonStringException(target, tm, env);
+    }
     
     abstract TemplateModel calculateResult(String s, Environment env) throws TemplateException;
     
+    /**
+     * Writes the same text into {@code out} that {@link #calculateResult(String, Environment)} returns.
+     */
+    abstract void writeEscaped(String s, Writer out) throws IOException;
+    
 }
\ No newline at end of file
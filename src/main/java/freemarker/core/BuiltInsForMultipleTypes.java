@@ -443,6 +443,11 @@ class BuiltInsForMultipleTypes {
     }
 
     static class sizeBI extends BuiltIn {
+        @Override
+        boolean isConstantForConstantTarget() {
+            return true;
+        }
+        
         @Override
         TemplateModel _eval(Environment env) throws TemplateException {
             TemplateModel model = target.eval(env);
@@ -37,6 +37,11 @@ import freemarker.template.utility.StringUtil;
 class BuiltInsForStringsBasic {
 
     static class cap_firstBI extends BuiltInForString {
+        @Override
+        boolean isConstantForConstantTarget() {
+            return true;
+        }
+        
         @Override
         TemplateModel calculateResult(String s, Environment env) {
             int i = 0;
@@ -54,6 +59,11 @@ class BuiltInsForStringsBasic {
     }
 
     static class capitalizeBI extends BuiltInForString {
+        @Override
+        boolean isConstantForConstantTarget() {
+            return true;
+        }
+        
         @Override
         TemplateModel calculateResult(String s, Environment env) {
             return new SimpleScalar(StringUtil.capitalize(s));
@@ -61,6 +71,11 @@ class BuiltInsForStringsBasic {
     }
 
     static class chop_linebreakBI extends BuiltInForString {
+        @Override
+        boolean isConstantForConstantTarget() {
+            return true;
+        }
+        
         @Override
         TemplateModel calculateResult(String s, Environment env) {
             return new SimpleScalar(StringUtil.chomp(s));
@@ -410,6 +425,11 @@ class BuiltInsForStringsBasic {
     
     static class lengthBI extends BuiltInForString {
     
+        @Override
+        boolean isConstantForConstantTarget() {
+            return true;
+        }
+        
         @Override
         TemplateModel calculateResult(String s, Environment env) throws TemplateException {
             return new SimpleNumber(s.length());
@@ -633,6 +653,11 @@ class BuiltInsForStringsBasic {
     }
 
     static class trimBI extends BuiltInForString {
+        @Override
+        boolean isConstantForConstantTarget() {
+            return true;
+        }
+        
         @Override
         TemplateModel calculateResult(String s, Environment env) {
             return new SimpleScalar(s.trim());
@@ -640,6 +665,11 @@ class BuiltInsForStringsBasic {
     }
 
     static class uncap_firstBI extends BuiltInForString {
+        @Override
+        boolean isConstantForConstantTarget() {
+            return true;
+        }
+        
         @Override
         TemplateModel calculateResult(String s, Environment env) {
             int i = 0;
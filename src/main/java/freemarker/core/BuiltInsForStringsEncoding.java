@@ -16,10 +16,13 @@
 
 package freemarker.core;
 
+import java.io.IOException;
 import java.io.UnsupportedEncodingException;
+import java.io.Writer;
 import java.util.List;
 
 import freemarker.template.SimpleScalar;
+import freemarker.template.TemplateException;
 import freemarker.template.TemplateMethodModel;
 import freemarker.template.TemplateModel;
 import freemarker.template.TemplateModelException;
@@ -36,6 +39,11 @@ class BuiltInsForStringsEncoding {
             TemplateModel calculateResult(String s, Environment env) {
                 return new SimpleScalar(StringUtil.HTMLEnc(s));
             }
+
+            @Override
+            void writeEscaped(String s, Writer out) throws IOException {
+                StringUtil.XMLEncNA(s, out);
+            }
         }
         
         private final BIBeforeICI2d3d20 prevICIObj = new BIBeforeICI2d3d20();
@@ -44,6 +52,11 @@ class BuiltInsForStringsEncoding {
         TemplateModel calculateResult(String s, Environment env) {
             return new SimpleScalar(StringUtil.XHTMLEnc(s));
         }
+
+        @Override
+        void writeEscaped(String s, Writer out) throws IOException {
+            StringUtil.XHTMLEnc(s, out);
+        }
     
         public int getMinimumICIVersion() {
             return _TemplateAPI.VERSION_INT_2_3_20;
@@ -61,18 +74,28 @@ class BuiltInsForStringsEncoding {
         }
     }
 
-    static class js_stringBI extends BuiltInForString {
+    static class js_stringBI extends BuiltInForString implements StringEscapingBuiltIn {
         @Override
         TemplateModel calculateResult(String s, Environment env) {
             return new SimpleScalar(StringUtil.javaScriptStringEnc(s));
         }
+
+        public TemplateModel evalOrWriteEscaped(Environment env, Writer out) throws TemplateException, IOException {
+            StringUtil.javaScriptStringEnc(getTargetString(target, env), out);
+            return null;
+        }
     }
 
-    static class json_stringBI extends BuiltInForString {
+    static class json_stringBI extends BuiltInForString implements StringEscapingBuiltIn {
         @Override
         TemplateModel calculateResult(String s, Environment env) {
             return new SimpleScalar(StringUtil.jsonStringEnc(s));
         }
+
+        public TemplateModel evalOrWriteEscaped(Environment env, Writer out) throws TemplateException, IOException {
+            StringUtil.jsonStringEnc(getTargetString(target, env), out);
+            return null;
+        }
     }
 
     static class rtfBI extends BuiltInForLegacyEscaping {
@@ -80,6 +103,11 @@ class BuiltInsForStringsEncoding {
         TemplateModel calculateResult(String s, Environment env) {
             return new SimpleScalar(StringUtil.RTFEnc(s));
         }
+
+        @Override
+        void writeEscaped(String s, Writer out) throws IOException {
+            StringUtil.RTFEnc(s, out);
+        }
     }
 
     static class urlBI extends BuiltInForString {
@@ -131,6 +159,11 @@ class BuiltInsForStringsEncoding {
         TemplateModel calculateResult(String s, Environment env) {
             return new SimpleScalar(StringUtil.XHTMLEnc(s));
         }
+
+        @Override
+        void writeEscaped(String s, Writer out) throws IOException {
+            StringUtil.XHTMLEnc(s, out);
+        }
     }
 
     static class xmlBI extends BuiltInForLegacyEscaping {
@@ -138,6 +171,11 @@ class BuiltInsForStringsEncoding {
         TemplateModel calculateResult(String s, Environment env) {
             return new SimpleScalar(StringUtil.XMLEnc(s));
         }
+
+        @Override
+        void writeEscaped(String s, Writer out) throws IOException {
+            StringUtil.XMLEnc(s, out);
+        }
     }
 
     // Can't be instantiated
@@ -16,7 +16,6 @@
 
 package freemarker.core;
 
-import java.io.StringReader;
 
 import freemarker.template.SimpleNumber;
 import freemarker.template.Template;
@@ -60,10 +59,7 @@ class BuiltInsForStringsMisc {
             try {
                 try {
                     FMParserTokenManager tkMan = new FMParserTokenManager(
-                            new SimpleCharStream(
-                                    new StringReader("(" + s + ")"),
-                                    RUNTIME_EVAL_LINE_DISPLACEMENT, 1,
-                                    s.length() + 2));
+                            new CharArrayCharStream("(" + s + ")", RUNTIME_EVAL_LINE_DISPLACEMENT, 1));
                     tkMan.SwitchTo(FMParserConstants.FM_EXPRESSION);
 
                     ParserConfiguration pCfg = parentTemplate.getParserConfiguration();
@@ -0,0 +1,360 @@
+/*
+ * Copyright 2014 Attila Szegedi, Daniel Dekany, Jonathan Revusky
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package freemarker.core;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * The {@link CharStream} used by {@link FMParserTokenManager}; a replacement of the {@code SimpleCharStream} that
+ * JavaCC would generate. The whole input is held in a {@code char[]}, so reading a character is just an array access
+ * without buffer management, and the line and column numbers are only calculated for the positions that are actually
+ * queried (which are typically only the beginning and end of the tokens), rather than for each character read. The
+ * calculated line and column numbers are the same as with {@code SimpleCharStream}.
+ */
+final class CharArrayCharStream implements CharStream {
+
+    /** Same as the default of JavaCC 6 {@code SimpleCharStream}. */
+    private static final int DEFAULT_TAB_SIZE = 1;
+    
+    /**
+     * Thrown by {@link #readChar()} at the end of the input. JavaCC uses this to detect the end of the input, so we
+     * don't want to create a new exception with stack trace each time.
+     */
+    private static final IOException END_OF_INPUT = new EndOfInputException();
+
+    /** Non-{@code null} until the input was read from it. */
+    private Reader reader;
+    private char[] chars;
+    private int length;
+    private final int startLine;
+    private final int startColumn;
+    private int tabSize = DEFAULT_TAB_SIZE;
+    private boolean trackLineColumn = true;
+
+    /** The index of the character last returned by {@link #readChar()}, or -1. */
+    private int pos = -1;
+    /** The index of the first character of the current token, or -1. */
+    private int tokenBegin = -1;
+
+    // The state of the line and column number calculation:
+    /** The index of the next character that the calculation will process. */
+    private int calcNextIndex;
+    /** The line of the character before {@link #calcNextIndex}. */
+    private int calcLine;
+    /** The column of the character before {@link #calcNextIndex}. */
+    private int calcColumn;
+    private boolean calcPrevCharIsCR;
+    private boolean calcPrevCharIsLF;
+    /** The indexes of the first characters of the lines that the calculation has reached. */
+    private int[] lineStarts = new int[16];
+    private int lineStartCount;
+
+    /**
+     * @param chars
+     *            The input; not copied, so it must not be modified while this object is used.
+     * @param length
+     *            The number of characters used from the beginning of {@code chars}.
+     * @param startLine
+     *            The line number of the first character.
+     * @param startColumn
+     *            The column number of the first character.
+     */
+    CharArrayCharStream(char[] chars, int length, int startLine, int startColumn) {
+        this.chars = chars;
+        this.length = length;
+        this.startLine = startLine;
+        this.startColumn = startColumn;
+        resetCalculation(0);
+    }
+
+    CharArrayCharStream(String s, int startLine, int startColumn) {
+        this(s.toCharArray(), s.length(), startLine, startColumn);
+    }
+
+    /**
+     * Reads the whole {@link Reader} when the first character is read. Note that JavaCC treats the exceptions thrown by
+     * the {@link Reader} as the end of the input, so in general it's better to read the input into an array first.
+     */
+    CharArrayCharStream(Reader reader, int startLine, int startColumn) {
+        this(new char[0], 0, startLine, startColumn);
+        this.reader = reader;
+    }
+
+    public char readChar() throws IOException {
+        if (pos + 1 >= length) {
+            if (reader != null) {
+                readAll();
+            }
+            if (pos + 1 >= length) {
+                // Like in SimpleCharStream:
+                if (tokenBegin == -1) {
+                    tokenBegin = pos;
+                }
+                throw END_OF_INPUT;
+            }
+        }
+        return chars[++pos];
+    }
+
+    private void readAll() throws IOException {
+        final Reader reader = this.reader;
+        this.reader = null;
+        char[] buf = new char[4096];
+        int len = 0;
+        try {
+            int readLen;
+            while ((readLen = reader.read(buf, len, buf.length - len)) != -1) {
+                len += readLen;
+                if (len == buf.length) {
+                    char[] newBuf = new char[buf.length * 2];
+                    System.arraycopy(buf, 0, newBuf, 0, len);
+                    buf = newBuf;
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        chars = buf;
+        length = len;
+    }
+
+    public char BeginToken() throws IOException {
+        tokenBegin = -1;
+        char c = readChar();
+        tokenBegin = pos;
+        return c;
+    }
+
+    public void backup(int amount) {
+        pos -= amount;
+    }
+
+    public String GetImage() {
+        if (tokenBegin < 0) {
+            return "";
+        }
+        return new String(chars, tokenBegin, pos - tokenBegin + 1);
+    }
+
+    public char[] GetSuffix(int len) {
+        char[] suffix = new char[len];
+        System.arraycopy(chars, pos - len + 1, suffix, 0, len);
+        return suffix;
+    }
+
+    public void Done() {
+        reader = null;
+    }
+
+    public int getBeginLine() {
+        return getLine(tokenBegin);
+    }
+
+    public int getBeginColumn() {
+        return getColumn(tokenBegin);
+    }
+
+    public int getEndLine() {
+        return getLine(pos);
+    }
+
+    public int getEndColumn() {
+        return getColumn(pos);
+    }
+
+    /**
+     * @deprecated Use {@link #getEndLine()}
+     */
+    @Deprecated
+    public int getLine() {
+        return getEndLine();
+    }
+
+    /**
+     * @deprecated Use {@link #getEndColumn()}
+     */
+    @Deprecated
+    public int getColumn() {
+        return getEndColumn();
+    }
+
+    /**
+     * The index of the first character of the last token in the input array.
+     */
+    int getTokenBeginIndex() {
+        return tokenBegin;
+    }
+
+    /**
+     * The index of the character last read; right after a token was matched, this is the last character of the token.
+     */
+    int getPosition() {
+        return pos;
+    }
+
+    /**
+     * Returns a section of the input as {@link String}.
+     *
+     * @param endIndex
+     *            The index after the last character of the section.
+     */
+    String getSubstring(int beginIndex, int endIndex) {
+        return new String(chars, beginIndex, endIndex - beginIndex);
+    }
+
+    public void setTabSize(int tabSize) {
+        this.tabSize = tabSize;
+        resetCalculation(0);
+    }
+
+    public int getTabSize() {
+        return tabSize;
+    }
+
+    public boolean getTrackLineColumn() {
+        return trackLineColumn;
+    }
+
+    public void setTrackLineColumn(boolean trackLineColumn) {
+        this.trackLineColumn = trackLineColumn;
+    }
+
+    private int getLine(int index) {
+        if (index < 0) {
+            return startLine;
+        }
+        calculatePosition(index);
+        return calcLine;
+    }
+
+    private int getColumn(int index) {
+        if (index < 0) {
+            return startColumn - 1;
+        }
+        calculatePosition(index);
+        return calcColumn;
+    }
+
+    /**
+     * Calculates the line and column of the character at the given index into {@link #calcLine} and
+     * {@link #calcColumn}.
+     */
+    private void calculatePosition(int index) {
+        if (index < calcNextIndex - 1) {
+            // Restart from the beginning of the line that contains the index:
+            int low = 0;
+            int high = lineStartCount - 1;
+            while (low < high) {
+                int mid = (low + high + 1) >>> 1;
+                if (lineStarts[mid] <= index) {
+                    low = mid;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            resetCalculation(low);
+        }
+        
+        // This must be kept in sync with SimpleCharStream.UpdateLineColumn:
+        final char[] chars = this.chars;
+        final int tabSize = this.tabSize;
+        int line = calcLine;
+        int column = calcColumn;
+        boolean prevCharIsCR = calcPrevCharIsCR;
+        boolean prevCharIsLF = calcPrevCharIsLF;
+        for (int i = calcNextIndex; i <= index; i++) {
+            char c = chars[i];
+            column++;
+            if (prevCharIsLF) {
+                prevCharIsLF = false;
+                line++;
+                column = 1;
+                addLineStart(i);
+            } else if (prevCharIsCR) {
+                prevCharIsCR = false;
+                if (c == '\n') {
+                    prevCharIsLF = true;
+                } else {
+                    line++;
+                    column = 1;
+                    addLineStart(i);
+                }
+            }
+            
+            if (c == '\r') {
+                prevCharIsCR = true;
+            } else if (c == '\n') {
+                prevCharIsLF = true;
+            } else if (c == '\t') {
+                column--;
+                column += tabSize - (column % tabSize);
+            }
+        }
+        if (index >= calcNextIndex) {
+            calcNextIndex = index + 1;
+            calcLine = line;
+            calcColumn = column;
+            calcPrevCharIsCR = prevCharIsCR;
+            calcPrevCharIsLF = prevCharIsLF;
+        }
+    }
+
+    /**
+     * Restarts the line and column calculation from the beginning of a line that it has already reached.
+     * 
+     * @param lineIndex
+     *            The 0-based index of the line, counted from the start of the input.
+     */
+    private void resetCalculation(int lineIndex) {
+        if (lineIndex == 0) {
+            lineStarts[0] = 0;
+            calcColumn = startColumn - 1;
+        } else {
+            calcColumn = 0;
+        }
+        lineStartCount = lineIndex + 1;
+        calcNextIndex = lineStarts[lineIndex];
+        calcLine = startLine + lineIndex;
+        calcPrevCharIsCR = false;
+        calcPrevCharIsLF = false;
+    }
+
+    private void addLineStart(int index) {
+        if (lineStartCount == lineStarts.length) {
+            int[] newLineStarts = new int[lineStarts.length * 2];
+            System.arraycopy(lineStarts, 0, newLineStarts, 0, lineStartCount);
+            lineStarts = newLineStarts;
+        }
+        lineStarts[lineStartCount++] = index;
+    }
+
+    private static final class EndOfInputException extends IOException {
+
+        EndOfInputException() {
+            super("End of input");
+        }
+
+        @Override
+        public synchronized Throwable fillInStackTrace() {
+            return this;
+        }
+
+    }
+
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright 2014 Attila Szegedi, Daniel Dekany, Jonathan Revusky
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package freemarker.core;
+
+import freemarker.template.Template;
+import freemarker.template.TemplateBooleanModel;
+import freemarker.template.TemplateModel;
+import freemarker.template.TemplateModelException;
+
+/**
+ * Removes the {@code #if}/{@code #elseif}/{@code #else} branches that can't be ever executed as their conditions
+ * (or the conditions of the branches before them) are constant, and replaces {@code #if}-s that will always run the
+ * same branch with the content of that branch. Constant expressions themselves are already evaluated on parse time
+ * (see {@link Expression#isLiteral()} and {@link Expression#constantValue}), so this post-processor only has to check
+ * if the condition has a constant value.
+ *
+ * <p>This runs after {@link TemplateElement#postParseCleanup(boolean)}, so the whitespace stripping is not affected by
+ * the removed elements.
+ */
+class ConstantFoldingTemplatePostProcessor extends TemplatePostProcessor {
+
+    @Override
+    public void postProcess(Template t) throws TemplatePostProcessorException {
+        final TemplateElement te = t.getRootTreeNode();
+        if (te != null) {
+            foldConstantsInChildren(te);
+        }
+    }
+
+    /**
+     * Post-processes the AST whose root is the parameter element.
+     *
+     * @return The element that must replace the root; not {@code null}.
+     */
+    TemplateElement foldConstants(TemplateElement root) throws ParseException {
+        TemplateElement result = foldConstantsInElement(root);
+        if (result == null) {
+            MixedContent emptyRoot = new MixedContent();
+            emptyRoot.setLocation(root.getTemplate(), root, root);
+            result = emptyRoot;
+        }
+        return result;
+    }
+
+    /**
+     * @return The element that should replace the parameter element in its parent; {@code null} if it should be
+     *         removed.
+     */
+    private TemplateElement foldConstantsInElement(TemplateElement te) {
+        foldConstantsInChildren(te);
+        if (te instanceof IfBlock) {
+            return foldIfBlock((IfBlock) te);
+        } else if (te instanceof ConditionalBlock) {
+            // A lonely #if, as #elseif-s and #else-s are always inside an IfBlock.
+            ConditionalBlock cblock = (ConditionalBlock) te;
+            Boolean condition = getConstantCondition(cblock);
+            if (condition == null) {
+                return te;
+            }
+            return condition.booleanValue() ? cblock.getNestedBlock() : null;
+        } else if (te instanceof MixedContent) {
+            int childCount = te.getRegulatedChildCount();
+            if (childCount == 0) {
+                return null;
+            } else if (childCount == 1) {
+                return te.getRegulatedChild(0);
+            } else {
+                return te;
+            }
+        } else {
+            return te;
+        }
+    }
+
+    /**
+     * Post-processes the descendants of the parameter element, which itself is left in place.
+     */
+    void foldConstantsInChildren(TemplateElement te) {
+        final TemplateElement nestedBlock = te.getNestedBlock();
+        if (nestedBlock != null) {
+            TemplateElement replacement = foldConstantsInElement(nestedBlock);
+            if (replacement != nestedBlock) {
+                te.setNestedBlock(replacement);
+            }
+        }
+
+        if (te instanceof MixedContent) {
+            int i = 0;
+            while (i < te.getRegulatedChildCount()) {
+                TemplateElement child = te.getRegulatedChild(i);
+                TemplateElement replacement = foldConstantsInElement(child);
+                if (replacement == child) {
+                    i++;
+                } else if (replacement == null) {
+                    te.removeRegulatedChild(i);
+                } else if (replacement instanceof MixedContent) {
+                    te.removeRegulatedChild(i);
+                    int replacementChildCount = replacement.getRegulatedChildCount();
+                    for (int j = 0; j < replacementChildCount; j++) {
+                        te.addRegulatedChild(i++, replacement.getRegulatedChild(j));
+                    }
+                } else {
+                    te.setRegulatedChild(i++, replacement);
+                }
+            }
+        } else {
+            // Other elements have a fixed schema for their regulated children, so we can't replace those.
+            int childCount = te.getRegulatedChildCount();
+            for (int i = 0; i < childCount; i++) {
+                foldConstantsInChildren(te.getRegulatedChild(i));
+            }
+        }
+    }
+
+    private TemplateElement foldIfBlock(IfBlock ifBlock) {
+        boolean hadNonConstantCondition = false;
+        int i = 0;
+        while (i < ifBlock.getRegulatedChildCount()) {
+            ConditionalBlock cblock = (ConditionalBlock) ifBlock.getRegulatedChild(i);
+            Boolean condition = getConstantCondition(cblock);
+            if (condition == null) {
+                hadNonConstantCondition = true;
+                i++;
+            } else if (condition.booleanValue()) {
+                if (!hadNonConstantCondition) {
+                    return cblock.getNestedBlock();
+                }
+                // The branches after this one are unreachable:
+                while (ifBlock.getRegulatedChildCount() > i + 1) {
+                    ifBlock.removeRegulatedChild(i + 1);
+                }
+                return ifBlock;
+            } else {
+                // A leading #if can't be removed if an #elseif will follow it, as then we had no #if.
+                if (hadNonConstantCondition) {
+                    ifBlock.removeRegulatedChild(i);
+                } else {
+                    i++;
+                }
+            }
+        }
+        return hadNonConstantCondition ? ifBlock : null;
+    }
+
+    /**
+     * @return {@code null} if the condition is not a constant; {@link Boolean#TRUE} for #else.
+     */
+    private Boolean getConstantCondition(ConditionalBlock cblock) {
+        Expression condition = cblock.condition;
+        if (condition == null) {
+            return Boolean.TRUE;
+        }
+        TemplateModel constantValue = condition.constantValue;
+        if (!(constantValue instanceof TemplateBooleanModel)) {
+            return null;
+        }
+        try {
+            return Boolean.valueOf(((TemplateBooleanModel) constantValue).getAsBoolean());
+        } catch (TemplateModelException e) {
+            return null;
+        }
+    }
+
+}
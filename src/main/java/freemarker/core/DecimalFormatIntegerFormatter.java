@@ -0,0 +1,201 @@
+/*
+ * Copyright 2014 Attila Szegedi, Daniel Dekany, Jonathan Revusky
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package freemarker.core;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.text.NumberFormat;
+
+/**
+ * Formats integer values exactly as a given {@link DecimalFormat} would, but without the overhead of
+ * {@link DecimalFormat}, and in a thread-safe way. This covers the most often formatted numbers (counts, IDs, amounts
+ * without fraction), while the other values has to be formatted with the {@link DecimalFormat} itself.
+ *
+ * <p>Only simple patterns are supported (no exponent, no negative multiplier, etc.). As there are many subtle details
+ * in how {@link DecimalFormat} behaves (depending on the Java version too), {@link #create(NumberFormat)} compares the
+ * output with that of the {@link DecimalFormat} for a set of sample values, and refuses to create the formatter if
+ * they differ.
+ */
+final class DecimalFormatIntegerFormatter {
+
+    private static final long[] SAMPLE_VALUES = new long[] {
+            0, 1, -1, 7, -12, 123, -999, 1000, 1234, -12345, 100000, 1234567, -987654321, 12345678901L,
+            -1234567890123456L, Long.MAX_VALUE / 1000 };
+
+    /** Doubles bigger than this might not have an exact integer value. */
+    private static final double MAX_EXACT_DOUBLE_INTEGER = 9007199254740992.0;  // 2^53
+
+    private final String positivePrefix;
+    private final String positiveSuffix;
+    private final String negativePrefix;
+    private final String negativeSuffix;
+    private final char zeroDigit;
+    /** 0 if there's no grouping. */
+    private final int groupingSize;
+    private final char groupingSeparator;
+    private final int minimumIntegerDigits;
+    /** The decimal separator and the zeros that are printed after the integer part; often an empty string. */
+    private final String fractionPart;
+    private final int multiplier;
+
+    private DecimalFormatIntegerFormatter(DecimalFormat decimalFormat, boolean useMonetarySymbols) {
+        DecimalFormatSymbols symbols = decimalFormat.getDecimalFormatSymbols();
+        positivePrefix = decimalFormat.getPositivePrefix();
+        positiveSuffix = decimalFormat.getPositiveSuffix();
+        negativePrefix = decimalFormat.getNegativePrefix();
+        negativeSuffix = decimalFormat.getNegativeSuffix();
+        zeroDigit = symbols.getZeroDigit();
+        groupingSize = decimalFormat.isGroupingUsed() ? decimalFormat.getGroupingSize() : 0;
+        groupingSeparator = symbols.getGroupingSeparator();
+        minimumIntegerDigits = decimalFormat.getMinimumIntegerDigits();
+        multiplier = decimalFormat.getMultiplier();
+
+        int minimumFractionDigits = decimalFormat.getMinimumFractionDigits();
+        if (minimumFractionDigits > 0 || decimalFormat.isDecimalSeparatorAlwaysShown()) {
+            StringBuilder sb = new StringBuilder(minimumFractionDigits + 1);
+            sb.append(useMonetarySymbols ? symbols.getMonetaryDecimalSeparator() : symbols.getDecimalSeparator());
+            for (int i = 0; i < minimumFractionDigits; i++) {
+                sb.append(zeroDigit);
+            }
+            fractionPart = sb.toString();
+        } else {
+            fractionPart = "";
+        }
+    }
+
+    /**
+     * Creates a formatter that gives the same output as the parameter {@link NumberFormat} for integers, or returns
+     * {@code null} if that's not possible for the given {@link NumberFormat}.
+     *
+     * @param numberFormat
+     *            Not modified, but might be used for formatting, so it shouldn't be used by other threads meanwhile.
+     */
+    static DecimalFormatIntegerFormatter create(NumberFormat numberFormat) {
+        if (!(numberFormat instanceof DecimalFormat)) {
+            return null;
+        }
+        DecimalFormat decimalFormat = (DecimalFormat) numberFormat;
+
+        String pattern = decimalFormat.toPattern();
+        if (pattern.indexOf('E') != -1
+                || decimalFormat.getMinimumIntegerDigits() < 1
+                || decimalFormat.getMinimumIntegerDigits() > 19
+                || decimalFormat.getMaximumIntegerDigits() < 20
+                || decimalFormat.getMultiplier() < 1
+                || decimalFormat.isGroupingUsed() && decimalFormat.getGroupingSize() < 1) {
+            return null;
+        }
+
+        DecimalFormatIntegerFormatter formatter = new DecimalFormatIntegerFormatter(
+                decimalFormat, pattern.indexOf('\u00A4') != -1 /* currency sign */);
+        for (int i = 0; i < SAMPLE_VALUES.length; i++) {
+            long sample = SAMPLE_VALUES[i];
+            String result = formatter.format(sample);
+            if (result != null && !result.equals(decimalFormat.format(sample))) {
+                return null;
+            }
+        }
+        return formatter;
+    }
+
+    /**
+     * Formats the number if it's an integer that this class can format, otherwise returns {@code null}.
+     */
+    String format(Number number) {
+        final long value;
+        if (number instanceof Integer || number instanceof Long || number instanceof Short
+                || number instanceof Byte) {
+            value = number.longValue();
+        } else if (number instanceof Double || number instanceof Float) {
+            double d = number.doubleValue();
+            if (d != Math.floor(d) || Math.abs(d) > MAX_EXACT_DOUBLE_INTEGER
+                    || d == 0 && 1 / d < 0 /* -0.0 is printed as "-0" */) {
+                return null;
+            }
+            value = (long) d;
+        } else if (number instanceof BigDecimal) {
+            BigDecimal bd = (BigDecimal) number;
+            if (bd.scale() != 0) {
+                return null;
+            }
+            BigInteger bi = bd.unscaledValue();
+            if (bi.bitLength() > 63) {
+                return null;
+            }
+            value = bi.longValue();
+        } else if (number instanceof BigInteger) {
+            BigInteger bi = (BigInteger) number;
+            if (bi.bitLength() > 63) {
+                return null;
+            }
+            value = bi.longValue();
+        } else {
+            return null;
+        }
+        return format(value);
+    }
+
+    /**
+     * @return {@code null} if the number can't be formatted with this class (like because of overflow).
+     */
+    String format(long value) {
+        if (multiplier != 1) {
+            if (value > Long.MAX_VALUE / multiplier || value < -Long.MAX_VALUE / multiplier) {
+                return null;
+            }
+            value *= multiplier;
+        }
+        if (value == Long.MIN_VALUE) {
+            return null;
+        }
+
+        final boolean negative = value < 0;
+        if (negative) {
+            value = -value;
+        }
+
+        // Long.MAX_VALUE has 19 digits, and with grouping size 1 there can be as many separators.
+        char[] digits = new char[19 * 2];
+        int digitsStart = digits.length;
+        int digitCount = 0;
+        do {
+            if (groupingSize != 0 && digitCount != 0 && digitCount % groupingSize == 0) {
+                digits[--digitsStart] = groupingSeparator;
+            }
+            if (value != 0) {
+                digits[--digitsStart] = (char) (zeroDigit + (int) (value % 10));
+                value /= 10;
+            } else {
+                digits[--digitsStart] = zeroDigit;
+            }
+            digitCount++;
+        } while (value != 0 || digitCount < minimumIntegerDigits);
+
+        String prefix = negative ? negativePrefix : positivePrefix;
+        String suffix = negative ? negativeSuffix : positiveSuffix;
+        StringBuilder sb = new StringBuilder(
+                prefix.length() + digits.length - digitsStart + fractionPart.length() + suffix.length());
+        sb.append(prefix);
+        sb.append(digits, digitsStart, digits.length - digitsStart);
+        sb.append(fractionPart);
+        sb.append(suffix);
+        return sb.toString();
+    }
+
+}
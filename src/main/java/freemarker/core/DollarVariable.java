@@ -36,6 +36,12 @@ final class DollarVariable extends Interpolation {
     /** For OutputFormat-based auto-escaping */
     private final OutputFormat outputFormat;
     private final MarkupOutputFormat autoEscapeOutputFormat;
+    
+    /**
+     * Non-{@code null} if the {@link #escapedExpression} is a string escaping built-in whose result can be written
+     * directly into the output. 
+     */
+    private final StringEscapingBuiltIn stringEscapingBuiltIn;
 
     DollarVariable(
             Expression expression, Expression escapedExpression,
@@ -44,6 +50,9 @@ final class DollarVariable extends Interpolation {
         this.escapedExpression = escapedExpression;
         this.outputFormat = outputFormat;
         this.autoEscapeOutputFormat = autoEscapeOutputFormat;
+        this.stringEscapingBuiltIn = escapedExpression instanceof StringEscapingBuiltIn
+                        && escapedExpression.constantValue == null && autoEscapeOutputFormat == null
+                ? (StringEscapingBuiltIn) escapedExpression : null;
     }
 
     /**
@@ -51,8 +60,16 @@ final class DollarVariable extends Interpolation {
      */
     @Override
     void accept(Environment env) throws TemplateException, IOException {
-        TemplateModel tm = escapedExpression.eval(env);
         Writer out = env.getOut();
+        final TemplateModel tm;
+        if (stringEscapingBuiltIn != null) {
+            tm = stringEscapingBuiltIn.evalOrWriteEscaped(env, out);
+            if (tm == null) {
+                return;
+            }
+        } else {
+            tm = escapedExpression.eval(env);
+        }
         String s = EvalUtil.coerceModelToString(tm, escapedExpression, null, true, env);
         if (s != null) {
             if (autoEscapeOutputFormat != null) {
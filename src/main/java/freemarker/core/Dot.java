@@ -16,6 +16,8 @@
 
 package freemarker.core;
 
+import freemarker.ext.beans.BeanModel;
+import freemarker.ext.beans._BeanPropertyInlineCache;
 import freemarker.template.TemplateException;
 import freemarker.template.TemplateHashModel;
 import freemarker.template.TemplateModel;
@@ -27,6 +29,8 @@ import freemarker.template.TemplateModel;
 final class Dot extends Expression {
     private final Expression target;
     private final String key;
+    /** Created when the target first evaluates to a {@link BeanModel}. */
+    private transient _BeanPropertyInlineCache beanPropertyInlineCache;
 
     Dot(Expression target, String key) {
         this.target = target;
@@ -36,6 +40,18 @@ final class Dot extends Expression {
     @Override
     TemplateModel _eval(Environment env) throws TemplateException {
         TemplateModel leftModel = target.eval(env);
+        if (leftModel instanceof BeanModel) {
+            _BeanPropertyInlineCache beanPropertyInlineCache = this.beanPropertyInlineCache;
+            if (beanPropertyInlineCache == null) {
+                // Thread-safe, as _BeanPropertyInlineCache works correctly even if unsafely published.
+                beanPropertyInlineCache = new _BeanPropertyInlineCache(key);
+                this.beanPropertyInlineCache = beanPropertyInlineCache;
+            }
+            TemplateModel result = beanPropertyInlineCache.get((BeanModel) leftModel);
+            if (result != _BeanPropertyInlineCache.MISS) {
+                return result;
+            }
+        }
         if (leftModel instanceof TemplateHashModel) {
             return ((TemplateHashModel) leftModel).get(key);
         }
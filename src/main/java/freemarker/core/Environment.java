@@ -106,8 +106,16 @@ public final class Environment extends Configurable {
 
     private final Configuration configuration;
     private final TemplateHashModel rootDataModel;
-    private final ArrayList/*<TemplateElement>*/ instructionStack = new ArrayList();
-    private final ArrayList recoveredErrorStack = new ArrayList();
+    private static final int INITIAL_INSTRUCTION_STACK_CAPACITY = 16;
+    
+    /**
+     * The elements currently being executed; only the first {@link #instructionStackSize} items are used. It's a plain
+     * array (instead of an {@link ArrayList}), as it's pushed and popped for almost every element executed.
+     */
+    private TemplateElement[] instructionStack = new TemplateElement[INITIAL_INSTRUCTION_STACK_CAPACITY];
+    private int instructionStackSize;
+    /** Created on demand, as most templates don't use {@code #attempt}/{@code #recover}. */
+    private ArrayList recoveredErrorStack;
 
     private TemplateNumberFormat cachedTemplateNumberFormat;
     private Map<String, TemplateNumberFormat> cachedTemplateNumberFormats;
@@ -152,7 +160,9 @@ public final class Environment extends Configurable {
     private Macro.Context currentMacroContext;
     private ArrayList localContextStack; 
     private final Namespace mainNamespace;
-    private Namespace currentNamespace, globalNamespace;
+    private Namespace currentNamespace;
+    /** Created on demand; see {@link #getGlobalNamespace()}. */
+    private Namespace globalNamespace;
     private HashMap loadedLibs;
     private Configurable legacyParent;
 
@@ -160,7 +170,8 @@ public final class Environment extends Configurable {
     private Throwable lastThrowable;
     
     private TemplateModel lastReturnValue;
-    private HashMap macroToNamespaceLookup = new HashMap();
+    /** Created on demand, when the first macro definition is visited. */
+    private HashMap macroToNamespaceLookup;
 
     private TemplateNodeModel currentVisitorNode;    
     private TemplateSequenceModel nodeNamespaces;
@@ -190,7 +201,6 @@ public final class Environment extends Configurable {
     public Environment(Template template, final TemplateHashModel rootDataModel, Writer out) {
         super(template);
         configuration = template.getConfiguration();
-        this.globalNamespace = new Namespace(null);
         this.currentNamespace = mainNamespace = new Namespace(template);
         this.out = out;
         this.rootDataModel = rootDataModel;
@@ -242,8 +252,8 @@ public final class Environment extends Configurable {
      * @since 2.3.23
      */
     public Template getCurrentTemplate() {
-        int ln = instructionStack.size();
-        return ln == 0 ? getMainTemplate() : ((TemplateObject) instructionStack.get(ln - 1)).getTemplate();
+        int ln = instructionStackSize;
+        return ln == 0 ? getMainTemplate() : instructionStack[ln - 1].getTemplate();
     }
 
     /**
@@ -255,12 +265,12 @@ public final class Environment extends Configurable {
      * @since 2.3.22
      */
     public DirectiveCallPlace getCurrentDirectiveCallPlace() {
-        int ln = instructionStack.size();
+        int ln = instructionStackSize;
         if (ln == 0) return null;
-        TemplateElement te = (TemplateElement) instructionStack.get(ln - 1);
+        TemplateElement te = instructionStack[ln - 1];
         if (te instanceof UnifiedCall) return (UnifiedCall) te;
-        if (te instanceof Macro && ln > 1 && instructionStack.get(ln - 2) instanceof UnifiedCall) {
-            return (UnifiedCall) instructionStack.get(ln - 2);
+        if (te instanceof Macro && ln > 1 && instructionStack[ln - 2] instanceof UnifiedCall) {
+            return (UnifiedCall) instructionStack[ln - 2];
         }
         return null;
     }
@@ -311,6 +321,12 @@ public final class Environment extends Configurable {
      */
     void visit(TemplateElement element)
     throws TemplateException, IOException {
+        if (element instanceof MixedContent) {
+            // MixedContent is never shown in the FTL stack trace, and its children are visited with their own frames
+            // (and own exception handling), so it needn't a stack frame of its own.
+            element.accept(this);
+            return;
+        }
         pushElement(element);
         try {
             element.accept(this);
@@ -341,7 +357,11 @@ public final class Environment extends Configurable {
     }
 
     private TemplateElement replaceTopElement(TemplateElement element) {
-        return (TemplateElement) instructionStack.set(instructionStack.size() - 1, element);
+        final TemplateElement[] instructionStack = this.instructionStack;
+        final int topIdx = instructionStackSize - 1;
+        TemplateElement prevTop = instructionStack[topIdx];
+        instructionStack[topIdx] = element;
+        return prevTop;
     }
 
     private static final TemplateModel[] NO_OUT_ARGS = new TemplateModel[0];
@@ -465,6 +485,9 @@ public final class Environment extends Configurable {
                  ATTEMPT_LOGGER.debug("Error in attempt block " + 
                          attemptBlock.getStartLocationQuoted(), thrownException);
              }
+             if (recoveredErrorStack == null) {
+                 recoveredErrorStack = new ArrayList();
+             }
              try {
                  recoveredErrorStack.add(thrownException);
                  visit(recoveryBlock);
@@ -477,7 +500,7 @@ public final class Environment extends Configurable {
      }
      
      String getCurrentRecoveredErrorMessage() throws TemplateException {
-         if (recoveredErrorStack.isEmpty()) {
+         if (recoveredErrorStack == null || recoveredErrorStack.isEmpty()) {
              throw new _MiscTemplateException(this, ".error is not available outside of a #recover block");
          }
          return ((Throwable) recoveredErrorStack.get(recoveredErrorStack.size() - 1)).getMessage();
@@ -659,7 +682,7 @@ public final class Environment extends Configurable {
             localContextStack = null;
             
             final Namespace prevNamespace = currentNamespace;
-            currentNamespace = (Namespace) macroToNamespaceLookup.get(macro);
+            currentNamespace = getMacroNamespace(macro);
             
             try {
                 macroCtx.runMacro(this);
@@ -750,12 +773,15 @@ public final class Environment extends Configurable {
      * Defines the given macro in the current namespace (doesn't call it).
      */
     void visitMacroDef(Macro macro) {
+        if (macroToNamespaceLookup == null) {
+            macroToNamespaceLookup = new HashMap();
+        }
         macroToNamespaceLookup.put(macro, currentNamespace);
         currentNamespace.put(macro.getName(), macro);
     }
     
     Namespace getMacroNamespace(Macro macro) {
-        return (Namespace) macroToNamespaceLookup.get(macro);
+        return macroToNamespaceLookup != null ? (Namespace) macroToNamespaceLookup.get(macro) : null;
     }
     
     void recurse(TemplateNodeModel node, TemplateSequenceModel namespaces)
@@ -1582,6 +1608,34 @@ public final class Environment extends Configurable {
         return currentMacroContext == null ? null : currentMacroContext.getLocalVariable(name);
     }
 
+    /**
+     * Same as {@link #getVariable(String)}, but uses the macro parameter slot that the parser has associated to the
+     * variable reference, if that's applicable in the current context. See {@link Macro#getParamSlot(String)}.
+     */
+    TemplateModel getVariable(String name, int macroParamSlotHint) throws TemplateModelException {
+        if (macroParamSlotHint == -1 || currentMacroContext == null) {
+            return getVariable(name);
+        }
+        TemplateModel result = null;
+        if (localContextStack != null) {
+            for (int i = localContextStack.size() - 1; i >= 0; i--) {
+                LocalContext lc = (LocalContext) localContextStack.get(i);
+                result = lc.getLocalVariable(name);
+                if (result != null) {
+                    return result;
+                }
+            }
+        }
+        result = currentMacroContext.getLocalVariable(name, macroParamSlotHint);
+        if (result == null) {
+            result = currentNamespace.get(name);
+        }
+        if (result == null) {
+            result = getGlobalVariable(name);
+        }
+        return result;
+    }
+
     /**
      * Returns the variable that is visible in this context, or {@code null} if the variable is not found.
      * This is the correspondent to an FTL top-level variable reading expression.
@@ -1618,7 +1672,7 @@ public final class Environment extends Configurable {
      * &lt;#global ...&gt; and then at the data model exposed to the template.
      */
     public TemplateModel getGlobalVariable(String name) throws TemplateModelException {
-        TemplateModel result = globalNamespace.get(name);
+        TemplateModel result = globalNamespace != null ? globalNamespace.get(name) : null;
         if (result == null) {
             result = rootDataModel.get(name);
         }
@@ -1635,7 +1689,7 @@ public final class Environment extends Configurable {
      * getGlobalNamespace().put(name, model)
      */
     public void setGlobalVariable(String name, TemplateModel model) {
-        globalNamespace.put(name, model);
+        getGlobalNamespace().put(name, model);
     }
 
     /**
@@ -1689,8 +1743,10 @@ public final class Environment extends Configurable {
         }
         
         // globals
-        for (TemplateModelIterator tmi = globalNamespace.keys().iterator(); tmi.hasNext(); ) {
-            set.add(((TemplateScalarModel) tmi.next()).getAsString());
+        if (globalNamespace != null) {
+            for (TemplateModelIterator tmi = globalNamespace.keys().iterator(); tmi.hasNext(); ) {
+                set.add(((TemplateScalarModel) tmi.next()).getAsString());
+            }
         }
         
         // current name-space
@@ -1800,10 +1856,10 @@ public final class Environment extends Configurable {
      */
     TemplateElement[] getInstructionStackSnapshot() {
         int requiredLength = 0;
-        int ln = instructionStack.size();
+        int ln = instructionStackSize;
         
         for (int i = 0; i < ln; i++) {
-            TemplateElement stackEl = (TemplateElement) instructionStack.get(i);
+            TemplateElement stackEl = instructionStack[i];
             if (i == ln || stackEl.isShownInStackTrace()) {
                 requiredLength++;
             }
@@ -1814,7 +1870,7 @@ public final class Environment extends Configurable {
         TemplateElement[] result = new TemplateElement[requiredLength];
         int dstIdx = requiredLength - 1;
         for (int i = 0; i < ln; i++) {
-            TemplateElement stackEl = (TemplateElement) instructionStack.get(i);
+            TemplateElement stackEl = instructionStack[i];
             if (i == ln || stackEl.isShownInStackTrace()) {
                 result[dstIdx--] = stackEl;
             }
@@ -1907,6 +1963,11 @@ public final class Environment extends Configurable {
      * (usually created with {@code &lt;#global ...&gt;}).
      */
     public Namespace getGlobalNamespace() {
+        Namespace globalNamespace = this.globalNamespace;
+        if (globalNamespace == null) {
+            globalNamespace = new Namespace(null);
+            this.globalNamespace = globalNamespace;
+        }
         return globalNamespace;
     }
     
@@ -1968,7 +2029,7 @@ public final class Environment extends Configurable {
                 return false;
             }
             public TemplateModel get(String key) throws TemplateModelException {
-                TemplateModel result = globalNamespace.get(key);
+                TemplateModel result = globalNamespace != null ? globalNamespace.get(key) : null;
                 if (result == null) {
                     result = rootDataModel.get(key);
                 }
@@ -1981,15 +2042,24 @@ public final class Environment extends Configurable {
     }
 
     private void pushElement(TemplateElement element) {
-        instructionStack.add(element);
+        final int newSize = instructionStackSize + 1;
+        TemplateElement[] instructionStack = this.instructionStack;
+        if (newSize > instructionStack.length) {
+            final TemplateElement[] newInstructionStack = new TemplateElement[newSize * 2];
+            System.arraycopy(instructionStack, 0, newInstructionStack, 0, instructionStack.length);
+            instructionStack = newInstructionStack;
+            this.instructionStack = instructionStack;
+        }
+        instructionStack[newSize - 1] = element;
+        instructionStackSize = newSize;
     }
 
     private void popElement() {
-        instructionStack.remove(instructionStack.size() - 1);
+        instructionStack[--instructionStackSize] = null;
     }
     
     void replaceElementStackTop(TemplateElement instr) {
-        instructionStack.set(instructionStack.size() - 1, instr);
+        instructionStack[instructionStackSize - 1] = instr;
     }
 
     public TemplateNodeModel getCurrentVisitorNode() {
@@ -2262,7 +2332,7 @@ public final class Environment extends Configurable {
             if (namespace != null) {
                 currentNamespace.put(namespace, newNamespace);
                 if (currentNamespace == mainNamespace) {
-                    globalNamespace.put(namespace, newNamespace);
+                    getGlobalNamespace().put(namespace, newNamespace);
                 }
             }
             Namespace prevNamespace = this.currentNamespace;
@@ -25,15 +25,25 @@ import freemarker.template.TemplateModel;
 final class Identifier extends Expression {
 
     private final String name;
+    
+    /**
+     * The index of the parameter slot of the enclosing macro or function that has the same name, or -1. It's only a
+     * hint; see {@link Environment#getVariable(String, int)}.
+     */
+    private int macroParamSlot = -1;
 
     Identifier(String name) {
         this.name = name;
     }
+    
+    void setMacroParamSlot(int macroParamSlot) {
+        this.macroParamSlot = macroParamSlot;
+    }
 
     @Override
     TemplateModel _eval(Environment env) throws TemplateException {
         try {
-            return env.getVariable(name);
+            return env.getVariable(name, macroParamSlot);
         } catch (NullPointerException e) {
             if (env == null) {
                 throw new _MiscTemplateException(
@@ -95,7 +105,9 @@ final class Identifier extends Expression {
                 return replacement;
             }
         } else {
-            return new Identifier(this.name);
+            Identifier clone = new Identifier(this.name);
+            clone.macroParamSlot = macroParamSlot;
+            return clone;
         }
     }
 
@@ -20,36 +20,68 @@ import java.text.DateFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.concurrent.atomic.AtomicReference;
 
 import freemarker.template.TemplateDateModel;
 import freemarker.template.TemplateModelException;
 
 /**
  * Java {@link DateFormat}-based format.
+ * 
+ * <p>Instances are thread-safe, so they can be shared by concurrently running {@link Environment}-s. As
+ * {@link DateFormat}-s aren't thread safe, each formatting or parsing uses a copy of the prototype {@link DateFormat}.
+ * The last used copy is kept for reuse, so in the typical case (no concurrent use of the same instance) no copy is
+ * created.
  */
 class JavaTemplateDateFormat extends TemplateDateFormat {
     
-    private final DateFormat javaDateFormat;
+    /** Never used directly for formatting or parsing, so it's never modified; only copies are used. */
+    private final DateFormat prototypeJavaDateFormat;
+    /** A copy of {@link #prototypeJavaDateFormat} that's currently not in use; {@code null} if there's none. */
+    private final AtomicReference<DateFormat> idleJavaDateFormat = new AtomicReference<DateFormat>();
 
+    /**
+     * @param javaDateFormat
+     *            Must not be modified after this call.
+     */
     public JavaTemplateDateFormat(DateFormat javaDateFormat) {
-        this.javaDateFormat = javaDateFormat;
+        this.prototypeJavaDateFormat = javaDateFormat;
     }
     
     @Override
     public String format(TemplateDateModel dateModel) throws TemplateModelException {
-        return javaDateFormat.format(TemplateFormatUtil.getNonNullDate(dateModel));
+        Date date = TemplateFormatUtil.getNonNullDate(dateModel);
+        DateFormat javaDateFormat = borrowJavaDateFormat();
+        String result = javaDateFormat.format(date);
+        returnJavaDateFormat(javaDateFormat);
+        return result;
     }
 
     @Override
     public Date parse(String s) throws ParseException {
-        return javaDateFormat.parse(s);
+        DateFormat javaDateFormat = borrowJavaDateFormat();
+        Date result = javaDateFormat.parse(s);
+        returnJavaDateFormat(javaDateFormat);
+        return result;
+    }
+    
+    private DateFormat borrowJavaDateFormat() {
+        DateFormat javaDateFormat = idleJavaDateFormat.getAndSet(null);
+        return javaDateFormat != null ? javaDateFormat : (DateFormat) prototypeJavaDateFormat.clone();
+    }
+
+    /**
+     * Not called if the {@link DateFormat} has thrown exception, as then it's possibly left in an inconsistent state.
+     */
+    private void returnJavaDateFormat(DateFormat javaDateFormat) {
+        idleJavaDateFormat.set(javaDateFormat);
     }
 
     @Override
     public String getDescription() {
-        return javaDateFormat instanceof SimpleDateFormat
-                ? ((SimpleDateFormat) javaDateFormat).toPattern()
-                : javaDateFormat.toString();
+        return prototypeJavaDateFormat instanceof SimpleDateFormat
+                ? ((SimpleDateFormat) prototypeJavaDateFormat).toPattern()
+                : prototypeJavaDateFormat.toString();
     }
 
     @Override
@@ -33,8 +33,13 @@ class JavaTemplateDateFormatFactory extends TemplateDateFormatFactory {
     
     private static final Logger LOG = Logger.getLogger("freemarker.runtime");
 
-    private static final ConcurrentHashMap<CacheKey, DateFormat> GLOBAL_FORMAT_CACHE
-            = new ConcurrentHashMap<CacheKey, DateFormat>();
+    /**
+     * As {@link JavaTemplateDateFormat}-s are thread-safe, the cached instances are shared by all
+     * {@link Environment}-s, so the first formatting with a given format in a template processing needn't create a new
+     * {@link DateFormat}.
+     */
+    private static final ConcurrentHashMap<CacheKey, JavaTemplateDateFormat> GLOBAL_FORMAT_CACHE
+            = new ConcurrentHashMap<CacheKey, JavaTemplateDateFormat>();
     private static final int LEAK_ALERT_NUMBER_FORMAT_CACHE_SIZE = 1024;
     
     private JavaTemplateDateFormatFactory() {
@@ -49,21 +54,21 @@ class JavaTemplateDateFormatFactory extends TemplateDateFormatFactory {
     public TemplateDateFormat get(int dateType, boolean zonelessInput, String params, Locale locale, TimeZone timeZone,
             Environment env) throws TemplateModelException, UnknownDateTypeFormattingUnsupportedException,
                     InvalidFormatParametersException {
-        return new JavaTemplateDateFormat(getJavaDateFormat(dateType, params, locale, timeZone));
+        return getJavaTemplateDateFormat(dateType, params, locale, timeZone);
     }
 
     /**
-     * Returns a "private" copy (not in the global cache) for the given format.  
+     * Returns the shared (globally cached) instance for the given format.  
      */
-    private DateFormat getJavaDateFormat(int dateType, String nameOrPattern, Locale locale, TimeZone timeZone)
+    private JavaTemplateDateFormat getJavaTemplateDateFormat(
+            int dateType, String nameOrPattern, Locale locale, TimeZone timeZone)
             throws UnknownDateTypeFormattingUnsupportedException, InvalidFormatParametersException {
 
-        // Get DateFormat from global cache:
+        // Get format from global cache:
         CacheKey cacheKey = new CacheKey(dateType, nameOrPattern, locale, timeZone);
-        DateFormat jFormat;
-        
-        jFormat = GLOBAL_FORMAT_CACHE.get(cacheKey);
-        if (jFormat == null) {
+        JavaTemplateDateFormat format = GLOBAL_FORMAT_CACHE.get(cacheKey);
+        if (format == null) {
+            DateFormat jFormat = null;
             // Add format to global format cache.
             StringTokenizer tok = new StringTokenizer(nameOrPattern, "_");
             int tok1Style = tok.hasMoreTokens() ? parseDateStyleToken(tok.nextToken()) : DateFormat.DEFAULT;
@@ -99,6 +104,7 @@ class JavaTemplateDateFormatFactory extends TemplateDateFormatFactory {
                 }
             }
             jFormat.setTimeZone(cacheKey.timeZone);
+            format = new JavaTemplateDateFormat(jFormat);
             
             if (GLOBAL_FORMAT_CACHE.size() >= LEAK_ALERT_NUMBER_FORMAT_CACHE_SIZE) {
                 boolean triggered = false;
@@ -115,13 +121,13 @@ class JavaTemplateDateFormatFactory extends TemplateDateFormatFactory {
                 }
             }
             
-            DateFormat prevJFormat = GLOBAL_FORMAT_CACHE.putIfAbsent(cacheKey, jFormat);
-            if (prevJFormat != null) {
-                jFormat = prevJFormat;
+            JavaTemplateDateFormat prevFormat = GLOBAL_FORMAT_CACHE.putIfAbsent(cacheKey, format);
+            if (prevFormat != null) {
+                format = prevFormat;
             }
         }  // if cache miss
         
-        return (DateFormat) jFormat.clone();  // For thread safety
+        return format;
     }
 
     private static final class CacheKey {
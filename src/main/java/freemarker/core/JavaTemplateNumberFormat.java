@@ -16,18 +16,35 @@
 package freemarker.core;
 
 import java.text.NumberFormat;
+import java.util.concurrent.atomic.AtomicReference;
 
 import freemarker.template.TemplateModelException;
 import freemarker.template.TemplateNumberModel;
 
+/**
+ * Java {@link NumberFormat}-based format. Instances are thread-safe, and so are shared by all {@link Environment}-s.
+ * Integers are formatted with a {@link DecimalFormatIntegerFormatter} when the pattern allows that, other numbers are
+ * formatted with a copy of the prototype {@link NumberFormat} (as {@link NumberFormat}-s aren't thread safe), where
+ * the last used copy is kept for reuse.
+ */
 final class JavaTemplateNumberFormat extends BackwardCompatibleTemplateNumberFormat {
     
     private final String formatString;
-    private final NumberFormat javaNumberFormat;
+    /** Never used directly for formatting, so it's never modified; only copies are used. */
+    private final NumberFormat prototypeJavaNumberFormat;
+    /** A copy of {@link #prototypeJavaNumberFormat} that's currently not in use; {@code null} if there's none. */
+    private final AtomicReference<NumberFormat> idleJavaNumberFormat = new AtomicReference<NumberFormat>();
+    /** {@code null} if the pattern is not supported by {@link DecimalFormatIntegerFormatter}. */
+    private final DecimalFormatIntegerFormatter integerFormatter;
 
+    /**
+     * @param javaNumberFormat
+     *            Must not be modified after this call.
+     */
     public JavaTemplateNumberFormat(NumberFormat javaNumberFormat, String formatString) {
         this.formatString = formatString;
-        this.javaNumberFormat = javaNumberFormat;
+        this.prototypeJavaNumberFormat = javaNumberFormat;
+        this.integerFormatter = DecimalFormatIntegerFormatter.create((NumberFormat) javaNumberFormat.clone());
     }
 
     @Override
@@ -49,11 +66,21 @@ final class JavaTemplateNumberFormat extends BackwardCompatibleTemplateNumberFor
 
     @Override
     String format(Number number) throws UnformattableNumberException {
-        return javaNumberFormat.format(number);
-    }
-
-    public NumberFormat getJavaNumberFormat() {
-        return javaNumberFormat;
+        if (integerFormatter != null) {
+            String result = integerFormatter.format(number);
+            if (result != null) {
+                return result;
+            }
+        }
+        
+        NumberFormat javaNumberFormat = idleJavaNumberFormat.getAndSet(null);
+        if (javaNumberFormat == null) {
+            javaNumberFormat = (NumberFormat) prototypeJavaNumberFormat.clone();
+        }
+        String result = javaNumberFormat.format(number);
+        // Not returned if the NumberFormat has thrown exception, as then it's possibly in an inconsistent state.
+        idleJavaNumberFormat.set(javaNumberFormat);
+        return result;
     }
 
     @Override
@@ -32,8 +32,9 @@ class JavaTemplateNumberFormatFactory extends TemplateNumberFormatFactory {
     
     private static final Logger LOG = Logger.getLogger("freemarker.runtime");
 
-    private static final ConcurrentHashMap<CacheKey, NumberFormat> GLOBAL_FORMAT_CACHE
-            = new ConcurrentHashMap<CacheKey, NumberFormat>();
+    /** As {@link JavaTemplateNumberFormat}-s are thread-safe, the cached instances are shared by all Environment-s. */
+    private static final ConcurrentHashMap<CacheKey, JavaTemplateNumberFormat> GLOBAL_FORMAT_CACHE
+            = new ConcurrentHashMap<CacheKey, JavaTemplateNumberFormat>();
     private static final int LEAK_ALERT_NUMBER_FORMAT_CACHE_SIZE = 1024;
     
     private JavaTemplateNumberFormatFactory() {
@@ -44,8 +45,9 @@ class JavaTemplateNumberFormatFactory extends TemplateNumberFormatFactory {
     public TemplateNumberFormat get(String params, Locale locale, Environment env)
             throws InvalidFormatParametersException {
         CacheKey cacheKey = new CacheKey(params, locale);
-        NumberFormat jFormat = GLOBAL_FORMAT_CACHE.get(cacheKey);
-        if (jFormat == null) {
+        JavaTemplateNumberFormat format = GLOBAL_FORMAT_CACHE.get(cacheKey);
+        if (format == null) {
+            NumberFormat jFormat;
             if ("number".equals(params)) {
                 jFormat = NumberFormat.getNumberInstance(locale);
             } else if ("currency".equals(params)) {
@@ -53,7 +55,8 @@ class JavaTemplateNumberFormatFactory extends TemplateNumberFormatFactory {
             } else if ("percent".equals(params)) {
                 jFormat = NumberFormat.getPercentInstance(locale);
             } else if ("computer".equals(params)) {
-                jFormat = env.getCNumberFormat();
+                // Copied, as the Environment might uses its instance meanwhile
+                jFormat = (NumberFormat) env.getCNumberFormat().clone();
             } else {
                 try {
                     jFormat = new DecimalFormat(params, new DecimalFormatSymbols(locale));
@@ -63,6 +66,7 @@ class JavaTemplateNumberFormatFactory extends TemplateNumberFormatFactory {
                             msg != null ? msg : "Invalid DecimalFormat pattern", e);
                 }
             }
+            format = new JavaTemplateNumberFormat(jFormat, params);
 
             if (GLOBAL_FORMAT_CACHE.size() >= LEAK_ALERT_NUMBER_FORMAT_CACHE_SIZE) {
                 boolean triggered = false;
@@ -79,16 +83,13 @@ class JavaTemplateNumberFormatFactory extends TemplateNumberFormatFactory {
                 }
             }
             
-            NumberFormat prevJFormat = GLOBAL_FORMAT_CACHE.putIfAbsent(cacheKey, jFormat);
-            if (prevJFormat != null) {
-                jFormat = prevJFormat;
+            JavaTemplateNumberFormat prevFormat = GLOBAL_FORMAT_CACHE.putIfAbsent(cacheKey, format);
+            if (prevFormat != null) {
+                format = prevFormat;
             }
         }  // if cache miss
         
-        // JFormat-s aren't thread-safe; must clone it
-        jFormat = (NumberFormat) jFormat.clone();
-        
-        return new JavaTemplateNumberFormat(jFormat, params); 
+        return format;
     }
 
     private static final class CacheKey {
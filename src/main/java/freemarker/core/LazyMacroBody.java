@@ -0,0 +1,179 @@
+/*
+ * Copyright 2014 Attila Szegedi, Daniel Dekany, Jonathan Revusky
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package freemarker.core;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.List;
+
+import freemarker.template.Configuration;
+import freemarker.template.Template;
+import freemarker.template.TemplateException;
+
+/**
+ * The body of a macro or function that wasn't parsed together with the rest of the template, but will be parsed when
+ * it's first needed (usually, when the macro is first called). Until then, only the source code of the body and the
+ * parser state at its beginning is stored. See {@link Configuration#setLazyMacroBodyParsing(boolean)}.
+ * 
+ * <p>
+ * The parsed body becomes the {@link #getNestedBlock() nested block} of this element, so it remains a child of the
+ * {@link Macro}, which matters for the whitespace stripping.
+ */
+final class LazyMacroBody extends TemplateElement {
+
+    /** The source code of the body; {@code null} after the body was parsed. */
+    private String source;
+    private ParserState parserState;
+    private volatile boolean parsed;
+
+    LazyMacroBody(String source, ParserState parserState) {
+        this.source = source;
+        this.parserState = parserState;
+    }
+
+    /**
+     * Returns the parsed body, parsing it first if that hasn't happened yet. Can be called from multiple threads
+     * concurrently.
+     * 
+     * @return The body; can be {@code null} if the body is empty after whitespace stripping.
+     */
+    TemplateElement getBody() throws ParseException {
+        if (!parsed) {
+            synchronized (this) {
+                if (!parsed) {
+                    parse();
+                    // Publishes the nested block set by parse():
+                    parsed = true;
+                }
+            }
+        }
+        return getNestedBlock();
+    }
+
+    private void parse() throws ParseException {
+        final Template template = getTemplate();
+        try {
+            try {
+                FMParserTokenManager tkMan = new FMParserTokenManager(
+                        new CharArrayCharStream(source, beginLine, beginColumn));
+                FMParser parser = new FMParser(template, false, tkMan, template.getParserConfiguration());
+                parser.setupLazyMacroBodyMode(parserState);
+                setNestedBlock(parser.MacroBody());
+            } catch (TokenMgrError e) {
+                throw e.toParseException(template);
+            }
+            // Like with the eagerly parsed macros, except that the rest of the template was already post-processed:
+            postParseCleanup(parserState.stripWhitespace);
+            new ConstantFoldingTemplatePostProcessor().foldConstantsInChildren(this);
+        } catch (ParseException e) {
+            setNestedBlock(null);
+            e.setTemplateName(template.getSourceName());
+            throw e;
+        }
+        source = null;
+        parserState = null;
+    }
+
+    @Override
+    void accept(Environment env) throws TemplateException, IOException {
+        TemplateElement body = getBody();
+        if (body != null) {
+            env.visit(body);
+        }
+    }
+
+    @Override
+    protected String dump(boolean canonical) {
+        if (!canonical) {
+            return getNodeTypeSymbol();
+        }
+        final TemplateElement body;
+        try {
+            body = getBody();
+        } catch (ParseException e) {
+            // Has no canonical form, but we still can show what's there:
+            synchronized (this) {
+                return source;
+            }
+        }
+        return body != null ? body.getCanonicalForm() : "";
+    }
+
+    @Override
+    String getNodeTypeSymbol() {
+        return "#macro_body";
+    }
+
+    @Override
+    int getParameterCount() {
+        return 0;
+    }
+
+    @Override
+    Object getParameterValue(int idx) {
+        throw new IndexOutOfBoundsException();
+    }
+
+    @Override
+    ParameterRole getParameterRole(int idx) {
+        throw new IndexOutOfBoundsException();
+    }
+
+    @Override
+    boolean isNestedBlockRepeater() {
+        return false;
+    }
+
+    @Override
+    boolean isShownInStackTrace() {
+        return false;
+    }
+
+    private synchronized void writeObject(ObjectOutputStream out) throws IOException {
+        // Synchronized so that we don't write a half-parsed state.
+        out.defaultWriteObject();
+    }
+
+    /**
+     * The parser state at the beginning of the macro body; the body is parsed continuing from this.
+     */
+    static final class ParserState implements Serializable {
+        // Token manager state:
+        boolean strictEscapeSyntax;
+        boolean squBracTagSyntax;
+        boolean autodetectTagSyntax;
+        boolean directiveSyntaxEstablished;
+        int initialNamingConvention;
+        int namingConvention;
+        Token namingConventionEstabilisher;
+        
+        // Parser state:
+        boolean stripWhitespace;
+        boolean stripText;
+        int incompatibleImprovements;
+        OutputFormat outputFormat;
+        int autoEscapingPolicy;
+        boolean autoEscaping;
+        int breakableDirectiveNesting;
+        boolean inMacro;
+        boolean inFunction;
+        List macroParamSlotNames;
+        int mixedContentNesting;
+    }
+
+}
@@ -21,10 +21,14 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
+import freemarker.template.SimpleCollection;
+import freemarker.template.TemplateCollectionModel;
 import freemarker.template.TemplateException;
+import freemarker.template.TemplateHashModelEx;
 import freemarker.template.TemplateModel;
 import freemarker.template.TemplateModelException;
 import freemarker.template.TemplateModelIterator;
@@ -82,10 +86,44 @@ public final class Macro extends TemplateElement implements TemplateModel {
         return paramDefaults.containsKey(name);
     }
     
+    /**
+     * Returns the index of the local variable slot that stores the parameter with the given name, or -1 if there's
+     * no such parameter. The declared parameters use the slots with the same index as in
+     * {@link #getArgumentNamesInternal()}, and the catch-all parameter (if any) uses the slot after them.
+     */
+    int getParamSlot(String name) {
+        final String[] paramNames = this.paramNames;
+        for (int i = 0; i < paramNames.length; i++) {
+            if (paramNames[i].equals(name)) {
+                return i;
+            }
+        }
+        if (catchAllParamName != null && catchAllParamName.equals(name)) {
+            return paramNames.length;
+        }
+        return -1;
+    }
+    
+    private int getParamSlotCount() {
+        return catchAllParamName == null ? paramNames.length : paramNames.length + 1;
+    }
+    
+    private String getParamSlotName(int slot) {
+        return slot < paramNames.length ? paramNames[slot] : catchAllParamName;
+    }
+    
     public String getName() {
         return name;
     }
 
+    /**
+     * Returns the body of the macro, parsing it first if its parsing was deferred (see {@link LazyMacroBody}).
+     */
+    TemplateElement getBody() throws ParseException {
+        TemplateElement nestedBlock = getNestedBlock();
+        return nestedBlock instanceof LazyMacroBody ? ((LazyMacroBody) nestedBlock).getBody() : nestedBlock;
+    }
+
     @Override
     void accept(Environment env) {
         env.visitMacroDef(this);
@@ -156,8 +194,23 @@ public final class Macro extends TemplateElement implements TemplateModel {
         return function;
     }
 
+    /**
+     * Stored in a parameter slot if the parameter was specified, but with {@code null} value, so that it can be told
+     * apart from an unspecified parameter.
+     */
+    private static final TemplateModel NULL_PARAM_VALUE = new TemplateModel() { };
+    
+    private static final TemplateModel[] NO_PARAM_VALUES = new TemplateModel[0];
+    
     class Context implements LocalContext {
-        final Environment.Namespace localVars; 
+        /**
+         * The values of the parameters, indexed as described at {@link Macro#getParamSlot(String)}. Parameters are
+         * by far the most common local variables, so they are stored in this array frame instead of in a hash.
+         */
+        private final TemplateModel[] paramValues;
+        /** The local variables that aren't parameters (created with {@code #local}); created on demand. */
+        private Environment.Namespace localVars; 
+        private final Environment env;
         final TemplateElement nestedContent;
         final Environment.Namespace nestedContentNamespace;
         final List nestedContentParameterNames;
@@ -167,7 +220,9 @@ public final class Macro extends TemplateElement implements TemplateModel {
         Context(Environment env, 
                 TemplateElement nestedContent,
                 List nestedContentParameterNames) {
-            this.localVars = env.new Namespace();
+            final int paramSlotCount = getParamSlotCount();
+            this.paramValues = paramSlotCount != 0 ? new TemplateModel[paramSlotCount] : NO_PARAM_VALUES;
+            this.env = env;
             this.nestedContent = nestedContent;
             this.nestedContentNamespace = env.getCurrentNamespace();
             this.nestedContentParameterNames = nestedContentParameterNames;
@@ -183,8 +238,9 @@ public final class Macro extends TemplateElement implements TemplateModel {
         void runMacro(Environment env) throws TemplateException, IOException {
             sanityCheck(env);
             // Set default values for unspecified parameters
-            if (getNestedBlock() != null) {
-                env.visit(getNestedBlock());
+            TemplateElement body = getBody();
+            if (body != null) {
+                env.visit(body);
             }
         }
 
@@ -199,7 +255,7 @@ public final class Macro extends TemplateElement implements TemplateModel {
                 resolvedAnArg = hasUnresolvedArg = false;
                 for (int i = 0; i < paramNames.length; ++i) {
                     String argName = paramNames[i];
-                    if (localVars.get(argName) == null) {
+                    if (getParamValue(i) == null) {
                         Expression valueExp = (Expression) paramDefaults.get(argName);
                         if (valueExp != null) {
                             try {
@@ -210,7 +266,7 @@ public final class Macro extends TemplateElement implements TemplateModel {
                                         hasUnresolvedArg = true;
                                     }
                                 } else {
-                                    localVars.put(argName, tm);
+                                    paramValues[i] = tm;
                                     resolvedAnArg = true;
                                 }
                             } catch (InvalidReferenceException e) {
@@ -220,7 +276,7 @@ public final class Macro extends TemplateElement implements TemplateModel {
                                 }
                             }
                         } else if (!env.isClassicCompatible()) {
-                            boolean argWasSpecified = localVars.containsKey(argName);
+                            boolean argWasSpecified = paramValues[i] != null;
                             throw new _MiscTemplateException(env,
                                     new _ErrorDescriptionBuilder(
                                             "When calling macro ", new _DelayedJQuote(name), 
@@ -258,27 +314,97 @@ public final class Macro extends TemplateElement implements TemplateModel {
          * or null if it doesn't exist.
          */ 
         public TemplateModel getLocalVariable(String name) throws TemplateModelException {
-             return localVars.get(name);
+            int slot = getParamSlot(name);
+            if (slot != -1) {
+                return getParamValue(slot);
+            }
+            return localVars != null ? localVars.get(name) : null;
+        }
+        
+        /**
+         * Same as {@link #getLocalVariable(String)}, but first tries the parameter slot that the parser has
+         * associated to the variable reference. The slot is only a hint, as the same expression can be evaluated in
+         * the context of another macro too (like when it's in an {@code #include}-d template).
+         */
+        TemplateModel getLocalVariable(String name, int paramSlotHint) throws TemplateModelException {
+            if (paramSlotHint < paramValues.length && getParamSlotName(paramSlotHint).equals(name)) {
+                return getParamValue(paramSlotHint);
+            }
+            return getLocalVariable(name);
+        }
+        
+        private TemplateModel getParamValue(int slot) {
+            TemplateModel value = paramValues[slot];
+            return value != NULL_PARAM_VALUE ? value : null;
         }
 
-        Environment.Namespace getLocals() {
-            return localVars;
+        TemplateHashModelEx getLocals() {
+            return new LocalsHash();
         }
         
         /**
          * Set a local variable in this macro 
          */
         void setLocalVar(String name, TemplateModel var) {
-            localVars.put(name, var);
+            int slot = getParamSlot(name);
+            if (slot != -1) {
+                paramValues[slot] = var != null ? var : NULL_PARAM_VALUE;
+            } else {
+                Environment.Namespace localVars = this.localVars;
+                if (localVars == null) {
+                    localVars = env.new Namespace();
+                    this.localVars = localVars;
+                }
+                localVars.put(name, var);
+            }
         }
 
         public Collection getLocalVariableNames() throws TemplateModelException {
             HashSet result = new HashSet();
-            for (TemplateModelIterator it = localVars.keys().iterator(); it.hasNext(); ) {
-                result.add(it.next().toString());
+            for (int i = 0; i < paramValues.length; i++) {
+                if (paramValues[i] != null) {
+                    result.add(getParamSlotName(i));
+                }
+            }
+            if (localVars != null) {
+                for (TemplateModelIterator it = localVars.keys().iterator(); it.hasNext(); ) {
+                    result.add(it.next().toString());
+                }
             }
             return result;
         }
+        
+        /**
+         * The value of {@code .locals}; a live read-only view of the local variables. 
+         */
+        private class LocalsHash implements TemplateHashModelEx {
+
+            public TemplateModel get(String key) throws TemplateModelException {
+                return getLocalVariable(key);
+            }
+
+            public boolean isEmpty() throws TemplateModelException {
+                return size() == 0;
+            }
+
+            public int size() throws TemplateModelException {
+                return getLocalVariableNames().size();
+            }
+
+            public TemplateCollectionModel keys() throws TemplateModelException {
+                return new SimpleCollection(getLocalVariableNames());
+            }
+
+            public TemplateCollectionModel values() throws TemplateModelException {
+                Collection names = getLocalVariableNames();
+                List values = new ArrayList(names.size());
+                for (Iterator it = names.iterator(); it.hasNext(); ) {
+                    values.add(getLocalVariable((String) it.next()));
+                }
+                return new SimpleCollection(values);
+            }
+            
+        }
     }
 
     @Override
@@ -51,7 +51,13 @@ final class MixedContent extends TemplateElement {
         throws TemplateException, IOException {
         int ln = getRegulatedChildCount();
         for (int i = 0; i < ln; i++) {
-            env.visit(getRegulatedChild(i));
+            TemplateElement child = getRegulatedChild(i);
+            if (child instanceof TextBlock) {
+                // Static text can't fail with TemplateException, so it doesn't need a stack frame.
+                ((TextBlock) child).accept(env);
+            } else {
+                env.visit(child);
+            }
         }
     }
 
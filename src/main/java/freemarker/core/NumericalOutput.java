@@ -35,7 +35,7 @@ final class NumericalOutput extends Interpolation {
     private final int maxFracDigits;
     /** For OutputFormat-based auto-escaping */
     private final MarkupOutputFormat autoEscapeOutputFormat;
-    private volatile FormatHolder formatCache; // creating new NumberFormat is slow operation
+    private transient volatile FormatHolder formatCache; // creating new NumberFormat is slow operation
 
     NumericalOutput(Expression expression, MarkupOutputFormat autoEscapeOutputFormat) {
         this.expression = expression;
@@ -0,0 +1,38 @@
+/*
+ * Copyright 2014 Attila Szegedi, Daniel Dekany, Jonathan Revusky
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package freemarker.core;
+
+import java.io.IOException;
+import java.io.Writer;
+
+import freemarker.template.TemplateException;
+import freemarker.template.TemplateModel;
+
+/**
+ * A string escaping built-in (like {@code ?html} or {@code ?js_string}) that can write its result directly into the
+ * output. When such built-in is the top-level expression of an interpolation (as in {@code ${x?html}}, or in
+ * {@code #escape} blocks), this spares creating the escaped {@link String}. 
+ */
+interface StringEscapingBuiltIn {
+
+    /**
+     * Evaluates the built-in, and if the result would be a string, writes that into {@code out} and returns
+     * {@code null}. Otherwise it returns the result just like {@link Expression#eval(Environment)} would.
+     */
+    TemplateModel evalOrWriteEscaped(Environment env, Writer out) throws TemplateException, IOException;
+    
+}
@@ -17,7 +17,6 @@
 package freemarker.core;
 
 import java.io.IOException;
-import java.io.StringReader;
 import java.util.Enumeration;
 
 import freemarker.template.SimpleScalar;
@@ -50,10 +49,7 @@ final class StringLiteral extends Expression implements TemplateScalarModel {
 
             try {
                 FMParserTokenManager tkMan = new FMParserTokenManager(
-                        new SimpleCharStream(
-                                new StringReader(value),
-                                beginLine, beginColumn + 1,
-                                value.length()));
+                        new CharArrayCharStream(value, beginLine, beginColumn + 1));
                 
                 FMParser parser = new FMParser(parentTemplate, false, tkMan, parentTemplate.getParserConfiguration());
                 // We continue from the parent parser's current state:
@@ -306,6 +306,30 @@ abstract public class TemplateElement extends TemplateObject {
         regulatedChildCount = lRegulatedChildCount + 1;
     }
     
+    final void setRegulatedChild(int index, TemplateElement element) {
+        if (index >= regulatedChildCount) {
+            throw new IndexOutOfBoundsException();
+        }
+        element.index = index;
+        element.parent = this;
+        regulatedChildBuffer[index] = element;
+    }
+
+    final void removeRegulatedChild(int index) {
+        final int lRegulatedChildCount = regulatedChildCount;
+        if (index >= lRegulatedChildCount) {
+            throw new IndexOutOfBoundsException();
+        }
+        final TemplateElement[] lRegulatedChildBuffer = regulatedChildBuffer;
+        for (int i = index + 1; i < lRegulatedChildCount; i++) {
+            TemplateElement movedElement = lRegulatedChildBuffer[i];
+            movedElement.index = i - 1;
+            lRegulatedChildBuffer[i - 1] = movedElement;
+        }
+        lRegulatedChildBuffer[lRegulatedChildCount - 1] = null;
+        regulatedChildCount = lRegulatedChildCount - 1;
+    }
+    
     final int getRegulatedChildCount() {
        return regulatedChildCount; 
     }
@@ -16,12 +16,19 @@
 
 package freemarker.core;
 
+import java.io.Serializable;
+
 import freemarker.template.Template;
 
 /**
  * <b>Internal API - subject to change:</b> Represent a node in the parsed template (either a {@link Expression} or a
  * {@link TemplateElement}).
  * 
+ * <p>The nodes are {@link Serializable} only so that parsed templates can be stored in a local directory, where they
+ * are read back by the same FreeMarker version (see
+ * {@link freemarker.template.Configuration#setParsedTemplateCacheDirectory}). Fields
+ * that only store data calculated during template processing must be {@code transient}.
+ * 
  * @see TemplateElement
  * @see Expression
  * 
@@ -29,7 +36,7 @@ import freemarker.template.Template;
  *             it.
  */
 @Deprecated
-public abstract class TemplateObject {
+public abstract class TemplateObject implements Serializable {
     
     private Template template;
     int beginColumn, beginLine, endColumn, endLine;
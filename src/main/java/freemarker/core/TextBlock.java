@@ -17,6 +17,8 @@
 package freemarker.core;
 
 import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.Charset;
 
 import freemarker.template.utility.StringUtil;
 
@@ -33,6 +35,11 @@ public final class TextBlock extends TemplateElement {
     // write. 
     private char[] text;
     private final boolean unparsed;
+    /**
+     * The {@link #text} encoded with the charset last used for {@link _EncodingWriter} output, or {@code null}.
+     * As the object is immutable, it's safe to publish without synchronization.
+     */
+    private transient _EncodingWriter.EncodedText encodedText;
 
     public TextBlock(String text) {
         this(text, false);
@@ -49,15 +56,31 @@ public final class TextBlock extends TemplateElement {
     
     void replaceText(String text) {
         this.text = text.toCharArray();
+        this.encodedText = null;
     }
 
     /**
-     * Simply outputs the text.
+     * Simply outputs the text; if the output is byte-based, it writes the cached encoded form of the text.
      */
     @Override
     public void accept(Environment env) 
     throws IOException {
-        env.getOut().write(text);
+        Writer out = env.getOut();
+        if (out instanceof _EncodingWriter) {
+            _EncodingWriter encOut = (_EncodingWriter) out;
+            encOut.writePreEncoded(getEncodedText(encOut.getCharset()));
+        } else {
+            out.write(text);
+        }
+    }
+    
+    private byte[] getEncodedText(Charset charset) throws IOException {
+        _EncodingWriter.EncodedText encodedText = this.encodedText;
+        if (encodedText == null || !encodedText.getCharset().equals(charset)) {
+            encodedText = new _EncodingWriter.EncodedText(charset, _EncodingWriter.encode(new String(text), charset));
+            this.encodedText = encodedText;
+        }
+        return encodedText.getBytes();
     }
 
     @Override
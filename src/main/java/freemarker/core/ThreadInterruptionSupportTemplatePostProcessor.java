@@ -55,6 +55,14 @@ class ThreadInterruptionSupportTemplatePostProcessor extends TemplatePostProcess
             return;
         }
         
+        if (te instanceof LazyMacroBody) {
+            // We can't wait with this until the first call of the macro, so parse the body now:
+            try {
+                ((LazyMacroBody) te).getBody();
+            } catch (ParseException e) {
+                throw new TemplatePostProcessorException("Failed to parse macro body", e);
+            }
+        }
         final TemplateElement nestedBlock = te.getNestedBlock();
 
         // Deepest-first recursion:
@@ -43,7 +43,7 @@ final class UnifiedCall extends TemplateElement implements DirectiveCallPlace {
     private List positionalArgs, bodyParameterNames;
     boolean legacySyntax;
     private transient volatile SoftReference/*List<Map.Entry<String,Expression>>*/ sortedNamedArgsCache;
-    private CustomDataHolder customDataHolder;
+    private transient CustomDataHolder customDataHolder;
 
     UnifiedCall(Expression nameExp,
          Map namedArgs,
@@ -0,0 +1,306 @@
+/*
+ * Copyright 2014 Attila Szegedi, Daniel Dekany, Jonathan Revusky
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package freemarker.core;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Don't use this; used internally by FreeMarker, might changes without notice.
+ *
+ * A {@link Writer} that encodes the characters written to it into an {@link OutputStream}, but also accepts bytes
+ * that were already encoded with the same charset. This is used by
+ * {@link freemarker.template.Template#process(Object, OutputStream, Charset)}, so that the static text of the
+ * templates ({@link TextBlock}-s) need not be encoded again for each output.
+ *
+ * <p>Unmappable and malformed characters are replaced, like {@link java.io.OutputStreamWriter} does.
+ */
+public final class _EncodingWriter extends Writer {
+
+    private static final int BUFFER_SIZE = 8192;
+    private static final int STRING_COPY_BUFFER_SIZE = 1024;
+    
+    private static final ConcurrentHashMap<Charset, Boolean> PRE_ENCODING_SUPPORTED_CACHE
+            = new ConcurrentHashMap<Charset, Boolean>();
+
+    private final OutputStream out;
+    private final Charset charset;
+    private final CharsetEncoder encoder;
+    private final ByteBuffer byteBuffer;
+    /** Used to copy {@link String}-s to; created on demand. */
+    private char[] stringCopyBuffer;
+
+    /**
+     * Characters that were written, but couldn't be encoded yet (like a high surrogate without the low surrogate).
+     */
+    private char[] leftoverChars;
+    /** Whether the encoder was used since it was last reset. */
+    private boolean encoderDirty;
+    private boolean closed;
+
+    /**
+     * @throws IllegalArgumentException
+     *             If the charset isn't {@linkplain #isPreEncodingSupported(Charset) pre-encoding friendly}.
+     */
+    public _EncodingWriter(OutputStream out, Charset charset) {
+        if (!isPreEncodingSupported(charset)) {
+            throw new IllegalArgumentException("Charset not supported: " + charset);
+        }
+        this.out = out;
+        this.charset = charset;
+        this.encoder = newEncoder(charset);
+        this.byteBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+    }
+
+    /**
+     * Tells if text encoded separately can be concatenated on the byte level with this charset. That's not the case
+     * with charsets that add a byte order mark (like {@code UTF-16}), or that can't encode at all.
+     */
+    public static boolean isPreEncodingSupported(Charset charset) {
+        Boolean supported = PRE_ENCODING_SUPPORTED_CACHE.get(charset);
+        if (supported == null) {
+            supported = Boolean.valueOf(calculateIsPreEncodingSupported(charset));
+            PRE_ENCODING_SUPPORTED_CACHE.put(charset, supported);
+        }
+        return supported.booleanValue();
+    }
+    
+    private static boolean calculateIsPreEncodingSupported(Charset charset) {
+        if (!charset.canEncode()) {
+            return false;
+        }
+        try {
+            byte[] single = encode("a", charset);
+            byte[] twice = encode("aa", charset);
+            if (twice.length != single.length * 2) {
+                return false;
+            }
+            for (int i = 0; i < single.length; i++) {
+                if (twice[i] != single[i] || twice[single.length + i] != single[i]) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (CharacterCodingException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Encodes the text in a form that can be written with {@link #writePreEncoded(byte[])}.
+     */
+    static byte[] encode(String s, Charset charset) throws CharacterCodingException {
+        ByteBuffer bb = newEncoder(charset).encode(CharBuffer.wrap(s));
+        if (bb.hasArray() && bb.arrayOffset() == 0 && bb.position() == 0 && bb.limit() == bb.array().length) {
+            return bb.array();
+        }
+        byte[] result = new byte[bb.remaining()];
+        bb.get(result);
+        return result;
+    }
+
+    private static CharsetEncoder newEncoder(Charset charset) {
+        return charset.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    public Charset getCharset() {
+        return charset;
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException {
+        checkNotClosed();
+        if (len == 0) {
+            return;
+        }
+
+        final CharBuffer cb;
+        if (leftoverChars == null) {
+            cb = CharBuffer.wrap(cbuf, off, len);
+        } else {
+            char[] joined = new char[leftoverChars.length + len];
+            System.arraycopy(leftoverChars, 0, joined, 0, leftoverChars.length);
+            System.arraycopy(cbuf, off, joined, leftoverChars.length, len);
+            leftoverChars = null;
+            cb = CharBuffer.wrap(joined);
+        }
+        encode(cb, false);
+        if (cb.hasRemaining()) {
+            char[] leftover = new char[cb.remaining()];
+            cb.get(leftover);
+            leftoverChars = leftover;
+        }
+    }
+
+    @Override
+    public void write(String str, int off, int len) throws IOException {
+        // Encoders are much faster with array backed CharBuffer-s, so we copy the String in chunks.
+        char[] stringCopyBuffer = this.stringCopyBuffer;
+        if (stringCopyBuffer == null) {
+            stringCopyBuffer = new char[STRING_COPY_BUFFER_SIZE];
+            this.stringCopyBuffer = stringCopyBuffer;
+        }
+        final int end = off + len;
+        while (off < end) {
+            int chunkLen = Math.min(end - off, STRING_COPY_BUFFER_SIZE);
+            str.getChars(off, off + chunkLen, stringCopyBuffer, 0);
+            write(stringCopyBuffer, 0, chunkLen);
+            off += chunkLen;
+        }
+    }
+
+    @Override
+    public void write(int c) throws IOException {
+        write(new char[] { (char) c }, 0, 1);
+    }
+
+    /**
+     * Writes bytes that were encoded with the charset of this writer, as by {@link #encode(String, Charset)}.
+     */
+    void writePreEncoded(byte[] bytes) throws IOException {
+        checkNotClosed();
+        endEncoding();
+        final int len = bytes.length;
+        if (len > byteBuffer.remaining()) {
+            flushBuffer();
+            if (len >= byteBuffer.capacity()) {
+                out.write(bytes);
+                return;
+            }
+        }
+        byteBuffer.put(bytes);
+    }
+
+    private void encode(CharBuffer cb, boolean endOfInput) throws IOException {
+        encoderDirty = true;
+        while (true) {
+            CoderResult cr = encoder.encode(cb, byteBuffer, endOfInput);
+            if (cr.isOverflow()) {
+                flushBuffer();
+            } else if (cr.isUnderflow()) {
+                return;
+            } else {
+                // Can't happen, as we use CodingErrorAction.REPLACE
+                cr.throwException();
+            }
+        }
+    }
+
+    /**
+     * Brings the encoder back to its initial state, so that pre-encoded bytes can follow. This matters for stateful
+     * charsets (like {@code ISO-2022-JP}), and for the left over characters that couldn't be encoded yet.
+     */
+    private void endEncoding() throws IOException {
+        if (!encoderDirty) {
+            return;
+        }
+
+        final CharBuffer cb;
+        if (leftoverChars != null) {
+            cb = CharBuffer.wrap(leftoverChars);
+            leftoverChars = null;
+        } else {
+            cb = CharBuffer.wrap(new char[0]);
+        }
+        encode(cb, true);
+        while (encoder.flush(byteBuffer).isOverflow()) {
+            flushBuffer();
+        }
+        encoder.reset();
+        encoderDirty = false;
+    }
+
+    private void flushBuffer() throws IOException {
+        if (byteBuffer.position() != 0) {
+            out.write(byteBuffer.array(), byteBuffer.arrayOffset(), byteBuffer.position());
+            byteBuffer.clear();
+        }
+    }
+
+    /**
+     * Writes the buffered bytes into the {@link OutputStream}, but unlike {@link #flush()}, doesn't flush the
+     * {@link OutputStream} itself.
+     */
+    public void flushBuffer(boolean endEncoding) throws IOException {
+        checkNotClosed();
+        if (endEncoding) {
+            endEncoding();
+        }
+        flushBuffer();
+    }
+
+    @Override
+    public void flush() throws IOException {
+        flushBuffer(false);
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        try {
+            endEncoding();
+            flushBuffer();
+        } finally {
+            closed = true;
+            out.close();
+        }
+    }
+
+    private void checkNotClosed() throws IOException {
+        if (closed) {
+            throw new IOException("Writer was already closed");
+        }
+    }
+
+    /**
+     * Used for caching the encoded form of a text on the text itself.
+     */
+    static final class EncodedText {
+
+        private final Charset charset;
+        private final byte[] bytes;
+
+        EncodedText(Charset charset, byte[] bytes) {
+            this.charset = charset;
+            this.bytes = bytes;
+        }
+
+        Charset getCharset() {
+            return charset;
+        }
+
+        byte[] getBytes() {
+            return bytes;
+        }
+
+    }
+
+}
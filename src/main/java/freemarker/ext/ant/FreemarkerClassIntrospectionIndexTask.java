@@ -0,0 +1,260 @@
+/*
+ * Copyright 2014 Attila Szegedi, Daniel Dekany, Jonathan Revusky
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package freemarker.ext.ant;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.StringTokenizer;
+import java.util.jar.JarFile;
+import java.util.zip.ZipEntry;
+
+import org.apache.tools.ant.AntClassLoader;
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.Task;
+import org.apache.tools.ant.types.Path;
+import org.apache.tools.ant.types.Reference;
+
+import freemarker.ext.beans.BeansWrapper;
+import freemarker.ext.beans.BeansWrapperBuilder;
+import freemarker.ext.beans.ClassIntrospectionIndex;
+import freemarker.template.Configuration;
+
+/**
+ * <p>This is an <a href="http://jakarta.apache.org/ant/" target="_top">Ant</a> task for writing a
+ * {@link ClassIntrospectionIndex} file, which can be loaded at application start-up with
+ * {@link ClassIntrospectionIndex#load(java.io.InputStream)}, and then set in the object wrapper with
+ * {@link freemarker.ext.beans.BeansWrapperConfiguration#setClassIntrospectionIndex(ClassIntrospectionIndex)}. It's
+ * the same as calling {@link BeansWrapper#writeClassIntrospectionIndex(java.util.Collection, OutputStream)}.</p>
+ * <p>It supports the following attributes:</p>
+ * <table style="width: auto; border-collapse: collapse" border="1" summary="FreeMarker class introspection index ant task attributes">
+ *   <tr>
+ *     <th valign="top" align="left">Attribute</th>
+ *     <th valign="top" align="left">Description</th>
+ *     <th valign="top">Required</th>
+ *   </tr>
+ *   <tr>
+ *     <td valign="top">destfile</td>
+ *     <td valign="top">the index file to write.</td>
+ *     <td align="center" valign="top">Yes</td>
+ *   </tr>
+ *   <tr>
+ *     <td valign="top">classes</td>
+ *     <td valign="top">comma-separated list of the fully qualified names of the classes to add to the index.</td>
+ *     <td valign="top" align="center" rowspan="2">At least one of these</td>
+ *   </tr>
+ *   <tr>
+ *     <td valign="top">packages</td>
+ *     <td valign="top">comma-separated list of package names; all public classes directly in these packages
+ *       (but not in their subpackages) that are found on the classpath are added to the index.</td>
+ *   </tr>
+ *   <tr>
+ *     <td valign="top">classpath</td>
+ *     <td valign="top">the classpath of the classes. It can also be specified with a nested
+ *       <tt>&lt;classpath&gt;</tt> element, or as a reference with <tt>classpathref</tt>.</td>
+ *     <td valign="top" align="center">No</td>
+ *   </tr>
+ *   <tr>
+ *     <td valign="top">exposureLevel</td>
+ *     <td valign="top">the {@link BeansWrapper#setExposureLevel(int) exposure level} of the object wrapper
+ *       where the index will be used: <tt>all</tt>, <tt>safe</tt>, <tt>properties_only</tt>, or
+ *       <tt>nothing</tt>. Defaults to <tt>safe</tt>.</td>
+ *     <td valign="top" align="center">No</td>
+ *   </tr>
+ *   <tr>
+ *     <td valign="top">useJavaBeansIntrospector</td>
+ *     <td valign="top">the {@link BeansWrapper#setUseJavaBeansIntrospector(boolean) useJavaBeansIntrospector}
+ *       setting of the object wrapper where the index will be used. Defaults to <tt>true</tt>.</td>
+ *     <td valign="top" align="center">No</td>
+ *   </tr>
+ * </table>
+ * <p>As a {@link freemarker.ext.beans.MethodAppearanceFineTuner} can't be specified here, an index for an object
+ * wrapper that uses one must be written with
+ * {@link BeansWrapper#writeClassIntrospectionIndex(java.util.Collection, OutputStream)}.</p>
+ *
+ * @since 2.3.24
+ */
+public class FreemarkerClassIntrospectionIndexTask extends Task {
+
+    private File destFile;
+    private String classes;
+    private String packages;
+    private Path classpath;
+    private int exposureLevel = BeansWrapper.EXPOSE_SAFE;
+    private boolean useJavaBeansIntrospector = true;
+
+    public void setDestfile(File destFile) {
+        this.destFile = destFile;
+    }
+
+    public void setClasses(String classes) {
+        this.classes = classes;
+    }
+
+    public void setPackages(String packages) {
+        this.packages = packages;
+    }
+
+    public void setClasspath(Path classpath) {
+        createClasspath().append(classpath);
+    }
+
+    public void setClasspathref(Reference reference) {
+        createClasspath().setRefid(reference);
+    }
+
+    public Path createClasspath() {
+        if (classpath == null) {
+            classpath = new Path(getProject());
+        }
+        return classpath.createPath();
+    }
+
+    public void setExposureLevel(String exposureLevel) {
+        if (exposureLevel.equals("all")) {
+            this.exposureLevel = BeansWrapper.EXPOSE_ALL;
+        } else if (exposureLevel.equals("safe")) {
+            this.exposureLevel = BeansWrapper.EXPOSE_SAFE;
+        } else if (exposureLevel.equals("properties_only")) {
+            this.exposureLevel = BeansWrapper.EXPOSE_PROPERTIES_ONLY;
+        } else if (exposureLevel.equals("nothing")) {
+            this.exposureLevel = BeansWrapper.EXPOSE_NOTHING;
+        } else {
+            throw new BuildException("Illegal exposureLevel: " + exposureLevel
+                    + "; it must be one of: all, safe, properties_only, nothing");
+        }
+    }
+
+    public void setUseJavaBeansIntrospector(boolean useJavaBeansIntrospector) {
+        this.useJavaBeansIntrospector = useJavaBeansIntrospector;
+    }
+
+    @Override
+    public void execute() throws BuildException {
+        if (destFile == null) {
+            throw new BuildException("The destfile attribute must be set.");
+        }
+        if (classes == null && packages == null) {
+            throw new BuildException("At least one of the classes and packages attributes must be set.");
+        }
+
+        AntClassLoader classLoader = classpath != null
+                ? getProject().createClassLoader(classpath)
+                : getProject().createClassLoader(new Path(getProject()));
+        classLoader.setParent(getClass().getClassLoader());
+        try {
+            List/*<Class>*/ indexedClasses = new ArrayList();
+            if (classes != null) {
+                for (StringTokenizer st = new StringTokenizer(classes, ", \t\r\n"); st.hasMoreTokens(); ) {
+                    String className = st.nextToken();
+                    try {
+                        indexedClasses.add(Class.forName(className, false, classLoader));
+                    } catch (ClassNotFoundException e) {
+                        throw new BuildException("Class not found: " + className, e);
+                    }
+                }
+            }
+            if (packages != null) {
+                for (StringTokenizer st = new StringTokenizer(packages, ", \t\r\n"); st.hasMoreTokens(); ) {
+                    addPackageClasses(st.nextToken(), classLoader, indexedClasses);
+                }
+            }
+
+            BeansWrapperBuilder bwb = new BeansWrapperBuilder(Configuration.VERSION_2_3_0);
+            bwb.setExposureLevel(exposureLevel);
+            bwb.setUseJavaBeansIntrospector(useJavaBeansIntrospector);
+            BeansWrapper bw = bwb.build();
+
+            log("Writing the class introspection index of " + indexedClasses.size() + " classes to " + destFile);
+            OutputStream out = new BufferedOutputStream(new FileOutputStream(destFile));
+            try {
+                bw.writeClassIntrospectionIndex(indexedClasses, out);
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            throw new BuildException("Failed to write " + destFile, e);
+        } finally {
+            classLoader.cleanup();
+        }
+    }
+
+    private void addPackageClasses(String packageName, ClassLoader classLoader, List/*<Class>*/ indexedClasses)
+            throws IOException {
+        final String packagePath = packageName.replace('.', '/');
+        List/*<String>*/ classNames = new ArrayList();
+        String[] classpathElements = classpath != null ? classpath.list() : new String[0];
+        for (int i = 0; i < classpathElements.length; i++) {
+            File classpathElement = new File(classpathElements[i]);
+            if (classpathElement.isDirectory()) {
+                File[] files = new File(classpathElement, packagePath).listFiles();
+                if (files != null) {
+                    for (int j = 0; j < files.length; j++) {
+                        addClassName(packageName, files[j].getName(), classNames);
+                    }
+                }
+            } else if (classpathElement.isFile()) {
+                JarFile jarFile = new JarFile(classpathElement);
+                try {
+                    for (Enumeration entries = jarFile.entries(); entries.hasMoreElements(); ) {
+                        String entryName = ((ZipEntry) entries.nextElement()).getName();
+                        int lastSlashIdx = entryName.lastIndexOf('/');
+                        if (lastSlashIdx == packagePath.length() && entryName.startsWith(packagePath)) {
+                            addClassName(packageName, entryName.substring(lastSlashIdx + 1), classNames);
+                        }
+                    }
+                } finally {
+                    jarFile.close();
+                }
+            }
+        }
+
+        if (classNames.isEmpty()) {
+            log("No classes were found in package " + packageName, Project.MSG_WARN);
+        }
+        for (int i = 0; i < classNames.size(); i++) {
+            String className = (String) classNames.get(i);
+            Class clazz;
+            try {
+                clazz = Class.forName(className, false, classLoader);
+            } catch (Throwable e) {
+                log("Skipped class " + className + ", as it couldn't be loaded: " + e, Project.MSG_WARN);
+                continue;
+            }
+            if (Modifier.isPublic(clazz.getModifiers())) {
+                indexedClasses.add(clazz);
+            }
+        }
+    }
+
+    private static void addClassName(String packageName, String fileName, List/*<String>*/ classNames) {
+        if (fileName.endsWith(".class") && !fileName.equals("package-info.class")) {
+            String className = packageName + "." + fileName.substring(0, fileName.length() - ".class".length());
+            if (!classNames.contains(className)) {
+                classNames.add(className);
+            }
+        }
+    }
+
+}
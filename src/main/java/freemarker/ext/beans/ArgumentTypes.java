@@ -75,6 +75,13 @@ final class ArgumentTypes {
         this.bugfixed = bugfixed;
     }
     
+    /**
+     * The types of the arguments; don't modify the returned array.
+     */
+    Class[] getTypes() {
+        return types;
+    }
+    
     @Override
     public int hashCode() {
         int hash = 0;
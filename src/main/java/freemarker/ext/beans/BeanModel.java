@@ -23,10 +23,10 @@ import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import freemarker.core.CollectionAndSequence;
 import freemarker.core._DelayedFTLTypeDescription;
@@ -78,8 +78,8 @@ implements
 
     // Cached template models that implement member properties and methods for this
     // instance. Keys are FeatureDescriptor instances (from classCache values),
-    // values are either ReflectionMethodModels/ReflectionScalarModels
-    private HashMap memberMap;
+    // values are either ReflectionMethodModels/ReflectionScalarModels. Created on demand; read without locking.
+    private volatile ConcurrentHashMap memberMap;
 
     /**
      * Creates a new model that wraps the specified object. Note that there are
@@ -180,13 +180,17 @@ implements
         } catch (TemplateModelException e) {
             throw e;
         } catch (Exception e) {
-            throw new _TemplateModelException(e,
-                    "An error has occurred when reading existing sub-variable ", new _DelayedJQuote(key),
-                    "; see cause exception! The type of the containing value was: ",
-                    new _DelayedFTLTypeDescription(this)
-            );
+            throw newGetFailedException(key, e);
         }
     }
+    
+    TemplateModelException newGetFailedException(String key, Exception e) {
+        return new _TemplateModelException(e,
+                "An error has occurred when reading existing sub-variable ", new _DelayedJQuote(key),
+                "; see cause exception! The type of the containing value was: ",
+                new _DelayedFTLTypeDescription(this)
+        );
+    }
 
     private void logNoSuchKey(String key, Map keyMap) {
         LOG.debug("Key " + StringUtil.jQuoteNoXSS(key) + " was not found on instance of " + 
@@ -209,12 +213,11 @@ implements
         // See if this particular instance has a cached implementation
         // for the requested feature descriptor
         TemplateModel member;
-        synchronized (this) {
-            if (memberMap != null) {
-                member = (TemplateModel) memberMap.get(desc);
-            } else {
-                member = null;
-            }
+        ConcurrentHashMap memberMap = this.memberMap;
+        if (memberMap != null) {
+            member = (TemplateModel) memberMap.get(desc);
+        } else {
+            member = null;
         }
 
         if (member != null)
@@ -245,20 +248,23 @@ implements
         
         // If new cacheable member was created, cache it
         if (member != null) {
-            synchronized (this) {
-                if (memberMap == null) {
-                    memberMap = new HashMap();
+            if (memberMap == null) {
+                synchronized (this) {
+                    memberMap = this.memberMap;
+                    if (memberMap == null) {
+                        // Most beans are accessed through a few members only, hence the small initial size
+                        memberMap = new ConcurrentHashMap(4, 0.75f, 1);
+                        this.memberMap = memberMap;
+                    }
                 }
-                memberMap.put(desc, member);
             }
+            memberMap.put(desc, member);
         }
         return retval;
     }
     
     void clearMemberCache() {
-        synchronized (this) {
-            memberMap = null;
-        }
+        memberMap = null;
     }
 
     protected TemplateModel invokeGenericGet(Map keyMap, Class clazz, String key)
@@ -0,0 +1,174 @@
+/*
+ * Copyright 2014 Attila Szegedi, Daniel Dekany, Jonathan Revusky
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package freemarker.ext.beans;
+
+import java.beans.IndexedPropertyDescriptor;
+import java.beans.IntrospectionException;
+import java.beans.PropertyDescriptor;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Finds the JavaBeans properties of a class based on the getter naming conventions, without using
+ * {@link java.beans.Introspector}. Used instead of that when {@link BeansWrapper#setUseJavaBeansIntrospector(boolean)}
+ * is {@code false}.
+ *
+ * <p>
+ * The result is the same as with {@link java.beans.Introspector}, except that:
+ * <ul>
+ * <li>Explicit {@link java.beans.BeanInfo} classes (like {@code FooBeanInfo} for {@code Foo}) are ignored.
+ * <li>Only the read methods are discovered, as FreeMarker doesn't use the write methods.
+ * <li>The methods inherited from super-interfaces are considered for interfaces too.
+ * </ul>
+ */
+final class BeanPropertyScanner {
+
+    private BeanPropertyScanner() {
+        // Not meant to be instantiated
+    }
+
+    /**
+     * Returns the public methods of the class, but with only one {@link Method} per name and parameter type list; the
+     * same as {@link Class#getMethods()}, except that bridge methods are dropped if there's a non-bridge method with the
+     * same signature, and from covariant overrides only the one with the most specific return type is kept.
+     */
+    static Method[] getMethods(Class clazz) {
+        Method[] methods = clazz.getMethods();
+        Map/*<List<Object>, Method>*/ methodsBySignature = new HashMap(methods.length * 2);
+        List/*<Method>*/ result = new ArrayList(methods.length);
+        for (int i = 0; i < methods.length; i++) {
+            Method method = methods[i];
+            List signature = getSignature(method);
+            Method prevMethod = (Method) methodsBySignature.get(signature);
+            if (prevMethod == null) {
+                methodsBySignature.put(signature, method);
+                result.add(method);
+            } else if (isPreferredOver(method, prevMethod)) {
+                methodsBySignature.put(signature, method);
+                result.set(result.indexOf(prevMethod), method);
+            }
+        }
+        return (Method[]) result.toArray(new Method[result.size()]);
+    }
+
+    private static List getSignature(Method method) {
+        Class[] paramTypes = method.getParameterTypes();
+        Object[] signature = new Object[paramTypes.length + 1];
+        signature[0] = method.getName();
+        System.arraycopy(paramTypes, 0, signature, 1, paramTypes.length);
+        return Arrays.asList(signature);
+    }
+
+    private static boolean isPreferredOver(Method method, Method otherMethod) {
+        if (method.isBridge() != otherMethod.isBridge()) {
+            return otherMethod.isBridge();
+        }
+        return otherMethod.getReturnType().isAssignableFrom(method.getReturnType());
+    }
+
+    /**
+     * Returns the property descriptors for the given methods, which normally come from {@link #getMethods(Class)}.
+     * The read method of an {@link IndexedPropertyDescriptor} might be {@code null}, but its indexed read method never
+     * is. The write methods are always {@code null}.
+     */
+    static PropertyDescriptor[] getPropertyDescriptors(Method[] methods) throws IntrospectionException {
+        // The values are Method[] { readMethod, isMethod, indexedReadMethod }
+        Map/*<String, Method[]>*/ propReadMethods = new HashMap();
+        for (int i = 0; i < methods.length; i++) {
+            Method method = methods[i];
+            if (Modifier.isStatic(method.getModifiers())) {
+                continue;
+            }
+
+            String name = method.getName();
+            Class returnType = method.getReturnType();
+            int paramCount = method.getParameterTypes().length;
+            final String propName;
+            final int methodKind;
+            if (name.startsWith("get") && name.length() > 3 && returnType != void.class) {
+                if (paramCount == 0) {
+                    methodKind = 0;
+                } else if (paramCount == 1 && method.getParameterTypes()[0] == int.class) {
+                    methodKind = 2;
+                } else {
+                    continue;
+                }
+                propName = decapitalize(name.substring(3));
+            } else if (name.startsWith("is") && name.length() > 2 && returnType == boolean.class && paramCount == 0) {
+                methodKind = 1;
+                propName = decapitalize(name.substring(2));
+            } else {
+                continue;
+            }
+
+            Method[] readMethods = (Method[]) propReadMethods.get(propName);
+            if (readMethods == null) {
+                readMethods = new Method[3];
+                propReadMethods.put(propName, readMethods);
+            }
+            readMethods[methodKind] = method;
+        }
+
+        PropertyDescriptor[] result = new PropertyDescriptor[propReadMethods.size()];
+        int resultLength = 0;
+        for (Iterator it = propReadMethods.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry ent = (Map.Entry) it.next();
+            String propName = (String) ent.getKey();
+            Method[] readMethods = (Method[]) ent.getValue();
+            // Like java.beans.Introspector, prefer isFoo() over getFoo()
+            Method readMethod = readMethods[1] != null ? readMethods[1] : readMethods[0];
+            Method indexedReadMethod = readMethods[2];
+            if (indexedReadMethod != null
+                    && (readMethod == null
+                            || readMethod.getReturnType().isArray()
+                                    && readMethod.getReturnType().getComponentType()
+                                            == indexedReadMethod.getReturnType())) {
+                result[resultLength++] = new IndexedPropertyDescriptor(
+                        propName, readMethod, null, indexedReadMethod, null);
+            } else if (readMethod != null) {
+                result[resultLength++] = new PropertyDescriptor(propName, readMethod, null);
+            }
+        }
+        if (resultLength != result.length) {
+            PropertyDescriptor[] trimmedResult = new PropertyDescriptor[resultLength];
+            System.arraycopy(result, 0, trimmedResult, 0, resultLength);
+            result = trimmedResult;
+        }
+        return result;
+    }
+
+    /**
+     * Same as {@link java.beans.Introspector#decapitalize(String)}.
+     */
+    static String decapitalize(String name) {
+        if (name.length() == 0
+                || name.length() > 1 && Character.isUpperCase(name.charAt(1)) && Character.isUpperCase(name.charAt(0))
+                || Character.isLowerCase(name.charAt(0))) {
+            return name;
+        }
+        char[] chars = name.toCharArray();
+        chars[0] = Character.toLowerCase(chars[0]);
+        return new String(chars);
+    }
+
+}
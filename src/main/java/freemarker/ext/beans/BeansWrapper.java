@@ -17,6 +17,8 @@
 package freemarker.ext.beans;
 
 import java.beans.PropertyDescriptor;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.lang.reflect.AccessibleObject;
 import java.lang.reflect.Array;
 import java.lang.reflect.Constructor;
@@ -24,6 +26,7 @@ import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.math.BigDecimal;
 import java.math.BigInteger;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
@@ -33,6 +36,11 @@ import java.util.List;
 import java.util.Map;
 import java.util.ResourceBundle;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
 import freemarker.core.BugException;
 import freemarker.core._DelayedFTLTypeDescription;
@@ -195,6 +203,7 @@ public class BeansWrapper implements RichObjectWrapper, WriteProtectable {
     private boolean methodsShadowItems = true;
     private boolean simpleMapWrapper;  // initialized by PropertyAssignments.apply
     private boolean strict;  // initialized by PropertyAssignments.apply
+    private boolean useMethodHandles;  // initialized by PropertyAssignments.apply
     
     private final Version incompatibleImprovements;
     
@@ -335,6 +344,7 @@ public class BeansWrapper implements RichObjectWrapper, WriteProtectable {
         defaultDateType = bwConf.getDefaultDateType();
         outerIdentity = bwConf.getOuterIdentity() != null ? bwConf.getOuterIdentity() : this;
         strict = bwConf.isStrict();
+        useMethodHandles = bwConf.getUseMethodHandles();
         
         if (!writeProtected) {
             // As this is not a read-only BeansWrapper, the classIntrospector will be possibly replaced for a few times,
@@ -586,6 +596,61 @@ public class BeansWrapper implements RichObjectWrapper, WriteProtectable {
         return classIntrospector.getExposeFields();
     }
     
+    /**
+     * Sets whether the JavaBeans properties of classes are discovered with {@link java.beans.Introspector} (the
+     * default), or with a simpler built-in scanner that only looks at the getter method names ({@code getFoo()},
+     * {@code isFoo()}, {@code getFoo(int)}). The built-in scanner is considerably faster, and avoids the internal
+     * locking of {@link java.beans.Introspector}, but it ignores explicit {@link java.beans.BeanInfo} classes. The
+     * {@link #setExposureLevel(int) exposure level} and the {@link #setMethodAppearanceFineTuner(MethodAppearanceFineTuner)
+     * MethodAppearanceFineTuner} are applied the same way in both cases.
+     * 
+     * @since 2.3.24
+     */
+    public void setUseJavaBeansIntrospector(boolean useJavaBeansIntrospector) {
+        checkModifiable();
+        
+        if (classIntrospector.getUseJavaBeansIntrospector() != useJavaBeansIntrospector) {
+            ClassIntrospectorBuilder pa = classIntrospector.getPropertyAssignments();
+            pa.setUseJavaBeansIntrospector(useJavaBeansIntrospector);
+            replaceClassIntrospector(pa);
+        }
+    }
+    
+    /**
+     * See {@link #setUseJavaBeansIntrospector(boolean)}.
+     * 
+     * @since 2.3.24
+     */
+    public boolean getUseJavaBeansIntrospector() {
+        return classIntrospector.getUseJavaBeansIntrospector();
+    }
+    
+    /**
+     * Sets the {@link ClassIntrospectionIndex} to use when introspecting the classes that are listed in it; see
+     * {@link ClassIntrospectionIndex} for more. Can be {@code null} (the default), in which case all classes are
+     * introspected as usual.
+     * 
+     * @since 2.3.24
+     */
+    public void setClassIntrospectionIndex(ClassIntrospectionIndex classIntrospectionIndex) {
+        checkModifiable();
+        
+        if (classIntrospector.getClassIntrospectionIndex() != classIntrospectionIndex) {
+            ClassIntrospectorBuilder pa = classIntrospector.getPropertyAssignments();
+            pa.setClassIntrospectionIndex(classIntrospectionIndex);
+            replaceClassIntrospector(pa);
+        }
+    }
+    
+    /**
+     * See {@link #setClassIntrospectionIndex(ClassIntrospectionIndex)}.
+     * 
+     * @since 2.3.24
+     */
+    public ClassIntrospectionIndex getClassIntrospectionIndex() {
+        return classIntrospector.getClassIntrospectionIndex();
+    }
+    
     public MethodAppearanceFineTuner getMethodAppearanceFineTuner() {
         return classIntrospector.getMethodAppearanceFineTuner();
     }
@@ -758,6 +823,29 @@ public class BeansWrapper implements RichObjectWrapper, WriteProtectable {
         return modelCache.getUseCache();
     }
     
+    /**
+     * Sets whether JavaBeans property read methods should be called through {@code java.lang.invoke.MethodHandle}-s
+     * instead of through Java reflection, where FreeMarker caches the resolved read method (as of this writing, for
+     * {@code obj.propertyName} expressions). This requires Java 7 or later; on earlier Java versions, or if the
+     * {@code MethodHandle} can't be created for a method, reflection will be used silently. Whether this is faster
+     * depends on the JVM, so it defaults to {@code false}.
+     * 
+     * @since 2.3.24
+     */
+    public void setUseMethodHandles(boolean useMethodHandles) {
+        checkModifiable();
+        this.useMethodHandles = useMethodHandles;
+    }
+
+    /**
+     * See {@link #setUseMethodHandles(boolean)}.
+     * 
+     * @since 2.3.24
+     */
+    public boolean getUseMethodHandles() {
+        return useMethodHandles;
+    }
+    
     /**
      * Sets the null model. This model is returned from the {@link #wrap(Object)} method whenever the wrapped object is
      * {@code null}. It defaults to {@code null}, which is dealt with quite strictly on engine level, however you can
@@ -1537,6 +1625,84 @@ public class BeansWrapper implements RichObjectWrapper, WriteProtectable {
         }
     }
 
+    /**
+     * Creates the introspection data of the given classes in advance, so that the first template processings that
+     * use them needn't wait for that. As class introspection is relatively slow, and normally happens when a class is
+     * first used in a template, it's useful to call this after the application has started, with the classes that the
+     * data-model is known to contain.
+     * 
+     * @param classes
+     *            The {@link Class}-es to introspect; not {@code null}. The classes already in the introspection cache
+     *            are skipped quickly.
+     * @param executorService
+     *            If not {@code null}, the classes will be introspected parallel, with the tasks submitted to this
+     *            {@link ExecutorService}, however this method still waits until all of them finishes. If {@code null},
+     *            the classes will be introspected on the current thread.
+     * 
+     * @throws ExecutionException
+     *             If the introspection of a class has failed; the cause exception is the original exception. The
+     *             introspection of the other classes is still attempted (and finished, if parallel).
+     * 
+     * @since 2.3.24
+     */
+    public void introspectClasses(Collection/*<Class>*/ classes, ExecutorService executorService)
+            throws InterruptedException, ExecutionException {
+        final ClassIntrospector classIntrospector = this.classIntrospector;
+        List/*<Future>*/ futures = new ArrayList(classes.size());
+        for (Iterator it = classes.iterator(); it.hasNext(); ) {
+            final Class clazz = (Class) it.next();
+            Callable task = new Callable() {
+                public Object call() throws Exception {
+                    classIntrospector.get(clazz);
+                    return null;
+                }
+            };
+            if (executorService != null) {
+                futures.add(executorService.submit(task));
+            } else {
+                FutureTask future = new FutureTask(task);
+                future.run();
+                futures.add(future);
+            }
+        }
+        
+        ExecutionException firstFailure = null;
+        for (Iterator it = futures.iterator(); it.hasNext(); ) {
+            try {
+                ((Future) it.next()).get();
+            } catch (ExecutionException e) {
+                if (firstFailure == null) {
+                    firstFailure = e;
+                }
+            }
+        }
+        if (firstFailure != null) {
+            throw firstFailure;
+        }
+    }
+    
+    /**
+     * Writes a {@link ClassIntrospectionIndex} that contains the introspection results of the given classes, as
+     * they are with the current settings of this object. The result can be loaded with
+     * {@link ClassIntrospectionIndex#load(java.io.InputStream)}. Classes whose class files can't be read (like runtime
+     * generated classes) are left out from the index, with a warning logged.
+     * 
+     * <p>The index should be generated with the same {@link #setExposureLevel(int) exposureLevel},
+     * {@link #setUseJavaBeansIntrospector(boolean) useJavaBeansIntrospector} and
+     * {@link #setMethodAppearanceFineTuner(MethodAppearanceFineTuner) methodAppearanceFineTuner} setting as the
+     * {@link BeansWrapper} where it will be used, otherwise it will be ignored there.
+     * 
+     * @param classes
+     *            The {@link Class}-es to add to the index; not {@code null}.
+     * @param out
+     *            Where the index is written to; not {@code null}. It's not closed by this method.
+     * 
+     * @since 2.3.24
+     */
+    public void writeClassIntrospectionIndex(Collection/*<Class>*/ classes, OutputStream out) throws IOException {
+        ClassIntrospectionIndex.write(classIntrospector, classes, out);
+    }
+    
     /**
      * Removes the introspection data for a class from the cache.
      * Use this if you know that a class is not used anymore in templates.
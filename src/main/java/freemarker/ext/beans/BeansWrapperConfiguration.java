@@ -47,6 +47,7 @@ public abstract class BeansWrapperConfiguration implements Cloneable {
     private ObjectWrapper outerIdentity = null;
     private boolean strict = false;
     private boolean useModelCache = false;
+    private boolean useMethodHandles = false;
     // Attention!
     // - As this object is a cache key, non-normalized field values should be avoided.
     // - Fields with default values must be set until the end of the constructor to ensure that when the lookup happens,
@@ -98,6 +99,7 @@ public abstract class BeansWrapperConfiguration implements Cloneable {
         result = prime * result + (outerIdentity != null ? outerIdentity.hashCode() : 0);
         result = prime * result + (strict ? 1231 : 1237);
         result = prime * result + (useModelCache ? 1231 : 1237);
+        result = prime * result + (useMethodHandles ? 1231 : 1237);
         result = prime * result + classIntrospectorFactory.hashCode();
         return result;
     }
@@ -119,6 +121,7 @@ public abstract class BeansWrapperConfiguration implements Cloneable {
         if (outerIdentity != other.outerIdentity) return false;
         if (strict != other.strict) return false;
         if (useModelCache != other.useModelCache) return false;
+        if (useMethodHandles != other.useMethodHandles) return false;
         if (!classIntrospectorFactory.equals(other.classIntrospectorFactory)) return false;
         
         return true;
@@ -185,6 +188,20 @@ public abstract class BeansWrapperConfiguration implements Cloneable {
         this.useModelCache = useModelCache;
     }
 
+    /** @since 2.3.24 */
+    public boolean getUseMethodHandles() {
+        return useMethodHandles;
+    }
+
+    /**
+     * See {@link BeansWrapper#setUseMethodHandles(boolean)}.
+     * 
+     * @since 2.3.24
+     */
+    public void setUseMethodHandles(boolean useMethodHandles) {
+        this.useMethodHandles = useMethodHandles;
+    }
+
     public Version getIncompatibleImprovements() {
         return incompatibleImprovements;
     }
@@ -207,6 +224,38 @@ public abstract class BeansWrapperConfiguration implements Cloneable {
         classIntrospectorFactory.setExposeFields(exposeFields);
     }
 
+    /**
+     * @since 2.3.24
+     */
+    public boolean getUseJavaBeansIntrospector() {
+        return classIntrospectorFactory.getUseJavaBeansIntrospector();
+    }
+
+    /**
+     * See {@link BeansWrapper#setUseJavaBeansIntrospector(boolean)}.
+     * 
+     * @since 2.3.24
+     */
+    public void setUseJavaBeansIntrospector(boolean useJavaBeansIntrospector) {
+        classIntrospectorFactory.setUseJavaBeansIntrospector(useJavaBeansIntrospector);
+    }
+
+    /**
+     * @since 2.3.24
+     */
+    public ClassIntrospectionIndex getClassIntrospectionIndex() {
+        return classIntrospectorFactory.getClassIntrospectionIndex();
+    }
+
+    /**
+     * See {@link BeansWrapper#setClassIntrospectionIndex(ClassIntrospectionIndex)}.
+     * 
+     * @since 2.3.24
+     */
+    public void setClassIntrospectionIndex(ClassIntrospectionIndex classIntrospectionIndex) {
+        classIntrospectorFactory.setClassIntrospectionIndex(classIntrospectionIndex);
+    }
+
     public MethodAppearanceFineTuner getMethodAppearanceFineTuner() {
         return classIntrospectorFactory.getMethodAppearanceFineTuner();
     }
@@ -21,6 +21,7 @@ import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
+import freemarker.template.SimpleScalar;
 import freemarker.template.TemplateHashModel;
 import freemarker.template.TemplateModel;
 import freemarker.template.TemplateModelException;
@@ -30,6 +31,13 @@ import freemarker.template.utility.ClassUtil;
  * Base class for hash models keyed by Java class names. 
  */
 abstract class ClassBasedModelFactory implements TemplateHashModel {
+    
+    /**
+     * Stored in the {@link #cache} when {@link #createModel(Class)} has returned {@code null}, so that repeated
+     * lookups of such a class don't have to get the shared introspection lock either.
+     */
+    private static final TemplateModel NULL_MODEL = new SimpleScalar("NULL_MODEL");
+    
     private final BeansWrapper wrapper;
     
     private final Map/*<String,TemplateModel>*/ cache = new ConcurrentHashMap();
@@ -54,7 +62,7 @@ abstract class ClassBasedModelFactory implements TemplateHashModel {
     private TemplateModel getInternal(String key) throws TemplateModelException, ClassNotFoundException {
         {
             TemplateModel model = (TemplateModel) cache.get(key);
-            if (model != null) return model;
+            if (model != null) return model != NULL_MODEL ? model : null;
         }
 
         final ClassIntrospector classIntrospector;
@@ -62,7 +70,7 @@ abstract class ClassBasedModelFactory implements TemplateHashModel {
         final Object sharedLock = wrapper.getSharedIntrospectionLock();
         synchronized (sharedLock) {
             TemplateModel model = (TemplateModel) cache.get(key);
-            if (model != null) return model;
+            if (model != null) return model != NULL_MODEL ? model : null;
             
             while (model == null
                     && classIntrospectionsInProgress.contains(key)) {
@@ -76,7 +84,7 @@ abstract class ClassBasedModelFactory implements TemplateHashModel {
                             "Class inrospection data lookup aborded: " + e);
                 }
             }
-            if (model != null) return model;
+            if (model != null) return model != NULL_MODEL ? model : null;
             
             // This will be the thread that introspects this class.
             classIntrospectionsInProgress.add(key);
@@ -99,13 +107,11 @@ abstract class ClassBasedModelFactory implements TemplateHashModel {
             // Warning: model will be null if the class is not good for the subclass.
             // For example, EnumModels#createModel returns null if clazz is not an enum.
             
-            if (model != null) {
-                synchronized (sharedLock) {
-                    // Save it into the cache, but only if nothing relevant has changed while we were outside the lock: 
-                    if (classIntrospector == wrapper.getClassIntrospector()
-                            && classIntrospectorClearingCounter == classIntrospector.getClearingCounter()) {  
-                        cache.put(key, model);
-                    }
+            synchronized (sharedLock) {
+                // Save it into the cache, but only if nothing relevant has changed while we were outside the lock: 
+                if (classIntrospector == wrapper.getClassIntrospector()
+                        && classIntrospectorClearingCounter == classIntrospector.getClearingCounter()) {  
+                    cache.put(key, model != null ? model : NULL_MODEL);
                 }
             }
             return model;
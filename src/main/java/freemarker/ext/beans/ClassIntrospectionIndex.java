@@ -0,0 +1,536 @@
+/*
+ * Copyright 2014 Attila Szegedi, Daniel Dekany, Jonathan Revusky
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package freemarker.ext.beans;
+
+import java.beans.IndexedPropertyDescriptor;
+import java.beans.PropertyDescriptor;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import freemarker.log.Logger;
+import freemarker.template.Configuration;
+import freemarker.template.utility.NullArgumentException;
+import freemarker.template.utility.SecurityUtilities;
+
+/**
+ * The class introspection results of a known set of classes, persisted into a file, so that after the application
+ * was started, these classes needn't be introspected with {@link java.beans.Introspector} (or with the scanner used
+ * when {@link BeansWrapper#setUseJavaBeansIntrospector(boolean)} is {@code false}) again. Instead, the
+ * {@link Method}-s listed in the index are just looked up by their signature, which is considerably faster. This
+ * mostly matters for applications where the start-up time is important, and the data-model contains many classes.
+ *
+ * <p>
+ * An index is created with {@link BeansWrapper#writeClassIntrospectionIndex(Collection, OutputStream)} (or with the
+ * {@link freemarker.ext.ant.FreemarkerClassIntrospectionIndexTask} Ant task), and is loaded with
+ * {@link #load(InputStream)}, then it's used by the {@link BeansWrapper}-s where it was set with
+ * {@link BeansWrapperConfiguration#setClassIntrospectionIndex(ClassIntrospectionIndex)}.
+ *
+ * <p>
+ * Things that are checked before the information in the index is used:
+ * <ul>
+ * <li>For each class, a CRC32-based hash of the class files of the class and of its superclasses and interfaces
+ * (except those loaded by the bootstrap class loader) is stored. If the class was changed since the index was written,
+ * the hash won't match, and then the class will be introspected as usual. (This is to detect outdated indexes, not to
+ * prevent deliberate tampering; the index is as trusted as the application classes themselves.) Classes whose class
+ * file can't be read with {@link ClassLoader#getResourceAsStream(String)} (like runtime generated classes) aren't
+ * added to the index.</li>
+ * <li>The whole index is ignored (with a warning logged) if it was written by another FreeMarker version, or on
+ * another Java specification version, or with another {@link BeansWrapper#setExposureLevel(int) exposure level},
+ * {@link BeansWrapper#setUseJavaBeansIntrospector(boolean) useJavaBeansIntrospector} setting, or with another
+ * {@link MethodAppearanceFineTuner} class. A {@link MethodAppearanceFineTuner} is assumed to behave the same if its
+ * class is the same.</li>
+ * </ul>
+ *
+ * <p>
+ * Public fields and constructors aren't stored in the index, as discovering them is fast anyway.
+ *
+ * <p>
+ * The index only pays off if {@link java.beans.Introspector} is used (which is the default). With
+ * {@link BeansWrapper#setUseJavaBeansIntrospector(boolean) useJavaBeansIntrospector} set to {@code false}, the
+ * introspection is typically already faster than reading and checking the class files for the index.
+ *
+ * <p>
+ * Instances are immutable and thread-safe, and can be shared by any number of {@link BeansWrapper}-s.
+ *
+ * @since 2.3.24
+ */
+public final class ClassIntrospectionIndex {
+
+    private static final Logger LOG = Logger.getLogger("freemarker.beans");
+
+    private static final int MAGIC = 0x464D4349; // "FMCI"
+    private static final int FORMAT_VERSION = 1;
+
+    private static final byte KIND_GENERIC_GET = 'G';
+    private static final byte KIND_PROPERTY = 'P';
+    private static final byte KIND_INDEXED_PROPERTY = 'I';
+    private static final byte KIND_METHOD = 'M';
+    private static final byte KIND_OVERLOADED_METHODS = 'O';
+
+    private static final long NO_HASH = -1;
+
+    private static final Map/*<String, Class>*/ PRIMITIVE_CLASSES_BY_NAME = new HashMap();
+    static {
+        Class[] primitiveClasses = new Class[] {
+                Boolean.TYPE, Byte.TYPE, Short.TYPE, Character.TYPE, Integer.TYPE, Long.TYPE, Float.TYPE, Double.TYPE,
+                Void.TYPE };
+        for (int i = 0; i < primitiveClasses.length; i++) {
+            PRIMITIVE_CLASSES_BY_NAME.put(primitiveClasses[i].getName(), primitiveClasses[i]);
+        }
+    }
+
+    private final String freeMarkerVersion;
+    private final String javaSpecificationVersion;
+    private final int exposureLevel;
+    private final boolean useJavaBeansIntrospector;
+    private final String methodAppearanceFineTunerClassName;
+    private final Map/*<String, ClassRecord>*/ classRecords;
+
+    /** Caches the CRC32 of the class files, as many classes share the same supertypes. */
+    private final Map/*<Class, Long>*/ classFileCrcCache = Collections.synchronizedMap(new WeakHashMap());
+
+    private ClassIntrospectionIndex(
+            String freeMarkerVersion, String javaSpecificationVersion,
+            int exposureLevel, boolean useJavaBeansIntrospector, String methodAppearanceFineTunerClassName,
+            Map classRecords) {
+        this.freeMarkerVersion = freeMarkerVersion;
+        this.javaSpecificationVersion = javaSpecificationVersion;
+        this.exposureLevel = exposureLevel;
+        this.useJavaBeansIntrospector = useJavaBeansIntrospector;
+        this.methodAppearanceFineTunerClassName = methodAppearanceFineTunerClassName;
+        this.classRecords = classRecords;
+    }
+
+    /**
+     * Loads an index that was written earlier with
+     * {@link BeansWrapper#writeClassIntrospectionIndex(Collection, OutputStream)}. The stream isn't closed by this
+     * method.
+     */
+    public static ClassIntrospectionIndex load(InputStream in) throws IOException {
+        NullArgumentException.check("in", in);
+        DataInputStream din = new DataInputStream(new BufferedInputStream(new GZIPInputStream(in)));
+        if (din.readInt() != MAGIC) {
+            throw new IOException("The stream doesn't contain a FreeMarker class introspection index.");
+        }
+        int formatVersion = din.readInt();
+        if (formatVersion != FORMAT_VERSION) {
+            throw new IOException("Unsupported class introspection index format version: " + formatVersion);
+        }
+        String freeMarkerVersion = din.readUTF();
+        String javaSpecificationVersion = din.readUTF();
+        int exposureLevel = din.readInt();
+        boolean useJavaBeansIntrospector = din.readBoolean();
+        String methodAppearanceFineTunerClassName = din.readUTF();
+
+        int classCount = din.readInt();
+        Map classRecords = new HashMap(classCount * 4 / 3 + 1);
+        for (int classIdx = 0; classIdx < classCount; classIdx++) {
+            String className = din.readUTF();
+            long hash = din.readLong();
+            Entry[] entries = new Entry[din.readInt()];
+            for (int entryIdx = 0; entryIdx < entries.length; entryIdx++) {
+                byte kind = din.readByte();
+                String key = din.readUTF();
+                String[][] methods = new String[din.readInt()][];
+                for (int methodIdx = 0; methodIdx < methods.length; methodIdx++) {
+                    methods[methodIdx] = readMethodSignature(din);
+                }
+                entries[entryIdx] = new Entry(kind, key, methods);
+            }
+            classRecords.put(className, new ClassRecord(hash, entries));
+        }
+
+        return new ClassIntrospectionIndex(
+                freeMarkerVersion, javaSpecificationVersion,
+                exposureLevel, useJavaBeansIntrospector, methodAppearanceFineTunerClassName,
+                classRecords);
+    }
+
+    /**
+     * Returns the names of the classes in the index.
+     */
+    public Set/*<String>*/ getClassNames() {
+        return Collections.unmodifiableSet(classRecords.keySet());
+    }
+
+    /**
+     * Implements {@link BeansWrapper#writeClassIntrospectionIndex(Collection, OutputStream)}.
+     */
+    static void write(ClassIntrospector classIntrospector, Collection/*<Class>*/ classes, OutputStream out)
+            throws IOException {
+        NullArgumentException.check("classes", classes);
+        NullArgumentException.check("out", out);
+
+        GZIPOutputStream gzOut = new GZIPOutputStream(out);
+        DataOutputStream dout = new DataOutputStream(new BufferedOutputStream(gzOut));
+        dout.writeInt(MAGIC);
+        dout.writeInt(FORMAT_VERSION);
+        dout.writeUTF(Configuration.getVersion().toString());
+        dout.writeUTF(getJavaSpecificationVersion());
+        dout.writeInt(classIntrospector.exposureLevel);
+        dout.writeBoolean(classIntrospector.useJavaBeansIntrospector);
+        dout.writeUTF(getMethodAppearanceFineTunerClassName(classIntrospector));
+
+        Map classFileCrcCache = new HashMap();
+        List/*<Class>*/ indexedClasses = new ArrayList(classes.size());
+        List/*<Long>*/ hashes = new ArrayList(classes.size());
+        Set/*<String>*/ classNames = new HashSet();
+        for (Iterator it = classes.iterator(); it.hasNext(); ) {
+            Class clazz = (Class) it.next();
+            if (!classNames.add(clazz.getName())) {
+                continue;
+            }
+            long hash = getClassHash(clazz, classFileCrcCache);
+            if (hash != NO_HASH) {
+                indexedClasses.add(clazz);
+                hashes.add(Long.valueOf(hash));
+            } else {
+                LOG.warn("Class " + clazz.getName() + " was left out from the class introspection index, "
+                        + "as some of its class files couldn't be read.");
+            }
+        }
+
+        dout.writeInt(indexedClasses.size());
+        for (int classIdx = 0; classIdx < indexedClasses.size(); classIdx++) {
+            Class clazz = (Class) indexedClasses.get(classIdx);
+            dout.writeUTF(clazz.getName());
+            dout.writeLong(((Long) hashes.get(classIdx)).longValue());
+
+            List/*<Entry>*/ entries = toEntries(classIntrospector.get(clazz));
+            dout.writeInt(entries.size());
+            for (Iterator it = entries.iterator(); it.hasNext(); ) {
+                Entry entry = (Entry) it.next();
+                dout.writeByte(entry.kind);
+                dout.writeUTF(entry.key);
+                dout.writeInt(entry.methods.length);
+                for (int methodIdx = 0; methodIdx < entry.methods.length; methodIdx++) {
+                    writeMethodSignature(dout, entry.methods[methodIdx]);
+                }
+            }
+        }
+
+        dout.flush();
+        gzOut.finish();
+    }
+
+    /**
+     * Converts the class introspection data to {@link Entry}-s. The property entries come first, then the method
+     * entries, as {@link ClassIntrospector} adds them in that order too.
+     */
+    private static List/*<Entry>*/ toEntries(Map introspData) {
+        List propertyEntries = new ArrayList(introspData.size());
+        List methodEntries = new ArrayList(introspData.size());
+        for (Iterator it = introspData.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry mapEntry = (Map.Entry) it.next();
+            Object key = mapEntry.getKey();
+            Object value = mapEntry.getValue();
+            if (key == ClassIntrospector.GENERIC_GET_KEY) {
+                propertyEntries.add(
+                        new Entry(KIND_GENERIC_GET, "", new String[][] { toMethodSignature((Method) value) }));
+            } else if (key instanceof String) {
+                String name = (String) key;
+                if (value instanceof IndexedPropertyDescriptor) {
+                    IndexedPropertyDescriptor ipd = (IndexedPropertyDescriptor) value;
+                    propertyEntries.add(new Entry(KIND_INDEXED_PROPERTY, name, new String[][] {
+                            toMethodSignature(ipd.getReadMethod()), toMethodSignature(ipd.getIndexedReadMethod()) }));
+                } else if (value instanceof PropertyDescriptor) {
+                    propertyEntries.add(new Entry(KIND_PROPERTY, name, new String[][] {
+                            toMethodSignature(((PropertyDescriptor) value).getReadMethod()) }));
+                } else if (value instanceof Method) {
+                    methodEntries.add(
+                            new Entry(KIND_METHOD, name, new String[][] { toMethodSignature((Method) value) }));
+                } else if (value instanceof OverloadedMethods) {
+                    List members = ((OverloadedMethods) value).getMembers();
+                    String[][] methods = new String[members.size()][];
+                    for (int i = 0; i < methods.length; i++) {
+                        methods[i] = toMethodSignature((Method) members.get(i));
+                    }
+                    methodEntries.add(new Entry(KIND_OVERLOADED_METHODS, name, methods));
+                }
+                // Fields are left out, as those are always discovered at runtime
+            }
+        }
+        propertyEntries.addAll(methodEntries);
+        return propertyEntries;
+    }
+
+    /**
+     * Tells if the index was written with the same settings that the given {@link ClassIntrospector} uses, and
+     * logs a warning if not.
+     */
+    boolean isCompatibleWith(ClassIntrospector classIntrospector) {
+        String problem;
+        if (!freeMarkerVersion.equals(Configuration.getVersion().toString())) {
+            problem = "it was written by FreeMarker " + freeMarkerVersion;
+        } else if (!javaSpecificationVersion.equals(getJavaSpecificationVersion())) {
+            problem = "it was written on Java " + javaSpecificationVersion;
+        } else if (exposureLevel != classIntrospector.exposureLevel) {
+            problem = "it was written with exposureLevel " + exposureLevel;
+        } else if (useJavaBeansIntrospector != classIntrospector.useJavaBeansIntrospector) {
+            problem = "it was written with useJavaBeansIntrospector " + useJavaBeansIntrospector;
+        } else if (!methodAppearanceFineTunerClassName.equals(
+                getMethodAppearanceFineTunerClassName(classIntrospector))) {
+            problem = "it was written with "
+                    + (methodAppearanceFineTunerClassName.length() != 0
+                            ? "methodAppearanceFineTuner " + methodAppearanceFineTunerClassName
+                            : "no methodAppearanceFineTuner");
+        } else {
+            return true;
+        }
+        LOG.warn("The class introspection index won't be used, as " + problem + ".");
+        return false;
+    }
+
+    /**
+     * Returns the record of the class, or {@code null} if the class isn't in the index, or the class was changed since
+     * the index was written.
+     */
+    ClassRecord getClassRecord(Class clazz) {
+        ClassRecord classRecord = (ClassRecord) classRecords.get(clazz.getName());
+        if (classRecord == null) {
+            return null;
+        }
+        if (getClassHash(clazz, classFileCrcCache) != classRecord.hash) {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Class " + clazz.getName() + " was changed since the class introspection index was written.");
+            }
+            return null;
+        }
+        return classRecord;
+    }
+
+    /**
+     * Resolves a method signature stored in a {@link Entry}.
+     *
+     * @return {@code null} if {@code signature} was {@code null}
+     */
+    static Method resolveMethod(String[] signature, ClassLoader classLoader)
+            throws ClassNotFoundException, NoSuchMethodException {
+        if (signature == null) {
+            return null;
+        }
+
+        Class declaringClass = Class.forName(signature[0], false, classLoader);
+        ClassLoader declaringClassLoader = declaringClass.getClassLoader();
+        Class[] paramTypes = new Class[signature.length - 3];
+        for (int i = 0; i < paramTypes.length; i++) {
+            paramTypes[i] = forName(signature[i + 3], declaringClassLoader);
+        }
+        Method method = declaringClass.getMethod(signature[1], paramTypes);
+        if (!method.getReturnType().getName().equals(signature[2])) {
+            // There can be multiple methods with the same parameter types if there are bridge methods
+            Method[] methods = declaringClass.getMethods();
+            method = null;
+            for (int i = 0; method == null && i < methods.length; i++) {
+                Method m = methods[i];
+                if (m.getDeclaringClass() == declaringClass && m.getName().equals(signature[1])
+                        && m.getReturnType().getName().equals(signature[2])
+                        && Arrays.equals(m.getParameterTypes(), paramTypes)) {
+                    method = m;
+                }
+            }
+            if (method == null) {
+                throw new NoSuchMethodException(signature[0] + "." + signature[1] + " returning " + signature[2]);
+            }
+        }
+        return method;
+    }
+
+    private static Class forName(String name, ClassLoader classLoader) throws ClassNotFoundException {
+        Class primitiveClass = (Class) PRIMITIVE_CLASSES_BY_NAME.get(name);
+        return primitiveClass != null ? primitiveClass : Class.forName(name, false, classLoader);
+    }
+
+    /**
+     * @return Declaring class name, method name, return type name, then the parameter type names, or {@code null}
+     *         if {@code method} was {@code null}.
+     */
+    private static String[] toMethodSignature(Method method) {
+        if (method == null) {
+            return null;
+        }
+        Class[] paramTypes = method.getParameterTypes();
+        String[] signature = new String[paramTypes.length + 3];
+        signature[0] = method.getDeclaringClass().getName();
+        signature[1] = method.getName();
+        signature[2] = method.getReturnType().getName();
+        for (int i = 0; i < paramTypes.length; i++) {
+            signature[i + 3] = paramTypes[i].getName();
+        }
+        return signature;
+    }
+
+    private static void writeMethodSignature(DataOutputStream dout, String[] signature) throws IOException {
+        if (signature == null) {
+            dout.writeShort(-1);
+            return;
+        }
+        dout.writeShort(signature.length - 3);
+        for (int i = 0; i < signature.length; i++) {
+            dout.writeUTF(signature[i]);
+        }
+    }
+
+    private static String[] readMethodSignature(DataInputStream din) throws IOException {
+        int paramCount = din.readShort();
+        if (paramCount == -1) {
+            return null;
+        }
+        String[] signature = new String[paramCount + 3];
+        for (int i = 0; i < signature.length; i++) {
+            signature[i] = din.readUTF();
+        }
+        return signature;
+    }
+
+    /**
+     * Returns a hash of the class files of the class and of its supertypes, or {@link #NO_HASH} if some of them
+     * couldn't be read. Classes loaded by the bootstrap class loader are skipped, as for those the Java specification
+     * version is checked instead.
+     */
+    private static long getClassHash(Class clazz, Map/*<Class, Long>*/ classFileCrcCache) {
+        List/*<Class>*/ types = new ArrayList();
+        collectTypes(clazz, types, new HashSet());
+        long hash = 1;
+        for (Iterator it = types.iterator(); it.hasNext(); ) {
+            Class type = (Class) it.next();
+            Long crc = (Long) classFileCrcCache.get(type);
+            if (crc == null) {
+                crc = Long.valueOf(getClassFileCrc(type));
+                classFileCrcCache.put(type, crc);
+            }
+            if (crc.longValue() == NO_HASH) {
+                return NO_HASH;
+            }
+            hash = hash * 31 + crc.longValue();
+        }
+        return hash & Long.MAX_VALUE; // So that it can't be NO_HASH
+    }
+
+    private static void collectTypes(Class clazz, List/*<Class>*/ types, Set/*<Class>*/ visited) {
+        if (clazz == null || clazz.getClassLoader() == null || !visited.add(clazz)) {
+            return;
+        }
+        types.add(clazz);
+        collectTypes(clazz.getSuperclass(), types, visited);
+        Class[] interfaces = clazz.getInterfaces();
+        for (int i = 0; i < interfaces.length; i++) {
+            collectTypes(interfaces[i], types, visited);
+        }
+    }
+
+    private static long getClassFileCrc(Class clazz) {
+        String className = clazz.getName();
+        InputStream in = clazz.getClassLoader().getResourceAsStream(className.replace('.', '/') + ".class");
+        if (in == null) {
+            return NO_HASH;
+        }
+        try {
+            try {
+                CRC32 crc = new CRC32();
+                byte[] buffer = new byte[8192];
+                int len;
+                while ((len = in.read(buffer)) != -1) {
+                    crc.update(buffer, 0, len);
+                }
+                return crc.getValue();
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            LOG.warn("Failed to read the class file of " + className, e);
+            return NO_HASH;
+        }
+    }
+
+    private static String getJavaSpecificationVersion() {
+        String version = SecurityUtilities.getSystemProperty("java.specification.version", null);
+        return version != null ? version : "";
+    }
+
+    private static String getMethodAppearanceFineTunerClassName(ClassIntrospector classIntrospector) {
+        MethodAppearanceFineTuner methodAppearanceFineTuner = classIntrospector.methodAppearanceFineTuner;
+        return methodAppearanceFineTuner != null ? methodAppearanceFineTuner.getClass().getName() : "";
+    }
+
+    static final class ClassRecord {
+        final long hash;
+        final Entry[] entries;
+
+        ClassRecord(long hash, Entry[] entries) {
+            this.hash = hash;
+            this.entries = entries;
+        }
+    }
+
+    /**
+     * Corresponds to an entry of the class introspection data {@link Map}, except that the {@link Method}-s are stored
+     * as signatures.
+     */
+    static final class Entry {
+        final byte kind;
+        final String key;
+        final String[][] methods;
+
+        Entry(byte kind, String key, String[][] methods) {
+            this.kind = kind;
+            this.key = key;
+            this.methods = methods;
+        }
+
+        boolean isGenericGet() {
+            return kind == KIND_GENERIC_GET;
+        }
+
+        boolean isProperty() {
+            return kind == KIND_PROPERTY;
+        }
+
+        boolean isIndexedProperty() {
+            return kind == KIND_INDEXED_PROPERTY;
+        }
+
+        boolean isMethod() {
+            return kind == KIND_METHOD;
+        }
+
+        boolean isOverloadedMethods() {
+            return kind == KIND_OVERLOADED_METHODS;
+        }
+    }
+
+}
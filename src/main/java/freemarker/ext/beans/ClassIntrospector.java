@@ -40,6 +40,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import freemarker.core.BugException;
 import freemarker.ext.beans.BeansWrapper.MethodAppearanceDecision;
@@ -118,6 +119,7 @@ class ClassIntrospector {
     // Introspection info Map keys:
 
     private static final Object ARGTYPES_KEY = new Object();
+    private static final Object GETTER_INVOKERS_KEY = new Object();
     static final Object CONSTRUCTORS_KEY = new Object();
     static final Object GENERIC_GET_KEY = new Object();
 
@@ -130,6 +132,8 @@ class ClassIntrospector {
     final boolean exposeFields;
     final MethodAppearanceFineTuner methodAppearanceFineTuner;
     final MethodSorter methodSorter;
+    final boolean useJavaBeansIntrospector;
+    final ClassIntrospectionIndex classIntrospectionIndex;
     final boolean bugfixed;
 
     /** See {@link #getHasSharedInstanceRestrictons()} */
@@ -141,6 +145,9 @@ class ClassIntrospector {
     // -----------------------------------------------------------------------------------------------------------------
     // State fields:
 
+    /** {@link #classIntrospectionIndex} if it's compatible with the settings, otherwise {@code null}. */
+    private final ClassIntrospectionIndex usableClassIntrospectionIndex;
+
     private final Object sharedLock;
     private final Map/* <Class, Map<String, Object>> */cache = new ConcurrentHashMap(0, 0.75f, 16);
     private final Set/* <String> */cacheClassNames = new HashSet(0);
@@ -149,7 +156,8 @@ class ClassIntrospector {
     private final List/* <WeakReference<ClassBasedModelFactory|ModelCache>> */modelFactories = new LinkedList();
     private final ReferenceQueue modelFactoriesRefQueue = new ReferenceQueue();
 
-    private int clearingCounter;
+    /** Volatile, so that it can be checked without locking, like by {@link _BeanPropertyInlineCache}. */
+    private volatile int clearingCounter;
 
     // -----------------------------------------------------------------------------------------------------------------
     // Instantiation:
@@ -177,8 +185,13 @@ class ClassIntrospector {
         this.exposeFields = builder.getExposeFields();
         this.methodAppearanceFineTuner = builder.getMethodAppearanceFineTuner();
         this.methodSorter = builder.getMethodSorter();
+        this.useJavaBeansIntrospector = builder.getUseJavaBeansIntrospector();
+        this.classIntrospectionIndex = builder.getClassIntrospectionIndex();
         this.bugfixed = builder.isBugfixed();
 
+        this.usableClassIntrospectionIndex = classIntrospectionIndex != null
+                && classIntrospectionIndex.isCompatibleWith(this) ? classIntrospectionIndex : null;
+
         this.sharedLock = sharedLock;
 
         this.hasSharedInstanceRestrictons = hasSharedInstanceRestrictons;
@@ -264,16 +277,19 @@ class ClassIntrospector {
             addFieldsToClassIntrospectionData(introspData, clazz);
         }
 
-        final Map accessibleMethods = discoverAccessibleMethods(clazz);
-
-        addGenericGetToClassIntrospectionData(introspData, accessibleMethods);
-
-        if (exposureLevel != BeansWrapper.EXPOSE_NOTHING) {
-            try {
-                addBeanInfoToClassIntrospectionData(introspData, clazz, accessibleMethods);
-            } catch (IntrospectionException e) {
-                LOG.warn("Couldn't properly perform introspection for class " + clazz, e);
-                introspData.clear(); // FIXME NBC: Don't drop everything here.
+        if (usableClassIntrospectionIndex == null
+                || !addIndexedClassIntrospectionData(introspData, clazz)) {
+            final Map accessibleMethods = discoverAccessibleMethods(clazz);
+    
+            addGenericGetToClassIntrospectionData(introspData, accessibleMethods);
+    
+            if (exposureLevel != BeansWrapper.EXPOSE_NOTHING) {
+                try {
+                    addBeanInfoToClassIntrospectionData(introspData, clazz, accessibleMethods);
+                } catch (IntrospectionException e) {
+                    LOG.warn("Couldn't properly perform introspection for class " + clazz, e);
+                    introspData.clear(); // FIXME NBC: Don't drop everything here.
+                }
             }
         }
 
@@ -300,11 +316,82 @@ class ClassIntrospector {
         }
     }
 
+    /**
+     * Adds the properties, methods and the generic get method based on the {@link #usableClassIntrospectionIndex},
+     * instead of introspecting the class.
+     * 
+     * @return {@code false} if the class isn't in the index, or if it's outdated, in which case nothing was added.
+     */
+    private boolean addIndexedClassIntrospectionData(Map introspData, Class clazz) {
+        ClassIntrospectionIndex.ClassRecord classRecord = usableClassIntrospectionIndex.getClassRecord(clazz);
+        if (classRecord == null) {
+            return false;
+        }
+
+        final ClassLoader classLoader = clazz.getClassLoader();
+        final Map indexedIntrospData = new HashMap();
+        try {
+            for (int i = 0; i < classRecord.entries.length; i++) {
+                ClassIntrospectionIndex.Entry entry = classRecord.entries[i];
+                if (entry.isGenericGet()) {
+                    indexedIntrospData.put(
+                            GENERIC_GET_KEY, ClassIntrospectionIndex.resolveMethod(entry.methods[0], classLoader));
+                } else if (entry.isProperty()) {
+                    Method readMethod = ClassIntrospectionIndex.resolveMethod(entry.methods[0], classLoader);
+                    indexedIntrospData.put(entry.key, new PropertyDescriptor(entry.key, readMethod, null));
+                    if (!indexedIntrospData.containsKey(GETTER_INVOKERS_KEY)) {
+                        indexedIntrospData.put(GETTER_INVOKERS_KEY, new ConcurrentHashMap(4, 0.75f, 1));
+                    }
+                } else if (entry.isIndexedProperty()) {
+                    Method readMethod = ClassIntrospectionIndex.resolveMethod(entry.methods[0], classLoader);
+                    Method indexedReadMethod = ClassIntrospectionIndex.resolveMethod(entry.methods[1], classLoader);
+                    indexedIntrospData.put(entry.key,
+                            new IndexedPropertyDescriptor(entry.key, readMethod, null, indexedReadMethod, null));
+                    getArgTypes(indexedIntrospData).put(indexedReadMethod, indexedReadMethod.getParameterTypes());
+                } else if (entry.isMethod()) {
+                    Method method = ClassIntrospectionIndex.resolveMethod(entry.methods[0], classLoader);
+                    indexedIntrospData.put(entry.key, method);
+                    getArgTypes(indexedIntrospData).put(method, method.getParameterTypes());
+                } else if (entry.isOverloadedMethods()) {
+                    OverloadedMethods overloadedMethods = new OverloadedMethods(bugfixed);
+                    for (int j = 0; j < entry.methods.length; j++) {
+                        Method method = ClassIntrospectionIndex.resolveMethod(entry.methods[j], classLoader);
+                        overloadedMethods.addMethod(method);
+                        if (j == 0) {
+                            // Like in addBeanInfoToClassIntrospectionData, where this was the "previous" method
+                            getArgTypes(indexedIntrospData).remove(method);
+                        }
+                    }
+                    indexedIntrospData.put(entry.key, overloadedMethods);
+                }
+            }
+        } catch (Exception e) {
+            // Shouldn't happen if the class hash has matched, but better be safe.
+            LOG.warn("Failed to use the class introspection index for " + clazz.getName()
+                    + "; introspecting it instead.", e);
+            return false;
+        }
+
+        introspData.putAll(indexedIntrospData);
+        return true;
+    }
+
     private void addBeanInfoToClassIntrospectionData(Map introspData, Class clazz, Map accessibleMethods)
             throws IntrospectionException {
-        BeanInfo beanInfo = Introspector.getBeanInfo(clazz);
+        final PropertyDescriptor[] pda;
+        final Method[] methods;
+        if (useJavaBeansIntrospector) {
+            BeanInfo beanInfo = Introspector.getBeanInfo(clazz);
+            pda = beanInfo.getPropertyDescriptors();
+            methods = exposureLevel < BeansWrapper.EXPOSE_PROPERTIES_ONLY
+                    ? getMethods(sortMethodDescriptors(beanInfo.getMethodDescriptors()))
+                    : null;
+        } else {
+            Method[] unsortedMethods = BeanPropertyScanner.getMethods(clazz);
+            pda = BeanPropertyScanner.getPropertyDescriptors(unsortedMethods);
+            methods = exposureLevel < BeansWrapper.EXPOSE_PROPERTIES_ONLY ? sortMethods(unsortedMethods) : null;
+        }
 
-        PropertyDescriptor[] pda = beanInfo.getPropertyDescriptors();
         if (pda != null) {
             int pdaLength = pda.length;
             for (int i = pdaLength - 1; i >= 0; --i) {
@@ -317,12 +404,10 @@ class ClassIntrospector {
         if (exposureLevel < BeansWrapper.EXPOSE_PROPERTIES_ONLY) {
             final MethodAppearanceDecision decision = new MethodAppearanceDecision();
             MethodAppearanceDecisionInput decisionInput = null;
-            final MethodDescriptor[] mda = sortMethodDescriptors(beanInfo.getMethodDescriptors());
-            if (mda != null) {
-                int mdaLength = mda.length;
-                for (int i = mdaLength - 1; i >= 0; --i) {
-                    final MethodDescriptor md = mda[i];
-                    final Method method = getMatchingAccessibleMethod(md.getMethod(), accessibleMethods);
+            if (methods != null) {
+                int methodsLength = methods.length;
+                for (int i = methodsLength - 1; i >= 0; --i) {
+                    final Method method = getMatchingAccessibleMethod(methods[i], accessibleMethods);
                     if (method != null && isAllowedToExpose(method)) {
                         decision.setDefaults(method);
                         if (methodAppearanceFineTuner != null) {
@@ -364,8 +449,8 @@ class ClassIntrospector {
                             }
                         }
                     }
-                } // for each in mda
-            } // if mda != null
+                } // for each in methods
+            } // if methods != null
         } // end if (exposureLevel < EXPOSE_PROPERTIES_ONLY)
     }
 
@@ -404,6 +489,10 @@ class ClassIntrospector {
                         pd.setReadMethod(publicReadMethod);
                     }
                     introspData.put(pd.getName(), pd);
+                    if (!introspData.containsKey(GETTER_INVOKERS_KEY)) {
+                        // Filled on demand, as the invokers are only used with BeansWrapper.setUseMethodHandles(true)
+                        introspData.put(GETTER_INVOKERS_KEY, new ConcurrentHashMap(4, 0.75f, 1));
+                    }
                 } catch (IntrospectionException e) {
                     LOG.warn("Failed creating a publicly-accessible " +
                             "property descriptor for " + clazz.getName() +
@@ -534,6 +623,32 @@ class ClassIntrospector {
         return methodSorter != null ? methodSorter.sortMethodDescriptors(methodDescriptors) : methodDescriptors;
     }
 
+    /**
+     * Same as {@link #sortMethodDescriptors(MethodDescriptor[])}, but avoids creating {@link MethodDescriptor}-s if
+     * there's no {@link #methodSorter}.
+     */
+    private Method[] sortMethods(Method[] methods) throws IntrospectionException {
+        if (methodSorter == null) {
+            return methods;
+        }
+        MethodDescriptor[] methodDescriptors = new MethodDescriptor[methods.length];
+        for (int i = 0; i < methods.length; i++) {
+            methodDescriptors[i] = new MethodDescriptor(methods[i]);
+        }
+        return getMethods(methodSorter.sortMethodDescriptors(methodDescriptors));
+    }
+
+    private static Method[] getMethods(MethodDescriptor[] methodDescriptors) {
+        if (methodDescriptors == null) {
+            return null;
+        }
+        Method[] methods = new Method[methodDescriptors.length];
+        for (int i = 0; i < methodDescriptors.length; i++) {
+            methods[i] = methodDescriptors[i].getMethod();
+        }
+        return methods;
+    }
+
     boolean isAllowedToExpose(Method method) {
         return exposureLevel < BeansWrapper.EXPOSE_SAFE || !UnsafeMethods.isUnsafeMethod(method);
     }
@@ -648,13 +763,18 @@ class ClassIntrospector {
         }
     }
 
+    /**
+     * Tells if the introspection data of the class is in the cache; for unit testing only.
+     */
+    boolean isCached(Class clazz) {
+        return cache.containsKey(clazz);
+    }
+
     /**
      * Returns the number of events so far that could make class introspection data returned earlier outdated.
      */
     int getClearingCounter() {
-        synchronized (sharedLock) {
-            return clearingCounter;
-        }
+        return clearingCounter;
     }
 
     private void onSameNameClassesDetected(String className) {
@@ -731,6 +851,29 @@ class ClassIntrospector {
         return (Class[]) ((Map) classMap.get(ARGTYPES_KEY)).get(methodOrCtor);
     }
 
+    /**
+     * Returns the {@link java.lang.invoke.MethodHandle} based {@link GetterInvoker} (or, where that's not possible,
+     * the reflection based one) of a property read method of the class whose introspection data is
+     * {@code classMap}. It's created on the first request, and then reused by all callers, so the same getter has
+     * only one method handle.
+     */
+    static GetterInvoker getMethodHandleGetterInvoker(Map classMap, Method readMethod) {
+        final ConcurrentMap getterInvokers = (ConcurrentMap) classMap.get(GETTER_INVOKERS_KEY);
+        if (getterInvokers == null) {
+            // Can't happen for the read method of a PropertyDescriptor that came from the class map
+            return GetterInvoker.create(readMethod, true);
+        }
+        GetterInvoker getterInvoker = (GetterInvoker) getterInvokers.get(readMethod);
+        if (getterInvoker == null) {
+            getterInvoker = GetterInvoker.create(readMethod, true);
+            GetterInvoker prevGetterInvoker = (GetterInvoker) getterInvokers.putIfAbsent(readMethod, getterInvoker);
+            if (prevGetterInvoker != null) {
+                getterInvoker = prevGetterInvoker;
+            }
+        }
+        return getterInvoker;
+    }
+
     /**
      * Returns the number of introspected methods/properties that should be available via the TemplateHashModel
      * interface.
@@ -741,6 +884,7 @@ class ClassIntrospector {
         if (map.containsKey(CONSTRUCTORS_KEY)) count--;
         if (map.containsKey(GENERIC_GET_KEY)) count--;
         if (map.containsKey(ARGTYPES_KEY)) count--;
+        if (map.containsKey(GETTER_INVOKERS_KEY)) count--;
         return count;
     }
 
@@ -753,6 +897,7 @@ class ClassIntrospector {
         set.remove(CONSTRUCTORS_KEY);
         set.remove(GENERIC_GET_KEY);
         set.remove(ARGTYPES_KEY);
+        set.remove(GETTER_INVOKERS_KEY);
         return set;
     }
 
@@ -775,6 +920,14 @@ class ClassIntrospector {
         return methodSorter;
     }
 
+    boolean getUseJavaBeansIntrospector() {
+        return useJavaBeansIntrospector;
+    }
+
+    ClassIntrospectionIndex getClassIntrospectionIndex() {
+        return classIntrospectionIndex;
+    }
+
     /**
      * Returns {@code true} if this instance was created with {@link ClassIntrospectorBuilder}, even if it wasn't
      * actually put into the cache (as we reserve the right to do so in later versions).
@@ -37,6 +37,8 @@ final class ClassIntrospectorBuilder implements Cloneable {
     private boolean exposeFields;
     private MethodAppearanceFineTuner methodAppearanceFineTuner;
     private MethodSorter methodSorter;
+    private boolean useJavaBeansIntrospector = true;
+    private ClassIntrospectionIndex classIntrospectionIndex;
     // Attention:
     // - This is also used as a cache key, so non-normalized field values should be avoided.
     // - If some field has a default value, it must be set until the end of the constructor. No field that has a
@@ -49,6 +51,8 @@ final class ClassIntrospectorBuilder implements Cloneable {
         exposeFields = ci.exposeFields;
         methodAppearanceFineTuner = ci.methodAppearanceFineTuner;
         methodSorter = ci.methodSorter; 
+        useJavaBeansIntrospector = ci.useJavaBeansIntrospector;
+        classIntrospectionIndex = ci.classIntrospectionIndex;
     }
     
     ClassIntrospectorBuilder(Version incompatibleImprovements) {
@@ -76,6 +80,8 @@ final class ClassIntrospectorBuilder implements Cloneable {
         result = prime * result + exposureLevel;
         result = prime * result + System.identityHashCode(methodAppearanceFineTuner);
         result = prime * result + System.identityHashCode(methodSorter);
+        result = prime * result + (useJavaBeansIntrospector ? 1231 : 1237);
+        result = prime * result + System.identityHashCode(classIntrospectionIndex);
         return result;
     }
 
@@ -91,6 +97,8 @@ final class ClassIntrospectorBuilder implements Cloneable {
         if (exposureLevel != other.exposureLevel) return false;
         if (methodAppearanceFineTuner != other.methodAppearanceFineTuner) return false;
         if (methodSorter != other.methodSorter) return false;
+        if (useJavaBeansIntrospector != other.useJavaBeansIntrospector) return false;
+        if (classIntrospectionIndex != other.classIntrospectionIndex) return false;
         
         return true;
     }
@@ -133,6 +141,24 @@ final class ClassIntrospectorBuilder implements Cloneable {
         this.methodSorter = methodSorter;
     }
 
+    public boolean getUseJavaBeansIntrospector() {
+        return useJavaBeansIntrospector;
+    }
+
+    /** See {@link BeansWrapper#setUseJavaBeansIntrospector(boolean)}. */
+    public void setUseJavaBeansIntrospector(boolean useJavaBeansIntrospector) {
+        this.useJavaBeansIntrospector = useJavaBeansIntrospector;
+    }
+
+    public ClassIntrospectionIndex getClassIntrospectionIndex() {
+        return classIntrospectionIndex;
+    }
+
+    /** See {@link BeansWrapperConfiguration#setClassIntrospectionIndex(ClassIntrospectionIndex)}. */
+    public void setClassIntrospectionIndex(ClassIntrospectionIndex classIntrospectionIndex) {
+        this.classIntrospectionIndex = classIntrospectionIndex;
+    }
+
     private static void removeClearedReferencesFromInstanceCache() {
         Reference clearedRef;
         while ((clearedRef = INSTANCE_CACHE_REF_QUEUE.poll()) != null) {
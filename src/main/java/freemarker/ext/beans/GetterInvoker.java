@@ -0,0 +1,86 @@
+/*
+ * Copyright 2014 Attila Szegedi, Daniel Dekany, Jonathan Revusky
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package freemarker.ext.beans;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+import freemarker.log.Logger;
+
+/**
+ * Invokes a zero-argument non-static method, typically a JavaBeans property read method. Instances are thread-safe.
+ */
+abstract class GetterInvoker {
+    
+    private static final Logger LOG = Logger.getLogger("freemarker.beans");
+    
+    private static final Constructor METHOD_HANDLE_GETTER_INVOKER_CTOR = methodHandleGetterInvokerCtor();
+    
+    /**
+     * @param useMethodHandles
+     *            Whether to use {@link java.lang.invoke.MethodHandle}-s if that's possible; see
+     *            {@link BeansWrapper#setUseMethodHandles(boolean)}.
+     */
+    static GetterInvoker create(Method method, boolean useMethodHandles) {
+        if (useMethodHandles && METHOD_HANDLE_GETTER_INVOKER_CTOR != null) {
+            try {
+                return (GetterInvoker) METHOD_HANDLE_GETTER_INVOKER_CTOR.newInstance(new Object[] { method });
+            } catch (Exception e) {
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("Failed to create MethodHandle for " + method + "; falling back to reflection.", e);
+                }
+            }
+        }
+        return new ReflectionGetterInvoker(method);
+    }
+    
+    /**
+     * Calls the method, just like {@link Method#invoke(Object, Object[])} would.
+     * 
+     * @throws InvocationTargetException
+     *             If the invoked method has thrown an exception.
+     */
+    abstract Object invoke(Object object) throws IllegalAccessException, InvocationTargetException;
+    
+    private static Constructor methodHandleGetterInvokerCtor() {
+        try {
+            // Check if MethodHandle-s are available on this platform
+            Class.forName("java.lang.invoke.MethodHandle");
+            return Class.forName("freemarker.ext.beans._MethodHandleGetterInvoker")
+                    .getDeclaredConstructor(new Class[] { Method.class });
+        } catch (Throwable e) {
+            return null;
+        }
+    }
+    
+    private static final class ReflectionGetterInvoker extends GetterInvoker {
+        
+        private final Method method;
+
+        ReflectionGetterInvoker(Method method) {
+            this.method = method;
+        }
+
+        @Override
+        Object invoke(Object object) throws IllegalAccessException, InvocationTargetException {
+            return method.invoke(object, (Object[]) null);
+        }
+        
+    }
+    
+}
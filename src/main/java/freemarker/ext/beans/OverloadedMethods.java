@@ -17,7 +17,9 @@
 package freemarker.ext.beans;
 
 import java.lang.reflect.Constructor;
+import java.lang.reflect.Member;
 import java.lang.reflect.Method;
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
@@ -70,6 +72,18 @@ final class OverloadedMethods {
         }
     }
     
+    /**
+     * Returns the {@link Method}-s and {@link Constructor}-s in the order as they were added.
+     */
+    List/*<Member>*/ getMembers() {
+        List members = new ArrayList();
+        // All members are in fixArgMethods, including the varargs ones
+        for (Iterator it = fixArgMethods.getMemberDescriptors(); it.hasNext(); ) {
+            members.add(((ReflectionCallableMemberDescriptor) it.next()).getMember());
+        }
+        return members;
+    }
+    
     MemberAndArguments getMemberAndArguments(List/*<TemplateModel>*/ tmArgs, BeansWrapper unwrapper) 
     throws TemplateModelException {
         // Try to find a fixed args match:
@@ -16,13 +16,15 @@
 package freemarker.ext.beans;
 
 import java.io.Serializable;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import freemarker.template.TemplateModelException;
@@ -55,10 +57,12 @@ abstract class OverloadedMethodsSubset {
      */
     private int[/*number of args*/][/*arg index*/] typeFlagsByParamCount;
     
-    // TODO: This can cause memory-leak when classes are re-loaded. However, first the genericClassIntrospectionCache
-    // and such need to be fixed in this regard. 
-    private final Map/*<ArgumentTypes, MaybeEmptyCallableMemberDescriptor>*/ argTypesToMemberDescCache
-            = new ConcurrentHashMap(6, 0.75f, 1);
+    /**
+     * The argument classes are only weakly referred from the keys, so that this cache doesn't prevent unloading them.
+     */
+    private final ConcurrentMap/*<ArgumentTypesCacheKey, MaybeEmptyCallableMemberDescriptor>*/
+            argTypesToMemberDescCache = new ConcurrentHashMap(6, 0.75f, 1);
+    private final ReferenceQueue/*<Class>*/ clearedArgTypeRefs = new ReferenceQueue();
     
     private final List/*<ReflectionCallableMemberDescriptor>*/ memberDescs = new LinkedList();
     
@@ -135,20 +139,32 @@ abstract class OverloadedMethodsSubset {
     final MaybeEmptyCallableMemberDescriptor getMemberDescriptorForArgs(Object[] args, boolean varArg) {
         ArgumentTypes argTypes = new ArgumentTypes(args, bugfixed);
         MaybeEmptyCallableMemberDescriptor memberDesc
-                = (MaybeEmptyCallableMemberDescriptor) argTypesToMemberDescCache.get(argTypes);
+                = (MaybeEmptyCallableMemberDescriptor) argTypesToMemberDescCache.get(
+                        new ArgumentTypesCacheKey(argTypes.getTypes()));
         if (memberDesc == null) {
-            // Synchronized so that we won't unnecessarily create the same member desc. for multiple times in parallel.
-            synchronized (argTypesToMemberDescCache) {
-                memberDesc = (MaybeEmptyCallableMemberDescriptor) argTypesToMemberDescCache.get(argTypes);
-                if (memberDesc == null) {
-                    memberDesc = argTypes.getMostSpecific(memberDescs, varArg);
-                    argTypesToMemberDescCache.put(argTypes, memberDesc);
-                }
-            }
+            // Not synchronized; if multiple threads find the same member desc. in parallel, only one of them is stored,
+            // but as it's the same result anyway, it doesn't matter which.
+            memberDesc = argTypes.getMostSpecific(memberDescs, varArg);
+            removeClearedCacheKeys();
+            argTypesToMemberDescCache.putIfAbsent(
+                    new ArgumentTypesCacheKey(argTypes.getTypes(), clearedArgTypeRefs), memberDesc);
         }
         return memberDesc;
     }
     
+    private void removeClearedCacheKeys() {
+        ArgTypeReference clearedRef;
+        while ((clearedRef = (ArgTypeReference) clearedArgTypeRefs.poll()) != null) {
+            argTypesToMemberDescCache.remove(clearedRef.cacheKey);
+        }
+    }
+    
+    /** For unit testing only; also removes the entries whose argument classes were garbage collected. */
+    int getArgTypesCacheSize() {
+        removeClearedCacheKeys();
+        return argTypesToMemberDescCache.size();
+    }
+    
     Iterator/*<ReflectionCallableMemberDescriptor>*/ getMemberDescriptors() {
         return memberDescs.iterator();
     }
@@ -421,4 +437,87 @@ abstract class OverloadedMethodsSubset {
         }
     }
     
+    /**
+     * The key of {@link OverloadedMethodsSubset#argTypesToMemberDescCache}. The keys stored in the cache refer to the
+     * argument classes with {@link WeakReference}-s, while the keys used for the lookups refer to them directly; such
+     * two keys are equal if they refer to the same classes.
+     */
+    private static final class ArgumentTypesCacheKey {
+        
+        /** Stores {@link Class}-es in lookup keys, and {@link ArgTypeReference}-s in stored keys. */
+        private final Object[] types;
+        private final boolean weak;
+        private final int hashCode;
+
+        /** Creates a lookup key. */
+        ArgumentTypesCacheKey(Class[] types) {
+            this.types = types;
+            this.weak = false;
+            this.hashCode = hashCode(types);
+        }
+        
+        /** Creates a key to be stored in the cache. */
+        ArgumentTypesCacheKey(Class[] types, ReferenceQueue/*<Class>*/ refQueue) {
+            Object[] typeRefs = new Object[types.length];
+            for (int i = 0; i < types.length; i++) {
+                typeRefs[i] = new ArgTypeReference(types[i], this, refQueue);
+            }
+            this.types = typeRefs;
+            this.weak = true;
+            this.hashCode = hashCode(types);
+        }
+        
+        private static int hashCode(Class[] types) {
+            int hash = 0;
+            for (int i = 0; i < types.length; ++i) {
+                hash ^= types[i].hashCode();
+            }
+            return hash;
+        }
+        
+        private Class getType(int index) {
+            return weak ? (Class) ((ArgTypeReference) types[index]).get() : (Class) types[index];
+        }
+        
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (o == this) {
+                return true;
+            }
+            if (!(o instanceof ArgumentTypesCacheKey)) {
+                return false;
+            }
+            ArgumentTypesCacheKey other = (ArgumentTypesCacheKey) o;
+            if (other.hashCode != hashCode || other.types.length != types.length) {
+                return false;
+            }
+            for (int i = 0; i < types.length; ++i) {
+                Class type = getType(i);
+                // A cleared reference is only equal to itself, which was handled earlier.
+                if (type == null || type != other.getType(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        
+    }
+
+    private static final class ArgTypeReference extends WeakReference/*<Class>*/ {
+        
+        /** The key to remove from the cache when the class was garbage collected. */
+        final ArgumentTypesCacheKey cacheKey;
+
+        ArgTypeReference(Class type, ArgumentTypesCacheKey cacheKey, ReferenceQueue/*<Class>*/ refQueue) {
+            super(type, refQueue);
+            this.cacheKey = cacheKey;
+        }
+        
+    }
+    
 }
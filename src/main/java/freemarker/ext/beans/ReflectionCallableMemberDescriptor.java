@@ -79,6 +79,10 @@ final class ReflectionCallableMemberDescriptor extends CallableMemberDescriptor
         return _MethodUtil.isVarargs(member);
     }
 
+    Member getMember() {
+        return member;
+    }
+
     @Override
     Class[] getParamTypes() {
         return paramTypes;
@@ -0,0 +1,198 @@
+/*
+ * Copyright 2014 Attila Szegedi, Daniel Dekany, Jonathan Revusky
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package freemarker.ext.beans;
+
+import java.beans.IndexedPropertyDescriptor;
+import java.beans.PropertyDescriptor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.Map;
+
+import freemarker.template.SimpleScalar;
+import freemarker.template.TemplateModel;
+import freemarker.template.TemplateModelException;
+
+/**
+ * Don't use this; used internally by FreeMarker, might changes without notice.
+ *
+ * An inline cache for reading the same sub-variable (like {@code name} in {@code user.name}) of {@link BeanModel}-s
+ * again and again, stored in the AST node that does the reading. It remembers the bean property read method or field
+ * that the key was resolved to for the last few wrapped object classes, so for those it can skip the class
+ * introspection data lookup. It only handles JavaBeans properties and fields, as methods have instance-bound models
+ * that {@link BeanModel} caches itself.
+ *
+ * <p>This class is thread-safe.
+ */
+public final class _BeanPropertyInlineCache {
+
+    /**
+     * Returned by {@link #get(BeanModel)} if the caller has to fall back to {@link BeanModel#get(String)}.
+     */
+    public static final TemplateModel MISS = new SimpleScalar("MISS");
+
+    /** The maximum number of different classes remembered; above this the cache gives up. */
+    private static final int MAX_ENTRIES = 4;
+    private static final Entry[] NO_ENTRIES = new Entry[0];
+
+    private final String key;
+
+    /**
+     * Never modified after publishing; a modified copy replaces it instead. {@code null} if empty (not initialized in
+     * the constructor, so that unsafe publication of this object is harmless).
+     */
+    private volatile Entry[] entries;
+
+    public _BeanPropertyInlineCache(String key) {
+        this.key = key;
+    }
+
+    /**
+     * Returns the same as {@link BeanModel#get(String)} would, or {@link #MISS}.
+     */
+    public TemplateModel get(BeanModel beanModel) throws TemplateModelException {
+        final Object object = beanModel.object;
+        final BeansWrapper wrapper = beanModel.wrapper;
+        if (object == null || !wrapper.isMethodsShadowItems()) {
+            return MISS;
+        }
+
+        final Class modelClass = beanModel.getClass();
+        final Class objectClass = object.getClass();
+        final ClassIntrospector classIntrospector = wrapper.getClassIntrospector();
+        Entry[] entries = this.entries;
+        if (entries == null) {
+            entries = NO_ENTRIES;
+        }
+        for (int i = 0; i < entries.length; i++) {
+            Entry entry = entries[i];
+            if (entry.objectClass == objectClass && entry.modelClass == modelClass && entry.wrapper == wrapper
+                    && entry.classIntrospector == classIntrospector
+                    && entry.clearingCounter == classIntrospector.getClearingCounter()
+                    && entry.useMethodHandles == wrapper.getUseMethodHandles()) {
+                return entry.member != null ? read(beanModel, entry.member) : MISS;
+            }
+        }
+
+        // Outdated entries (because of introspection cache clearing, or wrapper reconfiguration) are dropped.
+        Entry[] newEntries = new Entry[entries.length + 1];
+        int newEntriesLength = 0;
+        for (int i = 0; i < entries.length; i++) {
+            Entry oldEntry = entries[i];
+            if (oldEntry.classIntrospector == oldEntry.wrapper.getClassIntrospector()
+                    && oldEntry.clearingCounter == oldEntry.classIntrospector.getClearingCounter()) {
+                newEntries[newEntriesLength++] = oldEntry;
+            }
+        }
+        if (newEntriesLength >= MAX_ENTRIES) {
+            // Megamorphic; not worth caching
+            return MISS;
+        }
+        
+        Entry entry = createEntry(beanModel, classIntrospector);
+        newEntries[newEntriesLength++] = entry;
+        if (newEntriesLength != newEntries.length) {
+            Entry[] trimmedNewEntries = new Entry[newEntriesLength];
+            System.arraycopy(newEntries, 0, trimmedNewEntries, 0, newEntriesLength);
+            newEntries = trimmedNewEntries;
+        }
+        // Concurrent updates can lose entries, but that only means some extra misses.
+        this.entries = newEntries;
+
+        return entry.member != null ? read(beanModel, entry.member) : MISS;
+    }
+
+    private Entry createEntry(BeanModel beanModel, ClassIntrospector classIntrospector) {
+        // Read before the introspection data, so that a concurrent clearing can only cause an unnecessary miss later
+        final int clearingCounter = classIntrospector.getClearingCounter();
+
+        final Class modelClass = beanModel.getClass();
+        Object member = null;
+        if (isBeanModelGetInherited(modelClass)) {
+            Map classInfo = classIntrospector.get(beanModel.object.getClass());
+            Object desc = classInfo.get(key);
+            if (desc instanceof PropertyDescriptor && !(desc instanceof IndexedPropertyDescriptor)) {
+                Method readMethod = ((PropertyDescriptor) desc).getReadMethod();
+                if (readMethod != null) {
+                    member = beanModel.wrapper.getUseMethodHandles()
+                            ? (Object) ClassIntrospector.getMethodHandleGetterInvoker(classInfo, readMethod)
+                            : readMethod;
+                }
+            } else if (desc instanceof Field) {
+                member = desc;
+            }
+        }
+
+        return new Entry(
+                modelClass, beanModel.object.getClass(), beanModel.wrapper, classIntrospector, clearingCounter,
+                member);
+    }
+
+    private static boolean isBeanModelGetInherited(Class modelClass) {
+        try {
+            return modelClass.getMethod("get", new Class[] { String.class }).getDeclaringClass() == BeanModel.class;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Does the same as {@link BeanModel#get(String)} for the given member.
+     */
+    private TemplateModel read(BeanModel beanModel, Object member) throws TemplateModelException {
+        try {
+            if (member instanceof GetterInvoker) {
+                // Same as BeansWrapper.invokeMethod, but we know that the method isn't void
+                return beanModel.wrapper.getOuterIdentity().wrap(((GetterInvoker) member).invoke(beanModel.object));
+            } else if (member instanceof Method) {
+                return beanModel.wrapper.getOuterIdentity().wrap(
+                        ((Method) member).invoke(beanModel.object, (Object[]) null));
+            } else {
+                return beanModel.wrapper.wrap(((Field) member).get(beanModel.object));
+            }
+        } catch (TemplateModelException e) {
+            throw e;
+        } catch (Exception e) {
+            throw beanModel.newGetFailedException(key, e);
+        }
+    }
+
+    private static final class Entry {
+        private final Class modelClass;
+        private final Class objectClass;
+        private final BeansWrapper wrapper;
+        private final ClassIntrospector classIntrospector;
+        private final int clearingCounter;
+        private final boolean useMethodHandles;
+        /**
+         * The {@link GetterInvoker} (shared via the {@link ClassIntrospector}), {@link Method}, or {@link Field} to
+         * read; {@code null} if the key isn't resolved to such.
+         */
+        private final Object member;
+
+        Entry(Class modelClass, Class objectClass, BeansWrapper wrapper, ClassIntrospector classIntrospector,
+                int clearingCounter, Object member) {
+            this.useMethodHandles = wrapper.getUseMethodHandles();
+            this.modelClass = modelClass;
+            this.objectClass = objectClass;
+            this.wrapper = wrapper;
+            this.classIntrospector = classIntrospector;
+            this.clearingCounter = clearingCounter;
+            this.member = member;
+        }
+    }
+
+}
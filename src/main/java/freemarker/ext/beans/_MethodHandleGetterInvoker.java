@@ -0,0 +1,65 @@
+/*
+ * Copyright 2014 Attila Szegedi, Daniel Dekany, Jonathan Revusky
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package freemarker.ext.beans;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ * Don't use this; used internally by FreeMarker, might changes without notice.
+ * 
+ * {@link GetterInvoker} that uses a {@link MethodHandle}; requires Java 7, thus it's compiled separately, and is only
+ * loaded when it's available.
+ */
+public final class _MethodHandleGetterInvoker extends GetterInvoker {
+    
+    private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+    
+    private final Class declaringClass;
+    private final MethodHandle methodHandle;
+
+    /**
+     * @throws IllegalAccessException
+     *             If the method is not accessible from here.
+     */
+    public _MethodHandleGetterInvoker(Method method) throws IllegalAccessException {
+        declaringClass = method.getDeclaringClass();
+        methodHandle = MethodHandles.publicLookup().unreflect(method).asType(GETTER_TYPE);
+    }
+
+    @Override
+    Object invoke(Object object) throws InvocationTargetException {
+        // Checked here, so that the exceptions caught below can only come from the invoked method. These are the same
+        // exceptions that Method.invoke would throw.
+        if (object == null) {
+            throw new NullPointerException();
+        }
+        if (!declaringClass.isInstance(object)) {
+            throw new IllegalArgumentException("object is not an instance of declaring class");
+        }
+        
+        try {
+            return methodHandle.invokeExact(object);
+        } catch (Throwable e) {
+            throw new InvocationTargetException(e);
+        }
+    }
+
+}
@@ -16,7 +16,6 @@
 
 package freemarker.ext.util;
 
-import java.lang.ref.ReferenceQueue;
 import java.lang.ref.SoftReference;
 import java.util.Map;
 
@@ -26,11 +25,30 @@ import freemarker.template.TemplateModelAdapter;
 /**
  * Internally used by various wrapper implementations to implement model
  * caching.
+ * 
+ * <p>As of 2.3.24, the cache is split into stripes by the identity hash code of the wrapped object, each stripe with
+ * its own lock, so concurrent wrapping on many threads doesn't serialize on a single monitor. Also, the number of
+ * entries is bounded (see {@link #setMaxSize(int)}); when a stripe is full, its oldest entry is evicted. As the cache
+ * is only an optimization (the same object can be wrapped into multiple models anyway), evicting an entry that's still
+ * in use is harmless. The entries whose model was garbage collected are removed when they are evicted, so there's no
+ * separate cleanup work when wrapping.
  */
 public abstract class ModelCache {
+    
+    /**
+     * The default of {@link #setMaxSize(int)}.
+     * 
+     * @since 2.3.24
+     */
+    public static final int DEFAULT_MAX_SIZE = 16 * 1024;
+    
+    /** Must be a power of 2. */
+    private static final int STRIPE_COUNT = 16;
+    
     private boolean useCache = false;
-    private Map modelCache = null;
-    private ReferenceQueue refQueue = null;
+    private int maxSize = DEFAULT_MAX_SIZE;
+    /** {@code null} exactly if {@link #useCache} is {@code false}. */
+    private volatile Stripe[] stripes = null;
     
     protected ModelCache() {
     }
@@ -38,17 +56,12 @@ public abstract class ModelCache {
     /**
      * Sets whether this wrapper caches model instances. Default is false.
      * When set to true, calling {@link #getInstance(Object)} 
-     * multiple times for the same object will return the same model.
+     * multiple times for the same object will return the same model (as far as the entry wasn't evicted from the
+     * cache since then; see {@link #setMaxSize(int)}).
      */
     public synchronized void setUseCache(boolean useCache) {
         this.useCache = useCache;
-        if (useCache) {
-            modelCache = new IdentityHashMap();
-            refQueue = new ReferenceQueue();
-        } else {
-            modelCache = null;
-            refQueue = null;
-        }
+        stripes = useCache ? newStripes(maxSize) : null;
     }
 
     /**
@@ -58,6 +71,32 @@ public abstract class ModelCache {
         return useCache;
     }
     
+    /**
+     * Sets the maximum number of cached models; defaults to {@link #DEFAULT_MAX_SIZE}. As the cache is split into
+     * stripes that are bounded individually, the oldest entry of a stripe can be evicted somewhat before the whole
+     * cache is full. Setting this clears the cache.
+     * 
+     * @since 2.3.24
+     */
+    public synchronized void setMaxSize(int maxSize) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("maxSize must be at least 1, but was " + maxSize);
+        }
+        this.maxSize = maxSize;
+        if (useCache) {
+            stripes = newStripes(maxSize);
+        }
+    }
+    
+    /**
+     * Getter pair of {@link #setMaxSize(int)}.
+     * 
+     * @since 2.3.24
+     */
+    public synchronized int getMaxSize() {
+        return maxSize;
+    }
+    
     public TemplateModel getInstance(Object object) {
         if (object instanceof TemplateModel) {
             return (TemplateModel) object;
@@ -65,11 +104,13 @@ public abstract class ModelCache {
         if (object instanceof TemplateModelAdapter) {
             return ((TemplateModelAdapter) object).getTemplateModel();
         }
-        if (useCache && isCacheable(object)) {
-            TemplateModel model = lookup(object);
+        Stripe[] stripes = this.stripes;
+        if (stripes != null && isCacheable(object)) {
+            Stripe stripe = getStripe(stripes, object);
+            TemplateModel model = stripe.lookup(object);
             if (model == null) {
                 model = create(object);
-                register(model, object);
+                stripe.register(object, model);
             }
             return model;
         } else {
@@ -81,52 +122,88 @@ public abstract class ModelCache {
     protected abstract boolean isCacheable(Object object);
     
     public void clearCache() {
-        if (modelCache != null) {
-            synchronized (modelCache) {
-                modelCache.clear();
+        Stripe[] stripes = this.stripes;
+        if (stripes != null) {
+            for (int i = 0; i < STRIPE_COUNT; i++) {
+                stripes[i].clear();
             }
         }
     }
-
-    private final TemplateModel lookup(Object object) {
-        ModelReference ref = null;
-        // NOTE: we're doing minimal synchronizations -- which can lead to
-        // duplicate wrapper creation. However, this has no harmful side-effects and
-        // is a lesser performance hit.
-        synchronized (modelCache) {
-            ref = (ModelReference) modelCache.get(object);
+    
+    private static Stripe[] newStripes(int maxSize) {
+        final int stripeMaxSize = Math.max(1, (maxSize + STRIPE_COUNT - 1) / STRIPE_COUNT);
+        Stripe[] stripes = new Stripe[STRIPE_COUNT];
+        for (int i = 0; i < STRIPE_COUNT; i++) {
+            stripes[i] = new Stripe(stripeMaxSize);
         }
-
-        if (ref != null)
-            return ref.getModel();
-
-        return null;
+        return stripes;
+    }
+    
+    private static Stripe getStripe(Stripe[] stripes, Object object) {
+        int h = System.identityHashCode(object);
+        return stripes[(h ^ (h >>> 16)) & (STRIPE_COUNT - 1)];
     }
 
-    private final void register(TemplateModel model, Object object) {
-        synchronized (modelCache) {
-            // Remove cleared references
-            for (; ; ) {
-                ModelReference queuedRef = (ModelReference) refQueue.poll();
-                if (queuedRef == null)
-                    break;
-                modelCache.remove(queuedRef.object);
+    /**
+     * A part of the cache, with its own lock. The references registered are also stored in a ring buffer in the
+     * order of registration; when a new reference overwrites the oldest one there, the entry of the old reference is
+     * removed, unless it was already replaced or removed. So all entries in the map are in the ring buffer, hence the
+     * size of the map is at most the capacity of the ring buffer.
+     */
+    private static final class Stripe {
+        private final int maxSize;
+        private final Map map = new IdentityHashMap();
+        /** Created on the first registration, as most stripes of most caches are never used. */
+        private ModelReference[] ring;
+        private int ringPos;
+        
+        Stripe(int maxSize) {
+            this.maxSize = maxSize;
+        }
+        
+        TemplateModel lookup(Object object) {
+            ModelReference ref;
+            // NOTE: we're doing minimal synchronizations -- which can lead to
+            // duplicate wrapper creation. However, this has no harmful side-effects and
+            // is a lesser performance hit.
+            synchronized (this) {
+                ref = (ModelReference) map.get(object);
+            }
+            return ref != null ? ref.getModel() : null;
+        }
+        
+        void register(Object object, TemplateModel model) {
+            ModelReference ref = new ModelReference(model, object);
+            synchronized (this) {
+                if (ring == null) {
+                    ring = new ModelReference[maxSize];
+                }
+                ModelReference evictedRef = ring[ringPos];
+                if (evictedRef != null && map.get(evictedRef.object) == evictedRef) {
+                    map.remove(evictedRef.object);
+                }
+                ring[ringPos] = ref;
+                ringPos = (ringPos + 1) % maxSize;
+                map.put(object, ref);
             }
-            // Register new reference
-            modelCache.put(object, new ModelReference(model, object, refQueue));
+        }
+        
+        synchronized void clear() {
+            map.clear();
+            ring = null;
+            ringPos = 0;
         }
     }
 
     /**
-     * A special soft reference that is registered in the modelCache.
-     * When it gets cleared (that is, the model became unreachable)
-     * it will remove itself from the model cache.
+     * A special soft reference that is registered in the modelCache. When it gets cleared (that is, the model became
+     * unreachable), the entry stays in the cache until it's evicted or replaced.
      */
     private static final class ModelReference extends SoftReference {
-        Object object;
+        final Object object;
 
-        ModelReference(TemplateModel ref, Object object, ReferenceQueue refQueue) {
-            super(ref, refQueue);
+        ModelReference(TemplateModel ref, Object object) {
+            super(ref);
             this.object = object;
         }
 
@@ -135,4 +212,4 @@ public abstract class ModelCache {
         }
     }
 
-}
\ No newline at end of file
+}
@@ -30,6 +30,7 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
@@ -39,12 +40,17 @@ import java.util.Set;
 import java.util.TreeSet;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 
 import freemarker.cache.CacheStorage;
 import freemarker.cache.ClassTemplateLoader;
 import freemarker.cache.FileTemplateLoader;
+import freemarker.cache.ListableTemplateLoader;
 import freemarker.cache.MruCacheStorage;
 import freemarker.cache.MultiTemplateLoader;
+import freemarker.cache.ParsedTemplatePool;
 import freemarker.cache.SoftCacheStorage;
 import freemarker.cache.TemplateCache;
 import freemarker.cache.TemplateCache.MaybeMissingTemplate;
@@ -53,7 +59,9 @@ import freemarker.cache.TemplateLoader;
 import freemarker.cache.TemplateLookupContext;
 import freemarker.cache.TemplateLookupStrategy;
 import freemarker.cache.TemplateNameFormat;
+import freemarker.cache.TemplateSourceMatcher;
 import freemarker.cache.URLTemplateLoader;
+import freemarker.cache._CacheAPI;
 import freemarker.core.BugException;
 import freemarker.core.CombinedMarkupOutputFormat;
 import freemarker.core.Configurable;
@@ -362,6 +370,32 @@ public class Configuration extends Configurable implements Cloneable, ParserConf
     /** Enable auto-escaping if the {@link OutputFormat} supports it. */
     public static final int ENABLE_IF_SUPPORTED_AUTO_ESCAPING_POLICY = 22;
     
+    /**
+     * Keep the source code of the templates in memory as is (the default).
+     * 
+     * @since 2.3.24
+     */
+    public static final int KEEP_TEMPLATE_SOURCE_RETENTION_POLICY = 30;
+    /**
+     * Keep the source code of the templates in memory in compressed form, and decompress it when it's needed.
+     * 
+     * @since 2.3.24
+     */
+    public static final int COMPRESS_TEMPLATE_SOURCE_RETENTION_POLICY = 31;
+    /**
+     * Don't keep the source code of the templates in memory, but load it again with the {@link TemplateLoader} when
+     * it's needed. If the template source has changed since the template was parsed, the source will be unavailable.
+     * 
+     * @since 2.3.24
+     */
+    public static final int RELOAD_TEMPLATE_SOURCE_RETENTION_POLICY = 32;
+    /**
+     * Don't keep the source code of the templates; the source will be unavailable.
+     * 
+     * @since 2.3.24
+     */
+    public static final int DROP_TEMPLATE_SOURCE_RETENTION_POLICY = 33;
+    
     /** FreeMarker version 2.3.0 (an {@link #Configuration(Version) incompatible improvements break-point}) */
     public static final Version VERSION_2_3_0 = new Version(2, 3, 0);
     
@@ -460,6 +494,8 @@ public class Configuration extends Configurable implements Cloneable, ParserConf
     private volatile boolean localizedLookup = true;
     private boolean whitespaceStripping = true;
     private int autoEscapingPolicy = ENABLE_IF_DEFAULT_AUTO_ESCAPING_POLICY;
+    private int templateSourceRetentionPolicy = KEEP_TEMPLATE_SOURCE_RETENTION_POLICY;
+    private boolean lazyMacroBodyParsing;
     private OutputFormat outputFormat = UndefinedOutputFormat.INSTANCE;
     private boolean outputFormatExplicitlySet;
     private Boolean recognizeStandardFileExtensions;
@@ -795,6 +831,9 @@ public class Configuration extends Configurable implements Cloneable, ParserConf
                 loader, storage, templateLookupStrategy, templateNameFormat, templateConfigurers, this);
         cache.clear(); // for fully BC behavior
         cache.setDelay(oldCache.getDelay());
+        cache.setRevalidationExecutor(oldCache.getRevalidationExecutor());
+        cache.setParsedTemplateDirectory(oldCache.getParsedTemplateDirectory());
+        cache.setParsedTemplatePool(oldCache.getParsedTemplatePool());
         cache.setLocalizedLookup(localizedLookup);
     }
     
@@ -1464,6 +1503,103 @@ public class Configuration extends Configurable implements Cloneable, ParserConf
         return cache.getDelay();
     }
     
+    /**
+     * Sets the {@link Executor} on which the templates whose update delay (see
+     * {@link #setTemplateUpdateDelayMilliseconds(long)}) has expired are re-validated. When this is set, the
+     * {@link #getTemplate(String)} call that finds such a template returns the cached version immediately, instead of
+     * checking the last modification date (and possibly reloading the template) first. The reloaded template replaces
+     * the cached one only after it was successfully parsed. Defaults to {@code null}, which means that the re-validation
+     * is done by the thread that calls {@link #getTemplate(String)}, as described at
+     * {@link #setTemplateUpdateDelayMilliseconds(long)}.
+     * 
+     * <p>
+     * The {@link Executor} isn't shut down by FreeMarker.
+     * 
+     * @see TemplateCache#setRevalidationExecutor(Executor)
+     * 
+     * @since 2.3.24
+     */
+    public void setTemplateRevalidationExecutor(Executor revalidationExecutor) {
+        cache.setRevalidationExecutor(revalidationExecutor);
+    }
+    
+    /**
+     * The getter pair of {@link #setTemplateRevalidationExecutor(Executor)}.
+     * 
+     * @since 2.3.24
+     */
+    public Executor getTemplateRevalidationExecutor() {
+        return cache.getRevalidationExecutor();
+    }
+    
+    /**
+     * Sets the directory where the result of parsing the templates is stored, so that after the application was
+     * restarted, the templates can be read from there instead of being parsed again. The template source is still
+     * loaded via the {@link TemplateLoader}, as the stored parsed template is looked up by the hash of the source code
+     * (and of the settings that influence parsing), so a stale parsed template is never used. Defaults to {@code null},
+     * which means that parsed templates aren't stored.
+     * 
+     * <p>
+     * The stored files are only usable with the same FreeMarker version, so they are stored in a subdirectory named
+     * after the FreeMarker version (like {@code freemarker-2.3.24}). Before the first template is stored, the
+     * subdirectories of other FreeMarker versions are deleted, so if multiple FreeMarker versions share the directory,
+     * they will keep deleting each other's files. Templates whose AST contains values that can't be stored (this can
+     * happen with some parse-time evaluated values) are always parsed. The files of the current FreeMarker version are
+     * never removed based on their age, so if the template sources change often, the directory should be cleaned up
+     * from time to time (e.g., on deployment). As the stored files are deserialized by FreeMarker, the directory must
+     * not be writable for untrusted parties.
+     * 
+     * @see TemplateCache#setParsedTemplateDirectory(File)
+     * 
+     * @since 2.3.24
+     */
+    public void setParsedTemplateCacheDirectory(File directory) {
+        cache.setParsedTemplateDirectory(directory);
+    }
+    
+    /**
+     * The getter pair of {@link #setParsedTemplateCacheDirectory(File)}.
+     * 
+     * @since 2.3.24
+     */
+    public File getParsedTemplateCacheDirectory() {
+        return cache.getParsedTemplateDirectory();
+    }
+    
+    /**
+     * Sets the {@link ParsedTemplatePool} to use; the same pool can be used by any number of {@link Configuration}-s.
+     * When a template is loaded, and the pool has a template with identical source code and parsing related settings
+     * (regardless of the template name and of the {@link Configuration}), the new {@link Template} is created from
+     * the pool entry instead of parsing the source again, and it shares its texts and strings with the other templates
+     * created from the same entry. This is useful if there are many {@link Configuration}-s (like one per tenant) that
+     * load the same templates, possibly under different names. Defaults to {@code null}, which means that no pool is
+     * used.
+     * 
+     * <p>
+     * The AST nodes aren't shared, so the memory saved depends on how much of the template is static text. Loading a
+     * template that's not yet in the pool is slower than without a pool, as the parsed template is also serialized
+     * into the pool; see {@link ParsedTemplatePool} for more.
+     * 
+     * <p>
+     * Changing this setting doesn't affect the templates that are already in the template cache.
+     * 
+     * @see TemplateCache#setParsedTemplatePool(ParsedTemplatePool)
+     * 
+     * @since 2.3.24
+     */
+    public void setParsedTemplatePool(ParsedTemplatePool parsedTemplatePool) {
+        cache.setParsedTemplatePool(parsedTemplatePool);
+    }
+    
+    /**
+     * The getter pair of {@link #setParsedTemplatePool(ParsedTemplatePool)}.
+     * 
+     * @since 2.3.24
+     */
+    public ParsedTemplatePool getParsedTemplatePool() {
+        return cache.getParsedTemplatePool();
+    }
+    
     /**
      * Sets whether directives such as {@code if}, {@code else}, etc must be written as {@code #if}, {@code #else}, etc.
      * Defaults to {@code true}.
@@ -1765,6 +1901,92 @@ public class Configuration extends Configurable implements Cloneable, ParserConf
         return autoEscapingPolicy;
     }
     
+    /**
+     * Sets how the source code of the templates is kept in memory after parsing. The source code is only used for
+     * showing source snippets in error messages, and by {@link Template#getSource(int, int, int, int)}. When it's not
+     * available, the error messages show the canonical form of the problematic template part instead (which is
+     * generated from the AST, so it shows the same thing, but possibly formatted differently).
+     * 
+     * <p>
+     * Keeping the source as is costs about as much heap as the AST itself. With many cached templates, you may want to
+     * use {@link #COMPRESS_TEMPLATE_SOURCE_RETENTION_POLICY} instead, which makes showing the first error message of a
+     * template somewhat slower, or {@link #RELOAD_TEMPLATE_SOURCE_RETENTION_POLICY}, which needs I/O for that (and so
+     * it's only useful for templates loaded via the {@link TemplateLoader}). The decompressed or reloaded source is
+     * cached while there's enough free memory.
+     * 
+     * <p>
+     * Changing this setting clears the template cache.
+     * 
+     * @param templateSourceRetentionPolicy
+     *            One of the {@link #KEEP_TEMPLATE_SOURCE_RETENTION_POLICY},
+     *            {@link #COMPRESS_TEMPLATE_SOURCE_RETENTION_POLICY}, {@link #RELOAD_TEMPLATE_SOURCE_RETENTION_POLICY},
+     *            and {@link #DROP_TEMPLATE_SOURCE_RETENTION_POLICY} constants.
+     * 
+     * @since 2.3.24
+     */
+    public void setTemplateSourceRetentionPolicy(int templateSourceRetentionPolicy) {
+        if (templateSourceRetentionPolicy != KEEP_TEMPLATE_SOURCE_RETENTION_POLICY
+                && templateSourceRetentionPolicy != COMPRESS_TEMPLATE_SOURCE_RETENTION_POLICY
+                && templateSourceRetentionPolicy != RELOAD_TEMPLATE_SOURCE_RETENTION_POLICY
+                && templateSourceRetentionPolicy != DROP_TEMPLATE_SOURCE_RETENTION_POLICY) {
+            throw new IllegalArgumentException("\"templateSourceRetentionPolicy\" can only be set to one of these: "
+                    + "Configuration.KEEP_TEMPLATE_SOURCE_RETENTION_POLICY, "
+                    + "Configuration.COMPRESS_TEMPLATE_SOURCE_RETENTION_POLICY, "
+                    + "Configuration.RELOAD_TEMPLATE_SOURCE_RETENTION_POLICY, "
+                    + "or Configuration.DROP_TEMPLATE_SOURCE_RETENTION_POLICY");
+        }
+        
+        int prevTemplateSourceRetentionPolicy = this.templateSourceRetentionPolicy;
+        this.templateSourceRetentionPolicy = templateSourceRetentionPolicy;
+        if (prevTemplateSourceRetentionPolicy != templateSourceRetentionPolicy) {
+            clearTemplateCache();
+        }
+    }
+
+    /**
+     * Getter pair of {@link #setTemplateSourceRetentionPolicy(int)}
+     * 
+     * @since 2.3.24
+     */
+    public int getTemplateSourceRetentionPolicy() {
+        return templateSourceRetentionPolicy;
+    }
+
+    /**
+     * Sets whether the bodies of the macros and functions defined in templates are only parsed when they are first
+     * called, instead of together with the rest of the template. This speeds up loading large libraries of which only a
+     * few macros are used, also the unused macros need less memory. Defaults to {@code false}.
+     * 
+     * <p>
+     * When this is enabled, parsing the template only finds the boundaries of the macro bodies, so syntactical errors
+     * inside them (except lexical errors, like an unclosed comment) are only reported when the macro is first called,
+     * by throwing {@link ParseException} from {@link Template#process(Object, java.io.Writer)}. The result of the
+     * parsing is otherwise the same, including the whitespace stripping. The macro body is parsed only once, even if
+     * the {@link Template} is used by multiple threads. Macros inside an {@code #escape} block are always parsed
+     * eagerly.
+     * 
+     * <p>
+     * Changing this setting clears the template cache.
+     * 
+     * @since 2.3.24
+     */
+    public void setLazyMacroBodyParsing(boolean lazyMacroBodyParsing) {
+        boolean prevLazyMacroBodyParsing = this.lazyMacroBodyParsing;
+        this.lazyMacroBodyParsing = lazyMacroBodyParsing;
+        if (prevLazyMacroBodyParsing != lazyMacroBodyParsing) {
+            clearTemplateCache();
+        }
+    }
+
+    /**
+     * Getter pair of {@link #setLazyMacroBodyParsing(boolean)}
+     * 
+     * @since 2.3.24
+     */
+    public boolean getLazyMacroBodyParsing() {
+        return lazyMacroBodyParsing;
+    }
+    
     /**
      * Sets the (default) output format. Usually, you leave this on its default, which is
      * {@link UndefinedOutputFormat#INSTANCE}, and then override it for individual templates based on their name (like
@@ -2612,6 +2834,205 @@ public class Configuration extends Configurable implements Cloneable, ParserConf
         loadBuiltInSharedVariables();
     }
     
+    /**
+     * Loads the given templates into the template cache, using multiple threads, so that the first requests after the
+     * application has started needn't wait for the parsing of the templates. Each template is loaded with
+     * {@link #getTemplate(String, Locale)} for each of the given locales, so the localized lookup, the
+     * {@link #setTemplateLookupStrategy(TemplateLookupStrategy) template lookup strategy}, and the
+     * {@link #setTemplateConfigurers(TemplateConfigurerFactory) template configurers} work exactly as for the later
+     * requests (and thus, the cache entries will be hit by them). If a template can't be loaded, that's reported in its
+     * result, and the others are still loaded.
+     * 
+     * <p>
+     * This method returns when all templates were loaded. Note that if the template cache has a size limit (see
+     * {@link #setCacheStorage(CacheStorage)}), some of the loaded templates might be already removed from the cache
+     * by then.
+     * 
+     * @param names
+     *            The names of the templates to load, as they would be passed to {@link #getTemplate(String, Locale)}.
+     * @param locales
+     *            The locales for which each template is loaded (as the localized lookup can find different templates
+     *            for them); if {@code null}, only {@link #getLocale()} is used.
+     * @param executor
+     *            The {@link Executor} on which the templates are loaded, each as a separate task. This can be a
+     *            thread pool, or a {@link java.util.concurrent.ForkJoinPool}. It isn't shut down by this method. If it
+     *            rejects a task, that template is loaded by the calling thread.
+     * 
+     * @return The {@link TemplatePreloadResult}-s in the order of the names, and for each name in the order of the
+     *         locales; not {@code null}.
+     * 
+     * @throws InterruptedException
+     *             If the thread was interrupted while waiting for the tasks. Tasks that were already submitted will
+     *             still run.
+     * 
+     * @since 2.3.24
+     */
+    public List<TemplatePreloadResult> preloadTemplates(
+            Collection<String> names, Collection<Locale> locales, Executor executor)
+            throws InterruptedException {
+        NullArgumentException.check("names", names);
+        NullArgumentException.check("executor", executor);
+        if (locales == null) {
+            locales = Collections.singletonList(getLocale());
+        }
+        
+        final List<TemplatePreloadTask> tasks = new ArrayList<TemplatePreloadTask>(names.size() * locales.size());
+        for (String name : names) {
+            for (Locale locale : locales) {
+                tasks.add(new TemplatePreloadTask(name, locale));
+            }
+        }
+        
+        final CountDownLatch unfinishedTasks = new CountDownLatch(tasks.size());
+        for (int i = 0; i < tasks.size(); i++) {
+            final TemplatePreloadTask task = tasks.get(i);
+            Runnable runnable = new Runnable() {
+                public void run() {
+                    try {
+                        task.run();
+                    } finally {
+                        unfinishedTasks.countDown();
+                    }
+                }
+            };
+            try {
+                executor.execute(runnable);
+            } catch (RejectedExecutionException e) {
+                runnable.run();
+            }
+        }
+        unfinishedTasks.await();
+        
+        final List<TemplatePreloadResult> results = new ArrayList<TemplatePreloadResult>(tasks.size());
+        for (int i = 0; i < tasks.size(); i++) {
+            results.add(tasks.get(i).getResult());
+        }
+        return results;
+    }
+    
+    /**
+     * Same as {@link #preloadTemplates(Collection, Collection, Executor)}, but loads all the templates that the
+     * {@link #setTemplateLoader(TemplateLoader) template loader} can list, and that are matched by the given
+     * {@link TemplateSourceMatcher}. When {@link #getLocalizedLookup() localized lookup} is enabled with the default
+     * {@link TemplateLookupStrategy}, a template isn't loaded by its own name if it's what the localized lookup of
+     * another loaded template finds for one of the {@code locales}; like {@code foo_de.ftl} is skipped if
+     * {@code foo.ftl} is loaded with the {@code de_DE} locale, but not if it's only loaded with {@code en_US}.
+     * 
+     * @param matcher
+     *            Selects the templates to load, like a {@link freemarker.cache.PathGlobMatcher}; {@code null} if all
+     *            templates should be loaded.
+     * 
+     * @throws UnsupportedOperationException
+     *             If the template loader doesn't implement {@link ListableTemplateLoader}.
+     * @throws IOException
+     *             If listing the templates or matching them has failed. 
+     * 
+     * @since 2.3.24
+     */
+    public List<TemplatePreloadResult> preloadTemplates(
+            TemplateSourceMatcher matcher, Collection<Locale> locales, Executor executor)
+            throws IOException, InterruptedException {
+        TemplateLoader templateLoader = getTemplateLoader();
+        if (!(templateLoader instanceof ListableTemplateLoader)) {
+            throw new UnsupportedOperationException("The template loader can't list the templates, as it doesn't "
+                    + "implement " + ListableTemplateLoader.class.getName() + ": " + templateLoader);
+        }
+        
+        final List<String> listedNames = ((ListableTemplateLoader) templateLoader).listTemplateNames();
+        final Set<String> matchingNames = new LinkedHashSet<String>();
+        for (int i = 0; i < listedNames.size(); i++) {
+            String name = listedNames.get(i);
+            if (matcher == null) {
+                matchingNames.add(name);
+            } else {
+                Object templateSource = templateLoader.findTemplateSource(name);
+                if (templateSource != null) {
+                    try {
+                        if (_CacheAPI.matches(matcher, name, templateSource)) {
+                            matchingNames.add(name);
+                        }
+                    } finally {
+                        templateLoader.closeTemplateSource(templateSource);
+                    }
+                }
+            }
+        }
+        
+        if (getLocalizedLookup() && getTemplateLookupStrategy() == TemplateLookupStrategy.DEFAULT_2_3_0) {
+            final Set<String> existingNames = new HashSet<String>(listedNames);
+            final Set<String> foundByLocalizedLookup = new HashSet<String>();
+            for (String name : matchingNames) {
+                for (Locale locale : locales != null ? locales : Collections.singletonList(getLocale())) {
+                    String foundName = getLocalizedLookupResultName(name, locale, existingNames);
+                    if (foundName != null && !foundName.equals(name)) {
+                        foundByLocalizedLookup.add(foundName);
+                    }
+                }
+            }
+            matchingNames.removeAll(foundByLocalizedLookup);
+        }
+        
+        return preloadTemplates(matchingNames, locales, executor);
+    }
+    
+    /**
+     * Returns the name of the template that the localized lookup of {@link TemplateLookupStrategy#DEFAULT_2_3_0} finds
+     * among the existing names, or {@code null} if it finds nothing. This must be kept in sync with
+     * {@link TemplateLookupContext#lookupWithLocalizedThenAcquisitionStrategy(String, Locale)} (without the
+     * acquisition part, as the listed names contain no {@code *} steps).
+     */
+    private static String getLocalizedLookupResultName(String name, Locale locale, Set<String> existingNames) {
+        int lastDot = name.lastIndexOf('.');
+        String prefix = lastDot == -1 ? name : name.substring(0, lastDot);
+        String suffix = lastDot == -1 ? "" : name.substring(lastDot);
+        String localeName = "_" + locale.toString();
+        while (true) {
+            String localizedName = prefix + localeName + suffix;
+            if (existingNames.contains(localizedName)) {
+                return localizedName;
+            }
+            int lastUnderscore = localeName.lastIndexOf('_');
+            if (lastUnderscore == -1) {
+                return null;
+            }
+            localeName = localeName.substring(0, lastUnderscore);
+        }
+    }
+    
+    private class TemplatePreloadTask implements Runnable {
+        
+        private final String name;
+        private final Locale locale;
+        private TemplatePreloadResult result;
+        
+        TemplatePreloadTask(String name, Locale locale) {
+            this.name = name;
+            this.locale = locale;
+        }
+        
+        public void run() {
+            final long startTime = System.nanoTime();
+            Template template = null;
+            Throwable failure = null;
+            try {
+                template = getTemplate(name, locale);
+            } catch (Throwable e) {
+                failure = e;
+            }
+            // Safely published to getResult() via the CountDownLatch
+            result = new TemplatePreloadResult(name, locale, template, failure, System.nanoTime() - startTime);
+            if (failure != null && CACHE_LOG.isWarnEnabled()) {
+                CACHE_LOG.warn("Failed to preload template " + StringUtil.jQuote(name) + " for locale " + locale,
+                        failure);
+            }
+        }
+        
+        TemplatePreloadResult getResult() {
+            return result;
+        }
+        
+    }
+    
     /**
      * Removes all entries from the template cache, thus forcing reloading of templates
      * on subsequent <code>getTemplate</code> calls.
@@ -0,0 +1,269 @@
+/*
+ * Copyright 2014 Attila Szegedi, Daniel Dekany, Jonathan Revusky
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package freemarker.template;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.InvalidObjectException;
+import java.io.NotSerializableException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.io.StreamCorruptedException;
+import java.util.List;
+
+import freemarker.core.OutputFormat;
+import freemarker.core.ParserConfiguration;
+import freemarker.core.UnregisteredOutputFormatException;
+
+/**
+ * Stores the result of parsing a {@link Template} into a byte stream, and restores a {@link Template} from it, so that
+ * the parsing can be skipped. This uses Java serialization for the AST, with a header that contains the format version
+ * and the FreeMarker version; a stream written by another FreeMarker version is rejected. The references to the
+ * {@link Template} itself, to the {@link Configuration}, and to {@link OutputFormat}-s are replaced with markers, and are
+ * resolved on reading. If the AST refers to any other object that's not {@link Serializable} (which is possible with
+ * some parse-time evaluated values), writing fails with {@link NotSerializableException}.
+ * 
+ * <p>Only FreeMarker classes and some basic Java classes can be read back, but the input should come from a trusted
+ * source anyway.
+ */
+final class ParsedTemplateSerialization {
+
+    /** "FMPT" in ASCII */
+    private static final int MAGIC = 0x464D5054;
+    private static final int FORMAT_VERSION = 1;
+
+    private ParsedTemplateSerialization() {
+        // Not meant to be instantiated
+    }
+
+    static void write(Template template, OutputStream out) throws IOException {
+        write(template, out, null);
+    }
+
+    /**
+     * Same as {@link #write(Template, OutputStream)}, but the {@link String}-s and {@code char[]}-s of the AST (which
+     * are immutable after parsing) aren't written into the stream, instead they are added to {@code sharedObjects},
+     * and only their index in that is written. Thus the templates read back from the stream with the same
+     * {@code sharedObjects} will share these objects with each other, and with the template written.
+     * 
+     * @param sharedObjects
+     *            If {@code null}, the objects are written into the stream as usual.
+     */
+    static void write(Template template, OutputStream out, List/*<Object>*/ sharedObjects) throws IOException {
+        ObjectOutputStream oOut = new TemplateObjectOutputStream(out, template, sharedObjects);
+        oOut.writeInt(MAGIC);
+        oOut.writeInt(FORMAT_VERSION);
+        oOut.writeUTF(Configuration.getVersion().toString());
+        template.writeParsed(oOut);
+        oOut.flush();
+    }
+
+    /**
+     * @param name
+     *            See {@link Template#getName()}
+     * @param sourceName
+     *            See {@link Template#getSourceName()}
+     * @param customParserConfiguration
+     *            Same as the parameter of
+     *            {@link Template#Template(String, String, java.io.Reader, Configuration, ParserConfiguration, String)}
+     * @param encoding
+     *            See {@link Template#getEncoding()}
+     */
+    static Template read(
+            InputStream in,
+            String name, String sourceName, Configuration cfg, ParserConfiguration customParserConfiguration,
+            String encoding) throws IOException {
+        return read(in, name, sourceName, cfg, customParserConfiguration, encoding, null);
+    }
+
+    /**
+     * Same as {@link #read(InputStream, String, String, Configuration, ParserConfiguration, String)}, but for a stream
+     * that was written with {@link #write(Template, OutputStream, List)}.
+     * 
+     * @param sharedObjects
+     *            The same objects that {@link #write(Template, OutputStream, List)} has collected; don't modify it! If
+     *            {@code null}, the stream must have been written without shared objects.
+     */
+    static Template read(
+            InputStream in,
+            String name, String sourceName, Configuration cfg, ParserConfiguration customParserConfiguration,
+            String encoding, List/*<Object>*/ sharedObjects) throws IOException {
+        Template template = Template.createForReadParsed(name, sourceName, cfg, customParserConfiguration, encoding);
+        ObjectInputStream oIn = new TemplateObjectInputStream(in, template, sharedObjects);
+        if (oIn.readInt() != MAGIC) {
+            throw new StreamCorruptedException("Not a parsed FreeMarker template");
+        }
+        int formatVersion = oIn.readInt();
+        if (formatVersion != FORMAT_VERSION) {
+            throw new StreamCorruptedException("Unsupported parsed template format version: " + formatVersion);
+        }
+        String fmVersion = oIn.readUTF();
+        if (!fmVersion.equals(Configuration.getVersion().toString())) {
+            throw new StreamCorruptedException("The parsed template was written by FreeMarker " + fmVersion
+                    + ", but the current version is " + Configuration.getVersion());
+        }
+        try {
+            template.readParsed(oIn);
+        } catch (ClassNotFoundException e) {
+            throw (IOException) new InvalidClassException(e.getMessage()).initCause(e);
+        }
+        return template;
+    }
+
+    private static boolean isReadableClass(String className) {
+        int start = 0;
+        while (start < className.length() && className.charAt(start) == '[') {
+            start++;
+        }
+        if (start != 0) {
+            if (className.length() - start == 1) {
+                // Primitive array
+                return true;
+            }
+            if (className.charAt(start) != 'L') {
+                return false;
+            }
+            start++;
+        }
+        return className.startsWith("freemarker.", start)
+                || className.startsWith("java.lang.", start)
+                || className.startsWith("java.util.", start)
+                || className.startsWith("java.math.", start);
+    }
+
+    private static class TemplateObjectOutputStream extends ObjectOutputStream {
+
+        private final Template template;
+        private final List/*<Object>*/ sharedObjects;
+
+        TemplateObjectOutputStream(OutputStream out, Template template, List/*<Object>*/ sharedObjects)
+                throws IOException {
+            super(out);
+            this.template = template;
+            this.sharedObjects = sharedObjects;
+            enableReplaceObject(true);
+        }
+
+        @Override
+        protected Object replaceObject(Object obj) throws IOException {
+            if (obj instanceof Template) {
+                if (obj != template) {
+                    throw new NotSerializableException(
+                            "The AST refers to another template: " + ((Template) obj).getSourceName());
+                }
+                return TemplateMarker.INSTANCE;
+            } else if (obj instanceof Configuration) {
+                if (obj != template.getConfiguration()) {
+                    throw new NotSerializableException("The AST refers to another Configuration");
+                }
+                return ConfigurationMarker.INSTANCE;
+            } else if (obj instanceof OutputFormat) {
+                return new OutputFormatMarker(((OutputFormat) obj).getName());
+            } else if (sharedObjects != null && (obj instanceof String || obj instanceof char[])) {
+                // The ObjectOutputStream remembers the replacement, so this is called only once per object.
+                sharedObjects.add(obj);
+                return new SharedObjectMarker(sharedObjects.size() - 1);
+            } else {
+                return obj;
+            }
+        }
+
+    }
+
+    private static class TemplateObjectInputStream extends ObjectInputStream {
+
+        private final Template template;
+        private final List/*<Object>*/ sharedObjects;
+
+        TemplateObjectInputStream(InputStream in, Template template, List/*<Object>*/ sharedObjects)
+                throws IOException {
+            super(in);
+            this.template = template;
+            this.sharedObjects = sharedObjects;
+            enableResolveObject(true);
+        }
+
+        @Override
+        protected Class resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+            String className = desc.getName();
+            if (!isReadableClass(className)) {
+                throw new InvalidClassException(className, "Class not allowed in a parsed template");
+            }
+            try {
+                return Class.forName(className, false, ParsedTemplateSerialization.class.getClassLoader());
+            } catch (ClassNotFoundException e) {
+                return super.resolveClass(desc);
+            }
+        }
+
+        @Override
+        protected Object resolveObject(Object obj) throws IOException {
+            if (obj instanceof TemplateMarker) {
+                return template;
+            } else if (obj instanceof ConfigurationMarker) {
+                return template.getConfiguration();
+            } else if (obj instanceof OutputFormatMarker) {
+                String formatName = ((OutputFormatMarker) obj).name;
+                try {
+                    return template.getConfiguration().getOutputFormat(formatName);
+                } catch (UnregisteredOutputFormatException e) {
+                    throw (IOException) new InvalidObjectException(
+                            "Output format " + formatName + " is not registered").initCause(e);
+                }
+            } else if (obj instanceof SharedObjectMarker) {
+                int index = ((SharedObjectMarker) obj).index;
+                if (sharedObjects == null || index < 0 || index >= sharedObjects.size()) {
+                    throw new InvalidObjectException("No shared object with index " + index);
+                }
+                return sharedObjects.get(index);
+            } else {
+                return obj;
+            }
+        }
+
+    }
+
+    private static final class TemplateMarker implements Serializable {
+        static final TemplateMarker INSTANCE = new TemplateMarker();
+    }
+
+    private static final class ConfigurationMarker implements Serializable {
+        static final ConfigurationMarker INSTANCE = new ConfigurationMarker();
+    }
+
+    private static final class OutputFormatMarker implements Serializable {
+        private final String name;
+
+        OutputFormatMarker(String name) {
+            this.name = name;
+        }
+    }
+
+    private static final class SharedObjectMarker implements Serializable {
+        private final int index;
+
+        SharedObjectMarker(int index) {
+            this.index = index;
+        }
+    }
+
+}
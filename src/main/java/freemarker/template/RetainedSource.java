@@ -0,0 +1,415 @@
+/*
+ * Copyright 2014 Attila Szegedi, Daniel Dekany, Jonathan Revusky
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package freemarker.template;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UnsupportedEncodingException;
+import java.lang.ref.SoftReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import freemarker.cache.TemplateLoader;
+import freemarker.core.BugException;
+import freemarker.log.Logger;
+import freemarker.template.utility.StringUtil;
+
+/**
+ * Stores the source code of a {@link Template} (as lines, with tabs expanded), as it's needed for
+ * {@link Template#getSource(int, int, int, int)}, according the
+ * {@link Configuration#setTemplateSourceRetentionPolicy(int) template source retention policy}.
+ */
+abstract class RetainedSource {
+
+    private static final Logger LOG = Logger.getLogger("freemarker.cache");
+
+    /** Used for templates that weren't created by parsing a source code. */
+    static final RetainedSource NONE = new DroppedSource(0);
+
+    private final int sourceLength;
+
+    RetainedSource(int sourceLength) {
+        this.sourceLength = sourceLength;
+    }
+
+    /**
+     * Creates the {@link RetainedSource} for the given policy.
+     * 
+     * @param lines
+     *            The lines as {@link LineCollector} has created them; this {@link List} will be used by the
+     *            {@link RetainedSource} if it keeps the lines as is.
+     * @param template
+     *            The template whose source this is; only used if the source is reloaded on demand.
+     */
+    static RetainedSource create(int policy, ArrayList/*<String>*/ lines, Template template) {
+        switch (policy) {
+        case Configuration.KEEP_TEMPLATE_SOURCE_RETENTION_POLICY:
+            lines.trimToSize();
+            return new KeptSource(lines);
+        case Configuration.COMPRESS_TEMPLATE_SOURCE_RETENTION_POLICY:
+            return new CompressedSource(lines);
+        case Configuration.RELOAD_TEMPLATE_SOURCE_RETENTION_POLICY:
+            return new ReloadedSource(lines, template);
+        case Configuration.DROP_TEMPLATE_SOURCE_RETENTION_POLICY:
+            return createDropped(getLength(lines));
+        default:
+            throw new BugException("Unsupported template source retention policy: " + policy);
+        }
+    }
+
+    /**
+     * Creates a {@link RetainedSource} that doesn't store the source, for a source of the given length.
+     */
+    static RetainedSource createDropped(int sourceLength) {
+        return new DroppedSource(sourceLength);
+    }
+
+    /**
+     * Returns the source code lines, with their line-break characters, or {@code null} if the source is not available.
+     * The returned {@link List} must not be modified.
+     */
+    abstract List/*<String>*/ getLines();
+
+    /**
+     * Returns a rough estimate of the heap size retained by this object in bytes.
+     */
+    abstract long getEstimatedRetainedSize();
+
+    /**
+     * The number of characters in the source code (after the tabs were expanded), even if the source is not retained.
+     */
+    int getSourceLength() {
+        return sourceLength;
+    }
+
+    private static int getLength(List/*<String>*/ lines) {
+        int length = 0;
+        for (int i = 0; i < lines.size(); i++) {
+            length += ((String) lines.get(i)).length();
+        }
+        return length;
+    }
+
+    private static String join(List/*<String>*/ lines) {
+        StringBuilder sb = new StringBuilder(getLength(lines));
+        for (int i = 0; i < lines.size(); i++) {
+            sb.append((String) lines.get(i));
+        }
+        return sb.toString();
+    }
+
+    private static byte[] toUTF8(String s) {
+        try {
+            return s.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new BugException(e);
+        }
+    }
+
+    /**
+     * Splits the source code to lines, like it was originally split by the {@link LineCollector}.
+     */
+    private static ArrayList/*<String>*/ split(String source) {
+        ArrayList/*<String>*/ lines = new ArrayList();
+        int lineStart = 0;
+        final int ln = source.length();
+        for (int i = 0; i < ln; i++) {
+            char c = source.charAt(i);
+            if (c == '\n' || c == '\r' && (i + 1 == ln || source.charAt(i + 1) != '\n')) {
+                lines.add(source.substring(lineStart, i + 1));
+                lineStart = i + 1;
+            }
+        }
+        if (lineStart < ln) {
+            lines.add(source.substring(lineStart));
+        }
+        return lines;
+    }
+
+    /**
+     * Splits the characters it's fed with into lines, where the tabs are expanded to spaces (with 8 columns tab
+     * stops), so that the column numbers in the lines match those used in the AST.
+     */
+    static final class LineCollector {
+
+        private final ArrayList/*<String>*/ lines = new ArrayList();
+        private final StringBuilder lineBuf = new StringBuilder();
+        private int lastChar;
+
+        void handleChar(int c) {
+            if (c == '\n' || c == '\r') {
+                if (lastChar == '\r' && c == '\n') { // CRLF under Windoze
+                    int lastIndex = lines.size() - 1;
+                    String lastLine = (String) lines.get(lastIndex);
+                    lines.set(lastIndex, lastLine + '\n');
+                } else {
+                    lineBuf.append((char) c);
+                    lines.add(lineBuf.toString());
+                    lineBuf.setLength(0);
+                }
+            } else if (c == '\t') {
+                int numSpaces = 8 - (lineBuf.length() % 8);
+                for (int i = 0; i < numSpaces; i++) {
+                    lineBuf.append(' ');
+                }
+            } else {
+                lineBuf.append((char) c);
+            }
+            lastChar = c;
+        }
+
+        void handleChars(char[] chars, int off, int len) {
+            final int end = off + len;
+            for (int i = off; i < end; i++) {
+                handleChar(chars[i]);
+            }
+        }
+
+        /**
+         * Adds the last, unterminated line, if there's any.
+         */
+        void finish() {
+            if (lineBuf.length() > 0) {
+                lines.add(lineBuf.toString());
+                lineBuf.setLength(0);
+            }
+        }
+
+        ArrayList/*<String>*/ getLines() {
+            return lines;
+        }
+
+    }
+
+    /** {@link Configuration#KEEP_TEMPLATE_SOURCE_RETENTION_POLICY} */
+    private static final class KeptSource extends RetainedSource {
+
+        private final List/*<String>*/ lines;
+
+        KeptSource(List/*<String>*/ lines) {
+            super(getLength(lines));
+            this.lines = lines;
+        }
+
+        @Override
+        List/*<String>*/ getLines() {
+            return lines;
+        }
+
+        @Override
+        long getEstimatedRetainedSize() {
+            // The String and char[] headers, and the chars of each line
+            return 32 + lines.size() * 68L + getSourceLength() * 2L;
+        }
+
+    }
+
+    /**
+     * Base of the sources that keep the lines only while there's enough memory, and must re-create them otherwise.
+     */
+    private abstract static class RecreatedSource extends RetainedSource {
+
+        private volatile SoftReference/*<List<String>>*/ linesRef;
+
+        RecreatedSource(int sourceLength) {
+            super(sourceLength);
+        }
+
+        @Override
+        final List/*<String>*/ getLines() {
+            SoftReference linesRef = this.linesRef;
+            List/*<String>*/ lines = linesRef != null ? (List) linesRef.get() : null;
+            if (lines == null) {
+                lines = recreateLines();
+                if (lines != null) {
+                    this.linesRef = new SoftReference(lines);
+                }
+            }
+            return lines;
+        }
+
+        /** Returns the lines, or {@code null} if they can't be re-created. */
+        abstract List/*<String>*/ recreateLines();
+
+    }
+
+    /** {@link Configuration#COMPRESS_TEMPLATE_SOURCE_RETENTION_POLICY} */
+    private static final class CompressedSource extends RecreatedSource {
+
+        private final byte[] compressed;
+        private final int uncompressedLength;
+
+        CompressedSource(List/*<String>*/ lines) {
+            super(getLength(lines));
+            byte[] uncompressed = toUTF8(join(lines));
+            uncompressedLength = uncompressed.length;
+            
+            Deflater deflater = new Deflater();
+            try {
+                deflater.setInput(uncompressed);
+                deflater.finish();
+                ByteArrayOutputStream out = new ByteArrayOutputStream(uncompressed.length / 4 + 16);
+                byte[] buf = new byte[4096];
+                while (!deflater.finished()) {
+                    int len = deflater.deflate(buf);
+                    out.write(buf, 0, len);
+                }
+                compressed = out.toByteArray();
+            } finally {
+                deflater.end();
+            }
+        }
+
+        @Override
+        List/*<String>*/ recreateLines() {
+            byte[] uncompressed = new byte[uncompressedLength];
+            Inflater inflater = new Inflater();
+            try {
+                inflater.setInput(compressed);
+                int len = 0;
+                while (len < uncompressedLength && !inflater.finished()) {
+                    len += inflater.inflate(uncompressed, len, uncompressedLength - len);
+                }
+            } catch (DataFormatException e) {
+                throw new BugException(e);
+            } finally {
+                inflater.end();
+            }
+            try {
+                return split(new String(uncompressed, "UTF-8"));
+            } catch (UnsupportedEncodingException e) {
+                throw new BugException(e);
+            }
+        }
+
+        @Override
+        long getEstimatedRetainedSize() {
+            return 64 + compressed.length;
+        }
+
+    }
+
+    /** {@link Configuration#RELOAD_TEMPLATE_SOURCE_RETENTION_POLICY} */
+    private static final class ReloadedSource extends RecreatedSource {
+
+        private final Template template;
+        private final long checksum;
+        /**
+         * Set if the source was found to be changed, so that we don't reload it again and again just to find that out.
+         */
+        private volatile boolean sourceChanged;
+
+        ReloadedSource(List/*<String>*/ lines, Template template) {
+            super(getLength(lines));
+            this.template = template;
+            this.checksum = getChecksum(lines);
+        }
+
+        private static long getChecksum(List/*<String>*/ lines) {
+            CRC32 crc = new CRC32();
+            crc.update(toUTF8(join(lines)));
+            return crc.getValue();
+        }
+
+        @Override
+        List/*<String>*/ recreateLines() {
+            final Configuration cfg = template.getConfiguration();
+            final TemplateLoader templateLoader = cfg.getTemplateLoader();
+            final String sourceName = template.getSourceName();
+            if (sourceChanged || templateLoader == null || sourceName == null) {
+                return null;
+            }
+            String encoding = template.getEncoding();
+            if (encoding == null) {
+                encoding = cfg.getEncoding(template.getLocale());
+            }
+            
+            final List/*<String>*/ lines;
+            try {
+                Object templateSource = templateLoader.findTemplateSource(sourceName);
+                if (templateSource == null) {
+                    return null;
+                }
+                try {
+                    LineCollector lineCollector = new LineCollector();
+                    Reader reader = templateLoader.getReader(templateSource, encoding);
+                    try {
+                        char[] buf = new char[4096];
+                        int len;
+                        while ((len = reader.read(buf)) != -1) {
+                            lineCollector.handleChars(buf, 0, len);
+                        }
+                    } finally {
+                        reader.close();
+                    }
+                    lineCollector.finish();
+                    lines = lineCollector.getLines();
+                } finally {
+                    templateLoader.closeTemplateSource(templateSource);
+                }
+            } catch (IOException e) {
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("Failed to reload the source of template " + StringUtil.jQuote(sourceName)
+                            + "; source snippets won't be available.", e);
+                }
+                return null;
+            }
+            
+            if (getLength(lines) != getSourceLength() || getChecksum(lines) != checksum) {
+                sourceChanged = true;
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("The source of template " + StringUtil.jQuote(sourceName)
+                            + " was changed since it was parsed; source snippets won't be available.");
+                }
+                return null;
+            }
+            return lines;
+        }
+
+        @Override
+        long getEstimatedRetainedSize() {
+            return 48;
+        }
+
+    }
+
+    /** {@link Configuration#DROP_TEMPLATE_SOURCE_RETENTION_POLICY} */
+    private static final class DroppedSource extends RetainedSource {
+
+        DroppedSource(int sourceLength) {
+            super(sourceLength);
+        }
+
+        @Override
+        List/*<String>*/ getLines() {
+            return null;
+        }
+
+        @Override
+        long getEstimatedRetainedSize() {
+            return 16;
+        }
+
+    }
+
+}
@@ -16,15 +16,17 @@
 
 package freemarker.template;
 
-import java.io.BufferedReader;
-import java.io.FilterReader;
 import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.PrintStream;
 import java.io.Reader;
 import java.io.StringReader;
 import java.io.StringWriter;
 import java.io.Writer;
-import java.lang.reflect.UndeclaredThrowableException;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Enumeration;
@@ -50,6 +52,7 @@ import freemarker.core.TemplateElement;
 import freemarker.core.TextBlock;
 import freemarker.core.TokenMgrError;
 import freemarker.core._CoreAPI;
+import freemarker.core._EncodingWriter;
 import freemarker.debug.impl.DebuggerService;
 
 /**
@@ -91,7 +94,7 @@ public class Template extends Configurable {
     private OutputFormat outputFormat;
     private final String name;
     private final String sourceName;
-    private final ArrayList lines = new ArrayList();
+    private RetainedSource retainedSource = RetainedSource.NONE;
     private final ParserConfiguration parserConfiguration;
     private Map prefixToNamespaceURILookup = new HashMap();
     private Map namespaceURIToPrefixLookup = new HashMap();
@@ -233,27 +236,51 @@ public class Template extends Configurable {
         this(name, sourceName, cfg, customParserConfiguration);
         
         this.setEncoding(encoding);
-        LineTableBuilder ltbReader;
+        
+        // The whole source is read into an array first, as then JavaCC can't silently treat the exceptions thrown by the
+        // Reader as EOF, and the parser need not deal with buffer refilling and line/column tracking per character.
+        final char[] source;
+        final int sourceLength;
         try {
-            if (!(reader instanceof BufferedReader) && !(reader instanceof StringReader)) {
-                reader = new BufferedReader(reader, 0x1000);
+            char[] buf = new char[0x1000];
+            int len = 0;
+            int readLen;
+            while ((readLen = reader.read(buf, len, buf.length - len)) != -1) {
+                len += readLen;
+                if (len == buf.length) {
+                    char[] newBuf = new char[buf.length * 2];
+                    System.arraycopy(buf, 0, newBuf, 0, len);
+                    buf = newBuf;
+                }
             }
-            ltbReader = new LineTableBuilder(reader);
-            reader = ltbReader;
-            
+            source = buf;
+            sourceLength = len;
+        } finally {
+            reader.close();
+        }
+        
+        parse(source, sourceLength);
+    }
+
+    /**
+     * Same as {@link #Template(String, String, Reader, Configuration, ParserConfiguration, String)}, but the source is
+     * given as an array, which won't be copied, so it must not be modified later. Used by {@link TemplateCache}, which
+     * decodes the template source directly into an array.
+     */
+    Template(
+            String name, String sourceName, char[] source, int sourceLength,
+            Configuration cfg, ParserConfiguration customParserConfiguration,
+            String encoding) throws IOException {
+        this(name, sourceName, cfg, customParserConfiguration);
+        this.setEncoding(encoding);
+        parse(source, sourceLength);
+    }
+    
+    private void parse(char[] source, int sourceLength) throws ParseException {
+        try {
             try {
-                parser = new FMParser(this, reader, getParserConfiguration());
-                try {
-                    this.rootElement = parser.Root();
-                } catch (IndexOutOfBoundsException exc) {
-                    // There's a JavaCC bug where the Reader throws a RuntimeExcepton and then JavaCC fails with
-                    // IndexOutOfBoundsException. If that wasn't the case, we just rethrow. Otherwise we suppress the
-                    // IndexOutOfBoundsException and let the real cause to be thrown later. 
-                    if (!ltbReader.hasFailure()) {
-                        throw exc;
-                    }
-                    rootElement = null;
-                }
+                parser = new FMParser(this, source, sourceLength, getParserConfiguration());
+                this.rootElement = parser.Root();
                 this.actualTagSyntax = parser._getLastTagSyntax();
                 this.actualNamingConvention = parser._getLastNamingConvention();
             } catch (TokenMgrError exc) {
@@ -266,12 +293,13 @@ public class Template extends Configurable {
         } catch (ParseException e) {
             e.setTemplateName(getSourceName());
             throw e;
-        } finally {
-            reader.close();
         }
         
-        // Throws any exception that JavaCC has silently treated as EOF:
-        ltbReader.throwFailure();
+        RetainedSource.LineCollector lineCollector = new RetainedSource.LineCollector();
+        lineCollector.handleChars(source, 0, sourceLength);
+        lineCollector.finish();
+        retainedSource = RetainedSource.create(
+                getConfiguration().getTemplateSourceRetentionPolicy(), lineCollector.getLines(), this);
         
         DebuggerService.registerTemplate(this);
         namespaceURIToPrefixLookup = Collections.unmodifiableMap(namespaceURIToPrefixLookup);
@@ -373,6 +401,46 @@ public class Template extends Configurable {
     throws TemplateException, IOException {
         createProcessingEnvironment(dataModel, out, null).process();
     }
+    
+    /**
+     * Like {@link #process(Object, Writer)}, but the output is written into an {@link OutputStream} with the given
+     * charset. This is faster than wrapping the {@link OutputStream} into an {@link OutputStreamWriter}, because the
+     * static text of the template is only encoded once per charset (the encoded bytes are cached in the template),
+     * and after that it's written as is. Only the dynamically generated output has to be encoded during template
+     * processing. (When the charset is such that separately encoded texts can't be simply concatenated, like in case
+     * of {@code UTF-16}, it falls back to using an {@link OutputStreamWriter}.)
+     * 
+     * <p>The {@link OutputStream} won't be closed. It will be flushed at the end of the processing, unless
+     * {@link Configuration#setAutoFlush(boolean)} was used to disable that. Anyway, all the output will be written
+     * into it, even if the processing fails.
+     * 
+     * @since 2.3.24
+     */
+    public void process(Object dataModel, OutputStream out, Charset charset)
+    throws TemplateException, IOException {
+        if (_EncodingWriter.isPreEncodingSupported(charset)) {
+            _EncodingWriter encOut = new _EncodingWriter(out, charset);
+            Environment env;
+            try {
+                env = createProcessingEnvironment(dataModel, encOut, null);
+                env.process();
+            } finally {
+                encOut.flushBuffer(true);
+            }
+            // Environment.process() has flushed before the bytes written by flushBuffer(true), so we do it again:
+            if (env.getAutoFlush()) {
+                out.flush();
+            }
+        } else {
+            OutputStreamWriter oswOut = new OutputStreamWriter(out, charset);
+            try {
+                createProcessingEnvironment(dataModel, oswOut, null).process();
+            } finally {
+                // OutputStreamWriter can't write out its buffer without flushing the OutputStream too:
+                oswOut.flush();
+            }
+        }
+    }
 
     /**
      * Like {@link #process(Object, Writer)}, but also sets a (XML-)node to be recursively processed by the template.
@@ -727,6 +795,8 @@ public class Template extends Configurable {
 
     /**
      * Returns the template source at the location specified by the coordinates given, or {@code null} if unavailable.
+     * The source is unavailable if it wasn't retained, according the
+     * {@link Configuration#setTemplateSourceRetentionPolicy(int) template source retention policy}.
      * @param beginColumn the first column of the requested source, 1-based
      * @param beginLine the first line of the requested source, 1-based
      * @param endColumn the last column of the requested source, 1-based
@@ -744,11 +814,12 @@ public class Template extends Configurable {
         --beginColumn;
         --endColumn;
         --endLine;
+        final List lines = retainedSource.getLines();
+        if (lines == null || endLine >= lines.size()) return null;
+        
         StringBuilder buf = new StringBuilder();
         for (int i = beginLine ; i <= endLine; i++) {
-            if (i < lines.size()) {
-                buf.append(lines.get(i));
-            }
+            buf.append(lines.get(i));
         }
         int lastLineLength = lines.get(endLine).toString().length();
         int trailingCharsToDelete = lastLineLength - endColumn - 1;
@@ -758,111 +829,99 @@ public class Template extends Configurable {
     }
 
     /**
-     * Reader that builds up the line table info for us, and also helps in working around JavaCC's exception
-     * suppression.
+     * Creates a template that has no content yet; {@link #readParsed(ObjectInputStream)} must be called on it before it's
+     * used. Used by {@link ParsedTemplateSerialization}.
      */
-    private class LineTableBuilder extends FilterReader {
-        
-        private final StringBuilder lineBuf = new StringBuilder();
-        int lastChar;
-        boolean closed;
-        
-        /** Needed to work around JavaCC behavior where it silently treats any errors as EOF. */ 
-        private Exception failure; 
+    static Template createForReadParsed(
+            String name, String sourceName, Configuration cfg, ParserConfiguration customParserConfiguration,
+            String encoding) {
+        Template template = new Template(name, sourceName, cfg, customParserConfiguration);
+        template.setEncoding(encoding);
+        return template;
+    }
 
-        /**
-         * @param r the character stream to wrap
-         */
-        LineTableBuilder(Reader r) {
-            super(r);
-        }
+    /**
+     * Writes everything that the parsing has produced, that is, the AST and the template state that the parser (like
+     * the {@code #ftl} header) has set. The {@link ObjectOutputStream} must replace the references to this
+     * {@link Template} and to the {@link Configuration}; see {@link ParsedTemplateSerialization}. Must be called before
+     * the {@link TemplateConfigurer} (if any) was applied, as the custom attributes are written too.
+     */
+    void writeParsed(ObjectOutputStream out) throws IOException {
+        out.writeObject(rootElement);
+        out.writeObject(macros);
+        out.writeObject(imports);
+        List/*<String>*/ lines = retainedSource.getLines();
+        out.writeObject(lines != null ? new ArrayList(lines) : null);
+        out.writeInt(retainedSource.getSourceLength());
+        out.writeObject(defaultNS);
+        out.writeInt(actualTagSyntax);
+        out.writeInt(actualNamingConvention);
+        out.writeBoolean(autoEscaping);
+        out.writeObject(outputFormat);
+        out.writeObject(new HashMap(prefixToNamespaceURILookup));
+        out.writeObject(new HashMap(namespaceURIToPrefixLookup));
         
-        public boolean hasFailure() {
-            return failure != null;
-        }
-
-        public void throwFailure() throws IOException {
-            if (failure != null) {
-                if (failure instanceof IOException) {
-                    throw (IOException) failure;
-                }
-                if (failure instanceof RuntimeException) {
-                    throw (RuntimeException) failure;
-                }
-                throw new UndeclaredThrowableException(failure);
-            }
-        }
-
-        @Override
-        public int read() throws IOException {
-            try {
-                int c = in.read();
-                handleChar(c);
-                return c;
-            } catch (Exception e) {
-                throw rememberException(e);
-            }
-        }
-
-        private IOException rememberException(Exception e) throws IOException {
-            // JavaCC used to read from the Reader after it was closed. So we must not treat that as a failure. 
-            if (!closed) {
-                failure = e;
-            }
-            if (e instanceof IOException) {
-                return (IOException) e;
-            }
-            if (e instanceof RuntimeException) {
-                throw (RuntimeException) e;
-            }
-            throw new UndeclaredThrowableException(e);
+        String[] customAttributeNames = getCustomAttributeNames();
+        out.writeInt(customAttributeNames.length);
+        for (int i = 0; i < customAttributeNames.length; i++) {
+            String attName = customAttributeNames[i];
+            out.writeObject(attName);
+            out.writeObject(getCustomAttribute(attName));
         }
+    }
 
-        @Override
-        public int read(char cbuf[], int off, int len) throws IOException {
-            try {
-                int numchars = in.read(cbuf, off, len);
-                for (int i = off; i < off + numchars; i++) {
-                    char c = cbuf[i];
-                    handleChar(c);
-                }
-                return numchars;
-            } catch (Exception e) {
-                throw rememberException(e);
-            }
+    /**
+     * The reverse of {@link #writeParsed(ObjectOutputStream)}; finishes the initialization like the parsing
+     * constructor does, except that it doesn't register the template at the {@link DebuggerService}.
+     */
+    void readParsed(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        rootElement = (TemplateElement) in.readObject();
+        macros = (Map) in.readObject();
+        imports = (List) in.readObject();
+        ArrayList/*<String>*/ lines = (ArrayList) in.readObject();
+        int sourceLength = in.readInt();
+        retainedSource = lines != null
+                ? RetainedSource.create(getConfiguration().getTemplateSourceRetentionPolicy(), lines, this)
+                : RetainedSource.createDropped(sourceLength);
+        defaultNS = (String) in.readObject();
+        actualTagSyntax = in.readInt();
+        actualNamingConvention = in.readInt();
+        autoEscaping = in.readBoolean();
+        outputFormat = (OutputFormat) in.readObject();
+        prefixToNamespaceURILookup = Collections.unmodifiableMap((Map) in.readObject());
+        namespaceURIToPrefixLookup = Collections.unmodifiableMap((Map) in.readObject());
+        
+        int customAttributeCount = in.readInt();
+        for (int i = 0; i < customAttributeCount; i++) {
+            String attName = (String) in.readObject();
+            setCustomAttribute(attName, in.readObject());
         }
+    }
 
-        @Override
-        public void close() throws IOException {
-            if (lineBuf.length() > 0) {
-                lines.add(lineBuf.toString());
-                lineBuf.setLength(0);
-            }
-            super.close();
-            closed = true;
+    /**
+     * Returns a rough estimate of the heap size retained by this template in bytes, based on the length of the source,
+     * the way the source is retained, and the number of AST nodes. Used by {@link freemarker.cache.TinyLfuCacheStorage}.
+     */
+    long getEstimatedRetainedSize() {
+        // The Template object itself, with its settings and maps
+        long size = 512;
+        size += retainedSource.getEstimatedRetainedSize();
+        // About the same amount of text as in the source is stored in the AST
+        size += retainedSource.getSourceLength() * 2L;
+        if (rootElement != null) {
+            // An element, together with its expressions
+            size += getElementCount(rootElement) * 128L;
         }
-
-        private void handleChar(int c) {
-            if (c == '\n' || c == '\r') {
-                if (lastChar == '\r' && c == '\n') { // CRLF under Windoze
-                    int lastIndex = lines.size() - 1;
-                    String lastLine = (String) lines.get(lastIndex);
-                    lines.set(lastIndex, lastLine + '\n');
-                } else {
-                    lineBuf.append((char) c);
-                    lines.add(lineBuf.toString());
-                    lineBuf.setLength(0);
-                }
-            } else if (c == '\t') {
-                int numSpaces = 8 - (lineBuf.length() % 8);
-                for (int i = 0; i < numSpaces; i++) {
-                    lineBuf.append(' ');
-                }
-            } else {
-                lineBuf.append((char) c);
-            }
-            lastChar = c;
+        return size;
+    }
+    
+    private static int getElementCount(TemplateElement element) {
+        int count = 1;
+        int childCount = element.getChildCount();
+        for (int i = 0; i < childCount; i++) {
+            count += getElementCount(element.getChildAt(i));
         }
+        return count;
     }
 
     /**
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2014 Attila Szegedi, Daniel Dekany, Jonathan Revusky
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package freemarker.template;
+
+import java.util.Locale;
+
+import freemarker.template.utility.StringUtil;
+
+/**
+ * The outcome of loading a single template with {@link Configuration#preloadTemplates(java.util.Collection,
+ * java.util.Collection, java.util.concurrent.Executor)}.
+ * 
+ * @since 2.3.24
+ */
+public final class TemplatePreloadResult {
+
+    private final String name;
+    private final Locale locale;
+    private final Template template;
+    private final Throwable failure;
+    private final long loadTimeNanos;
+
+    TemplatePreloadResult(String name, Locale locale, Template template, Throwable failure, long loadTimeNanos) {
+        this.name = name;
+        this.locale = locale;
+        this.template = template;
+        this.failure = failure;
+        this.loadTimeNanos = loadTimeNanos;
+    }
+
+    /**
+     * The template name as it was passed to {@link Configuration#getTemplate(String, Locale)}.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * The locale as it was passed to {@link Configuration#getTemplate(String, Locale)}.
+     */
+    public Locale getLocale() {
+        return locale;
+    }
+
+    /**
+     * The loaded template, or {@code null} if loading has failed.
+     */
+    public Template getTemplate() {
+        return template;
+    }
+
+    /**
+     * The exception (or {@link Error}) that has made loading the template fail, or {@code null} if it was successful.
+     * This is a {@link TemplateNotFoundException} if the template wasn't found, or a
+     * {@link freemarker.core.ParseException} if it has syntactical errors.
+     */
+    public Throwable getFailure() {
+        return failure;
+    }
+
+    public boolean isSuccessful() {
+        return failure == null;
+    }
+
+    /**
+     * The time the {@link Configuration#getTemplate(String, Locale)} call has taken in nanoseconds. This is mostly the
+     * time needed for loading and parsing the template, but if the template was already in the cache, or another
+     * thread was already loading it, then it's the time until it was found or the other thread has finished.
+     */
+    public long getLoadTimeNanos() {
+        return loadTimeNanos;
+    }
+
+    @Override
+    public String toString() {
+        return "TemplatePreloadResult(name=" + StringUtil.jQuote(name) + ", locale=" + locale
+                + ", loadTimeMillis=" + (loadTimeNanos / 1000000L)
+                + (failure != null ? ", failure=" + failure : "") + ")";
+    }
+
+}
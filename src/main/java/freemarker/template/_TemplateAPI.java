@@ -16,6 +16,10 @@
 
 package freemarker.template;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
 import java.util.Set;
 
 import freemarker.cache.CacheStorage;
@@ -23,6 +27,7 @@ import freemarker.cache.TemplateLoader;
 import freemarker.cache.TemplateLookupStrategy;
 import freemarker.cache.TemplateNameFormat;
 import freemarker.core.OutputFormat;
+import freemarker.core.ParserConfiguration;
 import freemarker.core.TemplateObject;
 import freemarker.template.utility.NullArgumentException;
 
@@ -63,6 +68,41 @@ public class _TemplateAPI {
         return t.getTemplateLanguageVersion().intValue();
     }
     
+    public static long getEstimatedRetainedSize(Template t) {
+        return t.getEstimatedRetainedSize();
+    }
+    
+    public static void writeParsedTemplate(Template t, OutputStream out) throws IOException {
+        ParsedTemplateSerialization.write(t, out);
+    }
+    
+    public static void writeParsedTemplate(Template t, OutputStream out, List/*<Object>*/ sharedObjects)
+            throws IOException {
+        ParsedTemplateSerialization.write(t, out, sharedObjects);
+    }
+    
+    public static Template readParsedTemplate(
+            InputStream in,
+            String name, String sourceName, Configuration cfg, ParserConfiguration customParserConfiguration,
+            String encoding) throws IOException {
+        return ParsedTemplateSerialization.read(in, name, sourceName, cfg, customParserConfiguration, encoding);
+    }
+    
+    public static Template readParsedTemplate(
+            InputStream in,
+            String name, String sourceName, Configuration cfg, ParserConfiguration customParserConfiguration,
+            String encoding, List/*<Object>*/ sharedObjects) throws IOException {
+        return ParsedTemplateSerialization.read(in, name, sourceName, cfg, customParserConfiguration, encoding,
+                sharedObjects);
+    }
+    
+    public static Template newTemplate(
+            String name, String sourceName, char[] source, int sourceLength,
+            Configuration cfg, ParserConfiguration customParserConfiguration,
+            String encoding) throws IOException {
+        return new Template(name, sourceName, source, sourceLength, cfg, customParserConfiguration, encoding);
+    }
+    
     /** For unit testing only */
     public static void DefaultObjectWrapperFactory_clearInstanceCache() {
         DefaultObjectWrapperBuilder.clearInstanceCache();
@@ -75,7 +75,7 @@ public class StringUtil {
      * @since 2.3.24
      */
     public static void XMLEnc(String s, Writer out) throws IOException {
-        XMLOrHTMLEnc(s, XML_APOS, out);
+        XMLOrHTMLEnc(s, true, true, XML_APOS, out);
     }
     
     /**
@@ -95,7 +95,7 @@ public class StringUtil {
      * @since 2.3.24
      */
     public static void XHTMLEnc(String s, Writer out) throws IOException {
-        XMLOrHTMLEnc(s, HTML_APOS, out);
+        XMLOrHTMLEnc(s, true, true, HTML_APOS, out);
     }
     
     private static String XMLOrHTMLEnc(String s, boolean escGT, boolean escQuot, char[] apos) {
@@ -197,28 +197,48 @@ public class StringUtil {
         return false;
     }
 
-    private static void XMLOrHTMLEnc(String s, char[] apos, Writer out) throws IOException {
+    /**
+     * Writes the escaped string in as few {@link Writer#write} calls as possible: the runs of characters that need no
+     * escaping are written in one call, and if nothing needs escaping, the string is written as is, without copying.
+     */
+    private static void XMLOrHTMLEnc(String s, boolean escGT, boolean escQuot, char[] apos, Writer out)
+            throws IOException {
         int writtenEnd = 0;  // exclusive end
         int ln = s.length();
         for (int i = 0; i < ln; i++) {
-            char c = s.charAt(i);
-            if (c == '<' || c == '>' || c == '&' || c == '"' || c == '\'') {
+            final char c = s.charAt(i);
+            final char[] esced;
+            switch (c) {
+            case '<':
+                esced = LT;
+                break;
+            case '>':
+                esced = escGT || maybeCDataEndGT(s, i) ? GT : null;
+                break;
+            case '&':
+                esced = AMP;
+                break;
+            case '"':
+                esced = escQuot ? QUOT : null;
+                break;
+            case '\'':
+                esced = apos;
+                break;
+            default:
+                esced = null;
+            }
+            if (esced != null) {
                 int flushLn = i - writtenEnd;
                 if (flushLn != 0) {
                     out.write(s, writtenEnd, flushLn);
                 }
                 writtenEnd = i + 1;
-                
-                switch (c) {
-                case '<': out.write(LT); break;
-                case '>': out.write(GT); break;
-                case '&': out.write(AMP); break;
-                case '"': out.write(QUOT); break;
-                default: out.write(apos); break;
-                }
+                out.write(esced);
             }
         }
-        if (writtenEnd < ln) {
+        if (writtenEnd == 0) {
+            out.write(s);
+        } else if (writtenEnd < ln) {
             out.write(s, writtenEnd, ln - writtenEnd);
         }
     }
@@ -242,6 +262,15 @@ public class StringUtil {
         return XMLOrHTMLEnc(s, true, true, null);
     }
 
+    /**
+     * Like {@link #XMLEncNA(String)}, but writes the result into a {@link Writer}.
+     * 
+     * @since 2.3.24
+     */
+    public static void XMLEncNA(String s, Writer out) throws IOException {
+        XMLOrHTMLEnc(s, true, true, null, out);
+    }
+
     /**
      *  XML encoding for attribute values quoted with <tt>"</tt> (not with <tt>'</tt>!).
      *  Also can be used for HTML attributes that are quoted with <tt>"</tt>.
@@ -324,7 +353,9 @@ public class StringUtil {
                 writtenEnd = i; // Not i + 1, so c will be written out later
             }
         }
-        if (writtenEnd < ln) {
+        if (writtenEnd == 0) {
+            out.write(s);
+        } else if (writtenEnd < ln) {
             out.write(s, writtenEnd, ln - writtenEnd);
         }
     }
@@ -1381,65 +1412,8 @@ public class StringUtil {
         StringBuilder sb = null;
         for (int i = 0; i < ln; i++) {
             final char c = s.charAt(i);
-            final int escapeType;  // 
             if (!(c > '>' && c < 0x7F && c != '\\') && c != ' ' && !(c >= 0xA0 && c < 0x2028)) {  // skip common chars
-                if (c <= 0x1F) {  // control chars range 1
-                    if (c == '\n') {
-                        escapeType = 'n';
-                    } else if (c == '\r') {
-                        escapeType = 'r';
-                    } else if (c == '\f') {
-                        escapeType = 'f';
-                    } else if (c == '\b') {
-                        escapeType = 'b';
-                    } else if (c == '\t') {
-                        escapeType = 't';
-                    } else {
-                        escapeType = ESC_HEXA;
-                    }
-                } else if (c == '"') {
-                    escapeType = ESC_BACKSLASH;
-                } else if (c == '\'') {
-                    escapeType = json ? NO_ESC : ESC_BACKSLASH; 
-                } else if (c == '\\') {
-                    escapeType = ESC_BACKSLASH; 
-                } else if (c == '/' && (i == 0 || s.charAt(i - 1) == '<')) {  // against closing elements
-                    escapeType = ESC_BACKSLASH; 
-                } else if (c == '>') {  // against "]]> and "-->"
-                    final boolean dangerous;
-                    if (i == 0) {
-                        dangerous = true;
-                    } else {
-                        final char prevC = s.charAt(i - 1);
-                        if (prevC == ']' || prevC == '-') {
-                            if (i == 1) {
-                                dangerous = true;
-                            } else {
-                                final char prevPrevC = s.charAt(i - 2);
-                                dangerous = prevPrevC == prevC;
-                            }
-                        } else {
-                            dangerous = false;
-                        }
-                    }
-                    escapeType = dangerous ? (json ? ESC_HEXA : ESC_BACKSLASH) : NO_ESC;
-                } else if (c == '<') {  // against "<!"
-                    final boolean dangerous;
-                    if (i == ln - 1) {
-                        dangerous = true;
-                    } else {
-                        char nextC = s.charAt(i + 1);
-                        dangerous = nextC == '!' || nextC == '?';
-                    }
-                    escapeType = dangerous ? ESC_HEXA : NO_ESC;
-                } else if ((c >= 0x7F && c <= 0x9F)  // control chars range 2
-                            || (c == 0x2028 || c == 0x2029)  // UNICODE line terminators
-                            ) {
-                    escapeType = ESC_HEXA;
-                } else {
-                    escapeType = NO_ESC;
-                }
-                
+                final int escapeType = getJsStringEscapeType(s, i, c, json);
                 if (escapeType != NO_ESC) { // If needs escaping
                     if (sb == null) {
                         sb = new StringBuilder(ln + 6);
@@ -1477,6 +1451,153 @@ public class StringUtil {
         return sb == null ? s : sb.toString();
     }
 
+    /**
+     * Like {@link #jsStringEnc(String, boolean)}, but writes the result into a {@link Writer}. The runs of characters
+     * that need no escaping are written with one {@link Writer#write} call, and if nothing needs escaping, the string
+     * is written as is, without copying.
+     * 
+     * @since 2.3.24
+     */
+    public static void jsStringEnc(String s, boolean json, Writer out) throws IOException {
+        NullArgumentException.check("s", s);
+        
+        int ln = s.length();
+        int writtenEnd = 0;  // exclusive end
+        char[] escBuf = null;
+        for (int i = 0; i < ln; i++) {
+            final char c = s.charAt(i);
+            if (!(c > '>' && c < 0x7F && c != '\\') && c != ' ' && !(c >= 0xA0 && c < 0x2028)) {  // skip common chars
+                final int escapeType = getJsStringEscapeType(s, i, c, json);
+                if (escapeType != NO_ESC) { // If needs escaping
+                    int flushLn = i - writtenEnd;
+                    if (flushLn != 0) {
+                        out.write(s, writtenEnd, flushLn);
+                    }
+                    writtenEnd = i + 1;
+                    
+                    if (escBuf == null) {
+                        escBuf = new char[6];
+                        escBuf[0] = '\\';
+                    }
+                    final int escLn;
+                    if (escapeType > 0x20) {
+                        escBuf[1] = (char) escapeType;
+                        escLn = 2;
+                    } else if (escapeType == ESC_HEXA) {
+                        if (!json && c < 0x100) {
+                            escBuf[1] = 'x';
+                            escBuf[2] = toHexDigit(c >> 4);
+                            escBuf[3] = toHexDigit(c & 0xF);
+                            escLn = 4;
+                        } else {
+                            escBuf[1] = 'u';
+                            int cp = c;
+                            escBuf[2] = toHexDigit((cp >> 12) & 0xF);
+                            escBuf[3] = toHexDigit((cp >> 8) & 0xF);
+                            escBuf[4] = toHexDigit((cp >> 4) & 0xF);
+                            escBuf[5] = toHexDigit(cp & 0xF);
+                            escLn = 6;
+                        }
+                    } else {  // escapeType == ESC_BACKSLASH
+                        escBuf[1] = c;
+                        escLn = 2;
+                    }
+                    out.write(escBuf, 0, escLn);
+                }
+            }
+        } // for each characters
+        
+        if (writtenEnd == 0) {
+            out.write(s);
+        } else if (writtenEnd < ln) {
+            out.write(s, writtenEnd, ln - writtenEnd);
+        }
+    }
+    
+    /**
+     * Like {@link #javaScriptStringEnc(String)}, but writes the result into a {@link Writer}.
+     * 
+     * @since 2.3.24
+     */
+    public static void javaScriptStringEnc(String s, Writer out) throws IOException {
+        jsStringEnc(s, false, out);
+    }
+
+    /**
+     * Like {@link #jsonStringEnc(String)}, but writes the result into a {@link Writer}.
+     * 
+     * @since 2.3.24
+     */
+    public static void jsonStringEnc(String s, Writer out) throws IOException {
+        jsStringEnc(s, true, out);
+    }
+    
+    /**
+     * Decides how the character at index {@code i} should be escaped by {@link #jsStringEnc(String, boolean)}; only
+     * called for characters that aren't trivially safe.
+     * 
+     * @return {@link #NO_ESC}, {@link #ESC_HEXA}, {@link #ESC_BACKSLASH}, or the character to put after the
+     *     backslash.
+     */
+    private static int getJsStringEscapeType(String s, int i, char c, boolean json) {
+        if (c <= 0x1F) {  // control chars range 1
+            if (c == '\n') {
+                return 'n';
+            } else if (c == '\r') {
+                return 'r';
+            } else if (c == '\f') {
+                return 'f';
+            } else if (c == '\b') {
+                return 'b';
+            } else if (c == '\t') {
+                return 't';
+            } else {
+                return ESC_HEXA;
+            }
+        } else if (c == '"') {
+            return ESC_BACKSLASH;
+        } else if (c == '\'') {
+            return json ? NO_ESC : ESC_BACKSLASH; 
+        } else if (c == '\\') {
+            return ESC_BACKSLASH; 
+        } else if (c == '/' && (i == 0 || s.charAt(i - 1) == '<')) {  // against closing elements
+            return ESC_BACKSLASH; 
+        } else if (c == '>') {  // against "]]> and "-->"
+            final boolean dangerous;
+            if (i == 0) {
+                dangerous = true;
+            } else {
+                final char prevC = s.charAt(i - 1);
+                if (prevC == ']' || prevC == '-') {
+                    if (i == 1) {
+                        dangerous = true;
+                    } else {
+                        final char prevPrevC = s.charAt(i - 2);
+                        dangerous = prevPrevC == prevC;
+                    }
+                } else {
+                    dangerous = false;
+                }
+            }
+            return dangerous ? (json ? ESC_HEXA : ESC_BACKSLASH) : NO_ESC;
+        } else if (c == '<') {  // against "<!"
+            final boolean dangerous;
+            if (i == s.length() - 1) {
+                dangerous = true;
+            } else {
+                char nextC = s.charAt(i + 1);
+                dangerous = nextC == '!' || nextC == '?';
+            }
+            return dangerous ? ESC_HEXA : NO_ESC;
+        } else if ((c >= 0x7F && c <= 0x9F)  // control chars range 2
+                    || (c == 0x2028 || c == 0x2029)  // UNICODE line terminators
+                    ) {
+            return ESC_HEXA;
+        } else {
+            return NO_ESC;
+        }
+    }
+
     private static char toHexDigit(int d) {
         return (char) (d < 0xA ? d + '0' : d - 0xA + 'A');
     }
@@ -20,10 +20,12 @@ import static org.junit.Assert.*;
 
 import java.io.File;
 import java.io.IOException;
+import java.lang.ref.WeakReference;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang.SystemUtils;
 import org.junit.After;
+import org.junit.Assume;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -59,6 +61,13 @@ public class FileTemplateLoaderTest {
         }
     }
 
+    @Test
+    public void testListTemplateNames() throws Exception {
+        FileUtils.write(new File(templateRootDir, "sub1/t2.ftl"), "bar");
+        FileTemplateLoader tl = (FileTemplateLoader) cfg.getTemplateLoader();
+        assertThat(tl.listTemplateNames(), containsInAnyOrder("sub1/sub2/t.ftl", "sub1/t2.ftl"));
+    }
+    
     @Test
     public void testSuccessful2() throws Exception {
         ((FileTemplateLoader) cfg.getTemplateLoader()).setEmulateCaseSensitiveFileSystem(true);
@@ -110,6 +119,108 @@ public class FileTemplateLoaderTest {
         assertFalse(new FileTemplateLoader(templateRootDir).getEmulateCaseSensitiveFileSystem());
     }
     
+    @Test
+    public void testWatchForChanges() throws Exception {
+        FileTemplateLoader tl = (FileTemplateLoader) cfg.getTemplateLoader();
+        assertEquals(-1, tl.getChangeCount());
+        tl.setWatchForChanges(true);
+        try {
+            assertTrue(tl.getWatchForChanges());
+            cfg.setTemplateUpdateDelayMilliseconds(Long.MAX_VALUE);
+            
+            assertEquals("foo", cfg.getTemplate("sub1/sub2/t.ftl").toString());
+            assertNull(cfg.getTemplate("sub1/sub3/t2.ftl", null, null, null, true, true));
+            
+            FileUtils.write(new File(templateRootDir, "sub1/sub2/t.ftl"), "bar");
+            File sub3Dir = new File(templateRootDir, "sub1/sub3");
+            assertTrue(sub3Dir.mkdir());
+            FileUtils.write(new File(sub3Dir, "t2.ftl"), "baaz");
+            
+            // The notifications are asynchronous:
+            long deadline = System.currentTimeMillis() + 10000;
+            while (!"bar".equals(cfg.getTemplate("sub1/sub2/t.ftl").toString())
+                    || cfg.getTemplate("sub1/sub3/t2.ftl", null, null, null, true, true) == null) {
+                assertTrue("Timeout", System.currentTimeMillis() < deadline);
+                Thread.sleep(50);
+            }
+            assertEquals("baaz", cfg.getTemplate("sub1/sub3/t2.ftl").toString());
+        } finally {
+            tl.setWatchForChanges(false);
+        }
+        assertFalse(tl.getWatchForChanges());
+        assertEquals(-1, tl.getChangeCount());
+    }
+    
+    @Test
+    public void testWatchForChangesThroughSymbolicLink() throws Exception {
+        Assume.assumeTrue(SystemUtils.IS_OS_UNIX);
+        File linkedDir = Files.createTempDir();
+        try {
+            FileUtils.write(new File(linkedDir, "t3.ftl"), "foo");
+            Process ln = new ProcessBuilder(
+                    "ln", "-s", linkedDir.getAbsolutePath(), new File(templateRootDir, "sub1/link").getAbsolutePath())
+                    .start();
+            assertEquals(0, ln.waitFor());
+            
+            FileTemplateLoader tl = new FileTemplateLoader(templateRootDir, true);
+            cfg.setTemplateLoader(tl);
+            tl.setWatchForChanges(true);
+            try {
+                cfg.setTemplateUpdateDelayMilliseconds(Long.MAX_VALUE);
+                assertEquals("foo", cfg.getTemplate("sub1/link/t3.ftl").toString());
+                
+                FileUtils.write(new File(linkedDir, "t3.ftl"), "bar");
+                long deadline = System.currentTimeMillis() + 10000;
+                while (!"bar".equals(cfg.getTemplate("sub1/link/t3.ftl").toString())) {
+                    assertTrue("Timeout", System.currentTimeMillis() < deadline);
+                    Thread.sleep(50);
+                }
+            } finally {
+                tl.setWatchForChanges(false);
+            }
+        } finally {
+            FileUtils.deleteDirectory(linkedDir);
+        }
+    }
+    
+    @Test
+    public void testWatchingDoesNotPreventGarbageCollection() throws Exception {
+        FileTemplateLoader tl = new FileTemplateLoader(templateRootDir);
+        tl.setWatchForChanges(true);
+        WeakReference<FileTemplateLoader> tlRef = new WeakReference<FileTemplateLoader>(tl);
+        tl = null;
+        assertCollected(tlRef);
+    }
+    
+    @Test
+    public void testWatcherThreadExitsAfterCallbackCollected() throws Exception {
+        Runnable callback = new Runnable() {
+            public void run() {
+                // Do nothing
+            }
+        };
+        _TemplateDirectoryWatcher watcher = new _TemplateDirectoryWatcher(templateRootDir, false, callback, 10);
+        assertTrue(watcher.isThreadAlive());
+        WeakReference<Runnable> callbackRef = new WeakReference<Runnable>(callback);
+        callback = null;
+        assertCollected(callbackRef);
+        
+        long deadline = System.currentTimeMillis() + 10000;
+        while (watcher.isThreadAlive()) {
+            assertTrue("Timeout", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    private void assertCollected(WeakReference<?> ref) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (ref.get() != null) {
+            assertTrue("Timeout", System.currentTimeMillis() < deadline);
+            System.gc();
+            Thread.sleep(10);
+        }
+    }
+    
     @After
     public void tearDown() throws IOException {
         FileUtils.deleteDirectory(templateRootDir);
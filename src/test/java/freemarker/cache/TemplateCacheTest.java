@@ -18,14 +18,26 @@ package freemarker.cache;
 
 import static org.junit.Assert.*;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.Reader;
+import java.io.StringWriter;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.Executor;
 
+import org.apache.commons.io.FileUtils;
 import org.hamcrest.Matchers;
 import org.junit.Test;
 
+import com.google.common.io.Files;
+
+import freemarker.core.HTMLOutputFormat;
 import freemarker.core.ParseException;
 import freemarker.template.Configuration;
 import freemarker.template.MalformedTemplateNameException;
@@ -388,6 +400,262 @@ public class TemplateCacheTest {
         }
     }
     
+    @Test
+    public void testWrongEncodingWithBinaryTemplateLoader() throws Exception {
+        ByteArrayTemplateLoader byteArrayTL = new ByteArrayTemplateLoader();
+        byteArrayTL.putTemplate("t.ftl", "<#ftl encoding='ISO-8859-2'>\u0151".getBytes("ISO-8859-2"));
+        byteArrayTL.putTemplate("t2.ftl", "<#ftl encoding='utf-8'>\u0151".getBytes("UTF-8"));
+        CountingBinaryTemplateLoader loader = new CountingBinaryTemplateLoader(byteArrayTL);
+        
+        Configuration cfg = new Configuration(Configuration.VERSION_2_3_22);
+        cfg.setTemplateLoader(loader);
+        cfg.setLocalizedLookup(false);
+        cfg.setDefaultEncoding("UTF-8");
+        
+        Template t = cfg.getTemplate("t.ftl");
+        assertEquals("ISO-8859-2", t.getEncoding());
+        assertEquals("\u0151", processToString(t));
+        
+        t = cfg.getTemplate("t2.ftl", "UTF-8");
+        assertEquals("UTF-8", t.getEncoding());
+        assertEquals("\u0151", processToString(t));
+        
+        // Each template source was read once, and never through a Reader:
+        assertEquals(2, loader.getBytesCount);
+        assertEquals(0, loader.getReaderCount);
+    }
+    
+    @Test
+    public void testConcurrentLoadingOfSameTemplate() throws Exception {
+        final SlowTemplateLoader loader = new SlowTemplateLoader();
+        loader.putTemplate("t.ftl", "${x}");
+        final TemplateCache cache = new TemplateCache(loader, new StrongCacheStorage(), new Configuration());
+        cache.setLocalizedLookup(false);
+        
+        final Template[] results = new Template[8];
+        final Exception[] failure = new Exception[1];
+        Thread[] threads = new Thread[results.length];
+        for (int i = 0; i < threads.length; i++) {
+            final int threadIdx = i;
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        results[threadIdx] = cache.getTemplate("t.ftl", Locale.US, "utf-8", true);
+                    } catch (Exception e) {
+                        failure[0] = e;
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertNull(failure[0]);
+        
+        // The template was loaded only once, and all threads got that single instance:
+        assertEquals(1, loader.getReaderCount());
+        assertNotNull(results[0]);
+        for (Template result : results) {
+            assertSame(results[0], result);
+        }
+    }
+    
+    @Test
+    public void testBackgroundRevalidation() throws Exception {
+        StringTemplateLoader loader = new StringTemplateLoader();
+        loader.putTemplate("t.ftl", "v1", 1000L);
+        TemplateCache cache = new TemplateCache(loader, new StrongCacheStorage(), new Configuration());
+        cache.setLocalizedLookup(false);
+        cache.setDelay(0L);
+        final List<Runnable> tasks = new ArrayList<Runnable>();
+        cache.setRevalidationExecutor(new Executor() {
+            public void execute(Runnable command) {
+                tasks.add(command);
+            }
+        });
+        
+        // Not in the cache yet, so it's loaded synchronously:
+        Template t1 = cache.getTemplate("t.ftl", Locale.US, "utf-8", true);
+        assertEquals("v1", t1.toString());
+        assertEquals(0, tasks.size());
+        
+        loader.putTemplate("t.ftl", "v2", 2000L);
+        assertSame(t1, cache.getTemplate("t.ftl", Locale.US, "utf-8", true));
+        assertEquals(1, tasks.size());
+        // The re-validation is already in progress:
+        assertSame(t1, cache.getTemplate("t.ftl", Locale.US, "utf-8", true));
+        assertEquals(1, tasks.size());
+        
+        tasks.remove(0).run();
+        Template t2 = cache.getTemplate("t.ftl", Locale.US, "utf-8", true);
+        assertEquals("v2", t2.toString());
+        assertEquals(1, tasks.size());
+        tasks.remove(0).run();
+        
+        // A failed reload keeps the earlier version:
+        loader.putTemplate("t.ftl", "<#if x></#list>", 3000L);
+        assertSame(t2, cache.getTemplate("t.ftl", Locale.US, "utf-8", true));
+        tasks.remove(0).run();
+        assertSame(t2, cache.getTemplate("t.ftl", Locale.US, "utf-8", true));
+    }
+    
+    @Test
+    public void testParsedTemplateDirectory() throws Exception {
+        File dir = Files.createTempDir();
+        try {
+            StringTemplateLoader loader = new StringTemplateLoader();
+            loader.putTemplate("t.ftlh",
+                    "<#ftl attributes={'a': 'b'}><#macro m x>${x}</#macro><@m x='<' /> ${1 + 2}");
+            
+            Template t1 = createConfigurationWithParsedTemplateDirectory(loader, dir).getTemplate("t.ftlh");
+            File versionDir = getParsedTemplateVersionDirectory(dir);
+            assertEquals(1, versionDir.listFiles().length);
+            File storedFile = versionDir.listFiles()[0];
+            final long storedFileLastModified = 1000000000000L;
+            assertTrue(storedFile.setLastModified(storedFileLastModified));
+            
+            Template t2 = createConfigurationWithParsedTemplateDirectory(loader, dir).getTemplate("t.ftlh");
+            assertEquals(1, versionDir.listFiles().length);
+            // If the template was parsed instead of read from the file, the file would have been rewritten:
+            assertEquals(storedFileLastModified, storedFile.lastModified());
+            assertEquals(t1.toString(), t2.toString());
+            assertSame(HTMLOutputFormat.INSTANCE, t2.getOutputFormat());
+            assertTrue(t2.getAutoEscaping());
+            assertEquals("b", t2.getCustomAttribute("a"));
+            assertTrue(t2.getMacros().containsKey("m"));
+            assertEquals("&lt; 3", processToString(t2));
+            
+            // A corrupt file is replaced:
+            FileUtils.write(storedFile, "garbage");
+            Template t3 = createConfigurationWithParsedTemplateDirectory(loader, dir).getTemplate("t.ftlh");
+            assertEquals("&lt; 3", processToString(t3));
+            assertTrue(storedFile.length() > "garbage".length());
+            
+            // A changed source is stored separately:
+            loader.putTemplate("t.ftlh", "${'changed'}");
+            Template t4 = createConfigurationWithParsedTemplateDirectory(loader, dir).getTemplate("t.ftlh");
+            assertEquals("changed", processToString(t4));
+            assertEquals(2, versionDir.listFiles().length);
+        } finally {
+            FileUtils.deleteDirectory(dir);
+        }
+    }
+
+    @Test
+    public void testParsedTemplateDirectoryOfOtherVersionsDeleted() throws Exception {
+        File dir = Files.createTempDir();
+        try {
+            File otherVersionDir = new File(dir, "freemarker-2.3.23");
+            assertTrue(otherVersionDir.mkdir());
+            FileUtils.write(new File(otherVersionDir, "0123abcd.fmpt"), "old");
+            File unrelatedDir = new File(dir, "other");
+            assertTrue(unrelatedDir.mkdir());
+            File otherVersionDirWithUnrelatedFile = new File(dir, "freemarker-2.3.22");
+            assertTrue(otherVersionDirWithUnrelatedFile.mkdir());
+            FileUtils.write(new File(otherVersionDirWithUnrelatedFile, "0123abcd.fmpt"), "old");
+            FileUtils.write(new File(otherVersionDirWithUnrelatedFile, "notes.txt"), "keep");
+            
+            StringTemplateLoader loader = new StringTemplateLoader();
+            loader.putTemplate("t.ftl", "t");
+            Configuration cfg = createConfigurationWithParsedTemplateDirectory(loader, dir);
+            // Nothing is deleted until a template is stored:
+            assertTrue(otherVersionDir.isDirectory());
+            
+            cfg.getTemplate("t.ftl");
+            assertFalse(otherVersionDir.exists());
+            assertTrue(unrelatedDir.isDirectory());
+            assertEquals(Collections.singletonList("notes.txt"),
+                    Arrays.asList(otherVersionDirWithUnrelatedFile.list()));
+            assertEquals(1, getParsedTemplateVersionDirectory(dir).listFiles().length);
+        } finally {
+            FileUtils.deleteDirectory(dir);
+        }
+    }
+
+    @Test
+    public void testParsedTemplateVersionDirectoryName() {
+        assertEquals("freemarker-2.3.24", ParsedTemplateStore.getVersionDirectoryName("2.3.24"));
+        assertEquals("freemarker-2.3.24-nightly_20150101T000000Z",
+                ParsedTemplateStore.getVersionDirectoryName("2.3.24-nightly_20150101T000000Z"));
+        assertEquals("freemarker-2.3.24_x_y", ParsedTemplateStore.getVersionDirectoryName("2.3.24 x/y"));
+    }
+
+    private File getParsedTemplateVersionDirectory(File dir) {
+        return new File(dir, ParsedTemplateStore.getVersionDirectoryName(Configuration.getVersion().toString()));
+    }
+
+    private Configuration createConfigurationWithParsedTemplateDirectory(TemplateLoader loader, File dir) {
+        Configuration cfg = new Configuration(Configuration.VERSION_2_3_24);
+        cfg.setTemplateLoader(loader);
+        cfg.setParsedTemplateCacheDirectory(dir);
+        return cfg;
+    }
+    
+    private String processToString(Template t) throws Exception {
+        StringWriter sw = new StringWriter();
+        t.process(null, sw);
+        return sw.toString();
+    }
+    
+    private static class CountingBinaryTemplateLoader implements BinaryTemplateLoader {
+        
+        private final BinaryTemplateLoader delegate;
+        private int getBytesCount;
+        private int getReaderCount;
+        
+        CountingBinaryTemplateLoader(BinaryTemplateLoader delegate) {
+            this.delegate = delegate;
+        }
+
+        public Object findTemplateSource(String name) throws IOException {
+            return delegate.findTemplateSource(name);
+        }
+
+        public long getLastModified(Object templateSource) {
+            return delegate.getLastModified(templateSource);
+        }
+
+        public Reader getReader(Object templateSource, String encoding) throws IOException {
+            getReaderCount++;
+            return delegate.getReader(templateSource, encoding);
+        }
+
+        public ByteBuffer getBytes(Object templateSource) throws IOException {
+            getBytesCount++;
+            return delegate.getBytes(templateSource);
+        }
+
+        public void closeTemplateSource(Object templateSource) throws IOException {
+            delegate.closeTemplateSource(templateSource);
+        }
+        
+    }
+    
+    private static class SlowTemplateLoader extends StringTemplateLoader {
+        
+        private int readerCount;
+
+        @Override
+        public Reader getReader(Object templateSource, String encoding) {
+            synchronized (this) {
+                readerCount++;
+            }
+            try {
+                Thread.sleep(200);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            return super.getReader(templateSource, encoding);
+        }
+        
+        synchronized int getReaderCount() {
+            return readerCount;
+        }
+        
+    }
+    
     private static class MonitoredClassTemplateLoader extends ClassTemplateLoader {
         
         private Boolean lastTemplateSourceModification;
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2014 Attila Szegedi, Daniel Dekany, Jonathan Revusky
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package freemarker.cache;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+
+import org.junit.Test;
+
+import freemarker.template.Configuration;
+
+public class TemplateSourceDecoderTest {
+
+    @Test
+    public void testDetectHeaderEncoding() throws Exception {
+        assertEquals("ISO-8859-2", detect("<#ftl encoding='ISO-8859-2'>x"));
+        assertEquals("ISO-8859-2", detect("<#ftl encoding=\"ISO-8859-2\">x"));
+        assertEquals("utf-8", detect(" \r\n\t<#ftl\nstrip_whitespace=false  ENCODING = 'utf-8' foo=1>x"));
+        assertEquals("ISO-8859-2", detect("\uFEFF<#ftl encoding='ISO-8859-2'>x"));
+        assertEquals("ISO-8859-2", detect("[#ftl encoding='ISO-8859-2']x"));
+        
+        assertNull(detect(""));
+        assertNull(detect("x<#ftl encoding='ISO-8859-2'>"));
+        assertNull(detect("<#ftl>x"));
+        assertNull(detect("<#ftl output_format='HTML'>x"));
+        assertNull(detect("<#ftlx encoding='ISO-8859-2'>x"));
+        assertNull(detect("<#ftl encoding='no-such-charset-x'>x"));
+        assertNull(detect("<#ftl encoding='${e}'>x"));
+        assertNull(detect("<#ftl encoding=e>x"));
+        assertNull(detect("<#ftl encoding='ISO-8859-2"));
+        assertNull(detect("<#if x><#ftl encoding='ISO-8859-2'></#if>"));
+    }
+
+    @Test
+    public void testDetectHeaderEncodingTagSyntax() throws Exception {
+        assertNull(detect("[#ftl encoding='ISO-8859-2']", "UTF-8", Configuration.ANGLE_BRACKET_TAG_SYNTAX));
+        assertEquals("ISO-8859-2",
+                detect("[#ftl encoding='ISO-8859-2']", "UTF-8", Configuration.SQUARE_BRACKET_TAG_SYNTAX));
+        assertNull(detect("<#ftl encoding='ISO-8859-2'>", "UTF-8", Configuration.SQUARE_BRACKET_TAG_SYNTAX));
+    }
+
+    @Test
+    public void testDetectHeaderEncodingNonAsciiCompatible() throws Exception {
+        ByteBuffer bytes = ByteBuffer.wrap("<#ftl encoding='ISO-8859-2'>".getBytes("UTF-8"));
+        assertNull(TemplateSourceDecoder.detectHeaderEncoding(
+                bytes, "UTF-16LE", Configuration.AUTO_DETECT_TAG_SYNTAX));
+        assertNull(TemplateSourceDecoder.detectHeaderEncoding(
+                bytes, "no-such-charset-x", Configuration.AUTO_DETECT_TAG_SYNTAX));
+    }
+
+    @Test
+    public void testDecode() throws Exception {
+        ByteBuffer bytes = ByteBuffer.wrap("xx\u0151\u00E1r".getBytes("ISO-8859-2"));
+        bytes.position(2);
+        CharBuffer chars = TemplateSourceDecoder.decode(bytes, "ISO-8859-2");
+        assertEquals(2, bytes.position());
+        assertEquals(0, chars.position());
+        assertEquals("\u0151\u00E1r", new String(chars.array(), 0, chars.limit()));
+        
+        // Malformed input is replaced, like by InputStreamReader:
+        chars = TemplateSourceDecoder.decode(ByteBuffer.wrap(new byte[] { 'a', (byte) 0xFF, 'b' }), "UTF-8");
+        assertEquals("a\uFFFDb", chars.toString());
+    }
+
+    private String detect(String s) throws Exception {
+        return detect(s, "UTF-8", Configuration.AUTO_DETECT_TAG_SYNTAX);
+    }
+
+    private String detect(String s, String initialEncoding, int tagSyntax) throws Exception {
+        ByteBuffer bytes = ByteBuffer.wrap(s.getBytes(initialEncoding));
+        String result = TemplateSourceDecoder.detectHeaderEncoding(bytes, initialEncoding, tagSyntax);
+        assertEquals(0, bytes.position());
+        return result;
+    }
+
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2014 Attila Szegedi, Daniel Dekany, Jonathan Revusky
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package freemarker.cache;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import freemarker.template.Configuration;
+
+public class TinyLfuCacheStorageTest {
+
+    @Test
+    public void testFrequentlyUsedEntriesSurviveScan() {
+        TinyLfuCacheStorage storage = new UnitWeightStorage(100);
+        for (int i = 0; i < 100; i++) {
+            storage.put("k" + i, "v" + i);
+        }
+        for (int round = 0; round < 10; round++) {
+            for (int i = 0; i < 10; i++) {
+                assertEquals("v" + i, storage.get("k" + i));
+            }
+        }
+        
+        // Many entries that are used only once:
+        for (int i = 0; i < 1000; i++) {
+            storage.put("scan" + i, "x");
+        }
+        
+        for (int i = 0; i < 10; i++) {
+            assertEquals("v" + i, storage.get("k" + i));
+        }
+        assertTrue(storage.getWeightedSize() <= 100);
+        assertTrue(storage.getSize() <= 100);
+        assertEquals(1100 - storage.getSize(), storage.getEvictionCount());
+    }
+    
+    @Test
+    public void testCountersAndRemoval() {
+        TinyLfuCacheStorage storage = new UnitWeightStorage(10);
+        assertNull(storage.get("a"));
+        storage.put("a", "1");
+        storage.put("a", "2");
+        assertEquals("2", storage.get("a"));
+        assertEquals(1, storage.getSize());
+        assertEquals(1, storage.getWeightedSize());
+        assertEquals(1, storage.getHitCount());
+        assertEquals(1, storage.getMissCount());
+        
+        storage.remove("a");
+        assertNull(storage.get("a"));
+        assertEquals(0, storage.getWeightedSize());
+        
+        storage.put("a", "1");
+        storage.put("b", "2");
+        storage.clear();
+        assertEquals(0, storage.getSize());
+        assertEquals(0, storage.getWeightedSize());
+        assertEquals(0, storage.getEvictionCount());
+    }
+
+    @Test
+    public void testTooHeavyEntry() {
+        TinyLfuCacheStorage storage = new TinyLfuCacheStorage(10) {
+            @Override
+            protected long weigh(Object key, Object value) {
+                return ((Integer) value).longValue();
+            }
+        };
+        storage.put("a", 5);
+        storage.put("b", 20);
+        assertNull(storage.get("b"));
+        assertEquals(5, storage.get("a"));
+        assertEquals(5, storage.getWeightedSize());
+    }
+    
+    @Test
+    public void testWithTemplateCache() throws Exception {
+        Configuration cfg = new Configuration(Configuration.VERSION_2_3_23);
+        StringTemplateLoader tl = new StringTemplateLoader();
+        tl.putTemplate("small.ftl", "x");
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            sb.append("<#if x??>${x}</#if> some text\n");
+        }
+        tl.putTemplate("big.ftl", sb.toString());
+        cfg.setTemplateLoader(tl);
+        TinyLfuCacheStorage storage = new TinyLfuCacheStorage(10000000);
+        cfg.setCacheStorage(storage);
+        
+        cfg.getTemplate("small.ftl");
+        long smallSize = storage.getWeightedSize();
+        assertTrue(smallSize > 0);
+        cfg.getTemplate("big.ftl");
+        long bigSize = storage.getWeightedSize() - smallSize;
+        assertTrue(bigSize > smallSize * 10);
+    }
+    
+    private static class UnitWeightStorage extends TinyLfuCacheStorage {
+
+        UnitWeightStorage(long maximumWeight) {
+            super(maximumWeight);
+        }
+
+        @Override
+        protected long weigh(Object key, Object value) {
+            return 1;
+        }
+        
+    }
+    
+}
@@ -54,6 +54,10 @@ public class ASTTest extends FileTestCase {
     public void testMixedContentSimplifications() throws Exception {
         testAST("ast-mixedcontentsimplifications");
     }
+
+    public void testConstantFolding() throws Exception {
+        testAST("ast-constantfolding");
+    }
     
     private void testAST(String testName) throws FileNotFoundException, IOException {
         final String templateName = testName + ".ftl";
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2014 Attila Szegedi, Daniel Dekany, Jonathan Revusky
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package freemarker.core;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import org.junit.Test;
+
+public class CharArrayCharStreamTest {
+
+    private static final String[] SOURCES = new String[] {
+            "a\tb\r\nc\rd\n\n\te\r\r\nf\t\tgh\n",
+            "\t\t${x!}\n\t<#if>",
+            "\r\n\r\r\n\n\t\r\tx" };
+
+    @Test
+    public void testReadAndImage() throws IOException {
+        CharArrayCharStream cs = new CharArrayCharStream("abc", 1, 1);
+        assertEquals('a', cs.BeginToken());
+        assertEquals('b', cs.readChar());
+        assertEquals("ab", cs.GetImage());
+        cs.backup(1);
+        assertEquals("a", cs.GetImage());
+        assertEquals('b', cs.BeginToken());
+        assertEquals('c', cs.readChar());
+        assertArrayEquals(new char[] { 'b', 'c' }, cs.GetSuffix(2));
+        try {
+            cs.readChar();
+            fail();
+        } catch (IOException e) {
+            // Expected
+        }
+        assertEquals("bc", cs.GetImage());
+    }
+
+    @Test
+    public void testLazyReader() throws IOException {
+        CharArrayCharStream cs = new CharArrayCharStream(new StringReader("xy"), 1, 1);
+        assertEquals('x', cs.BeginToken());
+        assertEquals('y', cs.readChar());
+        assertEquals("xy", cs.GetImage());
+    }
+
+    @Test
+    public void testPositionsInOrder() throws IOException {
+        for (String source : SOURCES) {
+            for (int maxTokenLength = 1; maxTokenLength <= 4; maxTokenLength++) {
+                assertSamePositions(source, 1, 1, maxTokenLength);
+                assertSamePositions(source, 10, 5, maxTokenLength);
+            }
+        }
+    }
+
+    @Test
+    public void testPositionsAfterBackup() throws IOException {
+        for (String source : SOURCES) {
+            SimpleCharStream expected = new SimpleCharStream(new StringReader(source), 1, 1);
+            CharArrayCharStream actual = new CharArrayCharStream(source, 1, 1);
+            assertEquals(expected.BeginToken(), actual.BeginToken());
+            for (int i = 1; i < source.length(); i++) {
+                assertEquals(expected.readChar(), actual.readChar());
+            }
+            for (int back = 0; back < source.length(); back++) {
+                String message = source + ", backed up " + back;
+                assertEquals(message, expected.getEndLine(), actual.getEndLine());
+                assertEquals(message, expected.getEndColumn(), actual.getEndColumn());
+                expected.backup(1);
+                actual.backup(1);
+            }
+        }
+    }
+
+    /**
+     * Reads the source in tokens of varying length (up to {@code maxTokenLength}) from both
+     * {@link CharArrayCharStream} and from the {@link SimpleCharStream} generated by JavaCC, and compares the positions
+     * reported after each token.
+     */
+    private void assertSamePositions(String source, int startLine, int startColumn, int maxTokenLength)
+            throws IOException {
+        SimpleCharStream expected = new SimpleCharStream(new StringReader(source), startLine, startColumn);
+        CharArrayCharStream actual = new CharArrayCharStream(source, startLine, startColumn);
+        int i = 0;
+        int tokenLength = 1;
+        while (i < source.length()) {
+            assertEquals(expected.BeginToken(), actual.BeginToken());
+            int len = Math.min(tokenLength, source.length() - i);
+            for (int j = 1; j < len; j++) {
+                assertEquals(expected.readChar(), actual.readChar());
+            }
+            String message = source + ", token at " + i;
+            assertEquals(message, expected.getBeginLine(), actual.getBeginLine());
+            assertEquals(message, expected.getBeginColumn(), actual.getBeginColumn());
+            assertEquals(message, expected.getEndLine(), actual.getEndLine());
+            assertEquals(message, expected.getEndColumn(), actual.getEndColumn());
+            assertEquals(message, expected.GetImage(), actual.GetImage());
+            i += len;
+            tokenLength = tokenLength % maxTokenLength + 1;
+        }
+    }
+
+}
@@ -21,6 +21,7 @@ import static org.junit.Assert.*;
 import java.util.Date;
 import java.util.Locale;
 import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -193,6 +194,53 @@ public class DateFormatTest extends TemplateTest {
         assertErrorContains("${d}", "\"@epoch\"");
     }
     
+    @Test
+    public void testJavaFormatsAreShared() throws Exception {
+        TimeZone tz = TimeZone.getTimeZone("GMT+01:00");
+        TemplateDateFormat f1 = JavaTemplateDateFormatFactory.INSTANCE.get(
+                TemplateDateModel.DATETIME, false, "yyyy-MM-dd HH:mm", Locale.US, tz, null);
+        TemplateDateFormat f2 = JavaTemplateDateFormatFactory.INSTANCE.get(
+                TemplateDateModel.DATETIME, false, "yyyy-MM-dd HH:mm", Locale.US, tz, null);
+        assertSame(f1, f2);
+        assertNotSame(f1, JavaTemplateDateFormatFactory.INSTANCE.get(
+                TemplateDateModel.DATETIME, false, "yyyy-MM-dd HH:mm", Locale.GERMANY, tz, null));
+        assertNotSame(f1, JavaTemplateDateFormatFactory.INSTANCE.get(
+                TemplateDateModel.DATE, false, "yyyy-MM-dd HH:mm", Locale.US, tz, null));
+    }
+
+    @Test
+    public void testJavaFormatConcurrentUse() throws Exception {
+        final TemplateDateFormat format = JavaTemplateDateFormatFactory.INSTANCE.get(
+                TemplateDateModel.DATETIME, false, "yyyy-MM-dd HH:mm:ss.SSS", Locale.US,
+                TimeZone.getTimeZone("GMT+01:00"), null);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        Thread[] threads = new Thread[4];
+        for (int threadIdx = 0; threadIdx < threads.length; threadIdx++) {
+            final int threadIdxF = threadIdx;
+            threads[threadIdx] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < 5000; i++) {
+                            Date d = new Date(threadIdxF * 1000000000000L + i * 1001L);
+                            String s = format.format(new SimpleDate(d, TemplateDateModel.DATETIME));
+                            assertEquals(d, format.parse(s));
+                        }
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    }
+                }
+            };
+            threads[threadIdx].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+    }
+    
     private static class MutableTemplateDateModel implements TemplateDateModel {
         
         private Date date;
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2014 Attila Szegedi, Daniel Dekany, Jonathan Revusky
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package freemarker.core;
+
+import static org.junit.Assert.*;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.text.NumberFormat;
+import java.util.Locale;
+
+import org.junit.Test;
+
+@SuppressWarnings("boxing")
+public class DecimalFormatIntegerFormatterTest {
+
+    private static final Locale[] LOCALES = new Locale[] {
+            Locale.US, Locale.GERMANY, Locale.FRANCE, Locale.JAPAN, new Locale("hu", "HU"), new Locale("de", "CH"),
+            new Locale("ar", "EG"), new Locale("hi", "IN"), new Locale("th", "TH", "TH") };
+
+    private static final Number[] VALUES = new Number[] {
+            0, 1, -1, 5, 10, 99, -100, 1000, 12345, -1234567, Integer.MAX_VALUE, Integer.MIN_VALUE,
+            Long.MAX_VALUE, Long.MIN_VALUE, 123456789012345L,
+            (byte) 3, (short) -300,
+            0.0, -0.0, 1.0, -2.0, 1.5, 1234.0, 1e15, 1e20, Double.NaN, Double.POSITIVE_INFINITY, 3.0f,
+            new BigDecimal("123"), new BigDecimal("123.00"), new BigDecimal("1E+3"), new BigDecimal("-98765"),
+            new BigInteger("4567"), new BigInteger("123456789012345678901234567890") };
+
+    @Test
+    public void testSameAsDecimalFormat() {
+        for (Locale locale : LOCALES) {
+            assertSameAsDecimalFormat(NumberFormat.getNumberInstance(locale), true);
+            assertSameAsDecimalFormat(NumberFormat.getCurrencyInstance(locale), false);
+            assertSameAsDecimalFormat(NumberFormat.getPercentInstance(locale), false);
+            for (String pattern : new String[] {
+                    "0", "0.##", "#,##0.00", "#,##0.###", "000,000", "#,##,###", "0.#%", "0\u2030", "'#'0 pcs",
+                    "#.#", "0.00E0", "\u00A4#,##0.00;(\u00A4#,##0.00)" }) {
+                assertSameAsDecimalFormat(new DecimalFormat(pattern, new DecimalFormatSymbols(locale)), false);
+            }
+        }
+    }
+
+    @Test
+    public void testCreationRefused() {
+        assertNull(DecimalFormatIntegerFormatter.create(new DecimalFormat("0.00E0")));
+        assertNull(DecimalFormatIntegerFormatter.create(new DecimalFormat(".##")));
+        DecimalFormat df = new DecimalFormat("0");
+        df.setMultiplier(-1);
+        assertNull(DecimalFormatIntegerFormatter.create(df));
+    }
+
+    @Test
+    public void testUsualFormatsSupported() {
+        assertNotNull(DecimalFormatIntegerFormatter.create(NumberFormat.getNumberInstance(Locale.US)));
+        assertNotNull(DecimalFormatIntegerFormatter.create(new DecimalFormat("#,##0.00")));
+        assertNotNull(DecimalFormatIntegerFormatter.create(new DecimalFormat("0.##")));
+    }
+
+    private void assertSameAsDecimalFormat(NumberFormat nf, boolean mustBeSupported) {
+        DecimalFormatIntegerFormatter formatter = DecimalFormatIntegerFormatter.create(nf);
+        if (formatter == null) {
+            assertFalse(mustBeSupported);
+            return;
+        }
+        for (Number value : VALUES) {
+            String result = formatter.format(value);
+            if (result != null) {
+                assertEquals(value + " with " + ((DecimalFormat) nf).toPattern(), nf.format(value), result);
+            }
+        }
+    }
+
+}
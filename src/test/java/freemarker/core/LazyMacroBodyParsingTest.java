@@ -0,0 +1,155 @@
+/*
+ * Copyright 2014 Attila Szegedi, Daniel Dekany, Jonathan Revusky
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package freemarker.core;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Collections;
+
+import org.junit.Test;
+
+import freemarker.cache.ParsedTemplatePool;
+import freemarker.cache.StringTemplateLoader;
+import freemarker.template.Configuration;
+import freemarker.template.Template;
+import freemarker.template.TemplateException;
+
+public class LazyMacroBodyParsingTest {
+
+    private static final String LIBRARY_SOURCE = ""
+            + "<#macro m1 a b=2 rest...>\n"
+            + "  <#list 1..3 as i>\n"
+            + "    ${a}-${b}-${i}<#if i == 2><#break></#if>\n"
+            + "  </#list>\n"
+            + "  <#nested a>\n"
+            + "</#macro>\n"
+            + "<#function f x><#return x * 2></#function>\n"
+            + "x <#macro m2>  [${f(3)}]  </#macro> y\n"
+            + "<#outputFormat 'HTML'><#macro m3>${'<'}<#noAutoEsc>${'<'}</#noAutoEsc></#macro></#outputFormat>\n"
+            + "<#macro m4>\n"
+            + "  <#-- comment -->\n"
+            + "  t1  <#t>\n"
+            + "</#macro>\n"
+            + "<@m1 a=1 c=3; n>[${n}]</@m1>\n"
+            + "<@m2 />\n"
+            + "<@m3 />\n"
+            + "<@m4 />\n";
+
+    @Test
+    public void testSameResultAsEagerParsing() throws Exception {
+        Template eager = new Template("lib.ftl", LIBRARY_SOURCE, createConfiguration(false));
+        Template lazy = new Template("lib.ftl", LIBRARY_SOURCE, createConfiguration(true));
+        assertTrue(getMacroNestedBlock(lazy, "m1") instanceof LazyMacroBody);
+        assertFalse(getMacroNestedBlock(eager, "m1") instanceof LazyMacroBody);
+        
+        assertEquals(process(eager), process(lazy));
+        assertEquals(eager.getRootTreeNode().getCanonicalForm(), lazy.getRootTreeNode().getCanonicalForm());
+    }
+    
+    @Test
+    public void testSquareBracketSyntax() throws Exception {
+        String source = "[#ftl][#macro m x][#if x?has_content]${x}[/#if][/#macro][@m 'ok' /]";
+        assertEquals("ok", process(new Template(null, source, createConfiguration(true))));
+    }
+    
+    @Test
+    public void testParsedOnlyWhenCalled() throws Exception {
+        String source = "<#macro good>ok</#macro>\n<#macro bad>\n  <#if x></#list>\n</#macro>\n<@good />";
+        Template t = new Template(null, source, createConfiguration(true));
+        assertEquals("ok", process(t));
+        assertTrue(getMacroNestedBlock(t, "bad") instanceof LazyMacroBody);
+        
+        Template t2 = new Template(null, source + "<@bad />", createConfiguration(true));
+        try {
+            process(t2);
+            fail();
+        } catch (ParseException e) {
+            assertEquals(3, e.getLineNumber());
+        }
+        
+        try {
+            new Template(null, source, createConfiguration(false));
+            fail();
+        } catch (ParseException e) {
+            assertEquals(3, e.getLineNumber());
+        }
+    }
+    
+    @Test
+    public void testLexicalErrorsAndNestedMacrosAreReportedEagerly() throws Exception {
+        try {
+            new Template(null, "<#macro m><#macro n></#macro></#macro>", createConfiguration(true));
+            fail();
+        } catch (ParseException e) {
+            assertTrue(e.getMessage().contains("nested"));
+        }
+        try {
+            new Template(null, "<#macro m><#-- </#macro>", createConfiguration(true));
+            fail();
+        } catch (ParseException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testEscapeBlockIsParsedEagerly() throws Exception {
+        String source = "<#escape x as x?upper_case><#macro m>${'a'}</#macro></#escape><@m />";
+        Template t = new Template(null, source, createConfiguration(true));
+        assertFalse(getMacroNestedBlock(t, "m") instanceof LazyMacroBody);
+        assertEquals("A", process(t));
+    }
+
+    @Test
+    public void testParsedTemplatePool() throws Exception {
+        ParsedTemplatePool pool = new ParsedTemplatePool();
+        StringTemplateLoader tl = new StringTemplateLoader();
+        tl.putTemplate("lib.ftl", LIBRARY_SOURCE);
+        
+        Configuration cfg1 = createConfiguration(true);
+        cfg1.setTemplateLoader(tl);
+        cfg1.setParsedTemplatePool(pool);
+        Configuration cfg2 = createConfiguration(true);
+        cfg2.setTemplateLoader(tl);
+        cfg2.setParsedTemplatePool(pool);
+        
+        Template t1 = cfg1.getTemplate("lib.ftl");
+        Template t2 = cfg2.getTemplate("lib.ftl");
+        assertEquals(1, pool.getSize());
+        assertTrue(getMacroNestedBlock(t2, "m1") instanceof LazyMacroBody);
+        assertEquals(process(new Template("lib.ftl", LIBRARY_SOURCE, createConfiguration(false))), process(t2));
+        assertEquals(process(t2), process(t1));
+    }
+    
+    private TemplateElement getMacroNestedBlock(Template t, String name) {
+        return ((Macro) t.getMacros().get(name)).getNestedBlock();
+    }
+
+    private Configuration createConfiguration(boolean lazyMacroBodyParsing) {
+        Configuration cfg = new Configuration(Configuration.VERSION_2_3_24);
+        cfg.setLazyMacroBodyParsing(lazyMacroBodyParsing);
+        return cfg;
+    }
+
+    private String process(Template t) throws TemplateException, IOException {
+        StringWriter out = new StringWriter();
+        t.process(Collections.emptyMap(), out);
+        return out.toString();
+    }
+
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2014 Attila Szegedi, Daniel Dekany, Jonathan Revusky
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package freemarker.core;
+
+import java.io.IOException;
+
+import org.junit.Test;
+
+import freemarker.template.Configuration;
+import freemarker.template.TemplateException;
+import freemarker.test.TemplateTest;
+
+public class MacroLocalVariablesTest extends TemplateTest {
+    
+    @Override
+    protected Configuration createConfiguration() throws Exception {
+        return new Configuration(Configuration.VERSION_2_3_24);
+    }
+
+    @Test
+    public void testParams() throws IOException, TemplateException {
+        assertOutput("<#macro m a b=a+1 c...>${a} ${b} ${c?size}</#macro><@m 1 /> <@m a=1 b=5 x=2 y=3 />",
+                "1 2 0 1 5 2");
+        assertOutput("<#function f a b>"
+                + "<#local a = a * 10><#local x = a + b><#return x></#function>${f(1, 2)}",
+                "12");
+    }
+    
+    @Test
+    public void testShadowing() throws IOException, TemplateException {
+        assertOutput("<#assign x = 'g'><#macro m x><#list [1, 2] as x>${x}</#list>${x}</#macro><@m 'p' />",
+                "12p");
+        assertOutput("<#macro m x><#nested x + 1></#macro><@m 1; x>${x}</@m>${x!'-'}", "2-");
+    }
+    
+    @Test
+    public void testParamSlotHintFromOtherMacro() throws IOException, TemplateException {
+        addTemplate("inc.ftl", "${a}${b}");
+        assertOutput("<#macro m1 a b><#include 'inc.ftl'></#macro><#macro m2 b a><@m1 a='1' b='2' /></#macro>"
+                + "<#macro m3 b a>${a}${b}<@m2 a='x' b='y' /></#macro><@m3 a='3' b='4' />",
+                "3412");
+    }
+    
+    @Test
+    public void testNullParam() throws IOException, TemplateException {
+        assertOutput("<#macro m a=1>${a}</#macro><@m a=noSuchVar />", "1");
+        assertErrorContains("<#macro m a>${a}</#macro><@m a=noSuchVar />", "\"a\"", "null");
+    }
+
+    @Test
+    public void testLocals() throws IOException, TemplateException {
+        assertOutput("<#macro m a b...><#local c = 3>"
+                + "<#list .locals?keys?sort as k>${k}</#list> ${.locals.a} ${.locals.c} ${.locals?size}"
+                + "</#macro><@m a=1 x=2 />",
+                "abc 1 3 3");
+    }
+    
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright 2014 Attila Szegedi, Daniel Dekany, Jonathan Revusky
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package freemarker.ext.beans;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import java.beans.PropertyDescriptor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import freemarker.template.Configuration;
+import freemarker.template.Template;
+import freemarker.test.TemplateTest;
+
+public class BeanPropertyInlineCacheTest extends TemplateTest {
+
+    @Override
+    protected Configuration createConfiguration() throws Exception {
+        Configuration cfg = new Configuration(Configuration.VERSION_2_3_24);
+        BeansWrapperBuilder bwb = new BeansWrapperBuilder(Configuration.VERSION_2_3_24);
+        bwb.setExposeFields(true);
+        cfg.setObjectWrapper(bwb.build());
+        return cfg;
+    }
+
+    @Test
+    public void testPolymorphic() throws Exception {
+        List<Object> xs = new ArrayList<Object>();
+        for (int i = 0; i < 2; i++) {
+            xs.add(new A());
+            xs.add(new B());
+            xs.add(new C());
+            xs.add(new D());
+            xs.add(new E());
+            xs.add(new F());
+            xs.add(Collections.singletonMap("name", "map"));
+        }
+        addToDataModel("xs", xs);
+        assertOutput("<#list xs as x>${x.name}/</#list>", "a/b/c/d/e/f/map/a/b/c/d/e/f/map/");
+    }
+
+    @Test
+    public void testMethodsAndMissingProperties() throws Exception {
+        addToDataModel("a", new A());
+        addToDataModel("b", new B());
+        assertOutput("<#list 1..2 as i>${a.toString()} ${a.missing!'-'} ${b.name}</#list>",
+                "A - bA - b");
+        assertErrorContains("<#list 1..2 as i>${a.missing}</#list>", "a.missing");
+    }
+
+    @Test
+    public void testFailingGetter() throws Exception {
+        addToDataModel("x", new Failing());
+        assertErrorContains("${x.name}", "\"name\"", "existing sub-variable");
+        assertErrorContains("${x.name}", "\"name\"", "existing sub-variable");
+    }
+
+    @Test
+    public void testIntrospectionCacheCleared() throws Exception {
+        addToDataModel("x", new A());
+        Template t = new Template(null, "${x.name}", getConfiguration());
+        BeansWrapper bw = (BeansWrapper) getConfiguration().getObjectWrapper();
+        for (int i = 0; i < 10; i++) {
+            assertOutput(t, "a");
+            bw.removeFromClassIntrospectionCache(A.class);
+        }
+    }
+
+    @Test
+    public void testWithMethodHandles() throws Exception {
+        BeansWrapperBuilder bwb = new BeansWrapperBuilder(Configuration.VERSION_2_3_24);
+        bwb.setExposeFields(true);
+        bwb.setUseMethodHandles(true);
+        getConfiguration().setObjectWrapper(bwb.build());
+        
+        testPolymorphic();
+        testFailingGetter();
+    }
+    
+    @Test
+    public void testGetterInvoker() throws Exception {
+        Method getName = A.class.getMethod("getName");
+        assertThat(GetterInvoker.create(getName, true), instanceOf(_MethodHandleGetterInvoker.class));
+        assertThat(GetterInvoker.create(getName, false), not(instanceOf(_MethodHandleGetterInvoker.class)));
+        
+        Method failingGetName = Failing.class.getMethod("getName");
+        for (boolean useMethodHandles : new boolean[] { true, false }) {
+            assertEquals("a", GetterInvoker.create(getName, useMethodHandles).invoke(new A()));
+            try {
+                GetterInvoker.create(failingGetName, useMethodHandles).invoke(new Failing());
+                fail();
+            } catch (InvocationTargetException e) {
+                assertEquals("Test", e.getCause().getMessage());
+            }
+            try {
+                GetterInvoker.create(getName, useMethodHandles).invoke(new B());
+                fail();
+            } catch (IllegalArgumentException e) {
+                // Expected
+            }
+            try {
+                GetterInvoker.create(FailingWithClassCast.class.getMethod("getName"), useMethodHandles)
+                        .invoke(new FailingWithClassCast());
+                fail();
+            } catch (InvocationTargetException e) {
+                assertThat(e.getCause(), instanceOf(ClassCastException.class));
+            }
+        }
+    }
+    
+    @Test
+    public void testMethodHandleGetterInvokerIsShared() throws Exception {
+        ClassIntrospector ci = new BeansWrapper(Configuration.VERSION_2_3_24).getClassIntrospector();
+        Map classMap = ci.get(A.class);
+        Method getName = ((PropertyDescriptor) classMap.get("name")).getReadMethod();
+        GetterInvoker getterInvoker = ClassIntrospector.getMethodHandleGetterInvoker(classMap, getName);
+        assertThat(getterInvoker, instanceOf(_MethodHandleGetterInvoker.class));
+        assertSame(getterInvoker, ClassIntrospector.getMethodHandleGetterInvoker(classMap, getName));
+        assertEquals("a", getterInvoker.invoke(new A()));
+        // The invokers aren't visible as sub-variables:
+        assertEquals(ci.keySet(A.class).size(), ci.keyCount(A.class));
+        for (Object key : ci.keySet(A.class)) {
+            assertThat(key, instanceOf(String.class));
+        }
+    }
+    
+    @Override
+    protected Object createDataModel() {
+        return null;
+    }
+
+    public static class A {
+        public String getName() {
+            return "a";
+        }
+
+        @Override
+        public String toString() {
+            return "A";
+        }
+    }
+
+    public static class B {
+        public String getName() {
+            return "b";
+        }
+    }
+
+    public static class C {
+        public String getName() {
+            return "c";
+        }
+    }
+
+    public static class D extends C {
+        @Override
+        public String getName() {
+            return "d";
+        }
+    }
+
+    public static class E {
+        public final String name = "e";
+    }
+
+    public static class F {
+        public String get(String key) {
+            return "f";
+        }
+    }
+
+    public static class Failing {
+        public String getName() {
+            throw new RuntimeException("Test");
+        }
+    }
+
+    public static class FailingWithClassCast {
+        public String getName() {
+            return (String) (Object) Integer.valueOf(1);
+        }
+    }
+
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright 2014 Attila Szegedi, Daniel Dekany, Jonathan Revusky
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package freemarker.ext.beans;
+
+import static org.junit.Assert.*;
+
+import java.beans.IndexedPropertyDescriptor;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.io.File;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Test;
+
+import freemarker.template.Configuration;
+import freemarker.template.Template;
+
+public class BeanPropertyScannerTest {
+
+    private static final Class<?>[] CLASSES = new Class<?>[] {
+            Object.class, String.class, Date.class, ArrayList.class, HashMap.class, File.class, Locale.class,
+            Configuration.class, Template.class, TestBean.class, TestSubBean.class };
+
+    @Test
+    public void testSameAsJavaBeansIntrospector() throws Exception {
+        for (int exposureLevel : new int[] {
+                BeansWrapper.EXPOSE_ALL, BeansWrapper.EXPOSE_SAFE, BeansWrapper.EXPOSE_PROPERTIES_ONLY }) {
+            ClassIntrospector ciJavaBeans = newClassIntrospector(exposureLevel, true);
+            ClassIntrospector ciBuiltIn = newClassIntrospector(exposureLevel, false);
+            for (Class<?> c : CLASSES) {
+                // Some java.beans.Introspector versions ignore the inherited default methods, so those can be extra
+                Set<?> extraKeys = new HashSet<Object>(ciBuiltIn.keySet(c));
+                extraKeys.removeAll(ciJavaBeans.keySet(c));
+                for (Object extraKey : extraKeys) {
+                    assertTrue(c.getName() + "." + extraKey, isDefaultMethod(c, (String) extraKey));
+                }
+                assertTrue(c.getName(), ciBuiltIn.keySet(c).containsAll(ciJavaBeans.keySet(c)));
+                Map<?, ?> javaBeansData = ciJavaBeans.get(c);
+                Map<?, ?> builtInData = ciBuiltIn.get(c);
+                for (Object key : ciJavaBeans.keySet(c)) {
+                    Object javaBeansValue = javaBeansData.get(key);
+                    Object builtInValue = builtInData.get(key);
+                    if (javaBeansValue instanceof PropertyDescriptor) {
+                        assertSamePropertyDescriptor(
+                                (PropertyDescriptor) javaBeansValue, (PropertyDescriptor) builtInValue);
+                    } else {
+                        assertEquals(c.getName() + "." + key, javaBeansValue.getClass(), builtInValue.getClass());
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testProperties() throws Exception {
+        Map<String, PropertyDescriptor> pds = new HashMap<String, PropertyDescriptor>();
+        for (PropertyDescriptor pd : BeanPropertyScanner.getPropertyDescriptors(
+                BeanPropertyScanner.getMethods(TestSubBean.class))) {
+            pds.put(pd.getName(), pd);
+        }
+        assertEquals("isFlag", pds.get("flag").getReadMethod().getName());
+        assertEquals(String.class, pds.get("covariant").getReadMethod().getReturnType());
+        assertTrue(pds.get("items") instanceof IndexedPropertyDescriptor);
+        assertNotNull(pds.get("items").getReadMethod());
+        assertTrue(pds.get("indexedOnly") instanceof IndexedPropertyDescriptor);
+        assertNull(pds.get("indexedOnly").getReadMethod());
+        assertTrue(pds.containsKey("URL"));
+        assertTrue(pds.containsKey("x"));
+        assertFalse(pds.containsKey("static"));
+        assertFalse(pds.containsKey("void"));
+        assertFalse(pds.containsKey("withParam"));
+        assertFalse(pds.containsKey(""));
+    }
+
+    @Test
+    public void testDecapitalize() {
+        for (String s : new String[] { "", "a", "A", "Foo", "foo", "FOO", "URL", "X1", "xY", "Xy" }) {
+            assertEquals(s, Introspector.decapitalize(s), BeanPropertyScanner.decapitalize(s));
+        }
+    }
+
+    @Test
+    public void testTemplateAccess() throws Exception {
+        BeansWrapperBuilder bwb = new BeansWrapperBuilder(Configuration.VERSION_2_3_24);
+        bwb.setUseJavaBeansIntrospector(false);
+        BeansWrapper bw = bwb.build();
+        assertFalse(bw.getUseJavaBeansIntrospector());
+        BeanModel m = (BeanModel) bw.wrap(new TestSubBean());
+        assertEquals("s", m.get("covariant").toString());
+        assertEquals("true", m.get("flag").toString());
+        assertEquals("u", m.get("URL").toString());
+        assertNotNull(m.get("getX"));
+    }
+
+    private static boolean isDefaultMethod(Class<?> c, String name) {
+        for (Method m : c.getMethods()) {
+            if (m.getName().equals(name) && m.getDeclaringClass().isInterface()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static ClassIntrospector newClassIntrospector(int exposureLevel, boolean useJavaBeansIntrospector) {
+        ClassIntrospectorBuilder builder = new ClassIntrospectorBuilder(Configuration.VERSION_2_3_24);
+        builder.setExposureLevel(exposureLevel);
+        builder.setUseJavaBeansIntrospector(useJavaBeansIntrospector);
+        return builder.build();
+    }
+
+    private static void assertSamePropertyDescriptor(PropertyDescriptor expected, PropertyDescriptor actual) {
+        assertNotNull(expected.getName(), actual);
+        assertEquals(expected.getName(), expected.getClass(), actual.getClass());
+        assertEquals(expected.getName(), expected.getReadMethod(), actual.getReadMethod());
+        if (expected instanceof IndexedPropertyDescriptor) {
+            assertEquals(expected.getName(),
+                    ((IndexedPropertyDescriptor) expected).getIndexedReadMethod(),
+                    ((IndexedPropertyDescriptor) actual).getIndexedReadMethod());
+        }
+    }
+
+    public static class TestBean {
+        public int getX() {
+            return 1;
+        }
+
+        public Object getCovariant() {
+            return "o";
+        }
+
+        public boolean isFlag() {
+            return true;
+        }
+
+        public boolean getFlag() {
+            return false;
+        }
+
+        public String getURL() {
+            return "u";
+        }
+
+        public String[] getItems() {
+            return new String[] { "a" };
+        }
+
+        public String getItems(int i) {
+            return "a";
+        }
+
+        public String getIndexedOnly(int i) {
+            return "i";
+        }
+
+        public static String getStatic() {
+            return "s";
+        }
+
+        public void getVoid() {
+            // Not a getter
+        }
+
+        public String getWithParam(String s) {
+            return s;
+        }
+
+        public String get() {
+            return "";
+        }
+    }
+
+    public static class TestSubBean extends TestBean {
+        @Override
+        public String getCovariant() {
+            return "s";
+        }
+    }
+
+}
@@ -19,6 +19,13 @@ package freemarker.ext.beans;
 import static org.junit.Assert.*;
 
 import java.lang.ref.Reference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -26,6 +33,7 @@ import org.junit.runners.JUnit4;
 
 import freemarker.ext.beans.BeansWrapper.MethodAppearanceDecision;
 import freemarker.ext.beans.BeansWrapper.MethodAppearanceDecisionInput;
+import freemarker.template.Configuration;
 
 @RunWith(JUnit4.class)
 public class BeansWrapperCachesTest {
@@ -68,6 +76,45 @@ public class BeansWrapperCachesTest {
         checkRegisteredModelFactories(ci4, bw.getStaticModels(), bw.getEnumModels(), bw.getModelCache());
     }
     
+    @Test
+    public void introspectClasses() throws Exception {
+        List<Class<?>> classes = Arrays.<Class<?>>asList(
+                String.class, ArrayList.class, HashMap.class, Date.class, StringBuilder.class);
+        
+        BeansWrapper bw = new BeansWrapper(Configuration.VERSION_2_3_24);
+        removeFromCache(bw, classes);
+        bw.introspectClasses(classes, null);
+        assertCached(bw, classes);
+        
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            BeansWrapper bw2 = new BeansWrapper(Configuration.VERSION_2_3_24);
+            removeFromCache(bw2, classes);
+            bw2.introspectClasses(classes, executor);
+            assertCached(bw2, classes);
+            assertNotNull(bw2.getClassIntrospector().get(String.class).get("length"));
+            // Already introspected classes are fine too
+            bw2.introspectClasses(classes, executor);
+            assertCached(bw2, classes);
+        } finally {
+            executor.shutdown();
+        }
+    }
+    
+    private void removeFromCache(BeansWrapper bw, List<Class<?>> classes) {
+        // The class introspector is possibly shared with other BeansWrapper-s, so it can't be assumed to be empty.
+        for (Class<?> c : classes) {
+            bw.removeFromClassIntrospectionCache(c);
+            assertFalse(bw.getClassIntrospector().isCached(c));
+        }
+    }
+    
+    private void assertCached(BeansWrapper bw, List<Class<?>> classes) {
+        for (Class<?> c : classes) {
+            assertTrue(c.getName(), bw.getClassIntrospector().isCached(c));
+        }
+    }
+    
     private void checkRegisteredModelFactories(ClassIntrospector ci, Object... expected) {
         Object[] actualRefs = ci.getRegisteredModelFactoriesSnapshot();
 
@@ -0,0 +1,283 @@
+/*
+ * Copyright 2014 Attila Szegedi, Daniel Dekany, Jonathan Revusky
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package freemarker.ext.beans;
+
+import static org.junit.Assert.*;
+
+import java.beans.IndexedPropertyDescriptor;
+import java.beans.PropertyDescriptor;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.io.StringWriter;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Test;
+
+import freemarker.template.Configuration;
+import freemarker.template.Template;
+
+public class ClassIntrospectionIndexTest {
+
+    private static final List<Class<?>> CLASSES = Arrays.<Class<?>>asList(
+            Object.class, String.class, Date.class, ArrayList.class, HashMap.class, File.class, Locale.class,
+            Configuration.class, Template.class, TestBean.class, BeanPropertyScannerTest.TestSubBean.class);
+
+    @Test
+    public void testSameAsIntrospection() throws Exception {
+        for (int exposureLevel : new int[] {
+                BeansWrapper.EXPOSE_ALL, BeansWrapper.EXPOSE_SAFE, BeansWrapper.EXPOSE_PROPERTIES_ONLY }) {
+            for (boolean useJavaBeansIntrospector : new boolean[] { true, false }) {
+                ClassIntrospector ci = newClassIntrospector(exposureLevel, useJavaBeansIntrospector, null);
+                ClassIntrospectionIndex index = load(write(ci, CLASSES));
+                assertTrue(index.getClassNames().contains(TestBean.class.getName()));
+
+                ClassIntrospector indexedCi = newClassIntrospector(exposureLevel, useJavaBeansIntrospector, index);
+                assertTrue(index.isCompatibleWith(indexedCi));
+                for (Class<?> c : CLASSES) {
+                    assertNotNull(c.getName(), index.getClassRecord(c));
+                    assertSameIntrospectionData(c, ci.get(c), indexedCi.get(c));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testIncompatibleIndexIsIgnored() throws Exception {
+        ClassIntrospectionIndex index = load(write(
+                newClassIntrospector(BeansWrapper.EXPOSE_SAFE, true, null), CLASSES));
+        assertTrue(index.isCompatibleWith(newClassIntrospector(BeansWrapper.EXPOSE_SAFE, true, index)));
+        assertFalse(index.isCompatibleWith(newClassIntrospector(BeansWrapper.EXPOSE_ALL, true, index)));
+        assertFalse(index.isCompatibleWith(newClassIntrospector(BeansWrapper.EXPOSE_SAFE, false, index)));
+    }
+
+    @Test
+    public void testChangedClassIsIntrospected() throws Exception {
+        ChangingClassLoader cl = new ChangingClassLoader();
+        Class<?> c = cl.loadClass(TestBean.class.getName());
+        assertNotSame(TestBean.class, c);
+
+        ClassIntrospector ci = newClassIntrospector(BeansWrapper.EXPOSE_SAFE, true, null);
+        byte[] indexBytes = write(ci, Collections.<Class<?>>singletonList(c));
+        assertNotNull(load(indexBytes).getClassRecord(c));
+
+        cl.changed = true;
+        ClassIntrospectionIndex index = load(indexBytes);
+        assertNull(index.getClassRecord(c));
+        // Still works, by introspecting the class as usual
+        ClassIntrospector indexedCi = newClassIntrospector(BeansWrapper.EXPOSE_SAFE, true, index);
+        assertSameIntrospectionData(c, ci.get(c), indexedCi.get(c));
+    }
+
+    @Test
+    public void testClassNotInIndexIsIntrospected() throws Exception {
+        ClassIntrospectionIndex index = load(write(
+                newClassIntrospector(BeansWrapper.EXPOSE_SAFE, true, null),
+                Collections.<Class<?>>singletonList(String.class)));
+        assertNull(index.getClassRecord(TestBean.class));
+        assertSameIntrospectionData(TestBean.class,
+                newClassIntrospector(BeansWrapper.EXPOSE_SAFE, true, null).get(TestBean.class),
+                newClassIntrospector(BeansWrapper.EXPOSE_SAFE, true, index).get(TestBean.class));
+    }
+
+    @Test
+    public void testTemplateAccess() throws Exception {
+        BeansWrapper bw = new BeansWrapperBuilder(Configuration.VERSION_2_3_24).build();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        bw.writeClassIntrospectionIndex(CLASSES, out);
+
+        BeansWrapperBuilder bwb = new BeansWrapperBuilder(Configuration.VERSION_2_3_24);
+        ClassIntrospectionIndex index = ClassIntrospectionIndex.load(new ByteArrayInputStream(out.toByteArray()));
+        bwb.setClassIntrospectionIndex(index);
+        BeansWrapper indexedBw = bwb.build();
+        assertSame(index, indexedBw.getClassIntrospectionIndex());
+
+        Configuration cfg = new Configuration(Configuration.VERSION_2_3_24);
+        cfg.setObjectWrapper(indexedBw);
+        Template t = new Template(null,
+                "${b.name} ${b.getItems()[1]} ${b.getItems(0)} ${b.m(1)} ${b.m('s')} ${b.m(1, 2, 3)} ${b.x}", cfg);
+        StringWriter sw = new StringWriter();
+        t.process(Collections.singletonMap("b", new TestBean()), sw);
+        assertEquals("n b a int String varargs x", sw.toString());
+    }
+
+    @Test
+    public void testNotAnIndex() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        GZIPOutputStream gzOut = new GZIPOutputStream(out);
+        gzOut.write(new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 });
+        gzOut.close();
+        try {
+            load(out.toByteArray());
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("introspection index"));
+        }
+    }
+
+    private static void assertSameIntrospectionData(Class<?> c, Map<?, ?> expected, Map<?, ?> actual) {
+        assertEquals(c.getName(), expected.keySet(), actual.keySet());
+        for (Map.Entry<?, ?> ent : expected.entrySet()) {
+            Object key = ent.getKey();
+            String desc = c.getName() + "." + key;
+            Object expectedValue = ent.getValue();
+            Object actualValue = actual.get(key);
+            if (expectedValue instanceof PropertyDescriptor) {
+                assertEquals(desc, expectedValue.getClass(), actualValue.getClass());
+                assertEquals(desc,
+                        ((PropertyDescriptor) expectedValue).getReadMethod(),
+                        ((PropertyDescriptor) actualValue).getReadMethod());
+                if (expectedValue instanceof IndexedPropertyDescriptor) {
+                    assertEquals(desc,
+                            ((IndexedPropertyDescriptor) expectedValue).getIndexedReadMethod(),
+                            ((IndexedPropertyDescriptor) actualValue).getIndexedReadMethod());
+                }
+            } else if (expectedValue instanceof Method) {
+                assertEquals(desc, expectedValue, actualValue);
+            } else if (expectedValue instanceof OverloadedMethods && key instanceof String) {
+                assertTrue(desc, actualValue instanceof OverloadedMethods);
+                assertEquals(desc,
+                        ((OverloadedMethods) expectedValue).getMembers(),
+                        ((OverloadedMethods) actualValue).getMembers());
+            } else if (expectedValue instanceof Map) {
+                // Argument types and getter invokers
+                assertEquals(desc, ((Map<?, ?>) expectedValue).keySet(), ((Map<?, ?>) actualValue).keySet());
+            } else {
+                assertEquals(desc, expectedValue.getClass(), actualValue.getClass());
+            }
+        }
+    }
+
+    private static ClassIntrospector newClassIntrospector(
+            int exposureLevel, boolean useJavaBeansIntrospector, ClassIntrospectionIndex index) {
+        ClassIntrospectorBuilder builder = new ClassIntrospectorBuilder(Configuration.VERSION_2_3_24);
+        builder.setExposureLevel(exposureLevel);
+        builder.setUseJavaBeansIntrospector(useJavaBeansIntrospector);
+        builder.setClassIntrospectionIndex(index);
+        return builder.build();
+    }
+
+    private static byte[] write(ClassIntrospector ci, List<Class<?>> classes) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ClassIntrospectionIndex.write(ci, classes, out);
+        return out.toByteArray();
+    }
+
+    private static ClassIntrospectionIndex load(byte[] indexBytes) throws IOException {
+        return ClassIntrospectionIndex.load(new ByteArrayInputStream(indexBytes));
+    }
+
+    /**
+     * Loads its own copy of {@link TestBean}, and can pretend that its class file was changed afterwards.
+     */
+    private static class ChangingClassLoader extends ClassLoader {
+
+        private static final String CLASS_FILE_NAME = TestBean.class.getName().replace('.', '/') + ".class";
+
+        private boolean changed;
+
+        ChangingClassLoader() {
+            super(ClassIntrospectionIndexTest.class.getClassLoader());
+        }
+
+        @Override
+        protected synchronized Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            if (name.equals(TestBean.class.getName())) {
+                Class<?> c = findLoadedClass(name);
+                if (c == null) {
+                    try {
+                        byte[] bytes = readAll(getParent().getResourceAsStream(CLASS_FILE_NAME));
+                        c = defineClass(name, bytes, 0, bytes.length);
+                    } catch (IOException e) {
+                        throw new ClassNotFoundException(name, e);
+                    }
+                }
+                return c;
+            }
+            return super.loadClass(name, resolve);
+        }
+
+        @Override
+        public InputStream getResourceAsStream(String name) {
+            InputStream in = super.getResourceAsStream(name);
+            if (changed && name.equals(CLASS_FILE_NAME)) {
+                return new SequenceInputStream(in, new ByteArrayInputStream(new byte[] { 0 }));
+            }
+            return in;
+        }
+
+        private static byte[] readAll(InputStream in) throws IOException {
+            try {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                byte[] buffer = new byte[4096];
+                int len;
+                while ((len = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, len);
+                }
+                return out.toByteArray();
+            } finally {
+                in.close();
+            }
+        }
+
+    }
+
+    public static class TestBean {
+
+        public String getName() {
+            return "n";
+        }
+
+        public String[] getItems() {
+            return new String[] { "a", "b" };
+        }
+
+        public String getItems(int i) {
+            return getItems()[i];
+        }
+
+        public String m(int i) {
+            return "int";
+        }
+
+        public String m(String s) {
+            return "String";
+        }
+
+        public String m(int... varargs) {
+            return "varargs";
+        }
+
+        public String get(String key) {
+            return key;
+        }
+
+    }
+
+}
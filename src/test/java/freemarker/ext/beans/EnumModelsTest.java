@@ -69,6 +69,17 @@ public class EnumModelsTest {
         assertNull(eAfterClean.get("C"));
     }
     
+    @Test
+    public void nonEnumClass() throws Exception {
+        BeansWrapper bw = new BeansWrapper(Configuration.VERSION_2_3_21);
+        TemplateHashModel enums = bw.getEnumModels();
+        // The null result is cached too, but it must still come out as null:
+        assertNull(enums.get(String.class.getName()));
+        assertNull(enums.get(String.class.getName()));
+        bw.clearClassIntrospecitonCache();
+        assertNull(enums.get(String.class.getName()));
+    }
+    
     public static enum E {
         A, B;
 
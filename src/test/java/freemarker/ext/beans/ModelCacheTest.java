@@ -22,6 +22,7 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
+import freemarker.ext.util.ModelCache;
 import freemarker.template.Configuration;
 import freemarker.template.TemplateModel;
 
@@ -58,6 +59,93 @@ public class ModelCacheTest {
         assertSame(bw.wrap(c), bw.wrap(c));
     }
 
+    @Test
+    public void modelCacheConcurrentUse() throws Exception {
+        final BeansWrapper bw = new BeansWrapper(Configuration.VERSION_2_3_21);
+        bw.setUseCache(true);
+        
+        final C[] objects = new C[1000];
+        for (int i = 0; i < objects.length; i++) {
+            objects[i] = new C();
+        }
+        
+        final TemplateModel[][] results = new TemplateModel[8][objects.length];
+        Thread[] threads = new Thread[results.length];
+        final Throwable[] failure = new Throwable[1];
+        for (int t = 0; t < threads.length; t++) {
+            final TemplateModel[] threadResults = results[t];
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < objects.length; i++) {
+                            threadResults[i] = bw.wrap(objects[i]);
+                        }
+                    } catch (Throwable e) {
+                        failure[0] = e;
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertNull(failure[0]);
+        
+        for (int i = 0; i < objects.length; i++) {
+            TemplateModel cachedModel = bw.wrap(objects[i]);
+            assertSame(objects[i], ((BeanModel) cachedModel).getWrappedObject());
+            // Racing threads can create duplicates, but then the cache ends up with one of them.
+            boolean found = false;
+            for (TemplateModel[] threadResults : results) {
+                assertSame(objects[i], ((BeanModel) threadResults[i]).getWrappedObject());
+                if (threadResults[i] == cachedModel) {
+                    found = true;
+                }
+            }
+            assertTrue(found);
+            assertSame(cachedModel, bw.wrap(objects[i]));
+        }
+    }
+
+    @Test
+    public void modelCacheMaxSize() throws Exception {
+        BeansWrapper bw = new BeansWrapper(Configuration.VERSION_2_3_21);
+        bw.setUseCache(true);
+        assertEquals(ModelCache.DEFAULT_MAX_SIZE, bw.getModelCache().getMaxSize());
+        bw.getModelCache().setMaxSize(160);
+        
+        C[] objects = new C[10000];
+        TemplateModel[] models = new TemplateModel[objects.length];
+        for (int i = 0; i < objects.length; i++) {
+            objects[i] = new C();
+            models[i] = bw.wrap(objects[i]);
+        }
+        
+        // The most recently cached entry is never evicted:
+        C last = objects[objects.length - 1];
+        assertSame(models[models.length - 1], bw.wrap(last));
+        // While the earliest ones were evicted, as each stripe got about 625 entries after them:
+        for (int i = 0; i < 100; i++) {
+            TemplateModel model = bw.wrap(objects[i]);
+            assertNotSame(models[i], model);
+            assertSame(objects[i], ((BeanModel) model).getWrappedObject());
+            assertSame(model, bw.wrap(objects[i]));
+        }
+    }
+
+    @Test
+    public void modelCacheIllegalMaxSize() throws Exception {
+        BeansWrapper bw = new BeansWrapper(Configuration.VERSION_2_3_21);
+        try {
+            bw.getModelCache().setMaxSize(0);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
     static public class C { }
     
 }
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2014 Attila Szegedi, Daniel Dekany, Jonathan Revusky
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package freemarker.ext.beans;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Method;
+
+import org.junit.Test;
+
+public class OverloadedMethodsSubsetTest {
+
+    @Test
+    public void testArgTypesCacheDoesNotKeepClassesLoaded() throws Exception {
+        OverloadedMethodsSubset subset = new OverloadedFixArgsMethods(true);
+        addMethod(subset, Methods.class.getMethod("m", Object.class));
+        addMethod(subset, Methods.class.getMethod("m", String.class));
+        
+        assertMemberDescriptorForArg(subset, "s", String.class);
+        assertMemberDescriptorForArg(subset, "s", String.class);
+        assertEquals(1, subset.getArgTypesCacheSize());
+        
+        WeakReference<Class<?>> argClassRef = resolveWithThrowawayArgClass(subset);
+        assertEquals(2, subset.getArgTypesCacheSize());
+
+        for (int i = 0; i < 100 && argClassRef.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertNull("The argument class wasn't garbage collected", argClassRef.get());
+        assertEquals(1, subset.getArgTypesCacheSize());
+        
+        // The remaining entry still works:
+        assertMemberDescriptorForArg(subset, "s", String.class);
+        assertEquals(1, subset.getArgTypesCacheSize());
+    }
+
+    /**
+     * Resolves an overload for an argument whose class was loaded by a throwaway class loader, and returns a weak
+     * reference to that class. No strong reference to the class or to its class loader remains on the stack.
+     */
+    private WeakReference<Class<?>> resolveWithThrowawayArgClass(OverloadedMethodsSubset subset) throws Exception {
+        Class<?> argClass = new ThrowawayClassLoader().loadClass(Arg.class.getName());
+        assertNotSame(Arg.class, argClass);
+        Object arg = argClass.newInstance();
+        assertMemberDescriptorForArg(subset, arg, Object.class);
+        assertMemberDescriptorForArg(subset, arg, Object.class);
+        return new WeakReference<Class<?>>(argClass);
+    }
+
+    private static void addMethod(OverloadedMethodsSubset subset, Method method) {
+        subset.addCallableMemberDescriptor(new ReflectionCallableMemberDescriptor(method, method.getParameterTypes()));
+    }
+
+    private static void assertMemberDescriptorForArg(
+            OverloadedMethodsSubset subset, Object arg, Class<?> expectedParamType) {
+        MaybeEmptyCallableMemberDescriptor memberDesc = subset.getMemberDescriptorForArgs(new Object[] { arg }, false);
+        assertTrue(memberDesc instanceof ReflectionCallableMemberDescriptor);
+        Method method = (Method) ((ReflectionCallableMemberDescriptor) memberDesc).getMember();
+        assertArrayEquals(new Class[] { expectedParamType }, method.getParameterTypes());
+    }
+
+    /**
+     * Loads its own copy of {@link Arg}.
+     */
+    private static class ThrowawayClassLoader extends ClassLoader {
+
+        ThrowawayClassLoader() {
+            super(OverloadedMethodsSubsetTest.class.getClassLoader());
+        }
+
+        @Override
+        protected synchronized Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            if (name.equals(Arg.class.getName())) {
+                Class<?> c = findLoadedClass(name);
+                if (c == null) {
+                    try {
+                        byte[] bytes = readAll(getParent().getResourceAsStream(name.replace('.', '/') + ".class"));
+                        c = defineClass(name, bytes, 0, bytes.length);
+                    } catch (IOException e) {
+                        throw new ClassNotFoundException(name, e);
+                    }
+                }
+                return c;
+            }
+            return super.loadClass(name, resolve);
+        }
+
+        private static byte[] readAll(InputStream in) throws IOException {
+            try {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                byte[] buffer = new byte[4096];
+                int len;
+                while ((len = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, len);
+                }
+                return out.toByteArray();
+            } finally {
+                in.close();
+            }
+        }
+
+    }
+
+    public static class Methods {
+
+        public static String m(Object o) {
+            return "Object";
+        }
+
+        public static String m(String s) {
+            return "String";
+        }
+
+    }
+
+    public static class Arg {
+        // Only used as an argument type
+    }
+
+}
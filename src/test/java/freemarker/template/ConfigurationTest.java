@@ -26,20 +26,26 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
 import java.util.TimeZone;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.junit.Test;
 
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import freemarker.cache.CacheStorageWithGetSize;
 import freemarker.cache.FileTemplateLoader;
 import freemarker.cache.NullCacheStorage;
+import freemarker.cache.PathGlobMatcher;
 import freemarker.cache.SoftCacheStorage;
 import freemarker.cache.StringTemplateLoader;
 import freemarker.cache.StrongCacheStorage;
@@ -1571,6 +1577,90 @@ public class ConfigurationTest extends TestCase {
         }
     }
     
+    public void testPreloadTemplates() throws Exception {
+        Configuration cfg = new Configuration(Configuration.VERSION_2_3_24);
+        StringTemplateLoader loader = new StringTemplateLoader();
+        loader.putTemplate("a.ftl", "a");
+        loader.putTemplate("a_de.ftl", "a de");
+        loader.putTemplate("a_bar.ftl", "a bar");
+        loader.putTemplate("sub/b.ftl", "b");
+        loader.putTemplate("sub/b_de_DE.ftl", "b de DE");
+        loader.putTemplate("sub/c.ftl", "<#if>");
+        loader.putTemplate("d.txt", "d");
+        // "id" and "it" are ISO language codes, but these aren't localized variants for the requested locales:
+        loader.putTemplate("user.ftl", "user");
+        loader.putTemplate("user_id.ftl", "user id");
+        loader.putTemplate("menu.ftl", "menu");
+        loader.putTemplate("menu_it.ftl", "menu it");
+        cfg.setTemplateLoader(loader);
+        cfg.setLocale(Locale.US);
+        
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<TemplatePreloadResult> results = cfg.preloadTemplates(
+                    ImmutableList.of("a.ftl", "sub/c.ftl", "missing.ftl"),
+                    ImmutableList.of(Locale.US, Locale.GERMANY),
+                    executor);
+            assertEquals(6, results.size());
+            
+            TemplatePreloadResult result = results.get(0);
+            assertEquals("a.ftl", result.getName());
+            assertEquals(Locale.US, result.getLocale());
+            assertTrue(result.isSuccessful());
+            assertEquals("a", result.getTemplate().toString());
+            assertSame(result.getTemplate(), cfg.getTemplate("a.ftl"));
+            
+            result = results.get(1);
+            assertEquals(Locale.GERMANY, result.getLocale());
+            assertEquals("a de", result.getTemplate().toString());
+            assertSame(result.getTemplate(), cfg.getTemplate("a.ftl", Locale.GERMANY));
+            
+            result = results.get(2);
+            assertEquals("sub/c.ftl", result.getName());
+            assertFalse(result.isSuccessful());
+            assertNull(result.getTemplate());
+            assertThat(result.getFailure(), instanceOf(ParseException.class));
+            
+            assertThat(results.get(5).getFailure(), instanceOf(TemplateNotFoundException.class));
+            for (TemplatePreloadResult r : results) {
+                assertTrue(r.getLoadTimeNanos() >= 0);
+            }
+            
+            // Only the default locale is requested, so the "de" variants aren't found by the localized lookup:
+            Set<String> names = new HashSet<String>();
+            for (TemplatePreloadResult r : cfg.preloadTemplates(new PathGlobMatcher("**/*.ftl"), null, executor)) {
+                assertEquals(Locale.US, r.getLocale());
+                names.add(r.getName());
+            }
+            assertEquals(
+                    ImmutableSet.of("a.ftl", "a_de.ftl", "a_bar.ftl", "sub/b.ftl", "sub/b_de_DE.ftl", "sub/c.ftl",
+                            "user.ftl", "user_id.ftl", "menu.ftl", "menu_it.ftl"),
+                    names);
+            
+            names.clear();
+            for (TemplatePreloadResult r : cfg.preloadTemplates(
+                    new PathGlobMatcher("**/*.ftl"), ImmutableList.of(Locale.US, Locale.GERMANY), executor)) {
+                names.add(r.getName());
+            }
+            assertEquals(
+                    ImmutableSet.of("a.ftl", "a_bar.ftl", "sub/b.ftl", "sub/c.ftl",
+                            "user.ftl", "user_id.ftl", "menu.ftl", "menu_it.ftl"),
+                    names);
+            
+            names.clear();
+            for (TemplatePreloadResult r : cfg.preloadTemplates(
+                    new PathGlobMatcher("**/*.ftl"), ImmutableList.of(new Locale("it", "IT")), executor)) {
+                names.add(r.getName());
+            }
+            assertEquals(
+                    ImmutableSet.of("a.ftl", "a_de.ftl", "a_bar.ftl", "sub/b.ftl", "sub/b_de_DE.ftl", "sub/c.ftl",
+                            "user.ftl", "user_id.ftl", "menu.ftl"),
+                    names);
+        } finally {
+            executor.shutdown();
+        }
+    }
+    
     @SuppressWarnings("boxing")
     private void assertStartsWith(List<String> list, List<String> headList) {
         int index = 0;
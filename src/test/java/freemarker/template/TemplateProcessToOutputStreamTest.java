@@ -0,0 +1,138 @@
+/*
+ * Copyright 2014 Attila Szegedi, Daniel Dekany, Jonathan Revusky
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package freemarker.template;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.Charset;
+import java.util.Collections;
+
+import org.junit.Test;
+
+import freemarker.core._EncodingWriter;
+
+public class TemplateProcessToOutputStreamTest {
+
+    private static final String TEMPLATE_SOURCE
+            = "Static árvíztűrő 日本語 😀 "
+            + "${x} <#assign c>captured ${x}</#assign>${c} "
+            + "<#attempt>attempted ${x}<#recover>failed</#attempt> "
+            + "<#list 1..3 as i>[${i}é${x?substring(0, 1)}]</#list> endé";
+
+    private static final String X = "ö日😁!";
+
+    @Test
+    public void testCharsets() throws IOException, TemplateException {
+        for (String charsetName : new String[] {
+                "UTF-8", "ISO-8859-1", "US-ASCII", "UTF-16", "UTF-16BE", "Shift_JIS", "ISO-2022-JP" }) {
+            Charset charset = Charset.forName(charsetName);
+            Template t = new Template(null, TEMPLATE_SOURCE, new Configuration(Configuration.VERSION_2_3_24));
+            // Twice, so that the cached encoded text is used too
+            for (int i = 0; i < 2; i++) {
+                assertOutputEquals(t, charset);
+            }
+        }
+    }
+
+    @Test
+    public void testCharsetChange() throws IOException, TemplateException {
+        Template t = new Template(null, TEMPLATE_SOURCE, new Configuration(Configuration.VERSION_2_3_24));
+        assertOutputEquals(t, Charset.forName("UTF-8"));
+        assertOutputEquals(t, Charset.forName("ISO-8859-2"));
+        assertOutputEquals(t, Charset.forName("UTF-8"));
+    }
+
+    @Test
+    public void testIsPreEncodingSupported() {
+        assertTrue(_EncodingWriter.isPreEncodingSupported(Charset.forName("UTF-8")));
+        assertTrue(_EncodingWriter.isPreEncodingSupported(Charset.forName("ISO-8859-1")));
+        assertTrue(_EncodingWriter.isPreEncodingSupported(Charset.forName("UTF-16LE")));
+        assertFalse(_EncodingWriter.isPreEncodingSupported(Charset.forName("UTF-16")));
+    }
+
+    @Test
+    public void testSplitSurrogatePair() throws IOException {
+        Charset utf8 = Charset.forName("UTF-8");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        _EncodingWriter w = new _EncodingWriter(bytes, utf8);
+        w.write("a\uD83D");
+        w.write("\uDE00b");
+        w.write("c\uD83D");
+        w.close();
+        assertEquals("a😀bc?", new String(bytes.toByteArray(), utf8));
+    }
+
+    @Test
+    public void testLongOutput() throws IOException, TemplateException {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            sb.append("á");
+        }
+        String longText = sb.toString();
+        Template t = new Template(null, longText + "${x}" + longText + longText + "${x}",
+                new Configuration(Configuration.VERSION_2_3_24));
+        assertOutputEquals(t, Charset.forName("UTF-8"));
+    }
+
+    @Test
+    public void testAutoFlush() throws IOException, TemplateException {
+        Charset charset = Charset.forName("ISO-2022-JP");
+        // The output ends in a non-initial shift state, so the encoder will write bytes after Environment.process():
+        Template t = new Template(null, "a${x}", new Configuration(Configuration.VERSION_2_3_24));
+        
+        FlushTrackingOutputStream out = new FlushTrackingOutputStream();
+        t.process(Collections.singletonMap("x", "日本"), out, charset);
+        assertTrue(out.size() > 0);
+        assertEquals(out.size(), out.flushedSize);
+        
+        out = new FlushTrackingOutputStream();
+        t.setAutoFlush(false);
+        t.process(Collections.singletonMap("x", "日本"), out, charset);
+        assertTrue(out.size() > 0);
+        assertEquals(0, out.flushedSize);
+    }
+
+    private void assertOutputEquals(Template t, Charset charset) throws TemplateException, IOException {
+        StringWriter sw = new StringWriter();
+        t.process(Collections.singletonMap("x", X), sw);
+        byte[] expected = sw.toString().getBytes(charset.name());
+
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        t.process(Collections.singletonMap("x", X), actual, charset);
+
+        assertEquals(charset.name(), new String(expected, charset), new String(actual.toByteArray(), charset));
+        // Stateful charsets can have redundant state switching escapes, as the static text is encoded separately.
+        if (!charset.name().equals("ISO-2022-JP")) {
+            assertArrayEquals(charset.name(), expected, actual.toByteArray());
+        }
+    }
+
+    private static class FlushTrackingOutputStream extends ByteArrayOutputStream {
+        
+        private int flushedSize;
+
+        @Override
+        public void flush() throws IOException {
+            flushedSize = size();
+        }
+        
+    }
+
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2014 Attila Szegedi, Daniel Dekany, Jonathan Revusky
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package freemarker.template;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+
+import org.junit.Test;
+
+import freemarker.cache.StringTemplateLoader;
+import freemarker.core.TemplateElement;
+
+public class TemplateSourceRetentionPolicyTest {
+    
+    private static final String SOURCE = "<#if  true\r\n\t>a\rb${  x  }\n\t</#if>\r\n";
+
+    @Test
+    public void testKeep() throws IOException {
+        String source = getRootSource(createTemplate(Configuration.KEEP_TEMPLATE_SOURCE_RETENTION_POLICY));
+        assertTrue(source.contains("b${  x  }\n"));
+    }
+
+    @Test
+    public void testCompress() throws IOException {
+        Template t = createTemplate(Configuration.COMPRESS_TEMPLATE_SOURCE_RETENTION_POLICY);
+        assertEquals(getKeptRootSource(), getRootSource(t));
+        assertEquals("${  x  }", t.getSource(2, 3, 9, 3));
+    }
+
+    @Test
+    public void testReload() throws IOException {
+        Template t = createTemplate(Configuration.RELOAD_TEMPLATE_SOURCE_RETENTION_POLICY);
+        assertEquals(getKeptRootSource(), getRootSource(t));
+        assertEquals("${  x  }", t.getSource(2, 3, 9, 3));
+    }
+
+    @Test
+    public void testReloadChangedSource() throws IOException {
+        StringTemplateLoader tl = new StringTemplateLoader();
+        tl.putTemplate("t.ftl", SOURCE);
+        Template t = createConfiguration(Configuration.RELOAD_TEMPLATE_SOURCE_RETENTION_POLICY, tl)
+                .getTemplate("t.ftl");
+        tl.putTemplate("t.ftl", SOURCE.replace('a', 'A'));
+        assertNull(t.getSource(2, 3, 9, 3));
+        assertEquals(t.getRootTreeNode().getCanonicalForm(), getRootSource(t));
+        
+        // Once found to be changed, the source isn't reloaded anymore:
+        tl.putTemplate("t.ftl", SOURCE);
+        assertNull(t.getSource(2, 3, 9, 3));
+    }
+
+    @Test
+    public void testDrop() throws IOException {
+        Template t = createTemplate(Configuration.DROP_TEMPLATE_SOURCE_RETENTION_POLICY);
+        assertNull(t.getSource(2, 3, 9, 3));
+        assertEquals(t.getRootTreeNode().getCanonicalForm(), getRootSource(t));
+    }
+
+    @Test
+    public void testInvalidPolicy() {
+        try {
+            new Configuration(Configuration.VERSION_2_3_24).setTemplateSourceRetentionPolicy(0);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    private String getKeptRootSource() throws IOException {
+        return getRootSource(createTemplate(Configuration.KEEP_TEMPLATE_SOURCE_RETENTION_POLICY));
+    }
+
+    private String getRootSource(Template t) {
+        TemplateElement root = t.getRootTreeNode();
+        return root.getSource();
+    }
+
+    private Template createTemplate(int templateSourceRetentionPolicy) throws IOException {
+        StringTemplateLoader tl = new StringTemplateLoader();
+        tl.putTemplate("t.ftl", SOURCE);
+        return createConfiguration(templateSourceRetentionPolicy, tl).getTemplate("t.ftl");
+    }
+
+    private Configuration createConfiguration(int templateSourceRetentionPolicy, StringTemplateLoader tl) {
+        Configuration cfg = new Configuration(Configuration.VERSION_2_3_24);
+        cfg.setTemplateSourceRetentionPolicy(templateSourceRetentionPolicy);
+        cfg.setTemplateLoader(tl);
+        return cfg;
+    }
+
+}
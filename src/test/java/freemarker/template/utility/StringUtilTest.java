@@ -121,6 +121,18 @@ public class StringUtilTest {
     private void assertEsc(String s, String javaScript, String json) {
         assertEquals(javaScript, StringUtil.jsStringEnc(s, false));
         assertEquals(json, StringUtil.jsStringEnc(s, true));
+        assertEquals(javaScript, jsStringEncToWriter(s, false));
+        assertEquals(json, jsStringEncToWriter(s, true));
+    }
+
+    private String jsStringEncToWriter(String s, boolean json) {
+        StringWriter sw = new StringWriter();
+        try {
+            StringUtil.jsStringEnc(s, json, sw);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return sw.toString();
     }
 
     private void assertFTLEsc(String s, String partAny, String partQuot, String partApos, String quoted) {
@@ -357,6 +369,28 @@ public class StringUtilTest {
         assertEquals(expected, sw.toString());
     }
 
+    @Test
+    public void testXMLEncNA() throws IOException {
+        String s = "";
+        assertSame(s, StringUtil.XMLEncNA(s));
+        
+        s = "asd";
+        assertSame(s, StringUtil.XMLEncNA(s));
+        
+        testXMLEncNA("a&amp;b&lt;c&gt;d&quot;e'f", "a&b<c>d\"e'f");
+        testXMLEncNA("&lt;", "<");
+        testXMLEncNA("&lt;a&gt;", "<a>");
+        testXMLEncNA("a&lt;&gt;b", "a<>b");
+    }
+    
+    private void testXMLEncNA(String expected, String in) throws IOException {
+        assertEquals(expected, StringUtil.XMLEncNA(in));
+        
+        StringWriter sw = new StringWriter();
+        StringUtil.XMLEncNA(in, sw);
+        assertEquals(expected, sw.toString());
+    }
+
     @Test
     public void testXMLEncQAttr() throws IOException {
         String s = "";
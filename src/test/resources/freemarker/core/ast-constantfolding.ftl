@@ -0,0 +1,9 @@
+<#if false>a</#if>
+<#if true>b${x}</#if>
+<#if 1 + 1 == 2 && 'ab'?length == 2>c</#if>
+<#if false>d<#elseif x>e<#elseif false>f<#elseif true>g<#else>h</#if>
+<#if false>i<#elseif false>j<#else>k</#if>
+<#if y>
+  <#if !true>l</#if>
+</#if>
+${'a' + 1 * 2}${' m '?trim}${'n'?upper_case}${[1, 2]?size}
@@ -1,8 +1,8 @@
-<#if true>
-    <#if true>
+<#if c>
+    <#if c>
     </#if>
-    <#if true>
+    <#if c>
         text
     </#if>
-    <#if true>${x}</#if>
+    <#if c>${x}</#if>
 </#if>
\ No newline at end of file